@@ -0,0 +1,62 @@
+package com.vladmihalcea.book.hpjp.hibernate.cache;
+
+import com.vladmihalcea.book.hpjp.hibernate.cache.HydratedStateBenchmarkTest.Post;
+import com.vladmihalcea.book.hpjp.util.AbstractBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.util.Properties;
+
+/**
+ * JMH port of {@link HydratedStateBenchmarkTest}.
+ *
+ * @author Vlad Mihalcea
+ */
+public class HydratedStateBenchmark extends AbstractBenchmark {
+
+    @Param({"100", "500", "1000", "5000"})
+    private int entityCount;
+
+    @Param({"100"})
+    private int batchSize;
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            Post.class
+        };
+    }
+
+    @Override
+    protected Properties properties() {
+        Properties properties = super.properties();
+        properties.put("hibernate.cache.use_second_level_cache", Boolean.TRUE.toString());
+        properties.put("hibernate.cache.region.factory_class", "ehcache");
+
+        properties.put("hibernate.jdbc.batch_size", String.valueOf(batchSize));
+        properties.put("hibernate.order_inserts", "true");
+        return properties;
+    }
+
+    @Override
+    protected void afterInit() {
+        doInJPA(entityManager -> {
+            for (long i = 0; i < entityCount; i++) {
+                Post post = new Post();
+                post.setId(i);
+                post.setTitle("High-Performance Java Persistence");
+                entityManager.persist(post);
+            }
+        });
+    }
+
+    @Benchmark
+    public void readOnlyFetch(Blackhole blackhole) {
+        doInJPA(entityManager -> {
+            for (long i = 0; i < entityCount; i++) {
+                blackhole.consume(entityManager.find(Post.class, i));
+            }
+        });
+    }
+}
@@ -0,0 +1,109 @@
+package com.vladmihalcea.book.hpjp.hibernate.fetching;
+
+import com.vladmihalcea.book.hpjp.hibernate.fetching.PartitionedTableScannerTest.Post;
+import com.vladmihalcea.book.hpjp.util.AbstractBenchmark;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.SessionFactory;
+import org.hibernate.StatelessSession;
+import org.openjdk.jmh.annotations.*;
+import org.openjdk.jmh.infra.Blackhole;
+
+import java.sql.PreparedStatement;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Stream;
+
+/**
+ * Scans the whole {@code post} table, either through a single {@link ScrollableResults},
+ * or with the {@link PartitionedTableScanner} using a {@link ForkJoinPool} of the given parallelism,
+ * and measures how many full table scans per second are done as the number of cores grows.
+ *
+ * @author Vlad Mihalcea
+ */
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class PartitionedTableScannerBenchmark extends AbstractBenchmark {
+
+    public enum Strategy {
+        SCROLLABLE_RESULTS,
+        PARTITIONED
+    }
+
+    @Param({"SCROLLABLE_RESULTS", "PARTITIONED"})
+    private Strategy strategy;
+
+    @Param({"1", "2", "4", "8"})
+    private int parallelism;
+
+    @Param({"100000"})
+    private int rowCount;
+
+    @Param({"1000"})
+    private int fetchSize;
+
+    private ForkJoinPool forkJoinPool;
+
+    private PartitionedTableScanner scanner;
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[]{
+            Post.class
+        };
+    }
+
+    @Override
+    protected void afterInit() {
+        doInJDBC(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "insert into post (id, title) values (?, ?)")) {
+                for (long id = 1; id <= rowCount; id++) {
+                    statement.setLong(1, id);
+                    statement.setString(2, String.format("High-Performance Java Persistence, part %d", id));
+                    statement.addBatch();
+                    if (id % 1000 == 0) {
+                        statement.executeBatch();
+                    }
+                }
+                if (rowCount % 1000 != 0) {
+                    statement.executeBatch();
+                }
+            }
+        });
+        forkJoinPool = new ForkJoinPool(parallelism);
+        scanner = new PartitionedTableScanner(entityManagerFactory())
+            .forkJoinPool(forkJoinPool)
+            .fetchSize(fetchSize);
+    }
+
+    @TearDown(Level.Trial)
+    public void shutdownPool() {
+        forkJoinPool.shutdown();
+    }
+
+    @Benchmark
+    public long scan(Blackhole blackhole) {
+        long count = 0;
+        if (strategy == Strategy.PARTITIONED) {
+            try (Stream<Post> posts = scanner.stream(Post.class)) {
+                count = posts.peek(blackhole::consume).count();
+            }
+        } else {
+            try (StatelessSession session = entityManagerFactory().unwrap(SessionFactory.class).openStatelessSession();
+                 ScrollableResults results = session
+                     .createQuery("select p from Post p")
+                     .setFetchSize(fetchSize)
+                     .setReadOnly(true)
+                     .scroll(ScrollMode.FORWARD_ONLY)) {
+                while (results.next()) {
+                    blackhole.consume(results.get(0));
+                    count++;
+                }
+            }
+        }
+        return count;
+    }
+}
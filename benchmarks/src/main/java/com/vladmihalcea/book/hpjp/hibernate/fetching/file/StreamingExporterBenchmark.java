@@ -0,0 +1,174 @@
+package com.vladmihalcea.book.hpjp.hibernate.fetching.file;
+
+import com.vladmihalcea.book.hpjp.util.AbstractBenchmark;
+import com.vladmihalcea.book.hpjp.util.providers.entity.BlogEntityProvider;
+import org.hibernate.Session;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.BufferedWriter;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.io.Writer;
+import java.nio.ByteBuffer;
+import java.nio.channels.Channels;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.StandardCharsets;
+import java.sql.PreparedStatement;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Exports the {@code post} and {@code post_comment} join rows with the {@link StreamingExporter},
+ * through a {@code ScrollableResults} or a JDBC {@code ResultSet}, and compares it with fetching
+ * all rows with {@code getResultList()} and writing them with a {@link BufferedWriter}.
+ * The rows are written to a channel which discards them, so only the fetching and encoding are measured.
+ *
+ * @author Vlad Mihalcea
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+public class StreamingExporterBenchmark extends AbstractBenchmark {
+
+    public enum Strategy {
+        SCROLLABLE_RESULTS,
+        RESULT_SET,
+        RESULT_LIST
+    }
+
+    private static final String[] COLUMNS = {"post_id", "post_title", "comment_id", "comment_review"};
+
+    private static final String HQL =
+        "select p.id, p.title, pc.id, pc.review " +
+        "from PostComment pc " +
+        "join pc.post p " +
+        "order by pc.id";
+
+    private static final String SQL =
+        "SELECT p.id AS post_id, p.title AS post_title, pc.id AS comment_id, pc.review AS comment_review " +
+        "FROM post_comment pc " +
+        "JOIN post p ON p.id = pc.post_id " +
+        "ORDER BY pc.id";
+
+    @Param({"SCROLLABLE_RESULTS", "RESULT_SET", "RESULT_LIST"})
+    private Strategy strategy;
+
+    @Param({"CSV", "NDJSON"})
+    private ExportFormat format;
+
+    @Param({"1000000"})
+    private int rowCount;
+
+    @Param({"1000"})
+    private int fetchSize;
+
+    private final int commentsPerPost = 10;
+
+    @Override
+    protected Class<?>[] entities() {
+        return BlogEntityProvider.INSTANCE.entities();
+    }
+
+    @Override
+    protected void afterInit() {
+        doInJDBC(connection -> {
+            int postCount = rowCount / commentsPerPost;
+            try (PreparedStatement postStatement = connection.prepareStatement(
+                    "insert into post (id, title, version) values (?, ?, 0)");
+                 PreparedStatement commentStatement = connection.prepareStatement(
+                    "insert into post_comment (id, post_id, review, version) values (?, ?, ?, 0)")) {
+                long commentId = 0;
+                for (long postId = 1; postId <= postCount; postId++) {
+                    postStatement.setLong(1, postId);
+                    postStatement.setString(2, String.format("High-Performance Java Persistence, part %d", postId));
+                    postStatement.addBatch();
+                    for (int i = 0; i < commentsPerPost; i++) {
+                        commentStatement.setLong(1, ++commentId);
+                        commentStatement.setLong(2, postId);
+                        commentStatement.setString(3, String.format("Comment nr. %d, \"great\" read", commentId));
+                        commentStatement.addBatch();
+                    }
+                    if (postId % 1000 == 0) {
+                        postStatement.executeBatch();
+                        commentStatement.executeBatch();
+                    }
+                }
+                if (postCount % 1000 != 0) {
+                    postStatement.executeBatch();
+                    commentStatement.executeBatch();
+                }
+            }
+        });
+    }
+
+    @Benchmark
+    public long export() {
+        WritableByteChannel channel = new DiscardingChannel();
+        switch (strategy) {
+            case SCROLLABLE_RESULTS:
+                return doInJPA(entityManager -> {
+                    Session session = entityManager.unwrap(Session.class);
+                    try {
+                        return new StreamingExporter(format)
+                            .fetchSize(fetchSize)
+                            .export(session, session.createQuery(HQL), COLUMNS, channel);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            case RESULT_SET:
+                return doInJDBC(connection -> {
+                    try {
+                        return new StreamingExporter(format)
+                            .fetchSize(fetchSize)
+                            .export(connection, SQL, channel);
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                });
+            default:
+                return doInJPA(entityManager -> {
+                    List<Object[]> rows = entityManager.createQuery(HQL, Object[].class).getResultList();
+                    try (Writer writer = new BufferedWriter(Channels.newWriter(channel, StandardCharsets.UTF_8.newEncoder(), -1))) {
+                        StringBuilder header = new StringBuilder();
+                        format.header(header, COLUMNS);
+                        writer.write(header.toString());
+                        for (Object[] row : rows) {
+                            StringBuilder line = new StringBuilder();
+                            format.row(line, COLUMNS, row);
+                            writer.write(line.toString());
+                        }
+                    } catch (IOException e) {
+                        throw new UncheckedIOException(e);
+                    }
+                    return (long) rows.size();
+                });
+        }
+    }
+
+    public static class DiscardingChannel implements WritableByteChannel {
+
+        private long byteCount;
+
+        @Override
+        public int write(ByteBuffer source) {
+            int remaining = source.remaining();
+            source.position(source.limit());
+            byteCount += remaining;
+            return remaining;
+        }
+
+        public long getByteCount() {
+            return byteCount;
+        }
+
+        @Override
+        public boolean isOpen() {
+            return true;
+        }
+
+        @Override
+        public void close() {
+        }
+    }
+}
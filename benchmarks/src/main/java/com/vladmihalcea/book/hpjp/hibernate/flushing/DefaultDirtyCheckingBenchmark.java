@@ -0,0 +1,147 @@
+package com.vladmihalcea.book.hpjp.hibernate.flushing;
+
+import com.vladmihalcea.book.hpjp.hibernate.flushing.DefaultDirtyCheckingPerformanceTest.Post;
+import com.vladmihalcea.book.hpjp.hibernate.flushing.DefaultDirtyCheckingPerformanceTest.PostComment;
+import com.vladmihalcea.book.hpjp.hibernate.flushing.DefaultDirtyCheckingPerformanceTest.PostDetails;
+import com.vladmihalcea.book.hpjp.hibernate.flushing.DefaultDirtyCheckingPerformanceTest.Tag;
+import com.vladmihalcea.book.hpjp.util.AbstractBenchmark;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.Date;
+import java.util.List;
+import java.util.Properties;
+import java.util.stream.Collectors;
+
+/**
+ * JMH port of {@link DefaultDirtyCheckingPerformanceTest}.
+ *
+ * @author Vlad Mihalcea
+ */
+public class DefaultDirtyCheckingBenchmark extends AbstractBenchmark {
+
+    @Param({"5", "10", "20", "50", "100"})
+    private int entityCount;
+
+    @Param({"50"})
+    private int batchSize;
+
+    private List<Long> postIds = new ArrayList<>();
+
+    private EntityManager entityManager;
+
+    private List<Post> posts;
+
+    private int iteration;
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            Post.class,
+            PostDetails.class,
+            PostComment.class,
+            Tag.class
+        };
+    }
+
+    @Override
+    protected Properties properties() {
+        Properties properties = super.properties();
+        properties.put("hibernate.order_inserts", "true");
+        properties.put("hibernate.order_updates", "true");
+        properties.put("hibernate.jdbc.batch_size", String.valueOf(batchSize));
+        return properties;
+    }
+
+    @Override
+    protected void afterInit() {
+        doInJPA(entityManager -> {
+            for (int i = 0; i < entityCount; i++) {
+                Post post = new Post("JPA with Hibernate");
+                post.setId(i * 10L);
+
+                PostDetails details = new PostDetails();
+                details.setCreatedOn(new Date());
+                details.setCreatedBy("Vlad");
+                post.addDetails(details);
+
+                Tag tag1 = new Tag();
+                tag1.setId(i * 10L);
+                tag1.setName("Java");
+                Tag tag2 = new Tag();
+                tag2.setId(i * 10L + 1);
+                tag2.setName("Hibernate");
+
+                entityManager.persist(post);
+
+                entityManager.persist(tag1);
+                entityManager.persist(tag2);
+
+                post.getTags().add(tag1);
+                post.getTags().add(tag2);
+
+                PostComment comment1 = new PostComment();
+                comment1.setId(i * 10L);
+                comment1.setReview("Good");
+
+                PostComment comment2 = new PostComment();
+                comment2.setId(i * 10L + 1);
+                comment2.setReview("Excellent");
+
+                post.addComment(comment1);
+                post.addComment(comment2);
+
+                entityManager.flush();
+                postIds.add(post.getId());
+            }
+        });
+
+        entityManager = entityManagerFactory().createEntityManager();
+        entityManager.getTransaction().begin();
+        posts = posts(entityManager);
+    }
+
+    @Override
+    public void tearDown() {
+        entityManager.getTransaction().rollback();
+        entityManager.close();
+        super.tearDown();
+    }
+
+    @Benchmark
+    public List<Post> flushDirtyEntities() {
+        int i = iteration++;
+        for (Post post : posts) {
+            modifyEntities(post, i);
+        }
+        entityManager.flush();
+        return posts;
+    }
+
+    private List<Post> posts(EntityManager entityManager) {
+        return entityManager.createQuery(
+            "select distinct pc " +
+            "from PostComment pc " +
+            "join fetch pc.post p " +
+            "join fetch p.tags " +
+            "join fetch p.details " +
+            "where p.id in :ids", PostComment.class)
+        .setParameter("ids", postIds)
+        .getResultList()
+        .stream()
+        .map(PostComment::getPost)
+        .distinct()
+        .collect(Collectors.toList());
+    }
+
+    private void modifyEntities(Post post, int i) {
+        String value = String.valueOf(i);
+        post.setTitle(value);
+        post.getTags().get(0).setName(value);
+        post.getTags().get(1).setName(value);
+        post.getDetails().setCreatedBy(value);
+        post.getDetails().setCreatedOn(new Date(i));
+        post.getComments().get(0).setReview(value);
+    }
+}
@@ -0,0 +1,123 @@
+package com.vladmihalcea.book.hpjp.hibernate.identifier;
+
+import com.vladmihalcea.book.hpjp.util.AbstractBenchmark;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+import javax.persistence.*;
+import java.util.Properties;
+import java.util.function.Supplier;
+
+/**
+ * Inserts a batch of entities whose {@link String} identifiers are generated by the
+ * {@link StringSequenceIdentifier}, using the HSQLDB sequences. The {@code NONE} optimizer
+ * calls the sequence for every entity, like the generator used to do prior to
+ * supporting the {@code increment_size} parameter.
+ *
+ * @author Vlad Mihalcea
+ */
+public class StringSequenceIdentifierBenchmark extends AbstractBenchmark {
+
+    public enum Optimizer {
+        NONE(NonePost::new),
+        POOLED(PooledPost::new),
+        POOLED_LO(PooledLoPost::new);
+
+        private final Supplier<Object> entityFactory;
+
+        Optimizer(Supplier<Object> entityFactory) {
+            this.entityFactory = entityFactory;
+        }
+
+        public Object newEntity() {
+            return entityFactory.get();
+        }
+    }
+
+    @Param({"NONE", "POOLED", "POOLED_LO"})
+    private Optimizer optimizer;
+
+    @Param({"100"})
+    private int batchSize;
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            NonePost.class,
+            PooledPost.class,
+            PooledLoPost.class,
+        };
+    }
+
+    @Override
+    protected Properties properties() {
+        Properties properties = super.properties();
+        properties.put("hibernate.jdbc.batch_size", String.valueOf(batchSize));
+        return properties;
+    }
+
+    @Benchmark
+    public void insertBatch() {
+        doInJPA(entityManager -> {
+            for (int i = 0; i < batchSize; i++) {
+                entityManager.persist(optimizer.newEntity());
+            }
+        });
+    }
+
+    @Entity(name = "NonePost")
+    @Table(name = "none_post")
+    public static class NonePost {
+
+        @Id
+        @GenericGenerator(
+            name = "none-string-sequence",
+            strategy = "com.vladmihalcea.book.hpjp.hibernate.identifier.StringSequenceIdentifier",
+            parameters = {
+                @Parameter(name = "sequence_name", value = "none_sequence"),
+                @Parameter(name = "increment_size", value = "1"),
+                @Parameter(name = "optimizer", value = "none"),
+            }
+        )
+        @GeneratedValue(generator = "none-string-sequence", strategy = GenerationType.SEQUENCE)
+        private String id;
+    }
+
+    @Entity(name = "PooledPost")
+    @Table(name = "pooled_post")
+    public static class PooledPost {
+
+        @Id
+        @GenericGenerator(
+            name = "pooled-string-sequence",
+            strategy = "com.vladmihalcea.book.hpjp.hibernate.identifier.StringSequenceIdentifier",
+            parameters = {
+                @Parameter(name = "sequence_name", value = "pooled_sequence"),
+                @Parameter(name = "increment_size", value = "50"),
+                @Parameter(name = "optimizer", value = "pooled"),
+            }
+        )
+        @GeneratedValue(generator = "pooled-string-sequence", strategy = GenerationType.SEQUENCE)
+        private String id;
+    }
+
+    @Entity(name = "PooledLoPost")
+    @Table(name = "pooled_lo_post")
+    public static class PooledLoPost {
+
+        @Id
+        @GenericGenerator(
+            name = "pooled-lo-string-sequence",
+            strategy = "com.vladmihalcea.book.hpjp.hibernate.identifier.StringSequenceIdentifier",
+            parameters = {
+                @Parameter(name = "sequence_name", value = "pooled_lo_sequence"),
+                @Parameter(name = "increment_size", value = "50"),
+                @Parameter(name = "optimizer", value = "pooled-lo"),
+            }
+        )
+        @GeneratedValue(generator = "pooled-lo-string-sequence", strategy = GenerationType.SEQUENCE)
+        private String id;
+    }
+}
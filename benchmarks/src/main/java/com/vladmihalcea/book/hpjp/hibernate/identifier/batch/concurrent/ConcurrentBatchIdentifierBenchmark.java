@@ -0,0 +1,113 @@
+package com.vladmihalcea.book.hpjp.hibernate.identifier.batch.concurrent;
+
+import com.vladmihalcea.book.hpjp.hibernate.identifier.batch.concurrent.providers.IdentityPostEntityProvider;
+import com.vladmihalcea.book.hpjp.hibernate.identifier.batch.concurrent.providers.PostEntityProvider;
+import com.vladmihalcea.book.hpjp.hibernate.identifier.batch.concurrent.providers.SequencePostEntityProvider;
+import com.vladmihalcea.book.hpjp.hibernate.identifier.batch.concurrent.providers.StripedSequencePostEntityProvider;
+import com.vladmihalcea.book.hpjp.hibernate.identifier.batch.concurrent.providers.TablePostEntityProvider;
+import com.vladmihalcea.book.hpjp.util.AbstractBenchmark;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.Param;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.*;
+import java.util.function.Supplier;
+
+/**
+ * JMH port of {@link ConcurrentBatchIdentifierTest} running against HSQLDB.
+ * Each invocation makes every worker thread insert one batch of entities,
+ * so the score divided by {@code threadCount * batchSize} gives the time per insert.
+ * The {@code STRIPED_SEQUENCE} generator is the {@link com.vladmihalcea.book.hpjp.hibernate.identifier.batch.StripedSequenceGenerator}.
+ *
+ * @author Vlad Mihalcea
+ */
+public class ConcurrentBatchIdentifierBenchmark extends AbstractBenchmark {
+
+    public enum Generator {
+        IDENTITY(IdentityPostEntityProvider::new),
+        SEQUENCE(SequencePostEntityProvider::new),
+        STRIPED_SEQUENCE(StripedSequencePostEntityProvider::new),
+        TABLE(TablePostEntityProvider::new);
+
+        private final Supplier<PostEntityProvider> entityProvider;
+
+        Generator(Supplier<PostEntityProvider> entityProvider) {
+            this.entityProvider = entityProvider;
+        }
+
+        public PostEntityProvider entityProvider() {
+            return entityProvider.get();
+        }
+    }
+
+    @Param({"TABLE", "SEQUENCE", "STRIPED_SEQUENCE", "IDENTITY"})
+    private Generator generator;
+
+    @Param({"1", "2", "4", "8", "16", "32", "64"})
+    private int threadCount;
+
+    @Param({"100"})
+    private int batchSize;
+
+    private PostEntityProvider entityProvider;
+
+    private ExecutorService workerExecutorService;
+
+    private List<Callable<Boolean>> workers;
+
+    @Override
+    public void setUp() {
+        entityProvider = generator.entityProvider();
+        super.setUp();
+    }
+
+    @Override
+    protected void afterInit() {
+        workerExecutorService = Executors.newFixedThreadPool(threadCount);
+        workers = new ArrayList<>(threadCount);
+        for (int i = 0; i < threadCount; i++) {
+            workers.add(() -> {
+                doInJPA(entityManager -> {
+                    for (int j = 0; j < batchSize; j++) {
+                        entityManager.persist(entityProvider.newPost());
+                    }
+                });
+                return true;
+            });
+        }
+    }
+
+    @Override
+    public void tearDown() {
+        workerExecutorService.shutdownNow();
+        super.tearDown();
+    }
+
+    @Benchmark
+    public void insertBatch() throws InterruptedException, ExecutionException {
+        for (Future<Boolean> future : workerExecutorService.invokeAll(workers)) {
+            future.get();
+        }
+    }
+
+    @Override
+    protected Class<?>[] entities() {
+        return entityProvider.entities();
+    }
+
+    @Override
+    protected Properties properties() {
+        Properties properties = super.properties();
+        properties.put("hibernate.order_inserts", "true");
+        properties.put("hibernate.order_updates", "true");
+        properties.put("hibernate.jdbc.batch_size", String.valueOf(batchSize));
+        return properties;
+    }
+
+    @Override
+    protected boolean connectionPooling() {
+        return true;
+    }
+}
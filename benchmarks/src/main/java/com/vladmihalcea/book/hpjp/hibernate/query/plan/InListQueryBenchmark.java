@@ -0,0 +1,98 @@
+package com.vladmihalcea.book.hpjp.hibernate.query.plan;
+
+import com.vladmihalcea.book.hpjp.util.AbstractBenchmark;
+import com.vladmihalcea.book.hpjp.util.providers.entity.BlogEntityProvider;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import java.sql.PreparedStatement;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Runs the same {@code where p.id in :ids} entity query with an increasing number of identifiers,
+ * and compares the padded IN-list expansion with the single array bind parameter
+ * the {@link InListQueryRewriter} switches to.
+ *
+ * @author Vlad Mihalcea
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 3)
+@Measurement(iterations = 5)
+public class InListQueryBenchmark extends AbstractBenchmark {
+
+    public static final String SELECT_POST_TITLES = "select p.title from Post p where p.id in :ids";
+
+    public enum Mode {
+        PADDING(Integer.MAX_VALUE),
+        ARRAY(0);
+
+        private final int threshold;
+
+        Mode(int threshold) {
+            this.threshold = threshold;
+        }
+    }
+
+    @Param({"PADDING", "ARRAY"})
+    private Mode mode;
+
+    @Param({"10", "100", "1000", "10000", "100000"})
+    private int idCount;
+
+    private InListQueryRewriter rewriter;
+
+    private List<Long> ids;
+
+    private EntityManager entityManager;
+
+    @Override
+    protected Class<?>[] entities() {
+        return BlogEntityProvider.INSTANCE.entities();
+    }
+
+    @Override
+    protected void additionalProperties(Properties properties) {
+        properties.put("hibernate.query.in_clause_parameter_padding", "true");
+        properties.put("hibernate.metadata_builder_contributor", InListQueryRewriter.FunctionContributor.class);
+    }
+
+    @Override
+    protected void afterInit() {
+        doInJDBC(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "insert into post (title, version, id) values (?, ?, ?)")) {
+                for (int i = 1; i <= idCount; i++) {
+                    statement.setString(1, String.format("Post no. %1$d", i));
+                    statement.setInt(2, 0);
+                    statement.setLong(3, i);
+                    statement.addBatch();
+                    if (i % 1000 == 0) {
+                        statement.executeBatch();
+                    }
+                }
+                if (idCount % 1000 != 0) {
+                    statement.executeBatch();
+                }
+            }
+        });
+        rewriter = new InListQueryRewriter(mode.threshold);
+        ids = InListQueryRewriterTest.ids(idCount);
+        Collections.shuffle(ids);
+        entityManager = entityManagerFactory().createEntityManager();
+    }
+
+    @Override
+    public void tearDown() {
+        entityManager.close();
+        super.tearDown();
+    }
+
+    @Benchmark
+    public List<String> findPostTitles() {
+        return rewriter.createQuery(entityManager, SELECT_POST_TITLES, String.class, "ids", ids)
+            .getResultList();
+    }
+}
@@ -0,0 +1,84 @@
+package com.vladmihalcea.book.hpjp.hibernate.query.plan;
+
+import com.vladmihalcea.book.hpjp.util.AbstractBenchmark;
+import com.vladmihalcea.book.hpjp.util.providers.entity.BlogEntityProvider;
+import org.hibernate.cfg.AvailableSettings;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Creates entity queries from a skewed mix, where the hot queries, chosen with a Zipf-like distribution,
+ * are interleaved with one-off queries using inlined literals, and compares the default Hibernate
+ * query plan cache with the {@link CostAwareQueryPlanCache} of the same size.
+ * Creating the query is enough to get its plan, so the queries are not executed.
+ *
+ * @author Vlad Mihalcea
+ */
+public class QueryPlanCacheBenchmark extends AbstractBenchmark {
+
+    public enum Cache {
+        HIBERNATE,
+        COST_AWARE
+    }
+
+    @Param({"HIBERNATE", "COST_AWARE"})
+    private Cache cache;
+
+    @Param({"64"})
+    private int planCacheMaxSize;
+
+    @Param({"48"})
+    private int hotQueryCount;
+
+    @Param({"0.2"})
+    private double oneOffQueryRatio;
+
+    private final Random random = new Random(0);
+
+    private List<String> hotQueries;
+
+    private EntityManager entityManager;
+
+    private long literal;
+
+    @Override
+    protected Class<?>[] entities() {
+        return BlogEntityProvider.INSTANCE.entities();
+    }
+
+    @Override
+    protected void additionalProperties(Properties properties) {
+        properties.put(AvailableSettings.QUERY_PLAN_CACHE_MAX_SIZE, planCacheMaxSize);
+    }
+
+    @Override
+    protected void afterInit() {
+        if (cache == Cache.COST_AWARE) {
+            CostAwareQueryPlanCache.install(entityManagerFactory(), planCacheMaxSize);
+        }
+        hotQueries = CostAwareQueryPlanCacheTest.hotQueries(hotQueryCount);
+        entityManager = entityManagerFactory().createEntityManager();
+    }
+
+    @Override
+    public void tearDown() {
+        entityManager.close();
+        super.tearDown();
+    }
+
+    @Benchmark
+    public Object createQuery() {
+        String query;
+        if (random.nextDouble() < oneOffQueryRatio) {
+            query = "select p from Post p where p.id = " + (++literal);
+        } else {
+            double x = random.nextDouble();
+            query = hotQueries.get((int) (hotQueries.size() * x * x * x));
+        }
+        return entityManager.createQuery(query);
+    }
+}
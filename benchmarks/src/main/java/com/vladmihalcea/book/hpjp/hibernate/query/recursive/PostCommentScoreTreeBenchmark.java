@@ -0,0 +1,171 @@
+package com.vladmihalcea.book.hpjp.hibernate.query.recursive;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.*;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+import java.util.stream.Collectors;
+
+/**
+ * Assembles the comment tree and selects the top-ranked roots from the same projection rows,
+ * using the data shape of the {@code AbstractPostCommentScorePerformanceTest}, where every root comment
+ * has {@code commentCount / 2} replies and every reply has {@code commentCount / 4} replies.
+ * The {@link PostCommentScore} projections are created for every invocation, like the query would do.
+ *
+ * @author Vlad Mihalcea
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1024m", "-Xmx1024m"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class PostCommentScoreTreeBenchmark {
+
+    public enum Assembly {
+        RESULT_TRANSFORMER,
+        FETCH_PROJECTION,
+        GROUPING_BY,
+        STREAM,
+        TREE_ASSEMBLER
+    }
+
+    @Param({"RESULT_TRANSFORMER", "FETCH_PROJECTION", "GROUPING_BY", "STREAM", "TREE_ASSEMBLER"})
+    private Assembly assembly;
+
+    @Param({"4", "8", "16", "24", "32", "48", "64"})
+    private int commentCount;
+
+    @Param({"3"})
+    private int rank;
+
+    private final List<Object[]> rows = new ArrayList<>();
+
+    @Setup
+    public void setUp() {
+        Random random = new Random(0);
+        Date createdOn = new Date();
+        long id = 0;
+        for (int i = 0; i < commentCount; i++) {
+            long rootId = ++id;
+            rows.add(new Object[] {rootId, null, String.format("Comment %d", i), createdOn, 10 + random.nextInt(2)});
+            for (int j = 0; j < commentCount / 2; j++) {
+                long childId = ++id;
+                rows.add(new Object[] {childId, rootId, String.format("Comment %d-%d", i, j), createdOn, 10 + random.nextInt(2)});
+                for (int k = 0; k < commentCount / 4; k++) {
+                    rows.add(new Object[] {++id, childId, String.format("Comment %d-%d-%d", i, j, k), createdOn, 10 + random.nextInt(2)});
+                }
+            }
+        }
+    }
+
+    @Benchmark
+    public List<PostCommentScore> topRoots() {
+        switch (assembly) {
+            case RESULT_TRANSFORMER:
+                return resultTransformer();
+            case FETCH_PROJECTION:
+                return fetchProjection(postCommentScores());
+            case GROUPING_BY:
+                return groupingBy(postCommentScores());
+            case STREAM:
+                return stream(postCommentScores());
+            case TREE_ASSEMBLER:
+                return treeAssembler();
+        }
+        throw new IllegalStateException("Unsupported assembly: " + assembly);
+    }
+
+    private List<PostCommentScore> postCommentScores() {
+        List<PostCommentScore> postCommentScores = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            postCommentScores.add(postCommentScore(row));
+        }
+        return postCommentScores;
+    }
+
+    private PostCommentScore postCommentScore(Object[] row) {
+        return new PostCommentScore((Number) row[0], (Number) row[1], (String) row[2], (Date) row[3], (Number) row[4]);
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<PostCommentScore> resultTransformer() {
+        PostCommentScoreResultTransformer resultTransformer = new PostCommentScoreResultTransformer();
+        List<PostCommentScore> postCommentScores = new ArrayList<>(rows.size());
+        for (Object[] row : rows) {
+            postCommentScores.add(
+                (PostCommentScore) resultTransformer.transformTuple(new Object[] {postCommentScore(row)}, null)
+            );
+        }
+        return limit(new ArrayList<>(resultTransformer.transformList(postCommentScores)));
+    }
+
+    private List<PostCommentScore> fetchProjection(List<PostCommentScore> postCommentScores) {
+        Map<Long, PostCommentScore> postCommentScoreMap = new HashMap<>();
+        for (PostCommentScore postCommentScore : postCommentScores) {
+            Long id = postCommentScore.getId();
+            if (!postCommentScoreMap.containsKey(id)) {
+                postCommentScoreMap.put(id, postCommentScore);
+            }
+        }
+        List<PostCommentScore> roots = new ArrayList<>();
+        for (PostCommentScore postCommentScore : postCommentScores) {
+            Long parentId = postCommentScore.getParentId();
+            if (parentId == null) {
+                roots.add(postCommentScore);
+            } else {
+                postCommentScoreMap.get(parentId).addChild(postCommentScore);
+            }
+        }
+        return limit(roots);
+    }
+
+    private List<PostCommentScore> groupingBy(List<PostCommentScore> postCommentScores) {
+        Map<Long, List<PostCommentScore>> postCommentScoreMap = postCommentScores
+            .stream()
+            .collect(Collectors.groupingBy(PostCommentScore::getId));
+        List<PostCommentScore> roots = new ArrayList<>();
+        for (PostCommentScore postCommentScore : postCommentScores) {
+            Long parentId = postCommentScore.getParentId();
+            if (parentId == null) {
+                roots.add(postCommentScore);
+            } else {
+                postCommentScoreMap.get(parentId).get(0).addChild(postCommentScore);
+            }
+        }
+        return limit(roots);
+    }
+
+    private List<PostCommentScore> stream(List<PostCommentScore> postCommentScores) {
+        Map<Long, PostCommentScore> postCommentScoreMap = postCommentScores
+            .stream()
+            .collect(Collectors.toMap(PostCommentScore::getId, Function.identity()));
+        return postCommentScores
+            .stream()
+            .filter(pcs -> {
+                boolean isRoot = pcs.getParentId() == null;
+                if (!isRoot) {
+                    postCommentScoreMap.get(pcs.getParentId()).addChild(pcs);
+                }
+                return isRoot;
+            })
+            .sorted(Comparator.comparing(PostCommentScore::getTotalScore).reversed())
+            .limit(rank)
+            .collect(Collectors.toList());
+    }
+
+    @SuppressWarnings("unchecked")
+    private List<PostCommentScore> treeAssembler() {
+        PostCommentScoreTopRootsTransformer resultTransformer = new PostCommentScoreTopRootsTransformer(rank);
+        for (Object[] row : rows) {
+            resultTransformer.transformTuple(new Object[] {postCommentScore(row)}, null);
+        }
+        return resultTransformer.transformList(null);
+    }
+
+    private List<PostCommentScore> limit(List<PostCommentScore> roots) {
+        roots.sort(Comparator.comparing(PostCommentScore::getTotalScore).reversed());
+        return roots.size() > rank ? roots.subList(0, rank) : roots;
+    }
+}
@@ -0,0 +1,147 @@
+package com.vladmihalcea.book.hpjp.hibernate.query.recursive.complex;
+
+import com.vladmihalcea.book.hpjp.hibernate.query.recursive.PostCommentScore;
+import com.vladmihalcea.book.hpjp.hibernate.query.recursive.complex.AbstractPostCommentScorePerformanceTest.Post;
+import com.vladmihalcea.book.hpjp.hibernate.query.recursive.complex.AbstractPostCommentScorePerformanceTest.PostComment;
+import com.vladmihalcea.book.hpjp.hibernate.query.recursive.complex.AbstractPostCommentScorePerformanceTest.PostCommentVote;
+import com.vladmihalcea.book.hpjp.hibernate.query.recursive.complex.AbstractPostCommentScorePerformanceTest.User;
+import com.vladmihalcea.book.hpjp.util.AbstractBenchmark;
+import org.hibernate.integrator.spi.Integrator;
+import org.openjdk.jmh.annotations.*;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Random;
+
+/**
+ * Reads the top-ranked comment threads of a random post, and every {@code readWriteRatio} operations
+ * it flips a random vote instead, comparing the recursive CTE query, which aggregates all the votes
+ * of the post, with the {@link PostCommentScoreIndex}, which is updated from the vote events.
+ * The data has the {@link AbstractPostCommentScorePerformanceTest} shape.
+ *
+ * @author Vlad Mihalcea
+ */
+public class PostCommentScoreIndexBenchmark extends AbstractBenchmark {
+
+    public enum Scores {
+        RECURSIVE_CTE,
+        INDEX
+    }
+
+    @Param({"RECURSIVE_CTE", "INDEX"})
+    private Scores scores;
+
+    @Param({"4", "16"})
+    private int commentCount;
+
+    @Param({"1000"})
+    private int readWriteRatio;
+
+    @Param({"3"})
+    private int rank;
+
+    private final int postCount = 10;
+
+    private final PostCommentScoreIndex scoreIndex = new PostCommentScoreIndex();
+
+    private final Random random = new Random(0);
+
+    private final List<Long> commentIds = new ArrayList<>();
+
+    private Long userId;
+
+    private long operations;
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            Post.class,
+            PostComment.class,
+            User.class,
+            PostCommentVote.class,
+        };
+    }
+
+    @Override
+    protected Integrator integrator() {
+        return scoreIndex;
+    }
+
+    @Override
+    protected void additionalProperties(Properties properties) {
+        properties.put("hibernate.jdbc.batch_size", "50");
+        properties.put("hibernate.order_inserts", "true");
+    }
+
+    @Override
+    protected void afterInit() {
+        doInJPA(entityManager -> {
+            User user = new User();
+            user.setUsername("JohnDoe");
+            entityManager.persist(user);
+            userId = user.getId();
+
+            for (long postId = 0; postId < postCount; postId++) {
+                Post post = new Post();
+                post.setId(postId);
+                post.setTitle("High-Performance Java Persistence");
+                entityManager.persist(post);
+
+                for (int i = 0; i < commentCount; i++) {
+                    PostComment comment1 = comment(entityManager, post, null, user);
+                    for (int j = 0; j < commentCount / 2; j++) {
+                        PostComment comment1_1 = comment(entityManager, post, comment1, user);
+                        for (int k = 0; k < commentCount / 4; k++) {
+                            comment(entityManager, post, comment1_1, user);
+                        }
+                    }
+                }
+                entityManager.flush();
+                entityManager.clear();
+                user = entityManager.find(User.class, userId);
+            }
+        });
+    }
+
+    private PostComment comment(EntityManager entityManager, Post post, PostComment parent, User user) {
+        PostComment comment = new PostComment();
+        comment.setPost(post);
+        comment.setParent(parent);
+        comment.setReview("Comment");
+        entityManager.persist(comment);
+        commentIds.add(comment.getId());
+
+        PostCommentVote vote = new PostCommentVote(user, comment);
+        vote.setUp(random.nextBoolean());
+        entityManager.persist(vote);
+        return comment;
+    }
+
+    @Benchmark
+    public Object readOrVote() {
+        if (++operations % readWriteRatio == 0) {
+            Long commentId = commentIds.get(random.nextInt(commentIds.size()));
+            doInJPA(entityManager -> {
+                PostCommentVote vote = entityManager.find(
+                    PostCommentVote.class,
+                    new PostCommentVote(
+                        entityManager.getReference(User.class, userId),
+                        entityManager.getReference(PostComment.class, commentId)
+                    )
+                );
+                vote.setUp(!vote.isUp());
+            });
+            return commentId;
+        }
+        Long postId = (long) random.nextInt(postCount);
+        if (scores == Scores.INDEX) {
+            return scoreIndex.postCommentScores(postId, rank);
+        }
+        return doInJPA(entityManager -> {
+            List<PostCommentScore> roots = PostCommentScoreIndex.recursiveCTEScores(entityManager, postId, rank);
+            return roots;
+        });
+    }
+}
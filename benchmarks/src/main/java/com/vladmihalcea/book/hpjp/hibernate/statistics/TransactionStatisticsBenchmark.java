@@ -0,0 +1,57 @@
+package com.vladmihalcea.book.hpjp.hibernate.statistics;
+
+import com.vladmihalcea.book.hpjp.util.AbstractBenchmark;
+import com.vladmihalcea.book.hpjp.util.providers.entity.BlogEntityProvider;
+import org.hibernate.cfg.AvailableSettings;
+import org.hibernate.stat.internal.StatisticsInitiator;
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures what {@link TransactionStatistics} adds to a transaction which acquires one connection,
+ * executes a few statements and flushes once. Run it with {@code -t 4} to check
+ * the recording overhead when multiple threads end their transactions concurrently.
+ *
+ * @author Vlad Mihalcea
+ */
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+public class TransactionStatisticsBenchmark extends AbstractBenchmark {
+
+    @Param({"5"})
+    private int statementCount;
+
+    private TransactionStatistics statistics;
+
+    private final FlushTimeSessionEventListener flushListener = new FlushTimeSessionEventListener();
+
+    @Override
+    protected Class<?>[] entities() {
+        return BlogEntityProvider.INSTANCE.entities();
+    }
+
+    @Override
+    protected void additionalProperties(Properties properties) {
+        properties.put(AvailableSettings.GENERATE_STATISTICS, Boolean.TRUE.toString());
+        properties.put(StatisticsInitiator.STATS_BUILDER, TransactionStatisticsFactory.class.getName());
+    }
+
+    @Override
+    protected void afterInit() {
+        statistics = (TransactionStatistics) sessionFactory().getStatistics();
+    }
+
+    @Benchmark
+    public void transaction() {
+        statistics.connect();
+        for (int i = 0; i < statementCount; i++) {
+            statistics.prepareStatement();
+        }
+        flushListener.flushStart();
+        flushListener.flushEnd(0, 0);
+        statistics.endTransaction(true);
+    }
+}
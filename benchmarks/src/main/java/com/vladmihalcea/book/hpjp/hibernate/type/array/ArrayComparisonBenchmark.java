@@ -0,0 +1,79 @@
+package com.vladmihalcea.book.hpjp.hibernate.type.array;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link ElementArrayComparisonStrategy} with the {@link HashArrayComparisonStrategy}
+ * when dirty checking the same loaded snapshot against an equal array and against an array
+ * whose last element was changed. The current {@code String[]} elements are not shared
+ * with the loaded snapshot, like it happens when the array is set from a request or merged.
+ *
+ * @author Vlad Mihalcea
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1024m", "-Xmx1024m"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class ArrayComparisonBenchmark {
+
+    public enum ElementType {
+        INT,
+        STRING
+    }
+
+    @Param({"element", "hash"})
+    private String comparison;
+
+    @Param({"INT", "STRING"})
+    private ElementType elementType;
+
+    @Param({"10", "1000", "100000"})
+    private int size;
+
+    @Param({"false", "true"})
+    private boolean dirty;
+
+    private ArrayComparisonStrategy comparisonStrategy;
+
+    private Object loadedArray;
+
+    private Object currentArray;
+
+    @Setup
+    public void setUp() {
+        comparisonStrategy = ArrayComparisonStrategy.forName(comparison);
+        loadedArray = newArray(false);
+        currentArray = newArray(dirty);
+    }
+
+    @Benchmark
+    public boolean areEqual() {
+        return comparisonStrategy.areEqual(loadedArray, currentArray);
+    }
+
+    private Object newArray(boolean changeLastElement) {
+        if (elementType == ElementType.INT) {
+            int[] array = new int[size];
+            for (int i = 0; i < size; i++) {
+                array[i] = i;
+            }
+            if (changeLastElement) {
+                array[size - 1]++;
+            }
+            return array;
+        }
+        String[] array = new String[size];
+        for (int i = 0; i < size; i++) {
+            array[i] = "Sensor-" + i;
+            array[i].hashCode();
+        }
+        if (changeLastElement) {
+            array[size - 1] = "Sensor-changed";
+        }
+        return array;
+    }
+}
@@ -0,0 +1,129 @@
+package com.vladmihalcea.book.hpjp.hibernate.type.array;
+
+import com.vladmihalcea.book.hpjp.util.providers.HSQLDBDataSourceProvider;
+import org.hibernate.type.AbstractSingleColumnStandardBasicType;
+import org.hibernate.type.descriptor.ValueBinder;
+import org.hibernate.type.descriptor.ValueExtractor;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+import java.util.function.IntFunction;
+
+/**
+ * Compares the {@link IntArrayType} with the {@link LongArrayType} and the {@link DoubleArrayType}
+ * when binding and extracting HSQLDB arrays of various sizes.
+ * HSQLDB cannot take primitive arrays, so all types go through the boxed {@code Object[]} path,
+ * while PostgreSQL binds them using {@link PrimitiveArrayFactory}.
+ * Run it with {@code -prof gc} to compare the allocation rate as well.
+ *
+ * @author Vlad Mihalcea
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1024m", "-Xmx1024m"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class ArrayTypeBenchmark {
+
+    public enum ArrayType {
+        INT(IntArrayType.INSTANCE, "INT", size -> {
+            int[] array = new int[size];
+            for (int i = 0; i < size; i++) {
+                array[i] = i;
+            }
+            return array;
+        }),
+        LONG(LongArrayType.INSTANCE, "BIGINT", size -> {
+            long[] array = new long[size];
+            for (int i = 0; i < size; i++) {
+                array[i] = Integer.MAX_VALUE + (long) i;
+            }
+            return array;
+        }),
+        DOUBLE(DoubleArrayType.INSTANCE, "DOUBLE", size -> {
+            double[] array = new double[size];
+            for (int i = 0; i < size; i++) {
+                array[i] = i / 3d;
+            }
+            return array;
+        });
+
+        private final AbstractSingleColumnStandardBasicType<?> type;
+
+        private final String elementType;
+
+        private final IntFunction<Object> factory;
+
+        ArrayType(AbstractSingleColumnStandardBasicType<?> type, String elementType, IntFunction<Object> factory) {
+            this.type = type;
+            this.elementType = elementType;
+            this.factory = factory;
+        }
+    }
+
+    @Param({"INT", "LONG", "DOUBLE"})
+    private ArrayType arrayType;
+
+    @Param({"10", "1000", "10000"})
+    private int size;
+
+    private Connection connection;
+
+    private PreparedStatement updateStatement;
+
+    private PreparedStatement selectStatement;
+
+    private ValueBinder<Object> binder;
+
+    private ValueExtractor<Object> extractor;
+
+    private Object value;
+
+    @Setup
+    @SuppressWarnings("unchecked")
+    public void setUp() throws SQLException {
+        connection = new HSQLDBDataSourceProvider().dataSource().getConnection();
+        try (Statement statement = connection.createStatement()) {
+            statement.executeUpdate("DROP TABLE array_benchmark IF EXISTS");
+            statement.executeUpdate(
+                "CREATE TABLE array_benchmark (id INT PRIMARY KEY, sensor_values " + arrayType.elementType + " ARRAY[100000])"
+            );
+            statement.executeUpdate("INSERT INTO array_benchmark (id) VALUES (1)");
+        }
+        updateStatement = connection.prepareStatement("UPDATE array_benchmark SET sensor_values = ? WHERE id = 1");
+        selectStatement = connection.prepareStatement("SELECT sensor_values FROM array_benchmark WHERE id = 1");
+
+        binder = (ValueBinder<Object>) arrayType.type.getSqlTypeDescriptor().getBinder(arrayType.type.getJavaTypeDescriptor());
+        extractor = (ValueExtractor<Object>) arrayType.type.getSqlTypeDescriptor().getExtractor(arrayType.type.getJavaTypeDescriptor());
+        value = arrayType.factory.apply(size);
+
+        bind();
+    }
+
+    @TearDown
+    public void tearDown() throws SQLException {
+        updateStatement.close();
+        selectStatement.close();
+        connection.close();
+    }
+
+    @Benchmark
+    public int bind() throws SQLException {
+        binder.bind(updateStatement, value, 1, null);
+        return updateStatement.executeUpdate();
+    }
+
+    @Benchmark
+    public Object extract() throws SQLException {
+        try (ResultSet resultSet = selectStatement.executeQuery()) {
+            resultSet.next();
+            return extractor.extract(resultSet, "sensor_values", null);
+        }
+    }
+}
@@ -0,0 +1,87 @@
+package com.vladmihalcea.book.hpjp.hibernate.type.json;
+
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.vladmihalcea.book.hpjp.hibernate.type.json.JsonDirtyCheckingBenchmark.Model;
+import org.openjdk.jmh.annotations.*;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the {@link JacksonUtil#OBJECT_MAPPER} read and write calls with
+ * the per-class cached {@link ObjectReader} and {@link com.fasterxml.jackson.databind.ObjectWriter},
+ * for both the String and the byte array representations of the JSON model classes.
+ *
+ * @author Vlad Mihalcea
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1024m", "-Xmx1024m"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class JacksonUtilBenchmark {
+
+    @Param({"LOCATION", "TICKET", "EVENT"})
+    private Model model;
+
+    private Object value;
+
+    private Class<?> jsonObjectClass;
+
+    private ObjectReader objectReader;
+
+    private String json;
+
+    private byte[] jsonBytes;
+
+    @Setup
+    public void setUp() {
+        value = model.newInstance();
+        jsonObjectClass = value.getClass();
+        objectReader = JacksonUtil.objectReader(jsonObjectClass);
+        json = JacksonUtil.toString(value);
+        jsonBytes = json.getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public String objectMapperWriteString() throws IOException {
+        return JacksonUtil.OBJECT_MAPPER.writeValueAsString(value);
+    }
+
+    @Benchmark
+    public String objectWriterWriteString() {
+        return JacksonUtil.toString(value);
+    }
+
+    @Benchmark
+    public byte[] objectMapperWriteBytes() throws IOException {
+        return JacksonUtil.OBJECT_MAPPER.writeValueAsString(value).getBytes(StandardCharsets.UTF_8);
+    }
+
+    @Benchmark
+    public byte[] objectWriterWriteBytes() {
+        return JacksonUtil.toBytes(value);
+    }
+
+    @Benchmark
+    public Object objectMapperReadString() throws IOException {
+        return JacksonUtil.OBJECT_MAPPER.readValue(json, jsonObjectClass);
+    }
+
+    @Benchmark
+    public Object objectReaderReadString() {
+        return JacksonUtil.fromString(json, objectReader);
+    }
+
+    @Benchmark
+    public Object objectMapperReadBytes() throws IOException {
+        return JacksonUtil.OBJECT_MAPPER.readValue(new String(jsonBytes, StandardCharsets.UTF_8), jsonObjectClass);
+    }
+
+    @Benchmark
+    public Object objectReaderReadBytes() {
+        return JacksonUtil.fromBytes(jsonBytes, objectReader);
+    }
+}
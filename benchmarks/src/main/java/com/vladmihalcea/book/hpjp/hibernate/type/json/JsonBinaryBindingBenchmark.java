@@ -0,0 +1,69 @@
+package com.vladmihalcea.book.hpjp.hibernate.type.json;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.vladmihalcea.book.hpjp.hibernate.type.json.JsonDirtyCheckingBenchmark.Model;
+import com.vladmihalcea.book.hpjp.util.ParameterTypeImpl;
+import org.hibernate.usertype.DynamicParameterizedType;
+import org.openjdk.jmh.annotations.*;
+
+import java.nio.charset.StandardCharsets;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Compares the conversions done by {@link JsonBinarySqlTypeDescriptor} when binding
+ * the {@link JsonNode} and the serialized document, and when extracting the column
+ * as a String and as the raw UTF-8 bytes. The driver call itself is left out,
+ * as the PostgreSQL driver sends both bind values as the same text.
+ *
+ * @author Vlad Mihalcea
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1024m", "-Xmx1024m"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class JsonBinaryBindingBenchmark {
+
+    @Param({"LOCATION", "TICKET", "EVENT"})
+    private Model model;
+
+    private JsonTypeDescriptor jsonTypeDescriptor;
+
+    private Object value;
+
+    private byte[] columnBytes;
+
+    @Setup
+    public void setUp() {
+        value = model.newInstance();
+
+        Properties properties = new Properties();
+        properties.put(DynamicParameterizedType.PARAMETER_TYPE, new ParameterTypeImpl(value.getClass()));
+        jsonTypeDescriptor = new JsonTypeDescriptor();
+        jsonTypeDescriptor.setParameterValues(properties);
+
+        columnBytes = JacksonUtil.toBytes(value);
+    }
+
+    @Benchmark
+    public String bindJsonNode() {
+        return jsonTypeDescriptor.unwrap(value, JsonNode.class, null).toString();
+    }
+
+    @Benchmark
+    public String bindString() {
+        return jsonTypeDescriptor.unwrap(value, String.class, null);
+    }
+
+    @Benchmark
+    public Object extractString() {
+        return jsonTypeDescriptor.wrap(new String(columnBytes, StandardCharsets.UTF_8), null);
+    }
+
+    @Benchmark
+    public Object extractBytes() {
+        return jsonTypeDescriptor.wrap(columnBytes, null);
+    }
+}
@@ -0,0 +1,94 @@
+package com.vladmihalcea.book.hpjp.hibernate.type.json;
+
+import com.vladmihalcea.book.hpjp.hibernate.type.json.model.Event;
+import com.vladmihalcea.book.hpjp.hibernate.type.json.model.Location;
+import com.vladmihalcea.book.hpjp.hibernate.type.json.model.Ticket;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+import java.util.function.Supplier;
+
+/**
+ * Compares the String and {@link com.fasterxml.jackson.databind.JsonNode} based JSON dirty checking
+ * with the token-based {@link JacksonUtil#isEquals(Object, Object)}.
+ * Run it with {@code -prof gc} to compare the allocation rate as well.
+ *
+ * @author Vlad Mihalcea
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1024m", "-Xmx1024m"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class JsonDirtyCheckingBenchmark {
+
+    public enum Model {
+        LOCATION(JsonDirtyCheckingBenchmark::location),
+        TICKET(JsonDirtyCheckingBenchmark::ticket),
+        EVENT(JsonDirtyCheckingBenchmark::event);
+
+        private final Supplier<Object> factory;
+
+        Model(Supplier<Object> factory) {
+            this.factory = factory;
+        }
+
+        public Object newInstance() {
+            return factory.get();
+        }
+    }
+
+    @Param({"LOCATION", "TICKET", "EVENT"})
+    private Model model;
+
+    @Param({"true", "false"})
+    private boolean dirty;
+
+    private final JsonTypeDescriptor jsonTypeDescriptor = new JsonTypeDescriptor();
+
+    private Object loadedState;
+
+    private Object currentState;
+
+    @Setup
+    public void setUp() {
+        loadedState = model.newInstance();
+        currentState = dirty ? JacksonUtil.fromString(
+            JacksonUtil.toString(model.newInstance()).replace("Cluj-Napoca", "Constanta").replace("12.34", "43.21"),
+            loadedState.getClass()
+        ) : model.newInstance();
+    }
+
+    @Benchmark
+    public boolean jsonNodeTree() {
+        return JacksonUtil.toJsonNode(JacksonUtil.toString(loadedState)).equals(
+            JacksonUtil.toJsonNode(JacksonUtil.toString(currentState)));
+    }
+
+    @Benchmark
+    public boolean tokenStream() {
+        return jsonTypeDescriptor.areEqual(loadedState, currentState);
+    }
+
+    private static Location location() {
+        Location location = new Location();
+        location.setCountry("Romania");
+        location.setCity("Cluj-Napoca");
+        return location;
+    }
+
+    private static Ticket ticket() {
+        Ticket ticket = new Ticket();
+        ticket.setPrice(12.34d);
+        ticket.setRegistrationCode("ABC123");
+        return ticket;
+    }
+
+    private static Event event() {
+        Event event = new Event();
+        event.setId(1L);
+        event.setLocation(location());
+        return event;
+    }
+}
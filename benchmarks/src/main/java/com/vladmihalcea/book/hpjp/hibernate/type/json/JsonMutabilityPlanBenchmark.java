@@ -0,0 +1,71 @@
+package com.vladmihalcea.book.hpjp.hibernate.type.json;
+
+import com.vladmihalcea.book.hpjp.hibernate.type.json.model.Event;
+import com.vladmihalcea.book.hpjp.hibernate.type.json.model.Location;
+import com.vladmihalcea.book.hpjp.util.ParameterTypeImpl;
+import org.hibernate.type.descriptor.java.MutabilityPlan;
+import org.hibernate.usertype.DynamicParameterizedType;
+import org.openjdk.jmh.annotations.*;
+
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the cost of taking the loaded state snapshot of a JSON attribute
+ * and dirty checking it on flush, for both the clone-based and
+ * the {@link JsonSnapshotMutabilityPlan}.
+ *
+ * @author Vlad Mihalcea
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1024m", "-Xmx1024m"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class JsonMutabilityPlanBenchmark {
+
+    @Param({"false", "true"})
+    private boolean snapshot;
+
+    private JsonTypeDescriptor jsonTypeDescriptor;
+
+    private MutabilityPlan<Object> mutabilityPlan;
+
+    private Event event;
+
+    @Setup
+    public void setUp() {
+        Properties properties = new Properties();
+        properties.put(DynamicParameterizedType.PARAMETER_TYPE, new ParameterTypeImpl(Location.class));
+        properties.setProperty(JsonTypeDescriptor.SNAPSHOT, String.valueOf(snapshot));
+
+        jsonTypeDescriptor = new JsonTypeDescriptor();
+        jsonTypeDescriptor.setParameterValues(properties);
+        mutabilityPlan = jsonTypeDescriptor.getMutabilityPlan();
+
+        Location location = new Location();
+        location.setCountry("Romania");
+        location.setCity("Cluj-Napoca");
+
+        event = new Event();
+        event.setId(1L);
+        event.setLocation(location);
+    }
+
+    @Benchmark
+    public Object loadedState() {
+        return mutabilityPlan.deepCopy(event.getLocation());
+    }
+
+    @Benchmark
+    public boolean loadAndFlush() {
+        Object loadedState = mutabilityPlan.deepCopy(event.getLocation());
+        return jsonTypeDescriptor.areEqual(loadedState, event.getLocation());
+    }
+
+    @Benchmark
+    public Object secondLevelCacheRoundTrip() {
+        return mutabilityPlan.assemble(mutabilityPlan.disassemble(event.getLocation()));
+    }
+}
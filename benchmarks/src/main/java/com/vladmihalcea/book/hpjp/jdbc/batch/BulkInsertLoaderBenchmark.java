@@ -0,0 +1,124 @@
+package com.vladmihalcea.book.hpjp.jdbc.batch;
+
+import com.vladmihalcea.book.hpjp.util.AbstractBenchmark;
+import com.vladmihalcea.book.hpjp.util.providers.entity.BlogEntityProvider;
+import org.openjdk.jmh.annotations.*;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Inserts {@code post} and {@code post_comment} rows using a fixed-size JDBC batch of single-row inserts,
+ * like the {@link AbstractBatchPreparedStatementTest}, and using the {@link BulkInsertLoader} multi-row inserts,
+ * with and without pipelining. The transaction is rolled back after every invocation, so all invocations
+ * insert into the same empty tables.
+ *
+ * @author Vlad Mihalcea
+ */
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+public class BulkInsertLoaderBenchmark extends AbstractBenchmark {
+
+    public enum Strategy {
+        SINGLE_ROW_BATCH,
+        MULTI_ROW,
+        MULTI_ROW_PIPELINED
+    }
+
+    private static final String INSERT_POST = "insert into post (title, version, id) values (?, ?, ?)";
+
+    private static final String INSERT_POST_COMMENT = "insert into post_comment (post_id, review, version, id) values (?, ?, ?, ?)";
+
+    @Param({"SINGLE_ROW_BATCH", "MULTI_ROW", "MULTI_ROW_PIPELINED"})
+    private Strategy strategy;
+
+    @Param({"10000"})
+    private int postCount;
+
+    @Param({"4"})
+    private int postCommentCount;
+
+    @Param({"100"})
+    private int batchSize;
+
+    @Override
+    protected Class<?>[] entities() {
+        return BlogEntityProvider.INSTANCE.entities();
+    }
+
+    @Benchmark
+    public void insert() {
+        doInJDBC(connection -> {
+            if (strategy == Strategy.SINGLE_ROW_BATCH) {
+                insertSingleRowBatch(connection);
+            } else {
+                insertMultiRow(connection, strategy == Strategy.MULTI_ROW_PIPELINED);
+            }
+            connection.rollback();
+        });
+    }
+
+    private void insertSingleRowBatch(Connection connection) throws SQLException {
+        try (PreparedStatement postStatement = connection.prepareStatement(INSERT_POST);
+             PreparedStatement postCommentStatement = connection.prepareStatement(INSERT_POST_COMMENT)) {
+            for (int i = 0; i < postCount; i++) {
+                postStatement.setString(1, String.format("Post no. %1$d", i));
+                postStatement.setInt(2, 0);
+                postStatement.setLong(3, i);
+                postStatement.addBatch();
+                if ((i + 1) % batchSize == 0) {
+                    postStatement.executeBatch();
+                }
+            }
+            if (postCount % batchSize != 0) {
+                postStatement.executeBatch();
+            }
+            int commentCount = postCount * postCommentCount;
+            for (int i = 0; i < commentCount; i++) {
+                postCommentStatement.setLong(1, i / postCommentCount);
+                postCommentStatement.setString(2, String.format("Post comment %1$d", i % postCommentCount));
+                postCommentStatement.setInt(3, 0);
+                postCommentStatement.setLong(4, i);
+                postCommentStatement.addBatch();
+                if ((i + 1) % batchSize == 0) {
+                    postCommentStatement.executeBatch();
+                }
+            }
+            if (commentCount % batchSize != 0) {
+                postCommentStatement.executeBatch();
+            }
+        }
+    }
+
+    private void insertMultiRow(Connection connection, boolean pipelined) throws SQLException {
+        try (BulkInsertLoader<Integer> postLoader = new BulkInsertLoader<Integer>(
+                connection,
+                INSERT_POST,
+                (i, parameters) -> {
+                    parameters[0] = String.format("Post no. %1$d", i);
+                    parameters[1] = 0;
+                    parameters[2] = (long) i;
+                })
+                .pipelined(pipelined)) {
+            for (int i = 0; i < postCount; i++) {
+                postLoader.add(i);
+            }
+        }
+        try (BulkInsertLoader<Integer> postCommentLoader = new BulkInsertLoader<Integer>(
+                connection,
+                INSERT_POST_COMMENT,
+                (i, parameters) -> {
+                    parameters[0] = (long) (i / postCommentCount);
+                    parameters[1] = String.format("Post comment %1$d", i % postCommentCount);
+                    parameters[2] = 0;
+                    parameters[3] = (long) i;
+                })
+                .pipelined(pipelined)) {
+            int commentCount = postCount * postCommentCount;
+            for (int i = 0; i < commentCount; i++) {
+                postCommentLoader.add(i);
+            }
+        }
+    }
+}
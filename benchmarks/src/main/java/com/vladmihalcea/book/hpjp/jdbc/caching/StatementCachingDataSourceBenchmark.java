@@ -0,0 +1,86 @@
+package com.vladmihalcea.book.hpjp.jdbc.caching;
+
+import com.vladmihalcea.book.hpjp.util.AbstractBenchmark;
+import com.vladmihalcea.book.hpjp.util.providers.entity.BlogEntityProvider;
+import org.openjdk.jmh.annotations.*;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+
+import static com.vladmihalcea.book.hpjp.jdbc.caching.StatementCacheTest.INSERT_POST;
+import static com.vladmihalcea.book.hpjp.jdbc.caching.StatementCacheTest.INSERT_POST_COMMENT;
+
+/**
+ * Runs the {@link StatementCacheTest} {@code INSERT_POST} and {@code INSERT_POST_COMMENT} workload,
+ * preparing and closing a statement for every insert, like Hibernate does, on a long-lived connection
+ * which is either taken from the driver data source or from the {@link StatementCachingDataSource}.
+ * Every invocation is rolled back, so the tables don't grow during the benchmark.
+ *
+ * @author Vlad Mihalcea
+ */
+public class StatementCachingDataSourceBenchmark extends AbstractBenchmark {
+
+    @Param({"0", "16"})
+    private int cacheSize;
+
+    @Param({"4"})
+    private int postCommentCount;
+
+    private Connection connection;
+
+    private long id;
+
+    @Override
+    protected Class<?>[] entities() {
+        return BlogEntityProvider.INSTANCE.entities();
+    }
+
+    @Override
+    protected void afterInit() {
+        DataSource dataSource = dataSourceProvider().dataSource();
+        if (cacheSize > 0) {
+            dataSource = new StatementCachingDataSource(dataSource, cacheSize);
+        }
+        try {
+            connection = dataSource.getConnection();
+            connection.setAutoCommit(false);
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    @Override
+    public void tearDown() {
+        try {
+            connection.close();
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+        super.tearDown();
+    }
+
+    @Benchmark
+    public void insert() throws SQLException {
+        long postId = ++id;
+        try (PreparedStatement postStatement = connection.prepareStatement(INSERT_POST)) {
+            int index = 0;
+            postStatement.setString(++index, String.format("Post no. %1$d", postId));
+            postStatement.setInt(++index, 0);
+            postStatement.setLong(++index, postId);
+            postStatement.executeUpdate();
+        }
+        for (int i = 0; i < postCommentCount; i++) {
+            try (PreparedStatement postCommentStatement = connection.prepareStatement(INSERT_POST_COMMENT)) {
+                int index = 0;
+                postCommentStatement.setLong(++index, postId);
+                postCommentStatement.setString(++index, String.format("Post comment %1$d", i));
+                postCommentStatement.setInt(++index, 0);
+                postCommentStatement.setLong(++index, postCommentCount * postId + i);
+                postCommentStatement.executeUpdate();
+            }
+        }
+        connection.rollback();
+    }
+}
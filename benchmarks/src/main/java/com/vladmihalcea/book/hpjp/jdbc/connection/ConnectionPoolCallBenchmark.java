@@ -0,0 +1,65 @@
+package com.vladmihalcea.book.hpjp.jdbc.connection;
+
+import com.vladmihalcea.book.hpjp.util.providers.DataSourceProvider;
+import com.vladmihalcea.book.hpjp.util.providers.HSQLDBDataSourceProvider;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.openjdk.jmh.annotations.*;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * JMH port of {@link ConnectionPoolCallTest}.
+ * Use the JMH {@code -t} option to measure the pool under contention.
+ *
+ * @author Vlad Mihalcea
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1024m", "-Xmx1024m"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class ConnectionPoolCallBenchmark {
+
+    @Param({"false", "true"})
+    private boolean pooling;
+
+    @Param({"3"})
+    private int maximumPoolSize;
+
+    private final DataSourceProvider dataSourceProvider = new HSQLDBDataSourceProvider();
+
+    private DataSource dataSource;
+
+    @Setup
+    public void setUp() {
+        dataSource = pooling ? poolingDataSource() : dataSourceProvider.dataSource();
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (dataSource instanceof HikariDataSource) {
+            ((HikariDataSource) dataSource).close();
+        }
+    }
+
+    @Benchmark
+    public void getConnection() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+        }
+    }
+
+    protected HikariDataSource poolingDataSource() {
+        Properties properties = new Properties();
+        properties.setProperty("dataSourceClassName", dataSourceProvider.dataSourceClassName().getName());
+        properties.put("dataSourceProperties", dataSourceProvider.dataSourceProperties());
+        properties.setProperty("maximumPoolSize", String.valueOf(maximumPoolSize));
+        properties.setProperty("connectionTimeout", String.valueOf(5000));
+        return new HikariDataSource(new HikariConfig(properties));
+    }
+}
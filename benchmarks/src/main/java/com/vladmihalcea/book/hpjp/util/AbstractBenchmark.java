@@ -0,0 +1,40 @@
+package com.vladmihalcea.book.hpjp.util;
+
+import org.openjdk.jmh.annotations.*;
+
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Base JMH state which reuses the {@link AbstractTest} bootstrap logic,
+ * so a benchmark can be written just like an integration test,
+ * but it's executed by the JMH harness against the in-memory HSQLDB.
+ *
+ * @author Vlad Mihalcea
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1024m", "-Xmx1024m"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public abstract class AbstractBenchmark extends AbstractTest {
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        init();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        destroy();
+        executorService.shutdownNow();
+    }
+
+    /**
+     * The statement logging listener would dominate the measurements.
+     */
+    @Override
+    protected boolean proxyDataSource() {
+        return false;
+    }
+}
@@ -0,0 +1,55 @@
+package com.vladmihalcea.book.hpjp.util;
+
+import org.hibernate.usertype.DynamicParameterizedType;
+
+import java.lang.annotation.Annotation;
+
+/**
+ * Allows benchmarks to configure a {@link DynamicParameterizedType}
+ * without bootstrapping Hibernate.
+ *
+ * @author Vlad Mihalcea
+ */
+public class ParameterTypeImpl implements DynamicParameterizedType.ParameterType {
+
+    private final Class returnedClass;
+
+    public ParameterTypeImpl(Class returnedClass) {
+        this.returnedClass = returnedClass;
+    }
+
+    @Override
+    public Class getReturnedClass() {
+        return returnedClass;
+    }
+
+    @Override
+    public Annotation[] getAnnotationsMethod() {
+        return new Annotation[0];
+    }
+
+    @Override
+    public String getCatalog() {
+        return null;
+    }
+
+    @Override
+    public String getSchema() {
+        return null;
+    }
+
+    @Override
+    public String getTable() {
+        return null;
+    }
+
+    @Override
+    public boolean isPrimaryKey() {
+        return false;
+    }
+
+    @Override
+    public String[] getColumns() {
+        return new String[0];
+    }
+}
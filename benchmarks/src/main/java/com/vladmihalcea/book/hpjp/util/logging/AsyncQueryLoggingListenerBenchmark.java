@@ -0,0 +1,129 @@
+package com.vladmihalcea.book.hpjp.util.logging;
+
+import ch.qos.logback.classic.Level;
+import com.vladmihalcea.book.hpjp.hibernate.logging.LoggingStatementInspector;
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.StatementType;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import net.ttddyy.dsproxy.listener.SLF4JQueryLoggingListener;
+import org.openjdk.jmh.annotations.*;
+import org.slf4j.LoggerFactory;
+
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Measures the overhead added to the statement thread by the {@link SLF4JQueryLoggingListener} using the
+ * {@link InlineQueryLogEntryCreator}, optionally followed by the {@link LoggingStatementInspector}
+ * stack trace logging, and by the {@link AsyncQueryLoggingListener}, which only records the statement
+ * in its ring buffer. The statement is executed {@code stackDepth} frames deep, and its log entry is
+ * discarded by the appender threshold, so only the entry creation and the stack trace capture are measured.
+ * The {@code sampleRate} applies to both listeners: the inline one is only called, and the stack trace is
+ * only logged, for one out of {@code sampleRate} statements, like the {@link AsyncQueryLoggingListener} does.
+ *
+ * @author Vlad Mihalcea
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.NANOSECONDS)
+@Fork(value = 2, jvmArgsAppend = {"-Xms1024m", "-Xmx1024m"})
+@Warmup(iterations = 5, time = 1)
+@Measurement(iterations = 10, time = 1)
+public class AsyncQueryLoggingListenerBenchmark {
+
+    public enum Logging {
+        INLINE_QUERY_LOG_ENTRY_CREATOR,
+        ASYNC
+    }
+
+    private static final String SQL = "insert into post (title, version, id) values (?, ?, ?)";
+
+    @Param({"INLINE_QUERY_LOG_ENTRY_CREATOR", "ASYNC"})
+    private Logging logging;
+
+    @Param({"false", "true"})
+    private boolean stackTrace;
+
+    @Param({"1", "100"})
+    private int sampleRate;
+
+    @Param({"50"})
+    private int stackDepth;
+
+    private QueryExecutionListener listener;
+
+    private LoggingStatementInspector statementInspector;
+
+    private AsyncQueryLoggingListener asyncListener;
+
+    private long id;
+
+    @Setup
+    public void setUp() {
+        debug(SLF4JQueryLoggingListener.class);
+        debug(LoggingStatementInspector.class);
+        debug(AsyncQueryLoggingListener.class);
+
+        String packageNamePrefix = getClass().getPackage().getName();
+        if (logging == Logging.ASYNC) {
+            asyncListener = new AsyncQueryLoggingListener()
+                .sampleRate(sampleRate)
+                .packageNamePrefix(stackTrace ? packageNamePrefix : null);
+            listener = asyncListener;
+        } else {
+            SLF4JQueryLoggingListener loggingListener = new SLF4JQueryLoggingListener();
+            loggingListener.setQueryLogEntryCreator(new InlineQueryLogEntryCreator());
+            listener = loggingListener;
+            if (stackTrace) {
+                statementInspector = new LoggingStatementInspector(packageNamePrefix);
+            }
+        }
+    }
+
+    @TearDown
+    public void tearDown() {
+        if (asyncListener != null) {
+            asyncListener.close();
+        }
+    }
+
+    @Benchmark
+    public Object logStatement() {
+        return execute(stackDepth);
+    }
+
+    private Object execute(int depth) {
+        if (depth > 0) {
+            return execute(depth - 1);
+        }
+        Map<String, Object> parameters = new LinkedHashMap<>();
+        parameters.put("1", "High-Performance Java Persistence");
+        parameters.put("2", 0);
+        parameters.put("3", ++id);
+        List<QueryInfo> queryInfoList = Collections.singletonList(new QueryInfo(SQL, parameters));
+
+        ExecutionInfo executionInfo = new ExecutionInfo();
+        executionInfo.setDataSourceName("DATA_SOURCE_PROXY");
+        executionInfo.setStatementType(StatementType.PREPARED);
+        executionInfo.setSuccess(true);
+        if (logging == Logging.INLINE_QUERY_LOG_ENTRY_CREATOR) {
+            if (sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+                return executionInfo;
+            }
+            if (statementInspector != null) {
+                statementInspector.inspect(SQL);
+            }
+        }
+        listener.afterQuery(executionInfo, queryInfoList);
+        return executionInfo;
+    }
+
+    private static void debug(Class<?> loggerClass) {
+        ((ch.qos.logback.classic.Logger) LoggerFactory.getLogger(loggerClass)).setLevel(Level.DEBUG);
+    }
+}
@@ -2,6 +2,7 @@ package com.vladmihalcea.book.hpjp.hibernate.type.array;
 
 import org.hibernate.type.descriptor.WrapperOptions;
 import org.hibernate.type.descriptor.java.AbstractTypeDescriptor;
+import org.hibernate.type.descriptor.java.ImmutableMutabilityPlan;
 import org.hibernate.type.descriptor.java.MutabilityPlan;
 import org.hibernate.type.descriptor.java.MutableMutabilityPlan;
 import org.hibernate.usertype.DynamicParameterizedType;
@@ -17,8 +18,23 @@ import java.util.Properties;
 public abstract class AbstractArrayTypeDescriptor<T>
         extends AbstractTypeDescriptor<T> implements DynamicParameterizedType {
 
+    /**
+     * Type parameter which makes the array attribute copy-on-write. The loaded state
+     * shares the array instead of copying it, so the array must be replaced, not changed in place.
+     */
+    public static final String IMMUTABLE = "immutable";
+
+    /**
+     * Type parameter which selects the {@link ArrayComparisonStrategy} used for dirty checking.
+     */
+    public static final String COMPARISON = "comparison";
+
     private Class<T> arrayObjectClass;
 
+    private boolean immutable;
+
+    private ArrayComparisonStrategy comparisonStrategy = ElementArrayComparisonStrategy.INSTANCE;
+
     public AbstractArrayTypeDescriptor(Class<T> arrayObjectClass) {
         super(arrayObjectClass, (MutabilityPlan<T>) new MutableMutabilityPlan<Object>() {
             @Override
@@ -32,6 +48,17 @@ public abstract class AbstractArrayTypeDescriptor<T>
     @Override
     public void setParameterValues(Properties parameters) {
         arrayObjectClass = ((ParameterType) parameters.get(PARAMETER_TYPE)).getReturnedClass();
+        immutable = Boolean.parseBoolean(parameters.getProperty(IMMUTABLE));
+        String comparison = parameters.getProperty(COMPARISON);
+        if (comparison != null) {
+            comparisonStrategy = ArrayComparisonStrategy.forName(comparison);
+        }
+    }
+
+    @SuppressWarnings({"unchecked"})
+    @Override
+    public MutabilityPlan<T> getMutabilityPlan() {
+        return immutable ? ImmutableMutabilityPlan.INSTANCE : super.getMutabilityPlan();
     }
 
     @Override
@@ -42,12 +69,12 @@ public abstract class AbstractArrayTypeDescriptor<T>
         if (one == null || another == null) {
             return false;
         }
-        return ArrayUtil.isEquals(one, another);
+        return comparisonStrategy.areEqual(one, another);
     }
 
     @Override
     public String toString(Object value) {
-        return Arrays.deepToString((Object[]) value);
+        return Arrays.deepToString(ArrayUtil.wrapArray(value));
     }
 
     @Override
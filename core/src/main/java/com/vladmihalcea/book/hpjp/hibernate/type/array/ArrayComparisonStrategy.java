@@ -0,0 +1,32 @@
+package com.vladmihalcea.book.hpjp.hibernate.type.array;
+
+/**
+ * Decides if the loaded state of an array attribute matches its current value
+ * during dirty checking. Both arrays are non-null and not the same instance.
+ *
+ * @author Vlad Mihalcea
+ */
+public interface ArrayComparisonStrategy {
+
+    boolean areEqual(Object loadedArray, Object currentArray);
+
+    /**
+     * Resolve the strategy given by the {@link AbstractArrayTypeDescriptor#COMPARISON} type parameter.
+     *
+     * @param name {@code element}, {@code hash} or the fully-qualified name of a custom strategy class
+     * @return comparison strategy
+     */
+    static ArrayComparisonStrategy forName(String name) {
+        if ("element".equals(name)) {
+            return ElementArrayComparisonStrategy.INSTANCE;
+        }
+        if ("hash".equals(name)) {
+            return new HashArrayComparisonStrategy();
+        }
+        try {
+            return (ArrayComparisonStrategy) Class.forName(name).newInstance();
+        } catch (ClassNotFoundException | InstantiationException | IllegalAccessException | ClassCastException e) {
+            throw new IllegalArgumentException("The " + name + " array comparison strategy is not supported!", e);
+        }
+    }
+}
@@ -33,10 +33,19 @@ public class ArraySqlTypeDescriptor implements SqlTypeDescriptor {
             @Override
             protected void doBind(PreparedStatement st, X value, int index, WrapperOptions options) throws SQLException {
                 AbstractArrayTypeDescriptor<Object> abstractArrayTypeDescriptor = (AbstractArrayTypeDescriptor<Object>) javaTypeDescriptor;
-                st.setArray(index, st.getConnection().createArrayOf(
+                Connection connection = st.getConnection();
+                Array array = PrimitiveArrayFactory.createArrayOf(
+                        connection,
                         abstractArrayTypeDescriptor.getSqlArrayType(),
-                        abstractArrayTypeDescriptor.unwrap(value, Object[].class, options)
-                ));
+                        value
+                );
+                if (array == null) {
+                    array = connection.createArrayOf(
+                            abstractArrayTypeDescriptor.getSqlArrayType(),
+                            abstractArrayTypeDescriptor.unwrap(value, Object[].class, options)
+                    );
+                }
+                st.setArray(index, array);
             }
 
             @Override
@@ -124,37 +124,37 @@ public class ArrayUtil {
         } else if (byte[].class.equals(arrayClass)) {
             byte[] array = new byte[objectArray.length];
             for (int i = 0; i < objectArray.length; i++) {
-                array[i] = objectArray[i] != null ? (Byte) objectArray[i] : 0;
+                array[i] = objectArray[i] != null ? ((Number) objectArray[i]).byteValue() : 0;
             }
             return (T) array;
         } else if (short[].class.equals(arrayClass)) {
             short[] array = new short[objectArray.length];
             for (int i = 0; i < objectArray.length; i++) {
-                array[i] = objectArray[i] != null ? (Short) objectArray[i] : 0;
+                array[i] = objectArray[i] != null ? ((Number) objectArray[i]).shortValue() : 0;
             }
             return (T) array;
         } else if (int[].class.equals(arrayClass)) {
             int[] array = new int[objectArray.length];
             for (int i = 0; i < objectArray.length; i++) {
-                array[i] = objectArray[i] != null ? (Integer) objectArray[i] : 0;
+                array[i] = objectArray[i] != null ? ((Number) objectArray[i]).intValue() : 0;
             }
             return (T) array;
         } else if (long[].class.equals(arrayClass)) {
             long[] array = new long[objectArray.length];
             for (int i = 0; i < objectArray.length; i++) {
-                array[i] = objectArray[i] != null ? (Long) objectArray[i] : 0L;
+                array[i] = objectArray[i] != null ? ((Number) objectArray[i]).longValue() : 0L;
             }
             return (T) array;
         } else if (float[].class.equals(arrayClass)) {
             float[] array = new float[objectArray.length];
             for (int i = 0; i < objectArray.length; i++) {
-                array[i] = objectArray[i] != null ? (Float) objectArray[i] : 0f;
+                array[i] = objectArray[i] != null ? ((Number) objectArray[i]).floatValue() : 0f;
             }
             return (T) array;
         } else if (double[].class.equals(arrayClass)) {
             double[] array = new double[objectArray.length];
             for (int i = 0; i < objectArray.length; i++) {
-                array[i] = objectArray[i] != null ? (Double) objectArray[i] : 0d;
+                array[i] = objectArray[i] != null ? ((Number) objectArray[i]).doubleValue() : 0d;
             }
             return (T) array;
         } else if (char[].class.equals(arrayClass)) {
@@ -278,4 +278,28 @@ public class ArrayUtil {
         }
     }
 
+    public static int hashCode(Object objectArray) {
+        Class arrayClass = objectArray.getClass();
+
+        if (boolean[].class.equals(arrayClass)) {
+            return Arrays.hashCode((boolean[]) objectArray);
+        } else if (byte[].class.equals(arrayClass)) {
+            return Arrays.hashCode((byte[]) objectArray);
+        } else if (short[].class.equals(arrayClass)) {
+            return Arrays.hashCode((short[]) objectArray);
+        } else if (int[].class.equals(arrayClass)) {
+            return Arrays.hashCode((int[]) objectArray);
+        } else if (long[].class.equals(arrayClass)) {
+            return Arrays.hashCode((long[]) objectArray);
+        } else if (float[].class.equals(arrayClass)) {
+            return Arrays.hashCode((float[]) objectArray);
+        } else if (double[].class.equals(arrayClass)) {
+            return Arrays.hashCode((double[]) objectArray);
+        } else if (char[].class.equals(arrayClass)) {
+            return Arrays.hashCode((char[]) objectArray);
+        } else {
+            return Arrays.hashCode((Object[]) objectArray);
+        }
+    }
+
 }
@@ -0,0 +1,34 @@
+package com.vladmihalcea.book.hpjp.hibernate.type.array;
+
+import org.hibernate.type.AbstractSingleColumnStandardBasicType;
+import org.hibernate.usertype.DynamicParameterizedType;
+
+import java.util.Properties;
+
+/**
+ * @author Vlad Mihalcea
+ */
+public class DoubleArrayType
+        extends AbstractSingleColumnStandardBasicType<double[]>
+        implements DynamicParameterizedType {
+
+    public static final DoubleArrayType INSTANCE = new DoubleArrayType();
+
+    public DoubleArrayType() {
+        super(ArraySqlTypeDescriptor.INSTANCE, new DoubleArrayTypeDescriptor());
+    }
+
+    public String getName() {
+        return "double-array";
+    }
+
+    @Override
+    protected boolean registerUnderJavaType() {
+        return true;
+    }
+
+    @Override
+    public void setParameterValues(Properties parameters) {
+        ((DoubleArrayTypeDescriptor) getJavaTypeDescriptor()).setParameterValues(parameters);
+    }
+}
\ No newline at end of file
@@ -0,0 +1,19 @@
+package com.vladmihalcea.book.hpjp.hibernate.type.array;
+
+/**
+ * @author Vlad Mihalcea
+ */
+public class DoubleArrayTypeDescriptor
+        extends AbstractArrayTypeDescriptor<double[]> {
+
+    public static final DoubleArrayTypeDescriptor INSTANCE = new DoubleArrayTypeDescriptor();
+
+    public DoubleArrayTypeDescriptor() {
+        super(double[].class);
+    }
+
+    @Override
+    public String getSqlArrayType() {
+        return "float";
+    }
+}
@@ -0,0 +1,16 @@
+package com.vladmihalcea.book.hpjp.hibernate.type.array;
+
+/**
+ * Compares the arrays element by element, which is the default strategy.
+ *
+ * @author Vlad Mihalcea
+ */
+public class ElementArrayComparisonStrategy implements ArrayComparisonStrategy {
+
+    public static final ElementArrayComparisonStrategy INSTANCE = new ElementArrayComparisonStrategy();
+
+    @Override
+    public boolean areEqual(Object loadedArray, Object currentArray) {
+        return ArrayUtil.isEquals(loadedArray, currentArray);
+    }
+}
@@ -13,7 +13,7 @@ public class EnumArrayType
         implements DynamicParameterizedType {
 
     public EnumArrayType() {
-        super(ArraySqlTypeDescriptor.INSTANCE, EnumArrayTypeDescriptor.INSTANCE);
+        super(ArraySqlTypeDescriptor.INSTANCE, new EnumArrayTypeDescriptor());
     }
 
     public String getName() {
@@ -0,0 +1,63 @@
+package com.vladmihalcea.book.hpjp.hibernate.type.array;
+
+import java.lang.reflect.Array;
+import java.util.Map;
+import java.util.WeakHashMap;
+
+/**
+ * Short-circuits on the array length, then compares the hash of the current array
+ * with the one of the loaded state, which is computed only once per snapshot since
+ * the loaded state is never changed. Only arrays with the same hash are compared element by element.
+ * <p>
+ * The snapshot hashes are kept in weak maps striped by the snapshot identity hash, and they are computed
+ * outside of the stripe lock, so concurrent flushes rarely contend and never wait for another array to be hashed.
+ * <p>
+ * This pays off when the elements are expensive to compare and cache their own hash,
+ * like {@code String[]} values which are not shared with the loaded state. For unchanged
+ * primitive arrays, the extra hashing pass makes it slower than {@link ElementArrayComparisonStrategy}.
+ *
+ * @author Vlad Mihalcea
+ */
+public class HashArrayComparisonStrategy implements ArrayComparisonStrategy {
+
+    private static final int STRIPE_COUNT = Integer.highestOneBit(
+        Runtime.getRuntime().availableProcessors() * 8 - 1
+    );
+
+    private final Map<Object, Integer>[] loadedHashes;
+
+    @SuppressWarnings("unchecked")
+    public HashArrayComparisonStrategy() {
+        loadedHashes = new Map[STRIPE_COUNT];
+        for (int i = 0; i < loadedHashes.length; i++) {
+            loadedHashes[i] = new WeakHashMap<>();
+        }
+    }
+
+    @Override
+    public boolean areEqual(Object loadedArray, Object currentArray) {
+        if (loadedArray.getClass() != currentArray.getClass() ||
+            Array.getLength(loadedArray) != Array.getLength(currentArray)) {
+            return false;
+        }
+        if (loadedHash(loadedArray) != ArrayUtil.hashCode(currentArray)) {
+            return false;
+        }
+        return ArrayUtil.isEquals(loadedArray, currentArray);
+    }
+
+    private int loadedHash(Object loadedArray) {
+        Map<Object, Integer> stripe = loadedHashes[System.identityHashCode(loadedArray) & (loadedHashes.length - 1)];
+        Integer loadedHash;
+        synchronized (stripe) {
+            loadedHash = stripe.get(loadedArray);
+        }
+        if (loadedHash == null) {
+            loadedHash = ArrayUtil.hashCode(loadedArray);
+            synchronized (stripe) {
+                stripe.put(loadedArray, loadedHash);
+            }
+        }
+        return loadedHash;
+    }
+}
@@ -15,7 +15,7 @@ public class IntArrayType
     public static final IntArrayType INSTANCE = new IntArrayType();
 
     public IntArrayType() {
-        super(ArraySqlTypeDescriptor.INSTANCE, IntArrayTypeDescriptor.INSTANCE);
+        super(ArraySqlTypeDescriptor.INSTANCE, new IntArrayTypeDescriptor());
     }
 
     public String getName() {
@@ -0,0 +1,34 @@
+package com.vladmihalcea.book.hpjp.hibernate.type.array;
+
+import org.hibernate.type.AbstractSingleColumnStandardBasicType;
+import org.hibernate.usertype.DynamicParameterizedType;
+
+import java.util.Properties;
+
+/**
+ * @author Vlad Mihalcea
+ */
+public class LongArrayType
+        extends AbstractSingleColumnStandardBasicType<long[]>
+        implements DynamicParameterizedType {
+
+    public static final LongArrayType INSTANCE = new LongArrayType();
+
+    public LongArrayType() {
+        super(ArraySqlTypeDescriptor.INSTANCE, new LongArrayTypeDescriptor());
+    }
+
+    public String getName() {
+        return "long-array";
+    }
+
+    @Override
+    protected boolean registerUnderJavaType() {
+        return true;
+    }
+
+    @Override
+    public void setParameterValues(Properties parameters) {
+        ((LongArrayTypeDescriptor) getJavaTypeDescriptor()).setParameterValues(parameters);
+    }
+}
\ No newline at end of file
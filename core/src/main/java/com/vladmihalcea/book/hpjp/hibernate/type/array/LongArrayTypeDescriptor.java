@@ -0,0 +1,19 @@
+package com.vladmihalcea.book.hpjp.hibernate.type.array;
+
+/**
+ * @author Vlad Mihalcea
+ */
+public class LongArrayTypeDescriptor
+        extends AbstractArrayTypeDescriptor<long[]> {
+
+    public static final LongArrayTypeDescriptor INSTANCE = new LongArrayTypeDescriptor();
+
+    public LongArrayTypeDescriptor() {
+        super(long[].class);
+    }
+
+    @Override
+    public String getSqlArrayType() {
+        return "bigint";
+    }
+}
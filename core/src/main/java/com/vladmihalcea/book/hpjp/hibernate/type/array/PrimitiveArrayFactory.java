@@ -0,0 +1,79 @@
+package com.vladmihalcea.book.hpjp.hibernate.type.array;
+
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.sql.Array;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.util.Optional;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+
+/**
+ * Creates a {@link java.sql.Array} straight from a primitive Java array when the JDBC Driver
+ * offers a {@code createArrayOf(String, Object)} method, like the PostgreSQL {@code PgConnection} does,
+ * so that the elements don't have to be boxed into an {@code Object[]} first.
+ * The lookup is done only once per Driver {@link Connection} class.
+ *
+ * @author Vlad Mihalcea
+ */
+public final class PrimitiveArrayFactory {
+
+    private static final ConcurrentMap<Class<?>, Optional<Method>> CREATE_ARRAY_METHODS = new ConcurrentHashMap<>();
+
+    private PrimitiveArrayFactory() {
+        throw new UnsupportedOperationException("PrimitiveArrayFactory is not instantiable!");
+    }
+
+    /**
+     * Create the {@link java.sql.Array} for the given primitive array.
+     *
+     * @param connection JDBC connection, which might be a pool or a logging proxy
+     * @param sqlArrayType database array element type
+     * @param primitiveArray primitive Java array
+     * @return the {@link java.sql.Array}, or {@code null} if the array or the Driver is not supported
+     */
+    public static Array createArrayOf(Connection connection, String sqlArrayType, Object primitiveArray)
+            throws SQLException {
+        if (!isSupported(primitiveArray.getClass())) {
+            return null;
+        }
+        Connection driverConnection = connection.isWrapperFor(Connection.class) ?
+            connection.unwrap(Connection.class) :
+            connection;
+        Optional<Method> createArrayMethod = CREATE_ARRAY_METHODS.computeIfAbsent(
+            driverConnection.getClass(),
+            PrimitiveArrayFactory::findCreateArrayMethod
+        );
+        if (!createArrayMethod.isPresent()) {
+            return null;
+        }
+        try {
+            return (Array) createArrayMethod.get().invoke(driverConnection, sqlArrayType, primitiveArray);
+        } catch (IllegalAccessException e) {
+            throw new IllegalStateException(e);
+        } catch (InvocationTargetException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        }
+    }
+
+    private static boolean isSupported(Class<?> arrayClass) {
+        return int[].class.equals(arrayClass) ||
+            long[].class.equals(arrayClass) ||
+            short[].class.equals(arrayClass) ||
+            double[].class.equals(arrayClass) ||
+            float[].class.equals(arrayClass) ||
+            boolean[].class.equals(arrayClass);
+    }
+
+    private static Optional<Method> findCreateArrayMethod(Class<?> connectionClass) {
+        try {
+            return Optional.of(connectionClass.getMethod("createArrayOf", String.class, Object.class));
+        } catch (NoSuchMethodException e) {
+            return Optional.empty();
+        }
+    }
+}
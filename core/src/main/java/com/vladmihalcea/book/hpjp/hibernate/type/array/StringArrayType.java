@@ -15,7 +15,7 @@ public class StringArrayType
         implements DynamicParameterizedType {
 
     public StringArrayType() {
-        super(ArraySqlTypeDescriptor.INSTANCE, StringArrayTypeDescriptor.INSTANCE);
+        super(ArraySqlTypeDescriptor.INSTANCE, new StringArrayTypeDescriptor());
     }
 
     public StringArrayType(JavaTypeDescriptor<String[]> javaTypeDescriptor) {
@@ -9,6 +9,6 @@ public class VarCharStringArrayType
     public static final VarCharStringArrayType INSTANCE = new VarCharStringArrayType();
 
     public VarCharStringArrayType() {
-        super(VarCharStringArrayTypeDescriptor.INSTANCE);
+        super(new VarCharStringArrayTypeDescriptor());
     }
 }
\ No newline at end of file
@@ -1,10 +1,19 @@
 package com.vladmihalcea.book.hpjp.hibernate.type.json;
 
+import com.fasterxml.jackson.core.JsonParser;
 import com.fasterxml.jackson.core.JsonProcessingException;
+import com.fasterxml.jackson.core.JsonToken;
 import com.fasterxml.jackson.databind.JsonNode;
 import com.fasterxml.jackson.databind.ObjectMapper;
+import com.fasterxml.jackson.databind.ObjectReader;
+import com.fasterxml.jackson.databind.ObjectWriter;
+import com.fasterxml.jackson.databind.util.TokenBuffer;
 
 import java.io.IOException;
+import java.io.InputStream;
+import java.io.OutputStream;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
 
 /**
  * @author Vlad Mihalcea
@@ -13,19 +22,93 @@ public class JacksonUtil {
 
     public static final ObjectMapper OBJECT_MAPPER = new ObjectMapper();
 
+    private static final ConcurrentMap<Class<?>, ObjectReader> OBJECT_READERS = new ConcurrentHashMap<>();
+
+    private static final ConcurrentMap<Class<?>, ObjectWriter> OBJECT_WRITERS = new ConcurrentHashMap<>();
+
+    /**
+     * Get the {@link ObjectReader} for the given class, which is resolved only once,
+     * so that the root deserializer is not looked up on every call.
+     *
+     * @param clazz Json object class
+     * @return the associated {@link ObjectReader}
+     */
+    public static ObjectReader objectReader(Class<?> clazz) {
+        return OBJECT_READERS.computeIfAbsent(clazz, OBJECT_MAPPER::readerFor);
+    }
+
+    /**
+     * Get the {@link ObjectWriter} for the given class, which is resolved only once,
+     * so that the root serializer is not looked up on every call.
+     *
+     * @param clazz Json object class
+     * @return the associated {@link ObjectWriter}
+     */
+    public static ObjectWriter objectWriter(Class<?> clazz) {
+        return OBJECT_WRITERS.computeIfAbsent(clazz, OBJECT_MAPPER::writerFor);
+    }
+
     public static <T> T fromString(String string, Class<T> clazz) {
+        return fromString(string, objectReader(clazz));
+    }
+
+    public static <T> T fromString(String string, ObjectReader objectReader) {
         try {
-            return OBJECT_MAPPER.readValue(string, clazz);
+            return objectReader.readValue(string);
         } catch (IOException e) {
-            throw new IllegalArgumentException("The given string value: " + string + " cannot be transformed to Json object");
+            throw new IllegalArgumentException("The given string value: " + string + " cannot be transformed to Json object", e);
         }
     }
 
     public static String toString(Object value) {
         try {
-            return OBJECT_MAPPER.writeValueAsString(value);
+            return objectWriter(value).writeValueAsString(value);
         } catch (JsonProcessingException e) {
-            throw new IllegalArgumentException("The given Json object value: " + value + " cannot be transformed to a String");
+            throw new IllegalArgumentException("The given Json object value: " + value + " cannot be transformed to a String", e);
+        }
+    }
+
+    public static <T> T fromBytes(byte[] bytes, Class<T> clazz) {
+        return fromBytes(bytes, objectReader(clazz));
+    }
+
+    public static <T> T fromBytes(byte[] bytes, ObjectReader objectReader) {
+        try {
+            return objectReader.readValue(bytes);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("The given byte array cannot be transformed to Json object", e);
+        }
+    }
+
+    public static <T> T fromStream(InputStream inputStream, ObjectReader objectReader) {
+        try {
+            return objectReader.readValue(inputStream);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("The given stream cannot be transformed to Json object", e);
+        }
+    }
+
+    public static byte[] toBytes(Object value) {
+        try {
+            return objectWriter(value).writeValueAsBytes(value);
+        } catch (JsonProcessingException e) {
+            throw new IllegalArgumentException("The given Json object value: " + value + " cannot be transformed to a byte array", e);
+        }
+    }
+
+    public static void toStream(Object value, OutputStream outputStream) {
+        try {
+            objectWriter(value).writeValue(outputStream, value);
+        } catch (IOException e) {
+            throw new IllegalArgumentException("The given Json object value: " + value + " cannot be written to the stream", e);
+        }
+    }
+
+    public static JsonNode toJsonNode(byte[] bytes) {
+        try {
+            return OBJECT_MAPPER.readTree(bytes);
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
         }
     }
 
@@ -40,4 +123,79 @@ public class JacksonUtil {
     public static <T> T clone(T value) {
         return fromString(toString(value), (Class<T>) value.getClass());
     }
+
+    /**
+     * Compare the JSON representation of the given objects token by token,
+     * without building the intermediary JSON String or {@link JsonNode} tree.
+     * <p>
+     * The outcome is the same as comparing the {@link JsonNode} trees
+     * obtained by serializing and parsing back each object. If the objects
+     * have the same properties, but in a different order, the comparison falls back
+     * to the {@link JsonNode} tree equality.
+     *
+     * @param one first object
+     * @param another second object
+     * @return whether the objects have the same JSON representation
+     */
+    public static boolean isEquals(Object one, Object another) {
+        try (JsonParser oneParser = toTokenBuffer(one).asParser();
+             JsonParser anotherParser = toTokenBuffer(another).asParser()) {
+            JsonToken token;
+            while ((token = oneParser.nextToken()) != null) {
+                JsonToken anotherToken = anotherParser.nextToken();
+                if (token == JsonToken.FIELD_NAME && anotherToken == JsonToken.FIELD_NAME) {
+                    if (!oneParser.getCurrentName().equals(anotherParser.getCurrentName())) {
+                        return isTreeEquals(one, another);
+                    }
+                    continue;
+                }
+                if (token != anotherToken) {
+                    return false;
+                }
+                switch (token) {
+                    case VALUE_STRING:
+                        if (!oneParser.getText().equals(anotherParser.getText())) {
+                            return false;
+                        }
+                        break;
+                    case VALUE_NUMBER_INT:
+                        if (oneParser.getNumberType() == JsonParser.NumberType.BIG_INTEGER ||
+                            anotherParser.getNumberType() == JsonParser.NumberType.BIG_INTEGER) {
+                            if (!oneParser.getBigIntegerValue().equals(anotherParser.getBigIntegerValue())) {
+                                return false;
+                            }
+                        } else if (oneParser.getLongValue() != anotherParser.getLongValue()) {
+                            return false;
+                        }
+                        break;
+                    case VALUE_NUMBER_FLOAT:
+                        if (Double.compare(oneParser.getDoubleValue(), anotherParser.getDoubleValue()) != 0) {
+                            return false;
+                        }
+                        break;
+                    case VALUE_EMBEDDED_OBJECT:
+                        return isTreeEquals(one, another);
+                    default:
+                        break;
+                }
+            }
+            return anotherParser.nextToken() == null;
+        } catch (IOException e) {
+            throw new IllegalArgumentException(e);
+        }
+    }
+
+    private static TokenBuffer toTokenBuffer(Object value) throws IOException {
+        TokenBuffer tokenBuffer = new TokenBuffer(OBJECT_MAPPER, false);
+        objectWriter(value).writeValue(tokenBuffer, value);
+        return tokenBuffer;
+    }
+
+    private static ObjectWriter objectWriter(Object value) {
+        return value != null ? objectWriter(value.getClass()) : OBJECT_MAPPER.writer();
+    }
+
+    private static boolean isTreeEquals(Object one, Object another) {
+        return toJsonNode(toString(one)).equals(toJsonNode(toString(another)));
+    }
 }
@@ -1,5 +1,6 @@
 package com.vladmihalcea.book.hpjp.hibernate.type.json;
 
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
 import org.hibernate.type.AbstractSingleColumnStandardBasicType;
 import org.hibernate.usertype.DynamicParameterizedType;
 
@@ -27,4 +28,8 @@ public class JsonBinaryType
 		((JsonTypeDescriptor) getJavaTypeDescriptor()).setParameterValues(parameters);
 	}
 
+	@Override
+	protected Object getReplacement(Object original, Object target, SharedSessionContractImplementor session) {
+		return ((JsonTypeDescriptor) getJavaTypeDescriptor()).materialize(super.getReplacement(original, target, session));
+	}
 }
\ No newline at end of file
@@ -18,7 +18,7 @@ public class JsonNodeTypeDescriptor
         super( JsonNode.class, new MutableMutabilityPlan<JsonNode>() {
             @Override
             protected JsonNode deepCopyNotNull(JsonNode value) {
-                return JacksonUtil.clone(value);
+                return value.deepCopy();
             }
         });
     }
@@ -31,8 +31,7 @@ public class JsonNodeTypeDescriptor
         if ( one == null || another == null ) {
             return false;
         }
-        return JacksonUtil.toJsonNode(JacksonUtil.toString(one)).equals(
-                JacksonUtil.toJsonNode(JacksonUtil.toString(another)));
+        return JacksonUtil.isEquals(one, another);
     }
 
     @Override
@@ -57,6 +56,9 @@ public class JsonNodeTypeDescriptor
         if ( JsonNode.class.isAssignableFrom( type ) ) {
             return (X) JacksonUtil.toJsonNode(toString(value));
         }
+        if ( byte[].class.isAssignableFrom( type ) ) {
+            return (X) JacksonUtil.toBytes(value);
+        }
         throw unknownUnwrap( type );
     }
 
@@ -65,6 +67,9 @@ public class JsonNodeTypeDescriptor
         if ( value == null ) {
             return null;
         }
+        if ( value instanceof byte[] ) {
+            return JacksonUtil.toJsonNode( (byte[]) value );
+        }
         return fromString(value.toString());
     }
 
@@ -0,0 +1,52 @@
+package com.vladmihalcea.book.hpjp.hibernate.type.json;
+
+import java.io.Serializable;
+import java.nio.charset.StandardCharsets;
+import java.util.Arrays;
+
+/**
+ * Immutable serialized form of a JSON attribute value which
+ * is kept in the Persistence Context as the loaded state.
+ *
+ * @author Vlad Mihalcea
+ */
+public final class JsonSnapshot implements Serializable {
+
+    private final byte[] bytes;
+
+    public JsonSnapshot(byte[] bytes) {
+        this.bytes = bytes;
+    }
+
+    public static JsonSnapshot of(Object value) {
+        if (value instanceof JsonSnapshot) {
+            return (JsonSnapshot) value;
+        }
+        return new JsonSnapshot(JacksonUtil.toBytes(value));
+    }
+
+    public byte[] getBytes() {
+        return bytes;
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof JsonSnapshot)) {
+            return false;
+        }
+        return Arrays.equals(bytes, ((JsonSnapshot) o).bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return Arrays.hashCode(bytes);
+    }
+
+    @Override
+    public String toString() {
+        return new String(bytes, StandardCharsets.UTF_8);
+    }
+}
@@ -0,0 +1,42 @@
+package com.vladmihalcea.book.hpjp.hibernate.type.json;
+
+import org.hibernate.type.descriptor.java.MutabilityPlan;
+
+import java.io.Serializable;
+
+/**
+ * Instead of cloning the JSON attribute value, which requires both serializing and parsing it,
+ * this {@link MutabilityPlan} keeps the loaded state as a {@link JsonSnapshot}, so every copy
+ * costs a single serialization. The snapshot is also used as the second-level cache entry,
+ * and it's only parsed back when the cache entry is assembled.
+ *
+ * @author Vlad Mihalcea
+ */
+public class JsonSnapshotMutabilityPlan implements MutabilityPlan<Object> {
+
+    private final JsonTypeDescriptor jsonTypeDescriptor;
+
+    public JsonSnapshotMutabilityPlan(JsonTypeDescriptor jsonTypeDescriptor) {
+        this.jsonTypeDescriptor = jsonTypeDescriptor;
+    }
+
+    @Override
+    public boolean isMutable() {
+        return true;
+    }
+
+    @Override
+    public Object deepCopy(Object value) {
+        return value != null ? JsonSnapshot.of(value) : null;
+    }
+
+    @Override
+    public Serializable disassemble(Object value) {
+        return (Serializable) deepCopy(value);
+    }
+
+    @Override
+    public Object assemble(Serializable cached) {
+        return jsonTypeDescriptor.materialize(cached);
+    }
+}
@@ -1,5 +1,6 @@
 package com.vladmihalcea.book.hpjp.hibernate.type.json;
 
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
 import org.hibernate.type.AbstractSingleColumnStandardBasicType;
 import org.hibernate.usertype.DynamicParameterizedType;
 
@@ -28,4 +29,9 @@ public class JsonStringType
 	public void setParameterValues(Properties parameters) {
 		((JsonTypeDescriptor) getJavaTypeDescriptor()).setParameterValues(parameters);
 	}
+
+	@Override
+	protected Object getReplacement(Object original, Object target, SharedSessionContractImplementor session) {
+		return ((JsonTypeDescriptor) getJavaTypeDescriptor()).materialize(super.getReplacement(original, target, session));
+	}
 }
\ No newline at end of file
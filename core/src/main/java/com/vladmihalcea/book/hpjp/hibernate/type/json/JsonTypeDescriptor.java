@@ -1,10 +1,15 @@
 package com.vladmihalcea.book.hpjp.hibernate.type.json;
 
+import com.fasterxml.jackson.databind.ObjectReader;
 import org.hibernate.type.descriptor.WrapperOptions;
 import org.hibernate.type.descriptor.java.AbstractTypeDescriptor;
+import org.hibernate.type.descriptor.java.MutabilityPlan;
 import org.hibernate.type.descriptor.java.MutableMutabilityPlan;
 import org.hibernate.usertype.DynamicParameterizedType;
 
+import java.io.ByteArrayInputStream;
+import java.io.InputStream;
+import java.util.Arrays;
 import java.util.Properties;
 
 /**
@@ -13,12 +18,24 @@ import java.util.Properties;
 public class JsonTypeDescriptor
         extends AbstractTypeDescriptor<Object> implements DynamicParameterizedType {
 
+    /**
+     * Type parameter which enables the {@link JsonSnapshotMutabilityPlan}.
+     */
+    public static final String SNAPSHOT = "snapshot";
+
     private Class<?> jsonObjectClass;
 
+    private ObjectReader objectReader;
+
+    private MutabilityPlan<Object> snapshotMutabilityPlan;
+
     @Override
     public void setParameterValues(Properties parameters) {
         jsonObjectClass = ( (ParameterType) parameters.get( PARAMETER_TYPE ) ).getReturnedClass();
-
+        objectReader = JacksonUtil.objectReader( jsonObjectClass );
+        if ( Boolean.parseBoolean( parameters.getProperty( SNAPSHOT ) ) ) {
+            snapshotMutabilityPlan = new JsonSnapshotMutabilityPlan( this );
+        }
     }
 
     public JsonTypeDescriptor() {
@@ -30,6 +47,11 @@ public class JsonTypeDescriptor
         });
     }
 
+    @Override
+    public MutabilityPlan<Object> getMutabilityPlan() {
+        return snapshotMutabilityPlan != null ? snapshotMutabilityPlan : super.getMutabilityPlan();
+    }
+
     @Override
     public boolean areEqual(Object one, Object another) {
         if ( one == another ) {
@@ -38,18 +60,39 @@ public class JsonTypeDescriptor
         if ( one == null || another == null ) {
             return false;
         }
-        return JacksonUtil.toJsonNode(JacksonUtil.toString(one)).equals(
-                JacksonUtil.toJsonNode(JacksonUtil.toString(another)));
+        if ( one instanceof JsonSnapshot || another instanceof JsonSnapshot ) {
+            byte[] oneBytes = JsonSnapshot.of( one ).getBytes();
+            byte[] anotherBytes = JsonSnapshot.of( another ).getBytes();
+            return Arrays.equals( oneBytes, anotherBytes ) ||
+                JacksonUtil.toJsonNode( oneBytes ).equals( JacksonUtil.toJsonNode( anotherBytes ) );
+        }
+        return JacksonUtil.isEquals(one, another);
     }
 
     @Override
     public String toString(Object value) {
+        if ( value instanceof JsonSnapshot ) {
+            return value.toString();
+        }
         return JacksonUtil.toString(value);
     }
 
     @Override
     public Object fromString(String string) {
-        return JacksonUtil.fromString(string, jsonObjectClass);
+        return JacksonUtil.fromString(string, objectReader);
+    }
+
+    /**
+     * Turn the given value into an instance of the attribute type.
+     *
+     * @param value attribute value or {@link JsonSnapshot}
+     * @return attribute value
+     */
+    public Object materialize(Object value) {
+        if ( value instanceof JsonSnapshot ) {
+            return JacksonUtil.fromBytes( ( (JsonSnapshot) value ).getBytes(), objectReader );
+        }
+        return value;
     }
 
     @SuppressWarnings({ "unchecked" })
@@ -61,7 +104,16 @@ public class JsonTypeDescriptor
         if ( String.class.isAssignableFrom( type ) ) {
             return (X) toString(value);
         }
+        if ( byte[].class.isAssignableFrom( type ) ) {
+            return (X) JsonSnapshot.of( value ).getBytes();
+        }
+        if ( InputStream.class.isAssignableFrom( type ) ) {
+            return (X) new ByteArrayInputStream( JsonSnapshot.of( value ).getBytes() );
+        }
         if ( Object.class.isAssignableFrom( type ) ) {
+            if ( value instanceof JsonSnapshot ) {
+                return (X) JacksonUtil.toJsonNode( ( (JsonSnapshot) value ).getBytes() );
+            }
             return (X) JacksonUtil.toJsonNode(toString(value));
         }
         throw unknownUnwrap( type );
@@ -72,6 +124,12 @@ public class JsonTypeDescriptor
         if ( value == null ) {
             return null;
         }
+        if ( value instanceof byte[] ) {
+            return JacksonUtil.fromBytes( (byte[]) value, objectReader );
+        }
+        if ( value instanceof InputStream ) {
+            return JacksonUtil.fromStream( (InputStream) value, objectReader );
+        }
         return fromString(value.toString());
     }
 
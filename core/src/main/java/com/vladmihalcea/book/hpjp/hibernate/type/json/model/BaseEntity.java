@@ -8,7 +8,9 @@ import com.vladmihalcea.book.hpjp.hibernate.type.array.EnumArrayType;
 import org.hibernate.annotations.TypeDef;
 import org.hibernate.annotations.TypeDefs;
 
+import com.vladmihalcea.book.hpjp.hibernate.type.array.DoubleArrayType;
 import com.vladmihalcea.book.hpjp.hibernate.type.array.IntArrayType;
+import com.vladmihalcea.book.hpjp.hibernate.type.array.LongArrayType;
 import com.vladmihalcea.book.hpjp.hibernate.type.array.StringArrayType;
 import com.vladmihalcea.book.hpjp.hibernate.type.json.JsonBinaryType;
 import com.vladmihalcea.book.hpjp.hibernate.type.json.JsonNodeBinaryType;
@@ -20,6 +22,8 @@ import com.vladmihalcea.book.hpjp.hibernate.type.json.JsonStringType;
 @TypeDefs({
     @TypeDef(name = "string-array", typeClass = StringArrayType.class),
     @TypeDef(name = "int-array", typeClass = IntArrayType.class),
+    @TypeDef(name = "long-array", typeClass = LongArrayType.class),
+    @TypeDef(name = "double-array", typeClass = DoubleArrayType.class),
     @TypeDef(name = "enum-array", typeClass = EnumArrayType.class),
     @TypeDef(name = "json", typeClass = JsonStringType.class),
     @TypeDef(name = "jsonb", typeClass = JsonBinaryType.class),
@@ -0,0 +1,389 @@
+package com.vladmihalcea.book.hpjp.hibernate.batch;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.id.IdentifierGenerator;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import java.util.*;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+
+/**
+ * ChunkProcessor - Runs a batch job in chunks, each chunk using its own {@link EntityManager} and transaction,
+ * so the Persistence Context never holds more than one chunk of entities, and the flush at commit time
+ * can send the chunk using JDBC batching. This replaces the {@code i % batchSize} flush/clear/commit loop.
+ * <p>
+ * When a chunk fails, it's rolled back and split in two halves, which are retried separately,
+ * until the item that fails is isolated and reported as failed, while all the other items are processed.
+ * The item processor must therefore be able to process an item again if the chunk is rolled back.
+ * <p>
+ * The items are either taken from an {@link Iterator}, or from an identifier query that is paginated
+ * using the keyset method, in which case the identifier range can be partitioned and
+ * processed in parallel by the given {@link ExecutorService}.
+ *
+ * @author Vlad Mihalcea
+ */
+public class ChunkProcessor {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(ChunkProcessor.class);
+
+    /**
+     * Processes an item using the {@link EntityManager} of the current chunk.
+     */
+    @FunctionalInterface
+    public interface ItemProcessor<T> {
+        void process(EntityManager entityManager, T item);
+    }
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    private int chunkSize = 100;
+
+    private ExecutorService executorService;
+
+    private MetricRegistry metricRegistry;
+
+    private Meter itemMeter;
+
+    private Timer chunkTimer;
+
+    private Counter splitCounter;
+
+    private Meter failureMeter;
+
+    public ChunkProcessor(EntityManagerFactory entityManagerFactory) {
+        this.entityManagerFactory = entityManagerFactory;
+        metricRegistry(new MetricRegistry());
+    }
+
+    public ChunkProcessor chunkSize(int chunkSize) {
+        if (chunkSize <= 0) {
+            throw new IllegalArgumentException("The chunk size must be positive!");
+        }
+        this.chunkSize = chunkSize;
+        return this;
+    }
+
+    /**
+     * Round the chunk size up to a multiple of both the {@code hibernate.jdbc.batch_size}
+     * and the sequence {@code allocationSize} of the given entity, so that every chunk is flushed
+     * in full JDBC batches and uses whole identifier ranges.
+     *
+     * @param entityClass entity class whose identifier generator is checked
+     * @return this processor
+     */
+    public ChunkProcessor alignChunkSize(Class<?> entityClass) {
+        SessionFactoryImplementor sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        int alignment = Math.max(1, sessionFactory.getSessionFactoryOptions().getJdbcBatchSize());
+        IdentifierGenerator identifierGenerator = sessionFactory.getMetamodel()
+            .entityPersister(entityClass)
+            .getIdentifierGenerator();
+        if (identifierGenerator instanceof SequenceStyleGenerator) {
+            alignment = lcm(
+                alignment,
+                ((SequenceStyleGenerator) identifierGenerator).getOptimizer().getIncrementSize()
+            );
+        }
+        chunkSize = (chunkSize + alignment - 1) / alignment * alignment;
+        return this;
+    }
+
+    /**
+     * Process the partitions of {@link #processPartitioned} in parallel. If no executor is set,
+     * the partitions are processed by the calling thread, one after the other.
+     *
+     * @param executorService partition executor
+     * @return this processor
+     */
+    public ChunkProcessor executorService(ExecutorService executorService) {
+        this.executorService = executorService;
+        return this;
+    }
+
+    public ChunkProcessor metricRegistry(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+        itemMeter = metricRegistry.meter(MetricRegistry.name(getClass(), "items"));
+        chunkTimer = metricRegistry.timer(MetricRegistry.name(getClass(), "chunk"));
+        splitCounter = metricRegistry.counter(MetricRegistry.name(getClass(), "splits"));
+        failureMeter = metricRegistry.meter(MetricRegistry.name(getClass(), "failures"));
+        return this;
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return metricRegistry;
+    }
+
+    public int getChunkSize() {
+        return chunkSize;
+    }
+
+    /**
+     * Process the items of the given iterator, in chunks.
+     *
+     * @param items items to process
+     * @param itemProcessor item processor
+     * @return the job result
+     */
+    public <T> Result<T> process(Iterator<T> items, ItemProcessor<T> itemProcessor) {
+        Result<T> result = new Result<>();
+        List<T> chunk = new ArrayList<>(chunkSize);
+        while (items.hasNext()) {
+            chunk.add(items.next());
+            if (chunk.size() == chunkSize) {
+                processChunk(chunk, itemProcessor, result);
+                chunk = new ArrayList<>(chunkSize);
+            }
+        }
+        if (!chunk.isEmpty()) {
+            processChunk(chunk, itemProcessor, result);
+        }
+        return result;
+    }
+
+    /**
+     * Process the identifiers returned by the given query, in chunks. The query must select the
+     * identifiers greater than the {@code :lastId} and not greater than the {@code :maxId}
+     * parameter, ordered by identifier, like
+     * {@code select p.id from Post p where p.id > :lastId and p.id <= :maxId order by p.id}.
+     * Every chunk of identifiers is fetched right before being processed.
+     *
+     * @param idQuery JPQL identifier query
+     * @param minId identifiers are greater than this value
+     * @param maxId identifiers are not greater than this value
+     * @param itemProcessor identifier processor
+     * @return the job result
+     */
+    public Result<Long> process(String idQuery, long minId, long maxId, ItemProcessor<Long> itemProcessor) {
+        return process(new KeysetIdIterator(idQuery, minId, maxId), itemProcessor);
+    }
+
+    /**
+     * Split the {@code (minId, maxId]} identifier range in the given number of partitions, and process
+     * the identifiers of every partition like {@link #process(String, long, long, ItemProcessor)} does.
+     * The range may be as wide as {@code (Long.MIN_VALUE, Long.MAX_VALUE]}, and the last partition always
+     * ends at {@code maxId}.
+     *
+     * @param idQuery JPQL identifier query
+     * @param minId identifiers are greater than this value
+     * @param maxId identifiers are not greater than this value
+     * @param partitions number of partitions
+     * @param itemProcessor identifier processor
+     * @return the aggregated result of all partitions
+     */
+    public Result<Long> processPartitioned(
+            String idQuery, long minId, long maxId, int partitions, ItemProcessor<Long> itemProcessor) {
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("The number of partitions must be positive!");
+        }
+        List<Future<Result<Long>>> futures = new ArrayList<>();
+        List<Result<Long>> results = new ArrayList<>();
+        for (int i = 0; i < partitions && minId < maxId; i++) {
+            long partitionStart = partitionBoundary(minId, maxId, partitions, i);
+            long partitionEnd = i == partitions - 1 ? maxId : partitionBoundary(minId, maxId, partitions, i + 1);
+            if (partitionStart == partitionEnd) {
+                continue;
+            }
+            if (executorService != null) {
+                futures.add(
+                    executorService.submit(() -> process(idQuery, partitionStart, partitionEnd, itemProcessor))
+                );
+            } else {
+                results.add(process(idQuery, partitionStart, partitionEnd, itemProcessor));
+            }
+        }
+        for (Future<Result<Long>> future : futures) {
+            try {
+                results.add(future.get());
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new IllegalStateException(e);
+            } catch (ExecutionException e) {
+                if (e.getCause() instanceof RuntimeException) {
+                    throw (RuntimeException) e.getCause();
+                }
+                throw new IllegalStateException(e.getCause());
+            }
+        }
+        Result<Long> result = new Result<>();
+        for (Result<Long> partitionResult : results) {
+            result.merge(partitionResult);
+        }
+        return result;
+    }
+
+    /**
+     * Compute {@code minId + (maxId - minId) * partition / partitions} without overflowing, by treating
+     * the range width as an unsigned value and splitting it in its quotient and remainder.
+     */
+    private static long partitionBoundary(long minId, long maxId, int partitions, int partition) {
+        long width = maxId - minId;
+        long quotient = Long.divideUnsigned(width, partitions);
+        long remainder = Long.remainderUnsigned(width, partitions);
+        return minId + quotient * partition + remainder * partition / partitions;
+    }
+
+    private <T> void processChunk(List<T> chunk, ItemProcessor<T> itemProcessor, Result<T> result) {
+        long startNanos = System.nanoTime();
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        EntityTransaction transaction = entityManager.getTransaction();
+        try {
+            transaction.begin();
+            for (T item : chunk) {
+                itemProcessor.process(entityManager, item);
+            }
+            transaction.commit();
+        } catch (RuntimeException e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            entityManager.close();
+            retry(chunk, itemProcessor, result, e);
+            return;
+        } finally {
+            if (entityManager.isOpen()) {
+                entityManager.close();
+            }
+        }
+        chunkTimer.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+        itemMeter.mark(chunk.size());
+        result.chunkCount.incrementAndGet();
+        result.processedCount.addAndGet(chunk.size());
+    }
+
+    private <T> void retry(List<T> chunk, ItemProcessor<T> itemProcessor, Result<T> result, RuntimeException e) {
+        if (chunk.size() == 1) {
+            T item = chunk.get(0);
+            LOGGER.warn("Item {} could not be processed", item, e);
+            failureMeter.mark();
+            result.failedItems.add(item);
+            return;
+        }
+        splitCounter.inc();
+        result.splitCount.incrementAndGet();
+        int half = chunk.size() / 2;
+        processChunk(new ArrayList<>(chunk.subList(0, half)), itemProcessor, result);
+        processChunk(new ArrayList<>(chunk.subList(half, chunk.size())), itemProcessor, result);
+    }
+
+    private static int lcm(int a, int b) {
+        int x = a;
+        int y = b;
+        while (y != 0) {
+            int remainder = x % y;
+            x = y;
+            y = remainder;
+        }
+        return a / x * b;
+    }
+
+    /**
+     * Fetches the next chunk of identifiers, starting after the last fetched identifier.
+     */
+    private class KeysetIdIterator implements Iterator<Long> {
+
+        private final String idQuery;
+
+        private final long maxId;
+
+        private long lastId;
+
+        private Iterator<Long> page = Collections.emptyIterator();
+
+        private boolean lastPage;
+
+        private KeysetIdIterator(String idQuery, long minId, long maxId) {
+            this.idQuery = idQuery;
+            this.lastId = minId;
+            this.maxId = maxId;
+        }
+
+        @Override
+        public boolean hasNext() {
+            if (!page.hasNext() && !lastPage) {
+                List<Long> ids;
+                EntityManager entityManager = entityManagerFactory.createEntityManager();
+                try {
+                    ids = entityManager.createQuery(idQuery, Long.class)
+                        .setParameter("lastId", lastId)
+                        .setParameter("maxId", maxId)
+                        .setMaxResults(chunkSize)
+                        .getResultList();
+                } finally {
+                    entityManager.close();
+                }
+                lastPage = ids.size() < chunkSize;
+                page = ids.iterator();
+            }
+            return page.hasNext();
+        }
+
+        @Override
+        public Long next() {
+            if (!hasNext()) {
+                throw new NoSuchElementException();
+            }
+            lastId = page.next();
+            return lastId;
+        }
+    }
+
+    /**
+     * The outcome of a chunked job.
+     */
+    public static class Result<T> {
+
+        private final AtomicLong processedCount = new AtomicLong();
+
+        private final AtomicLong chunkCount = new AtomicLong();
+
+        private final AtomicLong splitCount = new AtomicLong();
+
+        private final Queue<T> failedItems = new ConcurrentLinkedQueue<>();
+
+        public long getProcessedCount() {
+            return processedCount.get();
+        }
+
+        public long getChunkCount() {
+            return chunkCount.get();
+        }
+
+        public long getSplitCount() {
+            return splitCount.get();
+        }
+
+        public List<T> getFailedItems() {
+            return new ArrayList<>(failedItems);
+        }
+
+        private void merge(Result<T> other) {
+            processedCount.addAndGet(other.getProcessedCount());
+            chunkCount.addAndGet(other.getChunkCount());
+            splitCount.addAndGet(other.getSplitCount());
+            failedItems.addAll(other.failedItems);
+        }
+
+        @Override
+        public String toString() {
+            return "Result{" +
+                "processedCount=" + processedCount +
+                ", chunkCount=" + chunkCount +
+                ", splitCount=" + splitCount +
+                ", failedItems=" + failedItems +
+                '}';
+        }
+    }
+}
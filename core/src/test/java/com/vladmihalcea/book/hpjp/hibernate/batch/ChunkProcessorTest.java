@@ -0,0 +1,194 @@
+package com.vladmihalcea.book.hpjp.hibernate.batch;
+
+import com.codahale.metrics.Slf4jReporter;
+import com.vladmihalcea.book.hpjp.util.AbstractTest;
+import org.junit.Test;
+
+import javax.persistence.*;
+import java.util.Collections;
+import java.util.Properties;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.IntStream;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Vlad Mihalcea
+ */
+public class ChunkProcessorTest extends AbstractTest {
+
+    public static final String POST_ID_QUERY = "select p.id from Post p where p.id > :lastId and p.id <= :maxId order by p.id";
+
+    private final int postCount = 1000;
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[]{
+            Post.class
+        };
+    }
+
+    @Override
+    protected void additionalProperties(Properties properties) {
+        properties.put("hibernate.jdbc.batch_size", "20");
+        properties.put("hibernate.order_inserts", "true");
+        properties.put("hibernate.order_updates", "true");
+    }
+
+    @Test
+    public void testInsert() {
+        ChunkProcessor chunkProcessor = new ChunkProcessor(entityManagerFactory())
+            .chunkSize(50)
+            .alignChunkSize(Post.class);
+        assertEquals(100, chunkProcessor.getChunkSize());
+
+        ChunkProcessor.Result<Integer> result = chunkProcessor.process(
+            IntStream.rangeClosed(1, postCount).iterator(),
+            (entityManager, i) -> entityManager.persist(new Post(String.format("Post %d", i)))
+        );
+        assertEquals(postCount, result.getProcessedCount());
+        assertEquals(postCount / 100, result.getChunkCount());
+        assertEquals(postCount, postCount());
+
+        report(chunkProcessor);
+    }
+
+    @Test
+    public void testSplitFailedChunk() {
+        insertPosts();
+        ChunkProcessor chunkProcessor = new ChunkProcessor(entityManagerFactory())
+            .chunkSize(100);
+
+        ChunkProcessor.Result<Long> result = chunkProcessor.process(
+            POST_ID_QUERY, 0, Long.MAX_VALUE,
+            (entityManager, id) -> {
+                if (id == 137) {
+                    throw new IllegalArgumentException("Post 137 cannot be updated");
+                }
+                entityManager.find(Post.class, id).setTitle("Updated");
+            }
+        );
+        assertEquals(postCount - 1, result.getProcessedCount());
+        assertEquals(Collections.singletonList(137L), result.getFailedItems());
+        assertEquals(7, result.getSplitCount());
+        assertEquals(postCount - 1, updatedPostCount());
+
+        report(chunkProcessor);
+    }
+
+    @Test
+    public void testPartitioned() throws InterruptedException {
+        insertPosts();
+        ExecutorService executorService = Executors.newFixedThreadPool(4);
+        ChunkProcessor chunkProcessor = new ChunkProcessor(entityManagerFactory())
+            .chunkSize(50)
+            .executorService(executorService);
+        try {
+            ChunkProcessor.Result<Long> result = chunkProcessor.processPartitioned(
+                POST_ID_QUERY, 0, postCount, 4,
+                (entityManager, id) -> entityManager.find(Post.class, id).setTitle("Updated")
+            );
+            assertEquals(postCount, result.getProcessedCount());
+            assertEquals(postCount / 50, result.getChunkCount());
+            assertEquals(postCount, updatedPostCount());
+        } finally {
+            executorService.shutdown();
+            executorService.awaitTermination(10, TimeUnit.SECONDS);
+        }
+
+        report(chunkProcessor);
+    }
+
+    @Test
+    public void testPartitionedWholeIdentifierRange() {
+        insertPosts();
+        ChunkProcessor chunkProcessor = new ChunkProcessor(entityManagerFactory())
+            .chunkSize(50);
+
+        ChunkProcessor.Result<Long> result = chunkProcessor.processPartitioned(
+            POST_ID_QUERY, Long.MIN_VALUE, Long.MAX_VALUE, 4,
+            (entityManager, id) -> entityManager.find(Post.class, id).setTitle("Updated")
+        );
+        assertEquals(postCount, result.getProcessedCount());
+        assertEquals(postCount, updatedPostCount());
+
+        result = chunkProcessor.processPartitioned(
+            POST_ID_QUERY, 0, Long.MAX_VALUE, 3,
+            (entityManager, id) -> entityManager.find(Post.class, id).setTitle("Updated again")
+        );
+        assertEquals(postCount, result.getProcessedCount());
+
+        report(chunkProcessor);
+    }
+
+    private void insertPosts() {
+        new ChunkProcessor(entityManagerFactory())
+            .alignChunkSize(Post.class)
+            .process(
+                IntStream.rangeClosed(1, postCount).iterator(),
+                (entityManager, i) -> entityManager.persist(new Post(String.format("Post %d", i)))
+            );
+    }
+
+    private long postCount() {
+        return doInJPA(entityManager -> {
+            return entityManager.createQuery("select count(p) from Post p", Long.class).getSingleResult();
+        });
+    }
+
+    private long updatedPostCount() {
+        return doInJPA(entityManager -> {
+            return entityManager.createQuery("select count(p) from Post p where p.title = 'Updated'", Long.class)
+                .getSingleResult();
+        });
+    }
+
+    private void report(ChunkProcessor chunkProcessor) {
+        Slf4jReporter.forRegistry(chunkProcessor.getMetricRegistry())
+            .outputTo(LOGGER)
+            .convertDurationsTo(TimeUnit.MILLISECONDS)
+            .build()
+            .report();
+    }
+
+    @Entity(name = "Post")
+    @Table(name = "post")
+    public static class Post {
+
+        @Id
+        @GeneratedValue(generator = "seq_post")
+        @SequenceGenerator(
+            name = "seq_post",
+            sequenceName = "seq_post",
+            allocationSize = 25
+        )
+        private Long id;
+
+        private String title;
+
+        public Post() {
+        }
+
+        public Post(String title) {
+            this.title = title;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public void setTitle(String title) {
+            this.title = title;
+        }
+    }
+}
@@ -256,6 +256,7 @@ public class SkipLockJobQueueTest extends AbstractPostgreSQLIntegrationTest {
     public enum PostStatus {
         PENDING,
         APPROVED,
-        SPAM
+        SPAM,
+        FAILED
     }
 }
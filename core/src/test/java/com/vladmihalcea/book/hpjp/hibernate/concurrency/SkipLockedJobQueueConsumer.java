@@ -0,0 +1,380 @@
+package com.vladmihalcea.book.hpjp.hibernate.concurrency;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.hibernate.LockOptions;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import javax.persistence.EntityManager;
+import javax.persistence.EntityManagerFactory;
+import javax.persistence.EntityTransaction;
+import javax.persistence.LockModeType;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * SkipLockedJobQueueConsumer - Runs the {@code PESSIMISTIC_WRITE} + {@code SKIP_LOCKED} polling pattern
+ * of the {@link SkipLockJobQueueTest} as a job queue with a fixed number of workers.
+ *
+ * Every worker claims a batch of jobs having the pending status, processes them while the rows are locked,
+ * and then sets the status returned by the job processor using one bulk update per resulting status.
+ * The batch size grows while the queue has a backlog and the transactions are shorter than the
+ * target transaction time, and it shrinks when the transactions take longer, so the row locks are not held
+ * for too long. When no job could be claimed, the worker backs off exponentially, up to the max backoff time.
+ *
+ * When a batch fails, it's rolled back and its jobs are processed again one at a time, each one in its own
+ * transaction, so that a job whose processor keeps on failing is set to the failed status instead of
+ * being claimed over and over again, blocking the rest of the queue.
+ *
+ * The bulk update only changes the jobs which are still pending. On databases which ignore {@code SKIP LOCKED},
+ * like HSQLDB, two workers might claim the same job, but only the first commit changes its status, and the
+ * job is counted as a duplicate by the second worker.
+ *
+ * The claim latency, the batch size, the transaction time, the processed job rate and the duplicate job rate
+ * are recorded in the {@link MetricRegistry}.
+ *
+ * @author Vlad Mihalcea
+ */
+public class SkipLockedJobQueueConsumer<T> implements AutoCloseable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(SkipLockedJobQueueConsumer.class);
+
+    private final EntityManagerFactory entityManagerFactory;
+
+    private final Class<T> jobClass;
+
+    private final Object pendingStatus;
+
+    private final Object failedStatus;
+
+    private final Function<T, ?> jobProcessor;
+
+    private String idAttribute = "id";
+
+    private String statusAttribute = "status";
+
+    private int workerCount = 1;
+
+    private int minBatchSize = 1;
+
+    private int maxBatchSize = 100;
+
+    private long targetTransactionNanos = TimeUnit.MILLISECONDS.toNanos(100);
+
+    private long minBackoffMillis = 10;
+
+    private long maxBackoffMillis = 1000;
+
+    private MetricRegistry metricRegistry = new MetricRegistry();
+
+    private ExecutorService executorService;
+
+    private volatile boolean running;
+
+    private String claimQuery;
+
+    private String updateQuery;
+
+    private String claimJobQuery;
+
+    private Timer claimTimer;
+
+    private Timer transactionTimer;
+
+    private Histogram batchSizeHistogram;
+
+    private Meter processedJobsMeter;
+
+    private Meter failedBatchesMeter;
+
+    private Meter duplicateJobsMeter;
+
+    private Meter failedJobsMeter;
+
+    /**
+     * @param entityManagerFactory entity manager factory
+     * @param jobClass job entity class
+     * @param pendingStatus status of the jobs waiting to be processed
+     * @param failedStatus status of the jobs which could not be processed
+     * @param jobProcessor processes a job and returns its new status
+     */
+    public SkipLockedJobQueueConsumer(
+            EntityManagerFactory entityManagerFactory,
+            Class<T> jobClass,
+            Object pendingStatus,
+            Object failedStatus,
+            Function<T, ?> jobProcessor) {
+        this.entityManagerFactory = entityManagerFactory;
+        this.jobClass = jobClass;
+        this.pendingStatus = pendingStatus;
+        this.failedStatus = failedStatus;
+        this.jobProcessor = jobProcessor;
+    }
+
+    public SkipLockedJobQueueConsumer<T> attributes(String idAttribute, String statusAttribute) {
+        this.idAttribute = idAttribute;
+        this.statusAttribute = statusAttribute;
+        return this;
+    }
+
+    public SkipLockedJobQueueConsumer<T> workerCount(int workerCount) {
+        this.workerCount = workerCount;
+        return this;
+    }
+
+    public SkipLockedJobQueueConsumer<T> batchSize(int minBatchSize, int maxBatchSize) {
+        this.minBatchSize = Math.max(1, minBatchSize);
+        this.maxBatchSize = Math.max(this.minBatchSize, maxBatchSize);
+        return this;
+    }
+
+    public SkipLockedJobQueueConsumer<T> targetTransactionTime(long duration, TimeUnit timeUnit) {
+        this.targetTransactionNanos = timeUnit.toNanos(duration);
+        return this;
+    }
+
+    public SkipLockedJobQueueConsumer<T> backoff(long minBackoff, long maxBackoff, TimeUnit timeUnit) {
+        this.minBackoffMillis = Math.max(1, timeUnit.toMillis(minBackoff));
+        this.maxBackoffMillis = Math.max(this.minBackoffMillis, timeUnit.toMillis(maxBackoff));
+        return this;
+    }
+
+    public SkipLockedJobQueueConsumer<T> metricRegistry(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+        return this;
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return metricRegistry;
+    }
+
+    public synchronized void start() {
+        if (running) {
+            return;
+        }
+        String entityName = entityManagerFactory.getMetamodel().entity(jobClass).getName();
+        claimQuery = String.format(
+            "select j from %1$s j where j.%2$s = :status order by j.%3$s",
+            entityName, statusAttribute, idAttribute
+        );
+        updateQuery = String.format(
+            "update %1$s set %2$s = :status where %3$s in :ids and %2$s = :pendingStatus",
+            entityName, statusAttribute, idAttribute
+        );
+        claimJobQuery = String.format(
+            "select j from %1$s j where j.%3$s = :id and j.%2$s = :status",
+            entityName, statusAttribute, idAttribute
+        );
+
+        String prefix = MetricRegistry.name(getClass(), jobClass.getSimpleName());
+        claimTimer = metricRegistry.timer(MetricRegistry.name(prefix, "claim"));
+        transactionTimer = metricRegistry.timer(MetricRegistry.name(prefix, "transaction"));
+        batchSizeHistogram = metricRegistry.histogram(MetricRegistry.name(prefix, "batchSize"));
+        processedJobsMeter = metricRegistry.meter(MetricRegistry.name(prefix, "processedJobs"));
+        failedBatchesMeter = metricRegistry.meter(MetricRegistry.name(prefix, "failedBatches"));
+        duplicateJobsMeter = metricRegistry.meter(MetricRegistry.name(prefix, "duplicateJobs"));
+        failedJobsMeter = metricRegistry.meter(MetricRegistry.name(prefix, "failedJobs"));
+
+        AtomicInteger threadId = new AtomicInteger();
+        executorService = Executors.newFixedThreadPool(workerCount, runnable -> {
+            Thread thread = new Thread(runnable, jobClass.getSimpleName() + "-worker-" + threadId.incrementAndGet());
+            thread.setDaemon(true);
+            return thread;
+        });
+        running = true;
+        for (int i = 0; i < workerCount; i++) {
+            executorService.execute(this::work);
+        }
+    }
+
+    /**
+     * Stop claiming jobs and wait for the batches in progress to be committed.
+     */
+    @Override
+    public synchronized void close() {
+        if (!running) {
+            return;
+        }
+        running = false;
+        executorService.shutdown();
+        try {
+            if (!executorService.awaitTermination(1, TimeUnit.MINUTES)) {
+                executorService.shutdownNow();
+            }
+        } catch (InterruptedException e) {
+            executorService.shutdownNow();
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    private void work() {
+        int batchSize = minBatchSize;
+        long backoffMillis = minBackoffMillis;
+
+        List<Object> claimedIds = new ArrayList<>();
+
+        while (running) {
+            long startNanos = System.nanoTime();
+            int claimedJobs;
+            claimedIds.clear();
+            try {
+                claimedJobs = processBatch(batchSize, claimedIds);
+            } catch (RuntimeException e) {
+                LOGGER.warn("Batch processing failed, the claimed jobs are going to be processed one by one", e);
+                failedBatchesMeter.mark();
+                for (Object id : claimedIds) {
+                    processJob(id);
+                }
+                claimedJobs = 0;
+            }
+            long transactionNanos = System.nanoTime() - startNanos;
+
+            if (claimedJobs > 0) {
+                transactionTimer.update(transactionNanos, TimeUnit.NANOSECONDS);
+                batchSizeHistogram.update(claimedJobs);
+                backoffMillis = minBackoffMillis;
+
+                if (transactionNanos > targetTransactionNanos) {
+                    batchSize = Math.max(minBatchSize, batchSize / 2);
+                } else if (claimedJobs == batchSize) {
+                    batchSize = Math.min(maxBatchSize, batchSize * 2);
+                }
+            } else {
+                batchSize = minBatchSize;
+                try {
+                    Thread.sleep(backoffMillis);
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    return;
+                }
+                backoffMillis = Math.min(maxBackoffMillis, backoffMillis * 2);
+            }
+        }
+    }
+
+    /**
+     * @param claimedIds collects the identifiers of the claimed jobs
+     * @return the number of claimed jobs
+     */
+    private int processBatch(int batchSize, List<Object> claimedIds) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        EntityTransaction transaction = entityManager.getTransaction();
+        try {
+            transaction.begin();
+
+            long claimStartNanos = System.nanoTime();
+            List<T> jobs = entityManager.createQuery(claimQuery, jobClass)
+                .setParameter("status", pendingStatus)
+                .setMaxResults(batchSize)
+                .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                .setHint("javax.persistence.lock.timeout", LockOptions.SKIP_LOCKED)
+                .getResultList();
+            claimTimer.update(System.nanoTime() - claimStartNanos, TimeUnit.NANOSECONDS);
+            for (T job : jobs) {
+                claimedIds.add(entityManagerFactory.getPersistenceUnitUtil().getIdentifier(job));
+            }
+
+            int updatedJobs = processJobs(entityManager, jobs);
+
+            transaction.commit();
+            processedJobsMeter.mark(updatedJobs);
+            if (updatedJobs < jobs.size()) {
+                duplicateJobsMeter.mark(jobs.size() - updatedJobs);
+            }
+            return jobs.size();
+        } catch (RuntimeException e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            throw e;
+        } finally {
+            entityManager.close();
+        }
+    }
+
+    /**
+     * Process the claimed jobs and set their new status.
+     *
+     * @return the number of updated jobs
+     */
+    private int processJobs(EntityManager entityManager, List<T> jobs) {
+        Map<Object, List<Object>> idsByStatus = new LinkedHashMap<>();
+        for (T job : jobs) {
+            Object status = jobProcessor.apply(job);
+            idsByStatus.computeIfAbsent(status, s -> new ArrayList<>())
+                .add(entityManagerFactory.getPersistenceUnitUtil().getIdentifier(job));
+        }
+
+        int updatedJobs = 0;
+        for (Map.Entry<Object, List<Object>> statusIds : idsByStatus.entrySet()) {
+            updatedJobs += updateStatus(entityManager, statusIds.getKey(), statusIds.getValue());
+        }
+        return updatedJobs;
+    }
+
+    private int updateStatus(EntityManager entityManager, Object status, List<Object> ids) {
+        return entityManager.createQuery(updateQuery)
+            .setParameter("status", status)
+            .setParameter("ids", ids)
+            .setParameter("pendingStatus", pendingStatus)
+            .executeUpdate();
+    }
+
+    /**
+     * Process a job of a failed batch in its own transaction. If it fails again, set it to the failed status.
+     */
+    private void processJob(Object id) {
+        EntityManager entityManager = entityManagerFactory.createEntityManager();
+        EntityTransaction transaction = entityManager.getTransaction();
+        try {
+            transaction.begin();
+            List<T> jobs = entityManager.createQuery(claimJobQuery, jobClass)
+                .setParameter("id", id)
+                .setParameter("status", pendingStatus)
+                .setLockMode(LockModeType.PESSIMISTIC_WRITE)
+                .setHint("javax.persistence.lock.timeout", LockOptions.SKIP_LOCKED)
+                .getResultList();
+            int updatedJobs = processJobs(entityManager, jobs);
+            transaction.commit();
+            processedJobsMeter.mark(updatedJobs);
+            if (updatedJobs < jobs.size()) {
+                duplicateJobsMeter.mark(jobs.size() - updatedJobs);
+            }
+            return;
+        } catch (RuntimeException e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            LOGGER.error("Job {} could not be processed, setting it to the {} status", id, failedStatus, e);
+        } finally {
+            entityManager.close();
+        }
+
+        entityManager = entityManagerFactory.createEntityManager();
+        transaction = entityManager.getTransaction();
+        try {
+            transaction.begin();
+            int failedJobs = updateStatus(entityManager, failedStatus, Collections.singletonList(id));
+            transaction.commit();
+            failedJobsMeter.mark(failedJobs);
+        } catch (RuntimeException e) {
+            if (transaction.isActive()) {
+                transaction.rollback();
+            }
+            LOGGER.error("Job {} could not be set to the {} status", id, failedStatus, e);
+        } finally {
+            entityManager.close();
+        }
+    }
+}
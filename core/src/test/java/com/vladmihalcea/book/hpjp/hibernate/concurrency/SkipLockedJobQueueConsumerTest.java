@@ -0,0 +1,154 @@
+package com.vladmihalcea.book.hpjp.hibernate.concurrency;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Slf4jReporter;
+import com.vladmihalcea.book.hpjp.hibernate.concurrency.SkipLockJobQueueTest.Post;
+import com.vladmihalcea.book.hpjp.hibernate.concurrency.SkipLockJobQueueTest.PostStatus;
+import com.vladmihalcea.book.hpjp.util.AbstractTest;
+import org.junit.Test;
+
+import java.util.Map;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Function;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Vlad Mihalcea
+ */
+public class SkipLockedJobQueueConsumerTest extends AbstractTest {
+
+    private final int postCount = 2000;
+
+    private final int workerCount = 4;
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[]{
+            Post.class
+        };
+    }
+
+    @Override
+    protected Properties properties() {
+        Properties properties = super.properties();
+        properties.put("hibernate.jdbc.batch_size", "100");
+        return properties;
+    }
+
+    @Override
+    protected boolean connectionPooling() {
+        return true;
+    }
+
+    @Override
+    protected void afterInit() {
+        doInJPA(entityManager -> {
+            for (long i = 1; i <= postCount; i++) {
+                Post post = new Post();
+                post.setId(i);
+                post.setTitle("High-Performance Java Persistence");
+                post.setBody(String.format("Chapter %d summary", i));
+                post.setStatus(PostStatus.PENDING);
+                entityManager.persist(post);
+            }
+        });
+    }
+
+    @Test
+    public void testConsumer() throws InterruptedException {
+        SkipLockedJobQueueConsumer<Post> consumer = consume(
+            post -> post.getBody().contains("7") ? PostStatus.SPAM : PostStatus.APPROVED
+        );
+
+        Meter processedJobs = consumer.getMetricRegistry().getMeters().get(
+            MetricRegistry.name(SkipLockedJobQueueConsumer.class, "Post", "processedJobs")
+        );
+        assertEquals(postCount, processedJobs.getCount());
+        assertEquals(0, postCount(PostStatus.PENDING));
+
+        long expectedSpamCount = 0;
+        for (int i = 1; i <= postCount; i++) {
+            if (String.valueOf(i).contains("7")) {
+                expectedSpamCount++;
+            }
+        }
+        assertTrue(expectedSpamCount > 0);
+        assertEquals(expectedSpamCount, postCount(PostStatus.SPAM));
+    }
+
+    @Test
+    public void testPoisonJob() throws InterruptedException {
+        long poisonJobId = 1;
+        SkipLockedJobQueueConsumer<Post> consumer = consume(post -> {
+            if (post.getId() == poisonJobId) {
+                throw new IllegalStateException("The job processor always fails for this job");
+            }
+            return PostStatus.APPROVED;
+        });
+
+        Map<String, Meter> meters = consumer.getMetricRegistry().getMeters();
+        assertEquals(
+            postCount - 1,
+            meters.get(MetricRegistry.name(SkipLockedJobQueueConsumer.class, "Post", "processedJobs")).getCount()
+        );
+        assertEquals(
+            1,
+            meters.get(MetricRegistry.name(SkipLockedJobQueueConsumer.class, "Post", "failedJobs")).getCount()
+        );
+        assertEquals(0, postCount(PostStatus.PENDING));
+        assertEquals(1, postCount(PostStatus.FAILED));
+        assertEquals(postCount - 1, postCount(PostStatus.APPROVED));
+    }
+
+    private SkipLockedJobQueueConsumer<Post> consume(Function<Post, PostStatus> jobProcessor)
+            throws InterruptedException {
+        SkipLockedJobQueueConsumer<Post> consumer = new SkipLockedJobQueueConsumer<>(
+            entityManagerFactory(),
+            Post.class,
+            PostStatus.PENDING,
+            PostStatus.FAILED,
+            jobProcessor
+        )
+        .workerCount(workerCount)
+        .batchSize(10, 500)
+        .backoff(5, 50, TimeUnit.MILLISECONDS);
+
+        long startNanos = System.nanoTime();
+        consumer.start();
+        try {
+            long deadlineNanos = startNanos + TimeUnit.MINUTES.toNanos(1);
+            while (postCount(PostStatus.PENDING) > 0 && System.nanoTime() < deadlineNanos) {
+                Thread.sleep(10);
+            }
+        } finally {
+            consumer.close();
+        }
+        long elapsedMillis = TimeUnit.NANOSECONDS.toMillis(System.nanoTime() - startNanos);
+
+        Slf4jReporter.forRegistry(consumer.getMetricRegistry())
+            .outputTo(LOGGER)
+            .convertDurationsTo(TimeUnit.MICROSECONDS)
+            .build()
+            .report();
+        LOGGER.info(
+            "{} workers processed {} jobs in {} ms",
+            workerCount,
+            postCount,
+            elapsedMillis
+        );
+        return consumer;
+    }
+
+    private long postCount(PostStatus status) {
+        return doInJPA(entityManager -> {
+            return entityManager.createQuery(
+                "select count(p) from Post p where p.status = :status", Long.class)
+            .setParameter("status", status)
+            .getSingleResult();
+        });
+    }
+}
@@ -0,0 +1,447 @@
+package com.vladmihalcea.book.hpjp.hibernate.fetching;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.StatelessSession;
+import org.hibernate.Transaction;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.persister.entity.EntityPersister;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.Spliterator;
+import java.util.Spliterators;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.ForkJoinTask;
+import java.util.concurrent.TimeUnit;
+import java.util.function.Consumer;
+import java.util.stream.Stream;
+import java.util.stream.StreamSupport;
+
+/**
+ * PartitionedTableScanner - Parallel counterpart of the single {@link ScrollableResults} table scan used by the
+ * {@link PostgreSQLScrollableResultsStreamingTest} and {@link MySQLScrollableResultsStreamingTest}.
+ * <p>
+ * The table is split in primary key ranges, either evenly between the min and max identifier values, or using
+ * key-set boundaries which give every range the same number of rows, even if the identifiers are not dense.
+ * Every range is scrolled by a {@link ForkJoinPool} task, using its own {@link StatelessSession}, connection and
+ * read-only transaction, so the rows are not attached to any Persistence Context. Since these tasks block on
+ * JDBC calls, every scan uses its own pool, with one thread per range, which is shut down when the scan ends,
+ * instead of the common pool that parallel streams and {@link java.util.concurrent.CompletableFuture}s rely on.
+ * A shared pool can still be given explicitly.
+ * <p>
+ * The rows of all ranges are merged in a queue bounded to {@code bufferSize} rows, which is consumed
+ * through a sequential {@link Stream}. When the queue is full, the range tasks block until the consumer
+ * catches up, so the memory footprint depends on the {@code bufferSize} and not on the table size. The rows are not ordered, and since every range
+ * uses its own transaction, the ranges are not read from the same snapshot.
+ * <p>
+ * Like {@link javax.persistence.Query#getResultStream()}, the stream must be closed, as closing it
+ * cancels the ranges which are still being scrolled and waits for their connections to be released.
+ *
+ * @author Vlad Mihalcea
+ */
+public class PartitionedTableScanner {
+
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
+    public static final int DEFAULT_BUFFER_SIZE = 10_000;
+
+    private static final long OFFER_TIMEOUT_MILLIS = 10;
+
+    /**
+     * How the table identifier range is split in partitions.
+     */
+    public enum Boundaries {
+        /**
+         * Split the {@code [min(id), max(id)]} interval in ranges of equal length.
+         */
+        MIN_MAX,
+        /**
+         * Split the ordered identifiers in ranges holding the same number of rows. The boundaries are taken
+         * in a single forward-only scroll of the ordered identifiers, so computing them costs one pass
+         * over the identifier index, whatever the number of partitions.
+         */
+        KEYSET
+    }
+
+    private final SessionFactoryImplementor sessionFactory;
+
+    private ForkJoinPool forkJoinPool;
+
+    private int partitions = Runtime.getRuntime().availableProcessors();
+
+    private Boundaries boundaries = Boundaries.MIN_MAX;
+
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    private MetricRegistry metricRegistry;
+
+    private Meter rowMeter;
+
+    private Timer partitionTimer;
+
+    private Counter fullBufferCounter;
+
+    public PartitionedTableScanner(EntityManagerFactory entityManagerFactory) {
+        this.sessionFactory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        metricRegistry(new MetricRegistry());
+    }
+
+    /**
+     * Scroll the partitions using the given pool, whose parallelism is also the default number of partitions,
+     * instead of a pool owned by every scan. The given pool is not shut down by the scanner.
+     *
+     * @param forkJoinPool partition pool
+     * @return this scanner
+     */
+    public PartitionedTableScanner forkJoinPool(ForkJoinPool forkJoinPool) {
+        this.forkJoinPool = forkJoinPool;
+        this.partitions = forkJoinPool.getParallelism();
+        return this;
+    }
+
+    public PartitionedTableScanner partitions(int partitions) {
+        if (partitions <= 0) {
+            throw new IllegalArgumentException("The number of partitions must be positive!");
+        }
+        this.partitions = partitions;
+        return this;
+    }
+
+    public PartitionedTableScanner boundaries(Boundaries boundaries) {
+        this.boundaries = boundaries;
+        return this;
+    }
+
+    public PartitionedTableScanner fetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+        return this;
+    }
+
+    public PartitionedTableScanner bufferSize(int bufferSize) {
+        if (bufferSize <= 0) {
+            throw new IllegalArgumentException("The buffer size must be positive!");
+        }
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    public PartitionedTableScanner metricRegistry(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+        rowMeter = metricRegistry.meter(MetricRegistry.name(getClass(), "rows"));
+        partitionTimer = metricRegistry.timer(MetricRegistry.name(getClass(), "partition"));
+        fullBufferCounter = metricRegistry.counter(MetricRegistry.name(getClass(), "fullBuffer"));
+        return this;
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return metricRegistry;
+    }
+
+    /**
+     * Stream all the rows of the given entity table.
+     *
+     * @param entityClass entity class, which must have a numeric identifier
+     * @return the entity stream, which must be closed
+     */
+    public <T> Stream<T> stream(Class<T> entityClass) {
+        EntityPersister persister = sessionFactory.getMetamodel().entityPersister(entityClass);
+        String query = String.format(
+            "select e from %1$s e where e.%2$s > :minId and e.%2$s <= :maxId",
+            persister.getEntityName(),
+            persister.getIdentifierPropertyName()
+        );
+        return stream(query, entityClass, partition(entityClass));
+    }
+
+    /**
+     * Stream the rows of the given query, for each of the given identifier ranges. The query must select the
+     * rows whose identifier is greater than the {@code :minId} and not greater than the {@code :maxId}
+     * parameter, like {@code select p.id, p.title from Post p where p.id > :minId and p.id <= :maxId}.
+     * A single-column projection streams the column values, otherwise the rows are streamed as {@code Object[]}.
+     *
+     * @param query JPQL range query
+     * @param resultClass result class
+     * @param ranges identifier ranges
+     * @return the row stream, which must be closed
+     */
+    public <T> Stream<T> stream(String query, Class<T> resultClass, List<Range> ranges) {
+        ForkJoinPool ownedPool = forkJoinPool == null ? new ForkJoinPool(Math.max(1, ranges.size())) : null;
+        ForkJoinPool pool = ownedPool != null ? ownedPool : forkJoinPool;
+        Scan<T> scan = new Scan<>(resultClass, ranges.size(), ownedPool);
+        for (Range range : ranges) {
+            scan.tasks.add(pool.submit(() -> scan.scroll(query, range)));
+        }
+        return StreamSupport.stream(scan, false).onClose(scan::close);
+    }
+
+    /**
+     * Split the identifiers of the given entity table according to the configured {@link Boundaries}.
+     *
+     * @param entityClass entity class, which must have a numeric identifier
+     * @return the identifier ranges, covering all the table rows
+     */
+    public List<Range> partition(Class<?> entityClass) {
+        EntityPersister persister = sessionFactory.getMetamodel().entityPersister(entityClass);
+        String entityName = persister.getEntityName();
+        String idName = persister.getIdentifierPropertyName();
+
+        try (StatelessSession session = sessionFactory.openStatelessSession()) {
+            Object[] minMax = (Object[]) session.createQuery(String.format(
+                "select min(e.%1$s), max(e.%1$s), count(e) from %2$s e", idName, entityName
+            )).uniqueResult();
+            if (minMax[0] == null) {
+                return Collections.emptyList();
+            }
+            long minId = ((Number) minMax[0]).longValue();
+            long maxId = ((Number) minMax[1]).longValue();
+            long rowCount = ((Number) minMax[2]).longValue();
+            int partitionCount = (int) Math.min(partitions, rowCount);
+
+            long[] upperIds = boundaries == Boundaries.KEYSET ?
+                keysetUpperIds(session, idName, entityName, maxId, rowCount, partitionCount) :
+                minMaxUpperIds(minId, maxId, partitionCount);
+
+            List<Range> ranges = new ArrayList<>(partitionCount);
+            long lowerId = minId - 1;
+            for (long upperId : upperIds) {
+                if (upperId > lowerId) {
+                    ranges.add(new Range(lowerId, upperId));
+                    lowerId = upperId;
+                }
+            }
+            ranges.add(new Range(lowerId, maxId));
+            return ranges;
+        }
+    }
+
+    private long[] minMaxUpperIds(long minId, long maxId, int partitionCount) {
+        long[] upperIds = new long[partitionCount - 1];
+        for (int i = 1; i < partitionCount; i++) {
+            upperIds[i - 1] = minId - 1 + (maxId - minId + 1) * i / partitionCount;
+        }
+        return upperIds;
+    }
+
+    private long[] keysetUpperIds(
+            StatelessSession session, String idName, String entityName, long maxId, long rowCount, int partitionCount) {
+        long[] upperIds = new long[partitionCount - 1];
+        int boundary = 0;
+        long position = 0;
+        Transaction transaction = session.beginTransaction();
+        try (ScrollableResults results = session.createQuery(String.format(
+                "select e.%1$s from %2$s e where e.%1$s <= :maxId order by e.%1$s", idName, entityName
+            ))
+            .setParameter("maxId", maxId)
+            .setFetchSize(fetchSize)
+            .setReadOnly(true)
+            .scroll(ScrollMode.FORWARD_ONLY)) {
+            while (boundary < upperIds.length && results.next()) {
+                position++;
+                if (position == rowCount * (boundary + 1) / partitionCount) {
+                    upperIds[boundary++] = ((Number) results.get(0)).longValue();
+                }
+            }
+        } finally {
+            transaction.rollback();
+        }
+        return Arrays.copyOf(upperIds, boundary);
+    }
+
+    /**
+     * The {@code (minId, maxId]} identifier range of a partition.
+     */
+    public static class Range {
+
+        private final long minId;
+
+        private final long maxId;
+
+        public Range(long minId, long maxId) {
+            this.minId = minId;
+            this.maxId = maxId;
+        }
+
+        public long getMinId() {
+            return minId;
+        }
+
+        public long getMaxId() {
+            return maxId;
+        }
+
+        @Override
+        public String toString() {
+            return "(" + minId + ", " + maxId + "]";
+        }
+    }
+
+    /**
+     * Marks the end of a partition, or the failure of a partition if it holds an exception.
+     */
+    private static class PartitionEnd {
+
+        private final Throwable failure;
+
+        private PartitionEnd(Throwable failure) {
+            this.failure = failure;
+        }
+    }
+
+    private static final PartitionEnd PARTITION_END = new PartitionEnd(null);
+
+    /**
+     * Merges the rows of all partitions, which are put in the queue by the partition tasks
+     * and taken from it by the stream consumer. The rows are exchanged in batches of up to
+     * {@code fetchSize} rows, so the threads synchronize once per batch and not once per row.
+     */
+    private class Scan<T> extends Spliterators.AbstractSpliterator<T> {
+
+        private final Class<T> resultClass;
+
+        private final int batchSize = Math.min(fetchSize, bufferSize);
+
+        private final BlockingQueue<Object> queue = new ArrayBlockingQueue<>(Math.max(1, bufferSize / batchSize));
+
+        private final List<ForkJoinTask<?>> tasks = new ArrayList<>();
+
+        private final ForkJoinPool ownedPool;
+
+        private int remainingPartitions;
+
+        private Object[] batch = new Object[0];
+
+        private int batchIndex;
+
+        private volatile boolean cancelled;
+
+        private Scan(Class<T> resultClass, int partitions, ForkJoinPool ownedPool) {
+            super(Long.MAX_VALUE, Spliterator.IMMUTABLE);
+            this.resultClass = resultClass;
+            this.remainingPartitions = partitions;
+            this.ownedPool = ownedPool;
+        }
+
+        private void scroll(String query, Range range) {
+            long startNanos = System.nanoTime();
+            try (StatelessSession session = sessionFactory.openStatelessSession()) {
+                Transaction transaction = session.beginTransaction();
+                try (ScrollableResults results = session.createQuery(query)
+                        .setParameter("minId", range.getMinId())
+                        .setParameter("maxId", range.getMaxId())
+                        .setFetchSize(fetchSize)
+                        .setReadOnly(true)
+                        .scroll(ScrollMode.FORWARD_ONLY)) {
+                    Object[] rows = new Object[batchSize];
+                    int rowCount = 0;
+                    while (!cancelled && results.next()) {
+                        Object[] row = results.get();
+                        rows[rowCount++] = row.length == 1 ? row[0] : row;
+                        if (rowCount == batchSize) {
+                            put(rows);
+                            rows = new Object[batchSize];
+                            rowCount = 0;
+                        }
+                    }
+                    if (rowCount > 0) {
+                        put(Arrays.copyOf(rows, rowCount));
+                    }
+                } finally {
+                    transaction.rollback();
+                }
+                put(PARTITION_END);
+            } catch (Throwable e) {
+                put(new PartitionEnd(e));
+            } finally {
+                partitionTimer.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+            }
+        }
+
+        private void put(Object element) {
+            if (queue.offer(element)) {
+                return;
+            }
+            fullBufferCounter.inc();
+            try {
+                ForkJoinPool.managedBlock(new ForkJoinPool.ManagedBlocker() {
+                    @Override
+                    public boolean block() throws InterruptedException {
+                        return cancelled || queue.offer(element, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS);
+                    }
+
+                    @Override
+                    public boolean isReleasable() {
+                        return cancelled || queue.offer(element);
+                    }
+                });
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                cancelled = true;
+            }
+        }
+
+        @Override
+        public boolean tryAdvance(Consumer<? super T> action) {
+            if (batchIndex < batch.length) {
+                action.accept(resultClass.cast(batch[batchIndex++]));
+                return true;
+            }
+            while (remainingPartitions > 0) {
+                Object element;
+                try {
+                    element = queue.take();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    close();
+                    throw new IllegalStateException(e);
+                }
+                if (element instanceof PartitionEnd) {
+                    remainingPartitions--;
+                    Throwable failure = ((PartitionEnd) element).failure;
+                    if (failure != null) {
+                        close();
+                        if (failure instanceof RuntimeException) {
+                            throw (RuntimeException) failure;
+                        }
+                        throw new IllegalStateException(failure);
+                    }
+                    continue;
+                }
+                batch = (Object[]) element;
+                batchIndex = 0;
+                rowMeter.mark(batch.length);
+                action.accept(resultClass.cast(batch[batchIndex++]));
+                return true;
+            }
+            shutdownOwnedPool();
+            return false;
+        }
+
+        private void close() {
+            cancelled = true;
+            queue.clear();
+            for (ForkJoinTask<?> task : tasks) {
+                task.quietlyJoin();
+            }
+            queue.clear();
+            shutdownOwnedPool();
+        }
+
+        private void shutdownOwnedPool() {
+            if (ownedPool != null) {
+                ownedPool.shutdown();
+            }
+        }
+    }
+}
@@ -0,0 +1,198 @@
+package com.vladmihalcea.book.hpjp.hibernate.fetching;
+
+import com.codahale.metrics.Slf4jReporter;
+import com.vladmihalcea.book.hpjp.hibernate.fetching.PartitionedTableScanner.Boundaries;
+import com.vladmihalcea.book.hpjp.hibernate.fetching.PartitionedTableScanner.Range;
+import com.vladmihalcea.book.hpjp.util.AbstractTest;
+import org.junit.Test;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+import java.util.stream.Stream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Vlad Mihalcea
+ */
+public class PartitionedTableScannerTest extends AbstractTest {
+
+    private final int denseCount = 900;
+
+    private final int sparseCount = 100;
+
+    private final ForkJoinPool forkJoinPool = new ForkJoinPool(4);
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[]{
+            Post.class
+        };
+    }
+
+    @Override
+    protected void additionalProperties(Properties properties) {
+        properties.put("hibernate.jdbc.batch_size", "50");
+        properties.put("hibernate.order_inserts", "true");
+    }
+
+    @Override
+    protected void afterInit() {
+        doInJPA(entityManager -> {
+            for (long id = 1; id <= denseCount + sparseCount; id++) {
+                long postId = id <= denseCount ? id : id * 1000;
+                entityManager.persist(new Post(postId, String.format("Post nr. %d", postId)));
+            }
+        });
+    }
+
+    @Override
+    public void destroy() {
+        forkJoinPool.shutdown();
+        super.destroy();
+    }
+
+    @Test
+    public void testStreamEntities() {
+        PartitionedTableScanner scanner = new PartitionedTableScanner(entityManagerFactory())
+            .forkJoinPool(forkJoinPool)
+            .fetchSize(50)
+            .bufferSize(100);
+
+        try (Stream<Post> posts = scanner.stream(Post.class)) {
+            Set<Long> ids = posts.map(Post::getId).collect(Collectors.toSet());
+            assertEquals(denseCount + sparseCount, ids.size());
+        }
+
+        try (Stream<Object[]> rows = scanner.stream(
+                "select p.id, p.title from Post p where p.id > :minId and p.id <= :maxId",
+                Object[].class,
+                scanner.partition(Post.class))) {
+            assertEquals(
+                denseCount + sparseCount,
+                rows.filter(row -> row[1].equals(String.format("Post nr. %d", row[0]))).count()
+            );
+        }
+
+        report(scanner);
+    }
+
+    @Test
+    public void testScanOwnedPool() {
+        PartitionedTableScanner scanner = new PartitionedTableScanner(entityManagerFactory())
+            .partitions(3)
+            .fetchSize(50);
+
+        try (Stream<Post> posts = scanner.stream(Post.class)) {
+            assertEquals(denseCount + sparseCount, posts.map(Post::getId).distinct().count());
+        }
+        assertEquals(3, scanner.getMetricRegistry().timer(
+            "com.vladmihalcea.book.hpjp.hibernate.fetching.PartitionedTableScanner.partition"
+        ).getCount());
+
+        report(scanner);
+    }
+
+    @Test
+    public void testKeysetBoundaries() {
+        PartitionedTableScanner scanner = new PartitionedTableScanner(entityManagerFactory())
+            .forkJoinPool(forkJoinPool);
+
+        List<Range> minMaxRanges = scanner.partition(Post.class);
+        LOGGER.info("Min/max ranges: {}", minMaxRanges);
+        assertEquals(4, minMaxRanges.size());
+        assertEquals(denseCount, countIds(minMaxRanges.get(0)));
+        assertEquals(0, countIds(minMaxRanges.get(1)));
+
+        List<Range> keysetRanges = scanner.boundaries(Boundaries.KEYSET).partition(Post.class);
+        LOGGER.info("Key-set ranges: {}", keysetRanges);
+        assertEquals(4, keysetRanges.size());
+        for (Range range : keysetRanges) {
+            assertEquals((denseCount + sparseCount) / 4, countIds(range));
+        }
+
+        try (Stream<Post> posts = scanner.stream(Post.class)) {
+            assertEquals(denseCount + sparseCount, posts.map(Post::getId).distinct().count());
+        }
+    }
+
+    @Test
+    public void testCloseCancelsPartitions() {
+        PartitionedTableScanner scanner = new PartitionedTableScanner(entityManagerFactory())
+            .forkJoinPool(forkJoinPool)
+            .fetchSize(10)
+            .bufferSize(10);
+
+        try (Stream<Post> posts = scanner.stream(Post.class)) {
+            assertEquals(25, posts.limit(25).count());
+        }
+        assertEquals(4, scanner.getMetricRegistry()
+            .timer("com.vladmihalcea.book.hpjp.hibernate.fetching.PartitionedTableScanner.partition")
+            .getCount());
+        assertTrue(scanner.getMetricRegistry()
+            .counter("com.vladmihalcea.book.hpjp.hibernate.fetching.PartitionedTableScanner.fullBuffer")
+            .getCount() > 0);
+
+        report(scanner);
+    }
+
+    private long countIds(Range range) {
+        return doInJPA(entityManager -> {
+            return entityManager.createQuery(
+                "select count(p) from Post p where p.id > :minId and p.id <= :maxId", Long.class)
+            .setParameter("minId", range.getMinId())
+            .setParameter("maxId", range.getMaxId())
+            .getSingleResult();
+        });
+    }
+
+    private void report(PartitionedTableScanner scanner) {
+        Slf4jReporter.forRegistry(scanner.getMetricRegistry())
+            .outputTo(LOGGER)
+            .convertDurationsTo(TimeUnit.MILLISECONDS)
+            .build()
+            .report();
+    }
+
+    @Entity(name = "Post")
+    @Table(name = "post")
+    public static class Post {
+
+        @Id
+        private Long id;
+
+        private String title;
+
+        public Post() {
+        }
+
+        public Post(Long id, String title) {
+            this.id = id;
+            this.title = title;
+        }
+
+        public Long getId() {
+            return id;
+        }
+
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public void setTitle(String title) {
+            this.title = title;
+        }
+    }
+}
@@ -0,0 +1,134 @@
+package com.vladmihalcea.book.hpjp.hibernate.fetching.file;
+
+/**
+ * ExportFormat - Encodes the exported rows as text lines.
+ *
+ * @author Vlad Mihalcea
+ */
+public enum ExportFormat {
+
+    /**
+     * RFC 4180 CSV, with a header line. Values containing a delimiter, a quote or a line break are quoted.
+     */
+    CSV {
+        @Override
+        void header(StringBuilder line, String[] columns) {
+            for (int i = 0; i < columns.length; i++) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                appendCsv(line, columns[i]);
+            }
+            line.append('\n');
+        }
+
+        @Override
+        void row(StringBuilder line, String[] columns, Object[] values) {
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                Object value = values[i];
+                if (value == null) {
+                    continue;
+                }
+                if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                    line.append(((Number) value).longValue());
+                } else if (value instanceof Number || value instanceof Boolean) {
+                    line.append(value);
+                } else {
+                    appendCsv(line, value.toString());
+                }
+            }
+            line.append('\n');
+        }
+
+        private void appendCsv(StringBuilder line, String value) {
+            boolean quote = false;
+            for (int i = 0; i < value.length() && !quote; i++) {
+                char c = value.charAt(i);
+                quote = c == ',' || c == '"' || c == '\n' || c == '\r';
+            }
+            if (!quote) {
+                line.append(value);
+                return;
+            }
+            line.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                if (c == '"') {
+                    line.append('"');
+                }
+                line.append(c);
+            }
+            line.append('"');
+        }
+    },
+
+    /**
+     * Newline-delimited JSON, one object per row, whose properties are the column names.
+     */
+    NDJSON {
+        @Override
+        void header(StringBuilder line, String[] columns) {
+        }
+
+        @Override
+        void row(StringBuilder line, String[] columns, Object[] values) {
+            line.append('{');
+            for (int i = 0; i < values.length; i++) {
+                if (i > 0) {
+                    line.append(',');
+                }
+                appendJson(line, columns[i]);
+                line.append(':');
+                Object value = values[i];
+                if (value == null) {
+                    line.append("null");
+                } else if (value instanceof Long || value instanceof Integer || value instanceof Short || value instanceof Byte) {
+                    line.append(((Number) value).longValue());
+                } else if (value instanceof Number || value instanceof Boolean) {
+                    line.append(value);
+                } else {
+                    appendJson(line, value.toString());
+                }
+            }
+            line.append("}\n");
+        }
+
+        private void appendJson(StringBuilder line, String value) {
+            line.append('"');
+            for (int i = 0; i < value.length(); i++) {
+                char c = value.charAt(i);
+                switch (c) {
+                    case '"':
+                        line.append("\\\"");
+                        break;
+                    case '\\':
+                        line.append("\\\\");
+                        break;
+                    case '\n':
+                        line.append("\\n");
+                        break;
+                    case '\r':
+                        line.append("\\r");
+                        break;
+                    case '\t':
+                        line.append("\\t");
+                        break;
+                    default:
+                        if (c < 0x20) {
+                            line.append(String.format("\\u%04x", (int) c));
+                        } else {
+                            line.append(c);
+                        }
+                }
+            }
+            line.append('"');
+        }
+    };
+
+    abstract void header(StringBuilder line, String[] columns);
+
+    abstract void row(StringBuilder line, String[] columns, Object[] values);
+}
@@ -0,0 +1,208 @@
+package com.vladmihalcea.book.hpjp.hibernate.fetching.file;
+
+import org.hibernate.ScrollMode;
+import org.hibernate.ScrollableResults;
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.CharBuffer;
+import java.nio.channels.WritableByteChannel;
+import java.nio.charset.CharsetEncoder;
+import java.nio.charset.CoderResult;
+import java.nio.charset.StandardCharsets;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.ResultSetMetaData;
+import java.sql.SQLException;
+
+/**
+ * StreamingExporter - Client-side counterpart of the PostgreSQL {@code COPY ... TO} export
+ * used by the {@link PostgreSQLQueryToFileTest}.
+ *
+ * The query rows are fetched in batches of {@code fetchSize} through a forward-only {@link ScrollableResults}
+ * or {@link ResultSet}, and every row is encoded as a CSV or NDJSON line in a reusable {@link StringBuilder},
+ * whose chars are converted to UTF-8 in a reusable {@link ByteBuffer} which is written to the channel
+ * when full. The Persistence Context is cleared every {@code clearInterval} rows, so the memory footprint
+ * does not depend on the number of exported rows.
+ *
+ * @author Vlad Mihalcea
+ */
+public class StreamingExporter {
+
+    public static final int DEFAULT_FETCH_SIZE = 1000;
+
+    public static final int DEFAULT_CLEAR_INTERVAL = 1000;
+
+    public static final int DEFAULT_BUFFER_SIZE = 64 * 1024;
+
+    private final ExportFormat format;
+
+    private int fetchSize = DEFAULT_FETCH_SIZE;
+
+    private int clearInterval = DEFAULT_CLEAR_INTERVAL;
+
+    private int bufferSize = DEFAULT_BUFFER_SIZE;
+
+    public StreamingExporter(ExportFormat format) {
+        this.format = format;
+    }
+
+    public StreamingExporter fetchSize(int fetchSize) {
+        this.fetchSize = fetchSize;
+        return this;
+    }
+
+    public StreamingExporter clearInterval(int clearInterval) {
+        this.clearInterval = clearInterval;
+        return this;
+    }
+
+    public StreamingExporter bufferSize(int bufferSize) {
+        this.bufferSize = bufferSize;
+        return this;
+    }
+
+    /**
+     * Export the rows of an entity or native query, which should select the exported columns as scalar values.
+     *
+     * @param session the session which created the query, to be cleared periodically
+     * @param query entity or native query
+     * @param columns exported column names, matching the query projection
+     * @param channel target channel
+     * @return exported row count
+     * @throws IOException if the channel cannot be written
+     */
+    public long export(Session session, Query<?> query, String[] columns, WritableByteChannel channel) throws IOException {
+        LineEncoder encoder = new LineEncoder(channel);
+        format.header(encoder.line, columns);
+        encoder.encodeLine();
+
+        long rowCount = 0;
+        try (ScrollableResults results = query
+                .setFetchSize(fetchSize)
+                .setReadOnly(true)
+                .scroll(ScrollMode.FORWARD_ONLY)) {
+            while (results.next()) {
+                Object[] row = results.get();
+                if (row.length != columns.length) {
+                    throw new IllegalArgumentException(String.format(
+                        "The query selects %d columns, but %d column names were given", row.length, columns.length
+                    ));
+                }
+                format.row(encoder.line, columns, row);
+                encoder.encodeLine();
+                if (++rowCount % clearInterval == 0) {
+                    session.clear();
+                }
+            }
+        }
+        encoder.finish();
+        return rowCount;
+    }
+
+    /**
+     * Export the rows of a SQL query using the column labels as column names.
+     *
+     * @param connection JDBC connection
+     * @param sql SQL query
+     * @param channel target channel
+     * @return exported row count
+     * @throws SQLException if the query fails
+     * @throws IOException if the channel cannot be written
+     */
+    public long export(Connection connection, String sql, WritableByteChannel channel) throws SQLException, IOException {
+        LineEncoder encoder = new LineEncoder(channel);
+
+        long rowCount = 0;
+        try (PreparedStatement statement = connection.prepareStatement(
+                sql, ResultSet.TYPE_FORWARD_ONLY, ResultSet.CONCUR_READ_ONLY)) {
+            statement.setFetchSize(fetchSize);
+            try (ResultSet resultSet = statement.executeQuery()) {
+                ResultSetMetaData metaData = resultSet.getMetaData();
+                String[] columns = new String[metaData.getColumnCount()];
+                for (int i = 0; i < columns.length; i++) {
+                    columns[i] = metaData.getColumnLabel(i + 1);
+                }
+                format.header(encoder.line, columns);
+                encoder.encodeLine();
+
+                Object[] row = new Object[columns.length];
+                while (resultSet.next()) {
+                    for (int i = 0; i < row.length; i++) {
+                        row[i] = resultSet.getObject(i + 1);
+                    }
+                    format.row(encoder.line, columns, row);
+                    encoder.encodeLine();
+                    rowCount++;
+                }
+            }
+        }
+        encoder.finish();
+        return rowCount;
+    }
+
+    /**
+     * Encodes the line chars into the byte buffer, which is written to the channel when it becomes full.
+     */
+    private class LineEncoder {
+
+        private final WritableByteChannel channel;
+
+        private final StringBuilder line = new StringBuilder(256);
+
+        private final CharsetEncoder charsetEncoder = StandardCharsets.UTF_8.newEncoder();
+
+        private final ByteBuffer bytes = ByteBuffer.allocate(bufferSize);
+
+        private CharBuffer chars = CharBuffer.allocate(256);
+
+        private LineEncoder(WritableByteChannel channel) {
+            this.channel = channel;
+        }
+
+        private void encodeLine() throws IOException {
+            int length = line.length();
+            if (length > chars.capacity()) {
+                chars = CharBuffer.allocate(Math.max(length, chars.capacity() * 2));
+            }
+            line.getChars(0, length, chars.array(), 0);
+            chars.clear();
+            chars.limit(length);
+            line.setLength(0);
+
+            while (true) {
+                CoderResult result = charsetEncoder.encode(chars, bytes, false);
+                if (result.isOverflow()) {
+                    writeBytes();
+                } else if (result.isUnderflow()) {
+                    return;
+                } else {
+                    result.throwException();
+                }
+            }
+        }
+
+        private void finish() throws IOException {
+            chars.clear();
+            chars.limit(0);
+            while (charsetEncoder.encode(chars, bytes, true).isOverflow()) {
+                writeBytes();
+            }
+            while (charsetEncoder.flush(bytes).isOverflow()) {
+                writeBytes();
+            }
+            writeBytes();
+        }
+
+        private void writeBytes() throws IOException {
+            bytes.flip();
+            while (bytes.hasRemaining()) {
+                channel.write(bytes);
+            }
+            bytes.clear();
+        }
+    }
+}
@@ -0,0 +1,127 @@
+package com.vladmihalcea.book.hpjp.hibernate.fetching.file;
+
+import com.fasterxml.jackson.databind.JsonNode;
+import com.fasterxml.jackson.databind.ObjectMapper;
+import com.vladmihalcea.book.hpjp.util.AbstractTest;
+import com.vladmihalcea.book.hpjp.util.providers.entity.BlogEntityProvider;
+import com.vladmihalcea.book.hpjp.util.providers.entity.BlogEntityProvider.Post;
+import com.vladmihalcea.book.hpjp.util.providers.entity.BlogEntityProvider.PostComment;
+import org.hibernate.Session;
+import org.hibernate.query.Query;
+import org.junit.Test;
+
+import java.io.ByteArrayOutputStream;
+import java.io.IOException;
+import java.nio.channels.Channels;
+import java.nio.charset.StandardCharsets;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Vlad Mihalcea
+ */
+public class StreamingExporterTest extends AbstractTest {
+
+    private final int postCount = 100;
+
+    private final int commentsPerPost = 3;
+
+    @Override
+    protected Class<?>[] entities() {
+        return BlogEntityProvider.INSTANCE.entities();
+    }
+
+    @Override
+    protected void afterInit() {
+        doInJPA(entityManager -> {
+            long commentId = 0;
+            for (long i = 1; i <= postCount; i++) {
+                Post post = new Post(i);
+                post.setTitle(String.format("High-Performance Java Persistence, part %d", i));
+                for (int j = 0; j < commentsPerPost; j++) {
+                    PostComment comment = new PostComment(j == 0 ? "Say \"Excellent\"\nand\tmove on" : "Great");
+                    comment.setId(++commentId);
+                    post.addComment(comment);
+                }
+                entityManager.persist(post);
+            }
+        });
+    }
+
+    @Test
+    public void testCsvExport() {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        long rowCount = doInJPA(entityManager -> {
+            Session session = entityManager.unwrap(Session.class);
+            Query<?> query = session.createQuery(
+                "select p.id, p.title, pc.id, pc.review " +
+                "from PostComment pc " +
+                "join pc.post p " +
+                "order by pc.id");
+            try {
+                return new StreamingExporter(ExportFormat.CSV)
+                    .fetchSize(50)
+                    .clearInterval(25)
+                    .bufferSize(1024)
+                    .export(
+                        session,
+                        query,
+                        new String[] {"post_id", "post_title", "comment_id", "comment_review"},
+                        Channels.newChannel(outputStream)
+                    );
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        assertEquals(postCount * commentsPerPost, rowCount);
+
+        String csv = new String(outputStream.toByteArray(), StandardCharsets.UTF_8);
+        String[] lines = csv.split("\n(?=\\d|$)");
+        assertEquals(1 + postCount * commentsPerPost, lines.length);
+        assertEquals("post_id,post_title,comment_id,comment_review", lines[0]);
+        assertEquals(
+            "1,\"High-Performance Java Persistence, part 1\",1,\"Say \"\"Excellent\"\"\nand\tmove on\"",
+            lines[1]
+        );
+        assertEquals("1,\"High-Performance Java Persistence, part 1\",2,Great", lines[2]);
+    }
+
+    @Test
+    public void testNdjsonExport() throws IOException {
+        ByteArrayOutputStream outputStream = new ByteArrayOutputStream();
+
+        long rowCount = doInJDBC(connection -> {
+            try {
+                return new StreamingExporter(ExportFormat.NDJSON)
+                    .fetchSize(50)
+                    .bufferSize(1024)
+                    .export(
+                        connection,
+                        "SELECT p.id AS post_id, p.title AS post_title, pc.id AS comment_id, pc.review AS comment_review " +
+                        "FROM post_comment pc " +
+                        "JOIN post p ON p.id = pc.post_id " +
+                        "ORDER BY pc.id",
+                        Channels.newChannel(outputStream)
+                    );
+            } catch (IOException e) {
+                throw new IllegalStateException(e);
+            }
+        });
+
+        assertEquals(postCount * commentsPerPost, rowCount);
+
+        String[] lines = new String(outputStream.toByteArray(), StandardCharsets.UTF_8).split("\n");
+        assertEquals(postCount * commentsPerPost, lines.length);
+
+        ObjectMapper objectMapper = new ObjectMapper();
+        JsonNode firstRow = objectMapper.readTree(lines[0]);
+        assertEquals(1, firstRow.get("POST_ID").asLong());
+        assertEquals("High-Performance Java Persistence, part 1", firstRow.get("POST_TITLE").asText());
+        assertEquals("Say \"Excellent\"\nand\tmove on", firstRow.get("COMMENT_REVIEW").asText());
+
+        JsonNode lastRow = objectMapper.readTree(lines[lines.length - 1]);
+        assertEquals(postCount * commentsPerPost, lastRow.get("COMMENT_ID").asLong());
+    }
+}
@@ -1,33 +1,40 @@
 package com.vladmihalcea.book.hpjp.hibernate.identifier;
 
 import org.hibernate.MappingException;
-import org.hibernate.Session;
-import org.hibernate.dialect.Dialect;
 import org.hibernate.engine.config.spi.ConfigurationService;
-import org.hibernate.engine.jdbc.env.spi.JdbcEnvironment;
 import org.hibernate.engine.spi.SharedSessionContractImplementor;
-import org.hibernate.id.Configurable;
-import org.hibernate.id.IdentifierGenerator;
 import org.hibernate.id.enhanced.SequenceStyleGenerator;
 import org.hibernate.internal.util.config.ConfigurationHelper;
 import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.LongType;
 import org.hibernate.type.Type;
 
 import java.io.Serializable;
+import java.util.Arrays;
 import java.util.Properties;
 
 
 /**
+ * StringSequenceIdentifier - Generates prefixed {@link String} identifiers from a database sequence.
+ *
+ * The sequence values are obtained by the {@link SequenceStyleGenerator}, which is configured with
+ * a {@code long} identifier type, so the {@code increment_size} (the JPA {@code allocationSize})
+ * and the {@code optimizer} parameters work just like for numeric identifiers. With the pooled
+ * or pooled-lo optimizers, the sequence is called only once every {@code increment_size} inserts.
+ *
  * @author Vlad Mihalcea
  */
-public class StringSequenceIdentifier implements
-        IdentifierGenerator, Configurable {
+public class StringSequenceIdentifier extends SequenceStyleGenerator {
 
     public static final String SEQUENCE_PREFIX = "sequence_prefix";
 
+    private static final int ZERO_PADDING = 11;
+
+    private static final int MAX_LONG_DIGITS = 19;
+
     private String sequencePrefix;
 
-    private String sequenceCallSyntax;
+    private char[] identifierTemplate;
 
     @Override
     public void configure(
@@ -36,12 +43,6 @@ public class StringSequenceIdentifier implements
             ServiceRegistry serviceRegistry)
         throws MappingException {
 
-        final JdbcEnvironment jdbcEnvironment = serviceRegistry.getService(
-                JdbcEnvironment.class
-        );
-
-        final Dialect dialect = jdbcEnvironment.getDialect();
-
         final ConfigurationService configurationService = serviceRegistry.getService(
                 ConfigurationService.class
         );
@@ -58,29 +59,13 @@ public class StringSequenceIdentifier implements
             globalEntityIdentifierPrefix
         );
 
-        final String sequencePerEntitySuffix = ConfigurationHelper.getString(
-            SequenceStyleGenerator.CONFIG_SEQUENCE_PER_ENTITY_SUFFIX,
-            params,
-            SequenceStyleGenerator.DEF_SEQUENCE_SUFFIX
-        );
-
-        boolean preferSequencePerEntity = ConfigurationHelper.getBoolean(
-            SequenceStyleGenerator.CONFIG_PREFER_SEQUENCE_PER_ENTITY,
-            params,
-            false
+        identifierTemplate = Arrays.copyOf(
+            sequencePrefix.toCharArray(),
+            sequencePrefix.length() + ZERO_PADDING
         );
+        Arrays.fill(identifierTemplate, sequencePrefix.length(), identifierTemplate.length, '0');
 
-        final String defaultSequenceName = preferSequencePerEntity
-                ? params.getProperty(JPA_ENTITY_NAME) + sequencePerEntitySuffix
-                : SequenceStyleGenerator.DEF_SEQUENCE_NAME;
-
-        sequenceCallSyntax = dialect.getSequenceNextValString(
-            ConfigurationHelper.getString(
-                SequenceStyleGenerator.SEQUENCE_PARAM,
-                params,
-                defaultSequenceName
-            )
-        );
+        super.configure(LongType.INSTANCE, params, serviceRegistry);
     }
 
     @Override
@@ -94,12 +79,34 @@ public class StringSequenceIdentifier implements
             }
         }
 
-        long seqValue = ((Number)
-                Session.class.cast(session)
-                .createNativeQuery(sequenceCallSyntax)
-                .uniqueResult()
-        ).longValue();
+        long seqValue = ((Number) super.generate(session, obj)).longValue();
+
+        return formatIdentifier(seqValue);
+    }
+
+    /**
+     * Append the sequence value digits to the prefix and zero padding template,
+     * which is what {@code String.format("%011d%s", 0, seqValue)} used to produce,
+     * without parsing the format pattern and without the intermediary {@link StringBuilder}.
+     *
+     * @param seqValue sequence value
+     * @return identifier
+     */
+    String formatIdentifier(long seqValue) {
+        if (seqValue < 0) {
+            return sequencePrefix + String.format("%011d%s", 0, seqValue);
+        }
+        int digitCount = 1;
+        for (long bound = 10; digitCount < MAX_LONG_DIGITS && seqValue >= bound; bound *= 10) {
+            digitCount++;
+        }
 
-        return sequencePrefix + String.format("%011d%s", 0 ,seqValue);
+        char[] identifier = Arrays.copyOf(identifierTemplate, identifierTemplate.length + digitCount);
+        int position = identifier.length;
+        do {
+            identifier[--position] = (char) ('0' + seqValue % 10);
+            seqValue /= 10;
+        } while (seqValue != 0);
+        return new String(identifier);
     }
 }
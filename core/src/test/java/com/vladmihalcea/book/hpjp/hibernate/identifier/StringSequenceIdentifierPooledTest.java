@@ -0,0 +1,87 @@
+package com.vladmihalcea.book.hpjp.hibernate.identifier;
+
+import com.vladmihalcea.book.hpjp.util.AbstractTest;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.junit.Test;
+
+import javax.persistence.*;
+import java.util.List;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Vlad Mihalcea
+ */
+public class StringSequenceIdentifierPooledTest extends AbstractTest {
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            Post.class
+        };
+    }
+
+    @Test
+    public void testPooledLoOptimizer() {
+        doInJPA(entityManager -> {
+            for (int i = 0; i < 10; i++) {
+                entityManager.persist(new Post());
+            }
+            entityManager.persist(new Post("CTC_ABC"));
+        });
+
+        doInJPA(entityManager -> {
+            List<String> ids = entityManager.createQuery(
+                "select p.id from Post p order by p.id", String.class)
+            .getResultList();
+
+            assertEquals(11, ids.size());
+            assertEquals("CTC_000000000001", ids.get(0));
+            assertEquals("CTC_0000000000010", ids.get(1));
+            assertEquals("CTC_000000000009", ids.get(9));
+            assertEquals("CTC_ABC", ids.get(10));
+
+            Number nextValue = (Number) entityManager.createNativeQuery(
+                "call next value for post_sequence")
+            .getSingleResult();
+
+            assertEquals(11, nextValue.intValue());
+        });
+    }
+
+    @Entity(name = "Post")
+    @Table(name = "post")
+    public static class Post implements Identifiable<String> {
+
+        @Id
+        @GenericGenerator(
+            name = "pooled-lo-string-sequence",
+            strategy = "com.vladmihalcea.book.hpjp.hibernate.identifier.StringSequenceIdentifier",
+            parameters = {
+                @Parameter(name = "sequence_name", value = "post_sequence"),
+                @Parameter(name = "sequence_prefix", value = "CTC_"),
+                @Parameter(name = "initial_value", value = "1"),
+                @Parameter(name = "increment_size", value = "5"),
+                @Parameter(name = "optimizer", value = "pooled-lo"),
+            }
+        )
+        @GeneratedValue(generator = "pooled-lo-string-sequence", strategy = GenerationType.SEQUENCE)
+        private String id;
+
+        @Version
+        private Integer version;
+
+        public Post() {
+        }
+
+        public Post(String id) {
+            this.id = id;
+        }
+
+        @Override
+        public String getId() {
+            return id;
+        }
+    }
+}
@@ -0,0 +1,267 @@
+package com.vladmihalcea.book.hpjp.hibernate.identifier.batch;
+
+import org.hibernate.MappingException;
+import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.engine.jdbc.connections.spi.ConnectionProvider;
+import org.hibernate.engine.jdbc.env.spi.JdbcEnvironment;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.engine.spi.SharedSessionContractImplementor;
+import org.hibernate.id.IdentifierGeneratorHelper;
+import org.hibernate.id.IntegralDataTypeHolder;
+import org.hibernate.id.enhanced.SequenceStyleGenerator;
+import org.hibernate.id.enhanced.StandardOptimizerDescriptor;
+import org.hibernate.internal.util.config.ConfigurationHelper;
+import org.hibernate.service.ServiceRegistry;
+import org.hibernate.type.Type;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Serializable;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
+import java.util.concurrent.atomic.AtomicBoolean;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.atomic.AtomicReference;
+import java.util.concurrent.atomic.AtomicReferenceArray;
+
+/**
+ * StripedSequenceGenerator - Hands out identifiers from pre-fetched sequence blocks without locking.
+ *
+ * Every sequence value is the lowest identifier of a block of {@code increment_size} values, like with the
+ * pooled-lo optimizer. Unlike the {@link org.hibernate.id.enhanced.Optimizer} implementations, which synchronize
+ * all inserting threads on a single block, the threads are spread over {@code stripe_count} stripes, each one
+ * consuming its own block with a compare-and-set increment. Every stripe keeps up to {@code prefetch_blocks}
+ * blocks in a lock-free ring buffer, which a background thread refills, on its own connection, as soon as a
+ * block is taken from it. An inserting thread calls the sequence itself only when its stripe runs dry.
+ *
+ * A block fetched by a thread which then loses the race to replace the exhausted block is not discarded,
+ * but handed back to its stripe, which uses it before taking another one from the ring buffer.
+ *
+ * The refill thread is started on the first refill and stopped when the {@link SessionFactory} is closed.
+ * Blocks left in the ring buffers when the application stops are lost, so the identifiers may have gaps.
+ *
+ * @author Vlad Mihalcea
+ */
+public class StripedSequenceGenerator extends SequenceStyleGenerator {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(StripedSequenceGenerator.class);
+
+    public static final String STRIPE_COUNT = "stripe_count";
+
+    public static final String PREFETCH_BLOCKS = "prefetch_blocks";
+
+    public static final int DEFAULT_PREFETCH_BLOCKS = 2;
+
+    private static final Block EMPTY_BLOCK = new Block(0, 0);
+
+    private volatile ExecutorService refillExecutorService;
+
+    private Dialect dialect;
+
+    private Class<?> identifierClass;
+
+    private volatile String sequenceNextValSql;
+
+    private int blockSize;
+
+    private Stripe[] stripes;
+
+    private volatile ConnectionProvider connectionProvider;
+
+    @Override
+    public void configure(Type type, Properties params, ServiceRegistry serviceRegistry) throws MappingException {
+        Properties sequenceParams = new Properties();
+        sequenceParams.putAll(params);
+        sequenceParams.put(OPT_PARAM, StandardOptimizerDescriptor.POOLED_LO.getExternalName());
+        super.configure(type, sequenceParams, serviceRegistry);
+
+        identifierClass = type.getReturnedClass();
+        blockSize = getDatabaseStructure().getIncrementSize();
+        dialect = serviceRegistry.getService(JdbcEnvironment.class).getDialect();
+
+        int stripeCount = Integer.highestOneBit(
+            Math.max(1, ConfigurationHelper.getInt(STRIPE_COUNT, params, Runtime.getRuntime().availableProcessors())) * 2 - 1
+        );
+        int prefetchBlocks = Math.max(1, ConfigurationHelper.getInt(PREFETCH_BLOCKS, params, DEFAULT_PREFETCH_BLOCKS));
+        stripes = new Stripe[stripeCount];
+        for (int i = 0; i < stripes.length; i++) {
+            stripes[i] = new Stripe(prefetchBlocks);
+        }
+    }
+
+    @Override
+    public Serializable generate(SharedSessionContractImplementor session, Object obj) {
+        Stripe stripe = stripes[(int) Thread.currentThread().getId() & (stripes.length - 1)];
+        while (true) {
+            Block block = stripe.currentBlock.get();
+            long value = block.next.getAndIncrement();
+            if (value < block.end) {
+                IntegralDataTypeHolder identifier = IdentifierGeneratorHelper.getIntegralDataTypeHolder(identifierClass);
+                identifier.initialize(value);
+                return identifier.makeValue();
+            }
+            Block nextBlock = stripe.returnedBlocks.poll();
+            if (nextBlock == null) {
+                nextBlock = stripe.prefetchedBlocks.poll();
+            }
+            if (nextBlock == null) {
+                nextBlock = newBlock(
+                    IdentifierGeneratorHelper.extractLong(getDatabaseStructure().buildCallback(session).getNextValue())
+                );
+            }
+            if (!stripe.currentBlock.compareAndSet(block, nextBlock)) {
+                stripe.returnedBlocks.offer(nextBlock);
+            }
+            scheduleRefill(stripe, session);
+        }
+    }
+
+    private Block newBlock(long start) {
+        return new Block(start, start + blockSize);
+    }
+
+    private void scheduleRefill(Stripe stripe, SharedSessionContractImplementor session) {
+        ExecutorService executorService = refillExecutorService;
+        if (executorService == null) {
+            executorService = startRefillExecutorService(session.getFactory());
+            if (executorService == null) {
+                return;
+            }
+        }
+        if (stripe.refillScheduled.compareAndSet(false, true)) {
+            try {
+                executorService.execute(() -> refill(stripe));
+            } catch (RejectedExecutionException e) {
+                stripe.refillScheduled.set(false);
+            }
+        }
+    }
+
+    private synchronized ExecutorService startRefillExecutorService(SessionFactoryImplementor sessionFactory) {
+        if (refillExecutorService == null) {
+            connectionProvider = sessionFactory.getServiceRegistry().getService(ConnectionProvider.class);
+            if (connectionProvider == null) {
+                return null;
+            }
+            sequenceNextValSql = dialect.getSequenceNextValString(getDatabaseStructure().getName());
+            ExecutorService executorService = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, StripedSequenceGenerator.class.getSimpleName());
+                thread.setDaemon(true);
+                return thread;
+            });
+            sessionFactory.addObserver(new SessionFactoryObserver() {
+                @Override
+                public void sessionFactoryClosing(SessionFactory factory) {
+                    executorService.shutdownNow();
+                }
+            });
+            refillExecutorService = executorService;
+        }
+        return refillExecutorService;
+    }
+
+    private void refill(Stripe stripe) {
+        try {
+            Connection connection = connectionProvider.getConnection();
+            try {
+                while (!stripe.prefetchedBlocks.isFull()) {
+                    try (PreparedStatement statement = connection.prepareStatement(sequenceNextValSql);
+                         ResultSet resultSet = statement.executeQuery()) {
+                        resultSet.next();
+                        stripe.prefetchedBlocks.offer(newBlock(resultSet.getLong(1)));
+                    }
+                }
+                if (!connection.getAutoCommit()) {
+                    connection.commit();
+                }
+            } finally {
+                connectionProvider.closeConnection(connection);
+            }
+        } catch (SQLException e) {
+            LOGGER.warn("Couldn't prefetch sequence blocks, inserting threads will call the sequence instead", e);
+        } finally {
+            stripe.refillScheduled.set(false);
+        }
+    }
+
+    /**
+     * Identifier range, whose values are claimed by incrementing {@code next} until it reaches {@code end}.
+     */
+    private static class Block {
+
+        private final AtomicLong next;
+
+        private final long end;
+
+        private Block(long start, long end) {
+            this.next = new AtomicLong(start);
+            this.end = end;
+        }
+    }
+
+    private static class Stripe {
+
+        private final AtomicReference<Block> currentBlock = new AtomicReference<>(EMPTY_BLOCK);
+
+        private final BlockRing prefetchedBlocks;
+
+        private final Queue<Block> returnedBlocks = new ConcurrentLinkedQueue<>();
+
+        private final AtomicBoolean refillScheduled = new AtomicBoolean();
+
+        private Stripe(int prefetchBlocks) {
+            prefetchedBlocks = new BlockRing(prefetchBlocks);
+        }
+    }
+
+    /**
+     * Bounded ring buffer with a single producer, the refill thread, and multiple consumers, the inserting threads.
+     * A consumer reads the head slot before claiming it with a compare-and-set, and the producer overwrites a slot
+     * only after the head moved past it, so a successful claim always returns the block which was read.
+     */
+    private static class BlockRing {
+
+        private final AtomicReferenceArray<Block> slots;
+
+        private final AtomicLong head = new AtomicLong();
+
+        private final AtomicLong tail = new AtomicLong();
+
+        private BlockRing(int capacity) {
+            slots = new AtomicReferenceArray<>(capacity);
+        }
+
+        private boolean isFull() {
+            return tail.get() - head.get() >= slots.length();
+        }
+
+        private void offer(Block block) {
+            long position = tail.get();
+            slots.set((int) (position % slots.length()), block);
+            tail.lazySet(position + 1);
+        }
+
+        private Block poll() {
+            while (true) {
+                long position = head.get();
+                if (position >= tail.get()) {
+                    return null;
+                }
+                Block block = slots.get((int) (position % slots.length()));
+                if (head.compareAndSet(position, position + 1)) {
+                    return block;
+                }
+            }
+        }
+    }
+}
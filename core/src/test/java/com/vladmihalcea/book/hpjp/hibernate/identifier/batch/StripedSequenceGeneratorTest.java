@@ -0,0 +1,100 @@
+package com.vladmihalcea.book.hpjp.hibernate.identifier.batch;
+
+import com.vladmihalcea.book.hpjp.util.AbstractTest;
+import org.hibernate.annotations.GenericGenerator;
+import org.hibernate.annotations.Parameter;
+import org.junit.Test;
+
+import javax.persistence.*;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.Callable;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Vlad Mihalcea
+ */
+public class StripedSequenceGeneratorTest extends AbstractTest {
+
+    private final int threadCount = 8;
+
+    private final int transactionCount = 5;
+
+    private final int batchSize = 25;
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            Post.class,
+        };
+    }
+
+    @Override
+    protected Properties properties() {
+        Properties properties = super.properties();
+        properties.put("hibernate.jdbc.batch_size", String.valueOf(batchSize));
+        return properties;
+    }
+
+    @Override
+    protected boolean connectionPooling() {
+        return true;
+    }
+
+    @Test
+    public void testConcurrentInserts() throws Exception {
+        ExecutorService workerExecutorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Callable<Void>> workers = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                workers.add(() -> {
+                    for (int j = 0; j < transactionCount; j++) {
+                        doInJPA(entityManager -> {
+                            for (int k = 0; k < batchSize; k++) {
+                                entityManager.persist(new Post());
+                            }
+                        });
+                    }
+                    return null;
+                });
+            }
+            for (Future<Void> future : workerExecutorService.invokeAll(workers)) {
+                future.get();
+            }
+        } finally {
+            workerExecutorService.shutdownNow();
+        }
+
+        doInJPA(entityManager -> {
+            Number postCount = entityManager.createQuery(
+                "select count(distinct p.id) from Post p", Number.class)
+            .getSingleResult();
+
+            assertEquals(threadCount * transactionCount * batchSize, postCount.intValue());
+        });
+    }
+
+    @Entity(name = "Post")
+    @Table(name = "post")
+    public static class Post {
+
+        @Id
+        @GenericGenerator(
+            name = "striped-sequence",
+            strategy = "com.vladmihalcea.book.hpjp.hibernate.identifier.batch.StripedSequenceGenerator",
+            parameters = {
+                @Parameter(name = "sequence_name", value = "post_sequence"),
+                @Parameter(name = "increment_size", value = "10"),
+                @Parameter(name = StripedSequenceGenerator.STRIPE_COUNT, value = "4"),
+                @Parameter(name = StripedSequenceGenerator.PREFETCH_BLOCKS, value = "3"),
+            }
+        )
+        @GeneratedValue(generator = "striped-sequence", strategy = GenerationType.SEQUENCE)
+        private Long id;
+    }
+}
@@ -6,6 +6,7 @@ import com.codahale.metrics.Timer;
 import com.vladmihalcea.book.hpjp.hibernate.identifier.batch.concurrent.providers.IdentityPostEntityProvider;
 import com.vladmihalcea.book.hpjp.hibernate.identifier.batch.concurrent.providers.PostEntityProvider;
 import com.vladmihalcea.book.hpjp.hibernate.identifier.batch.concurrent.providers.SequencePostEntityProvider;
+import com.vladmihalcea.book.hpjp.hibernate.identifier.batch.concurrent.providers.StripedSequencePostEntityProvider;
 import com.vladmihalcea.book.hpjp.hibernate.identifier.batch.concurrent.providers.TablePostEntityProvider;
 import com.vladmihalcea.book.hpjp.util.AbstractTest;
 import com.vladmihalcea.book.hpjp.util.providers.DataSourceProvider;
@@ -58,6 +59,7 @@ public class ConcurrentBatchIdentifierTest<T> extends AbstractTest {
         PostgreSQLDataSourceProvider postgreSQLDataSourceProvider = new PostgreSQLDataSourceProvider();
         IdentityPostEntityProvider identityPostEntityProvider = new IdentityPostEntityProvider();
         SequencePostEntityProvider sequencePostEntityProvider = new SequencePostEntityProvider();
+        StripedSequencePostEntityProvider stripedSequencePostEntityProvider = new StripedSequencePostEntityProvider();
         TablePostEntityProvider tablePostEntityProvider = new TablePostEntityProvider();
 
         List<Object[]> providers = new ArrayList<>();
@@ -82,6 +84,11 @@ public class ConcurrentBatchIdentifierTest<T> extends AbstractTest {
         providers.add(new Object[]{postgreSQLDataSourceProvider, sequencePostEntityProvider, 4});
         providers.add(new Object[]{postgreSQLDataSourceProvider, sequencePostEntityProvider, 8});
         providers.add(new Object[]{postgreSQLDataSourceProvider, sequencePostEntityProvider, 16});
+        providers.add(new Object[]{postgreSQLDataSourceProvider, stripedSequencePostEntityProvider, 1});
+        providers.add(new Object[]{postgreSQLDataSourceProvider, stripedSequencePostEntityProvider, 2});
+        providers.add(new Object[]{postgreSQLDataSourceProvider, stripedSequencePostEntityProvider, 4});
+        providers.add(new Object[]{postgreSQLDataSourceProvider, stripedSequencePostEntityProvider, 8});
+        providers.add(new Object[]{postgreSQLDataSourceProvider, stripedSequencePostEntityProvider, 16});
         return providers;
     }
 
@@ -25,6 +25,7 @@ public class SequencePostEntityProvider extends PostEntityProvider<SequencePostE
         @Id
         @GenericGenerator(name = "table", strategy = "enhanced-sequence", parameters = {
                 @org.hibernate.annotations.Parameter(name = "table_name", value = "sequence_table"),
+                @org.hibernate.annotations.Parameter(name = "sequence_name", value = "post_sequence"),
                 @org.hibernate.annotations.Parameter(name = "increment_size", value = "100"),
                 @org.hibernate.annotations.Parameter(name = "optimizer", value = "pooled"),
         })
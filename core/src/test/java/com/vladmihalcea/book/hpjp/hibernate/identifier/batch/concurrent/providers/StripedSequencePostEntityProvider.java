@@ -0,0 +1,33 @@
+package com.vladmihalcea.book.hpjp.hibernate.identifier.batch.concurrent.providers;
+
+import org.hibernate.annotations.GenericGenerator;
+
+import javax.persistence.*;
+
+/**
+ * @author Vlad Mihalcea
+ */
+public class StripedSequencePostEntityProvider extends PostEntityProvider<StripedSequencePostEntityProvider.Post> {
+
+    public StripedSequencePostEntityProvider() {
+        super(Post.class);
+    }
+
+    @Override
+    public Post newPost() {
+        return new Post();
+    }
+
+    @Entity(name = "Post")
+    @Table(name = "post")
+    public static class Post {
+
+        @Id
+        @GenericGenerator(name = "striped-sequence", strategy = "com.vladmihalcea.book.hpjp.hibernate.identifier.batch.StripedSequenceGenerator", parameters = {
+                @org.hibernate.annotations.Parameter(name = "sequence_name", value = "post_sequence"),
+                @org.hibernate.annotations.Parameter(name = "increment_size", value = "100"),
+        })
+        @GeneratedValue(generator = "striped-sequence", strategy = GenerationType.SEQUENCE)
+        private Long id;
+    }
+}
@@ -0,0 +1,201 @@
+package com.vladmihalcea.book.hpjp.hibernate.logging;
+
+import com.vladmihalcea.book.hpjp.util.AbstractTest;
+import com.vladmihalcea.book.hpjp.util.logging.AsyncQueryLoggingListener;
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.StatementType;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.junit.Test;
+
+import javax.persistence.Entity;
+import javax.persistence.Id;
+import javax.persistence.Table;
+import javax.persistence.Version;
+import javax.sql.DataSource;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+import java.util.Properties;
+import java.util.Queue;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.TimeUnit;
+import java.util.stream.Collectors;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Vlad Mihalcea
+ */
+public class AsyncQueryLoggingTest extends AbstractTest {
+
+    private final Queue<String> logEntries = new ConcurrentLinkedQueue<>();
+
+    private final AsyncQueryLoggingListener loggingListener = new AsyncQueryLoggingListener() {
+        @Override
+        protected void writeLog(String entry) {
+            logEntries.add(entry);
+            super.writeLog(entry);
+        }
+    }.packageNamePrefix(getClass().getPackage().getName());
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            Post.class
+        };
+    }
+
+    @Override
+    protected void additionalProperties(Properties properties) {
+        properties.put("hibernate.jdbc.batch_size", "5");
+    }
+
+    @Override
+    protected DataSource newDataSource() {
+        return ProxyDataSourceBuilder
+            .create(dataSourceProvider().dataSource())
+            .name("ASYNC_DATA_SOURCE_PROXY")
+            .listener(loggingListener)
+            .build();
+    }
+
+    @Override
+    public void destroy() {
+        super.destroy();
+        loggingListener.close();
+    }
+
+    @Test
+    public void testLogStatements() {
+        doInJPA(entityManager -> {
+            for (long id = 1; id <= 5; id++) {
+                Post post = new Post();
+                post.setId(id);
+                post.setTitle(String.format("High-Performance Java Persistence, part %d", id));
+                entityManager.persist(post);
+            }
+        });
+        doInJDBC(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(
+                    "select id from post where id in (?, ?, ?, ?, ?, ?, ?, ?, ?, ?, ?)")) {
+                for (int i = 1; i <= 11; i++) {
+                    statement.setLong(i, i);
+                }
+                statement.executeQuery().close();
+            }
+        });
+        assertTrue(loggingListener.flush(10, TimeUnit.SECONDS));
+
+        String insertEntry = entry("insert into post");
+        assertTrue(insertEntry.contains("Batch:True, QuerySize:1, BatchSize:5"));
+        assertTrue(insertEntry.contains("Params:[(High-Performance Java Persistence, part 1, 0, 1), "));
+        assertTrue(insertEntry.contains(" from " + getClass().getName() + ".testLogStatements("));
+
+        String selectEntry = entry("select id from post");
+        assertTrue(selectEntry.contains("Params:[(1, 2, 3, 4, 5, 6, 7, 8, 9, 10, 11)]"));
+    }
+
+    @Test
+    public void testSampling() {
+        loggingListener.sampleRate(Integer.MAX_VALUE);
+        doInJDBC(connection -> {
+            try (Statement statement = connection.createStatement()) {
+                for (int i = 0; i < 100; i++) {
+                    statement.executeQuery("select count(*) from post").close();
+                }
+                try {
+                    statement.executeQuery("select count(*) from post_comment");
+                    fail("Should have thrown SQLException");
+                } catch (SQLException expected) {
+                }
+            }
+        });
+        assertTrue(loggingListener.flush(10, TimeUnit.SECONDS));
+
+        assertTrue(logEntries.stream().filter(entry -> entry.contains("Success:True")).count() < 100);
+        assertTrue(entry("from post_comment").contains("Success:False"));
+    }
+
+    @Test
+    public void testDropWhenBufferIsFull() throws InterruptedException {
+        CountDownLatch writeLatch = new CountDownLatch(1);
+        List<String> entries = Collections.synchronizedList(new ArrayList<>());
+        AsyncQueryLoggingListener blockingListener = new AsyncQueryLoggingListener(4) {
+            @Override
+            protected void writeLog(String entry) {
+                try {
+                    writeLatch.await();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                }
+                entries.add(entry);
+            }
+        };
+        try {
+            for (int i = 0; i < 10; i++) {
+                ExecutionInfo executionInfo = new ExecutionInfo();
+                executionInfo.setDataSourceName("TEST");
+                executionInfo.setStatementType(StatementType.STATEMENT);
+                executionInfo.setSuccess(true);
+                blockingListener.afterQuery(
+                    executionInfo,
+                    Collections.singletonList(new QueryInfo(String.format("select %d", i)))
+                );
+            }
+            assertEquals(6, blockingListener.getMetricRegistry().counter(
+                "com.vladmihalcea.book.hpjp.util.logging.AsyncQueryLoggingListener.dropped"
+            ).getCount());
+
+            writeLatch.countDown();
+            assertTrue(blockingListener.flush(10, TimeUnit.SECONDS));
+            assertEquals(4, entries.size());
+            assertTrue(entries.get(3).contains("Query:[\"select 3\"]"));
+        } finally {
+            blockingListener.close();
+        }
+    }
+
+    private String entry(String query) {
+        List<String> entries = logEntries.stream()
+            .filter(entry -> entry.contains(query))
+            .collect(Collectors.toList());
+        assertEquals(1, entries.size());
+        return entries.get(0);
+    }
+
+    @Entity(name = "Post")
+    @Table(name = "post")
+    public static class Post {
+
+        @Id
+        private Long id;
+
+        private String title;
+
+        @Version
+        private int version;
+
+        public Long getId() {
+            return id;
+        }
+
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public void setTitle(String title) {
+            this.title = title;
+        }
+    }
+}
@@ -0,0 +1,236 @@
+package com.vladmihalcea.book.hpjp.hibernate.logging.validator;
+
+import com.vladmihalcea.book.hpjp.hibernate.logging.validator.sql.SQLStatementCountBudget;
+import com.vladmihalcea.book.hpjp.hibernate.logging.validator.sql.SQLStatementCountGuard;
+import com.vladmihalcea.book.hpjp.hibernate.logging.validator.sql.SQLStatementCountViolationHandler;
+import com.vladmihalcea.book.hpjp.hibernate.logging.validator.sql.exception.SQLStatementCountBudgetExceededException;
+import com.vladmihalcea.book.hpjp.util.AbstractTest;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.QueryType;
+import net.ttddyy.dsproxy.support.ProxyDataSourceBuilder;
+import org.hibernate.Session;
+import org.junit.Test;
+
+import javax.persistence.*;
+import javax.sql.DataSource;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.List;
+
+import static com.vladmihalcea.book.hpjp.hibernate.logging.validator.sql.SQLStatementCountBudget.UNLIMITED;
+import static org.junit.Assert.*;
+
+/**
+ * @author Vlad Mihalcea
+ */
+public class SQLStatementCountGuardTest extends AbstractTest {
+
+    private final List<String> violations = new ArrayList<>();
+
+    private final SQLStatementCountViolationHandler violationHandler = (unitOfWork, queryType, budget, recorded) -> {
+        violations.add(String.format("%s:%s:%d:%d", unitOfWork, queryType, budget, recorded));
+        SQLStatementCountViolationHandler.LOG.onViolation(unitOfWork, queryType, budget, recorded);
+    };
+
+    private final SQLStatementCountGuard guard = new SQLStatementCountGuard(
+        new SQLStatementCountBudget(1, UNLIMITED, UNLIMITED, UNLIMITED),
+        violationHandler
+    );
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class[] {
+            Post.class,
+            PostComment.class,
+        };
+    }
+
+    @Override
+    protected DataSource newDataSource() {
+        return ProxyDataSourceBuilder
+            .create(super.newDataSource())
+            .name("guard")
+            .listener(guard)
+            .build();
+    }
+
+    @Override
+    protected void afterInit() {
+        doInJPA(entityManager -> {
+            for (long i = 1; i <= 3; i++) {
+                Post post = new Post();
+                post.setId(i);
+                post.setTitle(String.format("Post nr. %d", i));
+                entityManager.persist(post);
+
+                PostComment comment = new PostComment();
+                comment.setId(i);
+                comment.setReview("Excellent");
+                comment.setPost(post);
+                entityManager.persist(comment);
+            }
+        });
+    }
+
+    @Test
+    public void testNPlusOneWithinTransaction() {
+        doInJPA(entityManager -> {
+            entityManager.unwrap(Session.class).addEventListeners(guard.transactionListener());
+
+            List<PostComment> comments = entityManager.createQuery(
+                "select pc " +
+                "from PostComment pc", PostComment.class)
+            .getResultList();
+
+            for (PostComment comment : comments) {
+                assertNotNull(comment.getPost().getTitle());
+            }
+        });
+
+        assertEquals(1, violations.size());
+        assertEquals("transaction:SELECT:1:2", violations.get(0));
+    }
+
+    @Test
+    public void testJoinFetchWithinTransaction() {
+        doInJPA(entityManager -> {
+            entityManager.unwrap(Session.class).addEventListeners(guard.transactionListener());
+
+            List<PostComment> comments = entityManager.createQuery(
+                "select pc " +
+                "from PostComment pc " +
+                "join fetch pc.post", PostComment.class)
+            .getResultList();
+
+            for (PostComment comment : comments) {
+                assertNotNull(comment.getPost().getTitle());
+            }
+        });
+
+        assertTrue(violations.isEmpty());
+    }
+
+    @Test
+    public void testNamedUnitOfWork() {
+        try (SQLStatementCountGuard.UnitOfWork unitOfWork = guard.begin(
+                "findComments", new SQLStatementCountBudget(2, 0, 0, 0))) {
+            doInJPA(entityManager -> {
+                List<PostComment> comments = entityManager.createQuery(
+                    "select pc " +
+                    "from PostComment pc", PostComment.class)
+                .getResultList();
+
+                comments.get(0).getPost().getTitle();
+            });
+            assertEquals(2, unitOfWork.getCount(QueryType.SELECT));
+            assertTrue(violations.isEmpty());
+
+            doInJPA(entityManager -> {
+                entityManager.find(PostComment.class, 1L).getPost().getTitle();
+            });
+            assertEquals(4, unitOfWork.getCount(QueryType.SELECT));
+            assertEquals("findComments:SELECT:2:3", violations.get(0));
+        }
+    }
+
+    @Test
+    public void testViolationException() {
+        SQLStatementCountGuard failingGuard = new SQLStatementCountGuard(
+            null,
+            SQLStatementCountViolationHandler.EXCEPTION
+        );
+
+        try (SQLStatementCountGuard.UnitOfWork unitOfWork = failingGuard.begin(
+                "findComment", new SQLStatementCountBudget(1, 0, 0, 0))) {
+            failingGuard.afterQuery(null, Collections.singletonList(
+                new QueryInfo("select pc.id from post_comment pc")
+            ));
+            failingGuard.afterQuery(null, Collections.singletonList(
+                new QueryInfo("/* load Post */ select p.id from post p")
+            ));
+            fail("Should have thrown SQLStatementCountBudgetExceededException");
+        } catch (SQLStatementCountBudgetExceededException e) {
+            assertEquals("findComment", e.getUnitOfWork());
+            assertEquals(QueryType.SELECT, e.getQueryType());
+            assertEquals(1, e.getBudget());
+            assertEquals(2, e.getRecorded());
+        }
+    }
+
+    @Test
+    public void testSampling() {
+        SQLStatementCountGuard sampledGuard = new SQLStatementCountGuard(
+            new SQLStatementCountBudget(0, 0, 0, 0),
+            SQLStatementCountViolationHandler.EXCEPTION,
+            0
+        );
+
+        try (SQLStatementCountGuard.UnitOfWork unitOfWork = sampledGuard.begin(
+                "notSampled", new SQLStatementCountBudget(0, 0, 0, 0))) {
+            assertFalse(unitOfWork.isSampled());
+        }
+    }
+
+    @Entity(name = "Post")
+    @Table(name = "post")
+    public static class Post {
+
+        @Id
+        private Long id;
+
+        private String title;
+
+        public Long getId() {
+            return id;
+        }
+
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        public String getTitle() {
+            return title;
+        }
+
+        public void setTitle(String title) {
+            this.title = title;
+        }
+    }
+
+    @Entity(name = "PostComment")
+    @Table(name = "post_comment")
+    public static class PostComment {
+
+        @Id
+        private Long id;
+
+        @ManyToOne(fetch = FetchType.LAZY)
+        private Post post;
+
+        private String review;
+
+        public Long getId() {
+            return id;
+        }
+
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        public Post getPost() {
+            return post;
+        }
+
+        public void setPost(Post post) {
+            this.post = post;
+        }
+
+        public String getReview() {
+            return review;
+        }
+
+        public void setReview(String review) {
+            this.review = review;
+        }
+    }
+}
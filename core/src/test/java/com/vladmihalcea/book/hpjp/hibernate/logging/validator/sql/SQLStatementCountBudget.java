@@ -0,0 +1,47 @@
+package com.vladmihalcea.book.hpjp.hibernate.logging.validator.sql;
+
+import net.ttddyy.dsproxy.QueryType;
+
+/**
+ * SQLStatementCountBudget - The maximum number of statements a unit of work may execute
+ * for every statement type. Use {@link #UNLIMITED} for the statement types which are not checked.
+ *
+ * @author Vlad Mihalcea
+ */
+public class SQLStatementCountBudget {
+
+    public static final int UNLIMITED = Integer.MAX_VALUE;
+
+    private final int select;
+    private final int insert;
+    private final int update;
+    private final int delete;
+
+    public SQLStatementCountBudget(int select, int insert, int update, int delete) {
+        this.select = select;
+        this.insert = insert;
+        this.update = update;
+        this.delete = delete;
+    }
+
+    /**
+     * Get the budget for the given statement type.
+     *
+     * @param queryType statement type
+     * @return maximum number of statements
+     */
+    public int get(QueryType queryType) {
+        switch (queryType) {
+            case SELECT:
+                return select;
+            case INSERT:
+                return insert;
+            case UPDATE:
+                return update;
+            case DELETE:
+                return delete;
+            default:
+                return UNLIMITED;
+        }
+    }
+}
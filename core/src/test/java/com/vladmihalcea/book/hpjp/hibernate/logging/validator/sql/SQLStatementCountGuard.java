@@ -0,0 +1,210 @@
+package com.vladmihalcea.book.hpjp.hibernate.logging.validator.sql;
+
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.QueryType;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import org.hibernate.BaseSessionEventListener;
+import org.hibernate.SessionEventListener;
+
+import java.util.List;
+import java.util.concurrent.ThreadLocalRandom;
+
+/**
+ * SQLStatementCountGuard - Runtime counterpart of the {@link SQLStatementCountValidator}.
+ *
+ * Instead of asserting the statement count at the end of a test, this datasource-proxy listener counts
+ * the statements executed by the current thread's unit of work and calls the {@link SQLStatementCountViolationHandler}
+ * as soon as the unit of work exceeds its {@link SQLStatementCountBudget}. This way, N+1 query regressions
+ * can be caught in production too, and the sampling rate limits the overhead to a fraction of the units of work.
+ *
+ * A unit of work is either started explicitly with {@link #begin(String, SQLStatementCountBudget)},
+ * or it spans a Hibernate transaction when the {@link #transactionListener()} is added to the Session.
+ *
+ * @author Vlad Mihalcea
+ */
+public class SQLStatementCountGuard implements QueryExecutionListener {
+
+    private final ThreadLocal<UnitOfWork> currentUnitOfWork = new ThreadLocal<>();
+
+    private final SQLStatementCountBudget transactionBudget;
+
+    private final SQLStatementCountViolationHandler violationHandler;
+
+    private final double samplingRate;
+
+    /**
+     * @param transactionBudget budget of the units of work started by the {@link #transactionListener()}
+     * @param violationHandler called when a unit of work exceeds its budget
+     * @param samplingRate the ratio of units of work which are checked, between 0 and 1
+     */
+    public SQLStatementCountGuard(
+            SQLStatementCountBudget transactionBudget,
+            SQLStatementCountViolationHandler violationHandler,
+            double samplingRate) {
+        this.transactionBudget = transactionBudget;
+        this.violationHandler = violationHandler;
+        this.samplingRate = samplingRate;
+    }
+
+    public SQLStatementCountGuard(
+            SQLStatementCountBudget transactionBudget,
+            SQLStatementCountViolationHandler violationHandler) {
+        this(transactionBudget, violationHandler, 1);
+    }
+
+    /**
+     * Start a named unit of work on the current thread. Units of work can be nested,
+     * in which case statements are counted only by the innermost one.
+     *
+     * @param name unit of work name, used when reporting a violation
+     * @param budget unit of work budget
+     * @return the unit of work, which must be closed when the work is done
+     */
+    public UnitOfWork begin(String name, SQLStatementCountBudget budget) {
+        boolean sampled = samplingRate >= 1 || ThreadLocalRandom.current().nextDouble() < samplingRate;
+        UnitOfWork unitOfWork = new UnitOfWork(name, sampled ? budget : null, currentUnitOfWork.get());
+        currentUnitOfWork.set(unitOfWork);
+        return unitOfWork;
+    }
+
+    /**
+     * Get a {@link SessionEventListener} which starts a unit of work, using the transaction budget,
+     * when the Session prepares its first statement, and closes it when the transaction completes.
+     * Add it with {@link org.hibernate.Session#addEventListeners(SessionEventListener...)}.
+     *
+     * @return Session event listener
+     */
+    public SessionEventListener transactionListener() {
+        return new BaseSessionEventListener() {
+            private UnitOfWork unitOfWork;
+
+            @Override
+            public void jdbcPrepareStatementStart() {
+                if (unitOfWork == null) {
+                    unitOfWork = begin("transaction", transactionBudget);
+                }
+            }
+
+            @Override
+            public void transactionCompletion(boolean successful) {
+                close();
+            }
+
+            @Override
+            public void end() {
+                close();
+            }
+
+            private void close() {
+                if (unitOfWork != null) {
+                    unitOfWork.close();
+                    unitOfWork = null;
+                }
+            }
+        };
+    }
+
+    @Override
+    public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+    }
+
+    @Override
+    public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+        UnitOfWork unitOfWork = currentUnitOfWork.get();
+        if (unitOfWork == null || unitOfWork.budget == null) {
+            return;
+        }
+        for (QueryInfo queryInfo : queryInfoList) {
+            unitOfWork.record(queryType(queryInfo.getQuery()));
+        }
+    }
+
+    /**
+     * Resolve the statement type from its first keyword, without the regex and the lower case copy
+     * that the datasource-proxy query count listener uses. A common table expression counts as a select.
+     */
+    static QueryType queryType(String query) {
+        int start = 0;
+        int length = query.length();
+        while (start < length) {
+            char c = query.charAt(start);
+            if (Character.isWhitespace(c) || c == '(') {
+                start++;
+            } else if (query.startsWith("/*", start)) {
+                int end = query.indexOf("*/", start + 2);
+                start = end < 0 ? length : end + 2;
+            } else if (query.startsWith("--", start)) {
+                int end = query.indexOf('\n', start + 2);
+                start = end < 0 ? length : end + 1;
+            } else {
+                break;
+            }
+        }
+        if (query.regionMatches(true, start, "select", 0, 6) ||
+            query.regionMatches(true, start, "with", 0, 4)) {
+            return QueryType.SELECT;
+        }
+        if (query.regionMatches(true, start, "insert", 0, 6)) {
+            return QueryType.INSERT;
+        }
+        if (query.regionMatches(true, start, "update", 0, 6)) {
+            return QueryType.UPDATE;
+        }
+        if (query.regionMatches(true, start, "delete", 0, 6)) {
+            return QueryType.DELETE;
+        }
+        return QueryType.OTHER;
+    }
+
+    /**
+     * Statement counters of a unit of work, which is confined to the thread that started it.
+     */
+    public class UnitOfWork implements AutoCloseable {
+
+        private final String name;
+
+        private final SQLStatementCountBudget budget;
+
+        private final UnitOfWork previous;
+
+        private final int[] counts = new int[QueryType.values().length];
+
+        private UnitOfWork(String name, SQLStatementCountBudget budget, UnitOfWork previous) {
+            this.name = name;
+            this.budget = budget;
+            this.previous = previous;
+        }
+
+        public String getName() {
+            return name;
+        }
+
+        public boolean isSampled() {
+            return budget != null;
+        }
+
+        public int getCount(QueryType queryType) {
+            return counts[queryType.ordinal()];
+        }
+
+        private void record(QueryType queryType) {
+            int count = ++counts[queryType.ordinal()];
+            int limit = budget.get(queryType);
+            if (count == limit + 1) {
+                violationHandler.onViolation(name, queryType, limit, count);
+            }
+        }
+
+        @Override
+        public void close() {
+            if (currentUnitOfWork.get() == this) {
+                if (previous != null) {
+                    currentUnitOfWork.set(previous);
+                } else {
+                    currentUnitOfWork.remove();
+                }
+            }
+        }
+    }
+}
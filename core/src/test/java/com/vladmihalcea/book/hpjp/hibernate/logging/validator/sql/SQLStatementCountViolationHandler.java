@@ -0,0 +1,33 @@
+package com.vladmihalcea.book.hpjp.hibernate.logging.validator.sql;
+
+import com.vladmihalcea.book.hpjp.hibernate.logging.validator.sql.exception.SQLStatementCountBudgetExceededException;
+import net.ttddyy.dsproxy.QueryType;
+import org.slf4j.LoggerFactory;
+
+/**
+ * SQLStatementCountViolationHandler - Called by the {@link SQLStatementCountGuard} once per unit of work
+ * and statement type, right after the statement which exceeded the {@link SQLStatementCountBudget}.
+ *
+ * @author Vlad Mihalcea
+ */
+@FunctionalInterface
+public interface SQLStatementCountViolationHandler {
+
+    /**
+     * Log a warning, which is what you'd use in production.
+     */
+    SQLStatementCountViolationHandler LOG = (unitOfWork, queryType, budget, recorded) ->
+        LoggerFactory.getLogger(SQLStatementCountGuard.class).warn(
+            "The {} unit of work executed {} {} statement(s), exceeding its budget of {}",
+            unitOfWork, recorded, queryType, budget
+        );
+
+    /**
+     * Fail the statement execution, which is what you'd use in tests.
+     */
+    SQLStatementCountViolationHandler EXCEPTION = (unitOfWork, queryType, budget, recorded) -> {
+        throw new SQLStatementCountBudgetExceededException(unitOfWork, queryType, budget, recorded);
+    };
+
+    void onViolation(String unitOfWork, QueryType queryType, int budget, int recorded);
+}
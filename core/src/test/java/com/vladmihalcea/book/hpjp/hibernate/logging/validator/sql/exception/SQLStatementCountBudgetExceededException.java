@@ -0,0 +1,42 @@
+package com.vladmihalcea.book.hpjp.hibernate.logging.validator.sql.exception;
+
+import net.ttddyy.dsproxy.QueryType;
+
+/**
+ * SQLStatementCountBudgetExceededException - Thrown whenever a unit of work executes more statements
+ * than its budget allows.
+ *
+ * @author Vlad Mihalcea
+ */
+public class SQLStatementCountBudgetExceededException extends RuntimeException {
+
+    private final String unitOfWork;
+    private final QueryType queryType;
+    private final int budget;
+    private final int recorded;
+
+    public SQLStatementCountBudgetExceededException(String unitOfWork, QueryType queryType, int budget, int recorded) {
+        super(String.format("The %s unit of work executed %d %s statement(s), exceeding its budget of %d!",
+            unitOfWork, recorded, queryType, budget));
+        this.unitOfWork = unitOfWork;
+        this.queryType = queryType;
+        this.budget = budget;
+        this.recorded = recorded;
+    }
+
+    public String getUnitOfWork() {
+        return unitOfWork;
+    }
+
+    public QueryType getQueryType() {
+        return queryType;
+    }
+
+    public int getBudget() {
+        return budget;
+    }
+
+    public int getRecorded() {
+        return recorded;
+    }
+}
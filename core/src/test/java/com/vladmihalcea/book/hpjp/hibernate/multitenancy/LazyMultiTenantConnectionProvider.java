@@ -0,0 +1,318 @@
+package com.vladmihalcea.book.hpjp.hibernate.multitenancy;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.zaxxer.hikari.HikariConfig;
+import com.zaxxer.hikari.HikariDataSource;
+import org.hibernate.service.UnknownUnwrapTypeException;
+import org.hibernate.service.spi.Stoppable;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.SQLTransientConnectionException;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.function.Function;
+
+/**
+ * LazyMultiTenantConnectionProvider - Creates the tenant connection pools on demand.
+ *
+ * Unlike the {@link MultiTenantConnectionProvider}, whose tenant connection providers must be registered
+ * up front, this provider creates the tenant {@link HikariDataSource} the first time the tenant asks
+ * for a connection, using the {@link HikariConfig} given by the tenant configuration function.
+ *
+ * Every tenant pool can open at most {@code tenantMaxPoolSize} connections, and this capacity is reserved
+ * from the global connection budget when the pool is created. When the budget is exhausted, the least
+ * recently used tenant pool which has no borrowed connection is closed. If every pool is busy, the caller
+ * waits for one to become idle, up to the acquire timeout.
+ *
+ * The connection acquire time of every tenant is recorded in the {@link MetricRegistry}, together with
+ * the pool creation and eviction rates and the number of reserved connections.
+ *
+ * @author Vlad Mihalcea
+ */
+public class LazyMultiTenantConnectionProvider implements
+        org.hibernate.engine.jdbc.connections.spi.MultiTenantConnectionProvider, Stoppable {
+
+    private static final Logger LOGGER = LoggerFactory.getLogger(LazyMultiTenantConnectionProvider.class);
+
+    /**
+     * A connection release can race with a thread which starts waiting, so the waiting threads look for
+     * idle pools periodically too, instead of relying only on the notification.
+     */
+    private static final long IDLE_POOL_POLL_MILLIS = 10;
+
+    private final Map<String, TenantPool> tenantPools = new ConcurrentHashMap<>();
+
+    private final Function<String, HikariConfig> tenantConfigFunction;
+
+    private final String defaultTenantIdentifier;
+
+    private int tenantMaxPoolSize = 5;
+
+    private int maxConnections = 50;
+
+    private long acquireTimeoutMillis = TimeUnit.SECONDS.toMillis(30);
+
+    private MetricRegistry metricRegistry = new MetricRegistry();
+
+    private Meter poolCreationMeter;
+
+    private Meter poolEvictionMeter;
+
+    private int reservedConnections;
+
+    private volatile int waitingThreads;
+
+    /**
+     * @param tenantConfigFunction gives the pool configuration of a tenant,
+     * the pool size settings being overridden by this provider
+     * @param defaultTenantIdentifier the tenant used when Hibernate asks for any connection
+     */
+    public LazyMultiTenantConnectionProvider(
+            Function<String, HikariConfig> tenantConfigFunction,
+            String defaultTenantIdentifier) {
+        this.tenantConfigFunction = tenantConfigFunction;
+        this.defaultTenantIdentifier = defaultTenantIdentifier;
+        registerMetrics();
+    }
+
+    public LazyMultiTenantConnectionProvider tenantMaxPoolSize(int tenantMaxPoolSize) {
+        this.tenantMaxPoolSize = tenantMaxPoolSize;
+        return this;
+    }
+
+    public LazyMultiTenantConnectionProvider maxConnections(int maxConnections) {
+        this.maxConnections = maxConnections;
+        return this;
+    }
+
+    public LazyMultiTenantConnectionProvider acquireTimeout(long acquireTimeout, TimeUnit timeUnit) {
+        this.acquireTimeoutMillis = timeUnit.toMillis(acquireTimeout);
+        return this;
+    }
+
+    public LazyMultiTenantConnectionProvider metricRegistry(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+        registerMetrics();
+        return this;
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return metricRegistry;
+    }
+
+    public int getTenantPoolCount() {
+        return tenantPools.size();
+    }
+
+    public synchronized int getReservedConnections() {
+        return reservedConnections;
+    }
+
+    private void registerMetrics() {
+        poolCreationMeter = metricRegistry.meter(MetricRegistry.name(getClass(), "poolCreations"));
+        poolEvictionMeter = metricRegistry.meter(MetricRegistry.name(getClass(), "poolEvictions"));
+        metricRegistry.register(MetricRegistry.name(getClass(), "tenantPools"), (Gauge<Integer>) this::getTenantPoolCount);
+        metricRegistry.register(MetricRegistry.name(getClass(), "reservedConnections"), (Gauge<Integer>) this::getReservedConnections);
+    }
+
+    @Override
+    public Connection getAnyConnection() throws SQLException {
+        return getConnection(defaultTenantIdentifier);
+    }
+
+    @Override
+    public void releaseAnyConnection(Connection connection) throws SQLException {
+        releaseConnection(defaultTenantIdentifier, connection);
+    }
+
+    @Override
+    public Connection getConnection(String tenantIdentifier) throws SQLException {
+        while (true) {
+            TenantPool tenantPool = tenantPools.get(tenantIdentifier);
+            if (tenantPool == null) {
+                tenantPool = createTenantPool(tenantIdentifier);
+            }
+            if (tenantPool.borrow()) {
+                try {
+                    long startNanos = System.nanoTime();
+                    Connection connection = tenantPool.dataSource.getConnection();
+                    tenantPool.acquireTimer.update(System.nanoTime() - startNanos, TimeUnit.NANOSECONDS);
+                    return connection;
+                } catch (SQLException | RuntimeException e) {
+                    release(tenantPool);
+                    throw e;
+                }
+            }
+        }
+    }
+
+    @Override
+    public void releaseConnection(String tenantIdentifier, Connection connection) throws SQLException {
+        try {
+            connection.close();
+        } finally {
+            TenantPool tenantPool = tenantPools.get(tenantIdentifier);
+            if (tenantPool != null) {
+                release(tenantPool);
+            }
+        }
+    }
+
+    private void release(TenantPool tenantPool) {
+        if (tenantPool.release() == 0 && waitingThreads > 0) {
+            synchronized (this) {
+                notifyAll();
+            }
+        }
+    }
+
+    private synchronized TenantPool createTenantPool(String tenantIdentifier) throws SQLException {
+        TenantPool tenantPool = tenantPools.get(tenantIdentifier);
+        if (tenantPool != null) {
+            return tenantPool;
+        }
+
+        long deadlineMillis = System.currentTimeMillis() + acquireTimeoutMillis;
+        while (reservedConnections + tenantMaxPoolSize > maxConnections) {
+            if (evictLeastRecentlyUsedIdlePool()) {
+                continue;
+            }
+            long remainingMillis = deadlineMillis - System.currentTimeMillis();
+            if (remainingMillis <= 0) {
+                throw new SQLTransientConnectionException(String.format(
+                    "Cannot create the [%s] tenant pool since all the %d connections are reserved by busy tenant pools",
+                    tenantIdentifier,
+                    maxConnections
+                ));
+            }
+            waitingThreads++;
+            try {
+                wait(Math.min(remainingMillis, IDLE_POOL_POLL_MILLIS));
+            } catch (InterruptedException e) {
+                Thread.currentThread().interrupt();
+                throw new SQLTransientConnectionException("Interrupted while waiting for an idle tenant pool", e);
+            } finally {
+                waitingThreads--;
+            }
+        }
+
+        HikariConfig tenantConfig = tenantConfigFunction.apply(tenantIdentifier);
+        tenantConfig.setPoolName(tenantIdentifier);
+        tenantConfig.setMinimumPoolSize(0);
+        tenantConfig.setMaximumPoolSize(tenantMaxPoolSize);
+
+        tenantPool = new TenantPool(
+            new HikariDataSource(tenantConfig),
+            metricRegistry.timer(MetricRegistry.name(getClass(), "tenant", tenantIdentifier, "acquire"))
+        );
+        reservedConnections += tenantMaxPoolSize;
+        tenantPools.put(tenantIdentifier, tenantPool);
+        poolCreationMeter.mark();
+        LOGGER.debug("Created the [{}] tenant pool, {} connections are reserved", tenantIdentifier, reservedConnections);
+        return tenantPool;
+    }
+
+    /**
+     * Scanning all pools is fine since this only happens when a tenant pool is created.
+     */
+    private boolean evictLeastRecentlyUsedIdlePool() {
+        Map.Entry<String, TenantPool> leastRecentlyUsed = null;
+        for (Map.Entry<String, TenantPool> entry : tenantPools.entrySet()) {
+            TenantPool tenantPool = entry.getValue();
+            if (tenantPool.borrowedConnections.get() == 0 &&
+                (leastRecentlyUsed == null || tenantPool.lastAccessNanos - leastRecentlyUsed.getValue().lastAccessNanos < 0)) {
+                leastRecentlyUsed = entry;
+            }
+        }
+        if (leastRecentlyUsed == null || !leastRecentlyUsed.getValue().close()) {
+            return false;
+        }
+        tenantPools.remove(leastRecentlyUsed.getKey());
+        reservedConnections -= tenantMaxPoolSize;
+        poolEvictionMeter.mark();
+        LOGGER.debug("Evicted the [{}] tenant pool", leastRecentlyUsed.getKey());
+        return true;
+    }
+
+    @Override
+    public void stop() {
+        synchronized (this) {
+            for (TenantPool tenantPool : tenantPools.values()) {
+                tenantPool.dataSource.close();
+            }
+            tenantPools.clear();
+            reservedConnections = 0;
+        }
+    }
+
+    @Override
+    public boolean supportsAggressiveRelease() {
+        return false;
+    }
+
+    @Override
+    public boolean isUnwrappableAs(Class unwrapType) {
+        return unwrapType.isInstance(this);
+    }
+
+    @Override
+    public <T> T unwrap(Class<T> unwrapType) {
+        if (isUnwrappableAs(unwrapType)) {
+            return unwrapType.cast(this);
+        }
+        throw new UnknownUnwrapTypeException(unwrapType);
+    }
+
+    /**
+     * A tenant pool which has a negative borrowed connection count is closed,
+     * so the threads which still hold a reference to it look up the tenant pool again.
+     */
+    private static class TenantPool {
+
+        private final HikariDataSource dataSource;
+
+        private final Timer acquireTimer;
+
+        private final AtomicInteger borrowedConnections = new AtomicInteger();
+
+        private volatile long lastAccessNanos = System.nanoTime();
+
+        private TenantPool(HikariDataSource dataSource, Timer acquireTimer) {
+            this.dataSource = dataSource;
+            this.acquireTimer = acquireTimer;
+        }
+
+        private boolean borrow() {
+            while (true) {
+                int borrowed = borrowedConnections.get();
+                if (borrowed < 0) {
+                    return false;
+                }
+                if (borrowedConnections.compareAndSet(borrowed, borrowed + 1)) {
+                    lastAccessNanos = System.nanoTime();
+                    return true;
+                }
+            }
+        }
+
+        private int release() {
+            return borrowedConnections.decrementAndGet();
+        }
+
+        private boolean close() {
+            if (borrowedConnections.compareAndSet(0, -1)) {
+                dataSource.close();
+                return true;
+            }
+            return false;
+        }
+    }
+}
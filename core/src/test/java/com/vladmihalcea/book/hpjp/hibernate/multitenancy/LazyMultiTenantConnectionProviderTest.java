@@ -0,0 +1,156 @@
+package com.vladmihalcea.book.hpjp.hibernate.multitenancy;
+
+import com.codahale.metrics.Slf4jReporter;
+import com.vladmihalcea.book.hpjp.hibernate.multitenancy.SchemaMultitenancyTest.Post;
+import com.vladmihalcea.book.hpjp.hibernate.multitenancy.SchemaMultitenancyTest.User;
+import com.vladmihalcea.book.hpjp.util.AbstractTest;
+import com.zaxxer.hikari.HikariConfig;
+import org.hibernate.MultiTenancyStrategy;
+import org.hibernate.cfg.AvailableSettings;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.Connection;
+import java.sql.SQLException;
+import java.sql.Statement;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.*;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Vlad Mihalcea
+ */
+public class LazyMultiTenantConnectionProviderTest extends AbstractTest {
+
+    private final int tenantCount = 100;
+
+    private final int threadCount = 4;
+
+    private final int tenantMaxPoolSize = 2;
+
+    private final int maxConnections = 10;
+
+    private LazyMultiTenantConnectionProvider connectionProvider;
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[]{
+            User.class,
+            Post.class
+        };
+    }
+
+    @Override
+    protected void additionalProperties(Properties properties) {
+        DataSource dataSource = dataSourceProvider().dataSource();
+        createSchemas(dataSource);
+
+        connectionProvider = new LazyMultiTenantConnectionProvider(
+            tenantIdentifier -> {
+                HikariConfig tenantConfig = new HikariConfig();
+                tenantConfig.setDataSource(dataSourceProxyType().dataSource(dataSource));
+                tenantConfig.setConnectionInitSql(String.format("SET SCHEMA %s", tenantIdentifier));
+                return tenantConfig;
+            },
+            TenantContext.DEFAULT_TENANT_IDENTIFIER
+        )
+        .tenantMaxPoolSize(tenantMaxPoolSize)
+        .maxConnections(maxConnections)
+        .acquireTimeout(10, TimeUnit.SECONDS);
+
+        properties.setProperty(AvailableSettings.HBM2DDL_AUTO, "none");
+        properties.setProperty(AvailableSettings.MULTI_TENANT, MultiTenancyStrategy.SCHEMA.name());
+        properties.setProperty(AvailableSettings.MULTI_TENANT_IDENTIFIER_RESOLVER, TenantContext.TenantIdentifierResolver.class.getName());
+        properties.put(AvailableSettings.MULTI_TENANT_CONNECTION_PROVIDER, connectionProvider);
+    }
+
+    @Override
+    public void destroy() {
+        super.destroy();
+        connectionProvider.stop();
+    }
+
+    private void createSchemas(DataSource dataSource) {
+        try (Connection connection = dataSource.getConnection();
+             Statement statement = connection.createStatement()) {
+            for (int i = 0; i < tenantCount; i++) {
+                String schemaName = tenantIdentifier(i);
+                statement.executeUpdate(String.format("drop schema if exists %s cascade", schemaName));
+                statement.executeUpdate(String.format("create schema %s", schemaName));
+                statement.executeUpdate(String.format("set schema %s", schemaName));
+                statement.executeUpdate("create sequence hibernate_sequence start with 1 increment by 1");
+                statement.executeUpdate("create table users (id bigint not null, registered_on timestamp, firstName varchar(255), lastName varchar(255), primary key (id))");
+                statement.executeUpdate("create table posts (id bigint not null, created_on timestamp, title varchar(255), user_id bigint, primary key (id))");
+                statement.executeUpdate("alter table posts add constraint fk_user_id foreign key (user_id) references users");
+            }
+            statement.executeUpdate(String.format("set schema %s", TenantContext.DEFAULT_TENANT_IDENTIFIER));
+        } catch (SQLException e) {
+            throw new IllegalStateException(e);
+        }
+    }
+
+    private String tenantIdentifier(int tenant) {
+        return String.format("tenant_%03d", tenant);
+    }
+
+    @Test
+    public void testManyTenants() throws Exception {
+        ExecutorService workerExecutorService = Executors.newFixedThreadPool(threadCount);
+        try {
+            List<Callable<Void>> workers = new ArrayList<>();
+            for (int i = 0; i < threadCount; i++) {
+                final int worker = i;
+                workers.add(() -> {
+                    for (int j = 0; j < tenantCount; j++) {
+                        TenantContext.setTenant(tenantIdentifier((j + worker * tenantCount / threadCount) % tenantCount));
+                        try {
+                            doInJPA(entityManager -> {
+                                User user = new User();
+                                user.setFirstName("Worker");
+                                user.setLastName(String.valueOf(worker));
+                                entityManager.persist(user);
+                            });
+                        } finally {
+                            TenantContext.reset(null);
+                        }
+                        assertTrue(connectionProvider.getReservedConnections() <= maxConnections);
+                    }
+                    return null;
+                });
+            }
+            for (Future<Void> future : workerExecutorService.invokeAll(workers)) {
+                future.get();
+            }
+        } finally {
+            workerExecutorService.shutdownNow();
+        }
+
+        for (int i = 0; i < tenantCount; i++) {
+            TenantContext.setTenant(tenantIdentifier(i));
+            try {
+                doInJPA(entityManager -> {
+                    assertEquals(
+                        Long.valueOf(threadCount),
+                        entityManager.createQuery("select count(u) from User u", Long.class).getSingleResult()
+                    );
+                });
+            } finally {
+                TenantContext.reset(null);
+            }
+        }
+
+        assertTrue(connectionProvider.getTenantPoolCount() <= maxConnections / tenantMaxPoolSize);
+        assertTrue(connectionProvider.getMetricRegistry().getMeters().values().stream().allMatch(meter -> meter.getCount() > 0));
+
+        Slf4jReporter.forRegistry(connectionProvider.getMetricRegistry())
+            .outputTo(LOGGER)
+            .filter((name, metric) -> !name.contains(".tenant.") || name.contains(tenantIdentifier(0)))
+            .convertDurationsTo(TimeUnit.MICROSECONDS)
+            .build()
+            .report();
+    }
+}
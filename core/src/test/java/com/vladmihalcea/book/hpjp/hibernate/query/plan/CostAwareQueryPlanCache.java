@@ -0,0 +1,488 @@
+package com.vladmihalcea.book.hpjp.hibernate.query.plan;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+import com.vladmihalcea.book.hpjp.util.ReflectionUtils;
+import org.hibernate.Filter;
+import org.hibernate.QueryException;
+import org.hibernate.engine.query.spi.HQLQueryPlan;
+import org.hibernate.engine.query.spi.QueryPlanCache;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.stat.spi.StatisticsImplementor;
+
+import javax.persistence.EntityManagerFactory;
+import java.util.Collections;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * CostAwareQueryPlanCache - Replaces the Hibernate {@link QueryPlanCache} entity query plan cache, whose
+ * {@code hibernate.query.plan_cache_max_size} limit is tested by the {@link DefaultInQueryPlanCacheTest},
+ * with a W-TinyLFU cache which also records the hits, misses, evictions, compile time and size estimate
+ * of every query string.
+ *
+ * A new plan enters a small LRU admission window. When the window is full, its least recently used plan
+ * becomes a candidate for the main LRU region, and it replaces the main region victim only if its access
+ * frequency, estimated by a Count-Min sketch, is greater than the victim frequency. On a tie, the candidate
+ * is rejected, unless both plans were used more than once and the candidate average compile time is at least
+ * {@code COMPILE_COST_TIE_BREAK_RATIO} times greater than the victim one. This way, a stream of one-off queries
+ * using inlined literals cannot evict the frequently used query plans, and a single noisy compile time sample
+ * cannot decide the admission. The sketch counters are halved periodically, so old accesses are forgotten.
+ *
+ * Cache hits only update the LRU order and the sketch if the eviction lock is not held by another thread,
+ * so readers never block. Query plans using enabled filters are delegated to the default Hibernate cache.
+ *
+ * @author Vlad Mihalcea
+ */
+public class CostAwareQueryPlanCache extends QueryPlanCache {
+
+    /**
+     * Rough size of the HQL AST and the translator metadata, which come on top of the query and SQL strings.
+     */
+    private static final long TRANSLATOR_SIZE_ESTIMATE = 1024;
+
+    /**
+     * How many times costlier to compile a candidate plan must be to win a frequency tie against the victim.
+     */
+    private static final int COMPILE_COST_TIE_BREAK_RATIO = 2;
+
+    private final SessionFactoryImplementor factory;
+
+    private final int windowMaximumSize;
+
+    private final int mainMaximumSize;
+
+    private final Map<PlanKey, Node> data = new ConcurrentHashMap<>();
+
+    private final Map<String, QueryStatistics> queryStatistics = new ConcurrentHashMap<>();
+
+    private final ReentrantLock evictionLock = new ReentrantLock();
+
+    private final FrequencySketch sketch;
+
+    private final Node windowHead = new Node(null, null, 0);
+
+    private final Node mainHead = new Node(null, null, 0);
+
+    private int windowSize;
+
+    private int mainSize;
+
+    private int maxTrackedQueries = 10_000;
+
+    private MetricRegistry metricRegistry;
+
+    private Meter hitsMeter;
+
+    private Meter missesMeter;
+
+    private Meter evictionsMeter;
+
+    private Meter rejectionsMeter;
+
+    private Timer compileTimer;
+
+    /**
+     * @param factory session factory
+     * @param maximumSize max number of cached query plans
+     */
+    public CostAwareQueryPlanCache(SessionFactoryImplementor factory, int maximumSize) {
+        super(factory);
+        this.factory = factory;
+        this.windowMaximumSize = Math.max(1, maximumSize / 100);
+        this.mainMaximumSize = Math.max(0, maximumSize - windowMaximumSize);
+        this.sketch = new FrequencySketch(maximumSize);
+        windowHead.prev = windowHead.next = windowHead;
+        mainHead.prev = mainHead.next = mainHead;
+        metricRegistry(new MetricRegistry());
+    }
+
+    /**
+     * Replace the query plan cache of the given entity manager factory.
+     *
+     * @param entityManagerFactory entity manager factory
+     * @param maximumSize max number of cached query plans
+     * @return the installed query plan cache
+     */
+    public static CostAwareQueryPlanCache install(EntityManagerFactory entityManagerFactory, int maximumSize) {
+        SessionFactoryImplementor factory = entityManagerFactory.unwrap(SessionFactoryImplementor.class);
+        CostAwareQueryPlanCache queryPlanCache = new CostAwareQueryPlanCache(factory, maximumSize);
+        ReflectionUtils.setFieldValue(factory, "queryPlanCache", queryPlanCache);
+        return queryPlanCache;
+    }
+
+    public CostAwareQueryPlanCache maxTrackedQueries(int maxTrackedQueries) {
+        this.maxTrackedQueries = maxTrackedQueries;
+        return this;
+    }
+
+    public CostAwareQueryPlanCache metricRegistry(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+        String prefix = MetricRegistry.name(getClass());
+        hitsMeter = metricRegistry.meter(MetricRegistry.name(prefix, "hits"));
+        missesMeter = metricRegistry.meter(MetricRegistry.name(prefix, "misses"));
+        evictionsMeter = metricRegistry.meter(MetricRegistry.name(prefix, "evictions"));
+        rejectionsMeter = metricRegistry.meter(MetricRegistry.name(prefix, "rejections"));
+        compileTimer = metricRegistry.timer(MetricRegistry.name(prefix, "compile"));
+        metricRegistry.register(MetricRegistry.name(prefix, "size"), (Gauge<Integer>) data::size);
+        return this;
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return metricRegistry;
+    }
+
+    public int size() {
+        return data.size();
+    }
+
+    /**
+     * @return the statistics of the first {@code maxTrackedQueries} query strings
+     */
+    public Map<String, QueryStatistics> getQueryStatistics() {
+        return Collections.unmodifiableMap(queryStatistics);
+    }
+
+    @Override
+    public HQLQueryPlan getHQLQueryPlan(String queryString, boolean shallow, Map<String, Filter> enabledFilters)
+            throws QueryException {
+        if (!enabledFilters.isEmpty()) {
+            return super.getHQLQueryPlan(queryString, shallow, enabledFilters);
+        }
+        StatisticsImplementor statistics = factory.getStatistics();
+        QueryStatistics queryStatistics = queryStatistics(queryString);
+        PlanKey key = new PlanKey(queryString, shallow);
+
+        Node node = data.get(key);
+        if (node != null) {
+            hitsMeter.mark();
+            if (queryStatistics != null) {
+                queryStatistics.hits.increment();
+            }
+            if (statistics.isStatisticsEnabled()) {
+                statistics.queryPlanCacheHit(queryString);
+            }
+            if (evictionLock.tryLock()) {
+                try {
+                    onHit(node);
+                } finally {
+                    evictionLock.unlock();
+                }
+            }
+            return node.plan;
+        }
+
+        missesMeter.mark();
+        long startNanos = System.nanoTime();
+        HQLQueryPlan plan = new HQLQueryPlan(queryString, shallow, enabledFilters, factory);
+        long compileNanos = System.nanoTime() - startNanos;
+        compileTimer.update(compileNanos, TimeUnit.NANOSECONDS);
+        if (queryStatistics != null) {
+            queryStatistics.misses.increment();
+            queryStatistics.compileNanos.add(compileNanos);
+            queryStatistics.sizeEstimate = estimateSize(queryString, plan);
+        }
+        if (statistics.isStatisticsEnabled()) {
+            statistics.queryCompiled(queryString, TimeUnit.NANOSECONDS.toMicros(compileNanos));
+        }
+
+        evictionLock.lock();
+        try {
+            sketch.increment(key.hashCode);
+            Node existing = data.get(key);
+            if (existing != null) {
+                return existing.plan;
+            }
+            admit(new Node(key, plan, compileNanos));
+        } finally {
+            evictionLock.unlock();
+        }
+        return plan;
+    }
+
+    @Override
+    public void cleanup() {
+        super.cleanup();
+        evictionLock.lock();
+        try {
+            data.clear();
+            windowHead.prev = windowHead.next = windowHead;
+            mainHead.prev = mainHead.next = mainHead;
+            windowSize = 0;
+            mainSize = 0;
+        } finally {
+            evictionLock.unlock();
+        }
+    }
+
+    private QueryStatistics queryStatistics(String queryString) {
+        QueryStatistics statistics = queryStatistics.get(queryString);
+        if (statistics == null && queryStatistics.size() < maxTrackedQueries) {
+            statistics = queryStatistics.computeIfAbsent(queryString, key -> new QueryStatistics());
+        }
+        return statistics;
+    }
+
+    private void onHit(Node node) {
+        if (node.prev == null) {
+            return;
+        }
+        sketch.increment(node.key.hashCode);
+        unlink(node);
+        linkLast(node.window ? windowHead : mainHead, node);
+    }
+
+    private void admit(Node node) {
+        data.put(node.key, node);
+        node.window = true;
+        linkLast(windowHead, node);
+        windowSize++;
+        if (windowSize <= windowMaximumSize) {
+            return;
+        }
+
+        Node candidate = windowHead.next;
+        unlink(candidate);
+        windowSize--;
+        candidate.window = false;
+        if (mainSize < mainMaximumSize) {
+            linkLast(mainHead, candidate);
+            mainSize++;
+            return;
+        }
+        Node victim = mainHead.next;
+        if (victim != mainHead && admitCandidate(candidate, victim)) {
+            unlink(victim);
+            evict(victim);
+            linkLast(mainHead, candidate);
+        } else {
+            rejectionsMeter.mark();
+            evict(candidate);
+        }
+    }
+
+    private boolean admitCandidate(Node candidate, Node victim) {
+        int candidateFrequency = sketch.frequency(candidate.key.hashCode);
+        int victimFrequency = sketch.frequency(victim.key.hashCode);
+        if (candidateFrequency != victimFrequency) {
+            return candidateFrequency > victimFrequency;
+        }
+        return candidateFrequency > 1 &&
+            compileCost(candidate) > COMPILE_COST_TIE_BREAK_RATIO * compileCost(victim);
+    }
+
+    /**
+     * @return the average compile time of the query string, if tracked, or the plan compile time otherwise
+     */
+    private long compileCost(Node node) {
+        QueryStatistics statistics = queryStatistics.get(node.key.queryString);
+        if (statistics != null) {
+            long misses = statistics.getMissCount();
+            if (misses > 0) {
+                return statistics.getCompileNanos() / misses;
+            }
+        }
+        return node.compileNanos;
+    }
+
+    private void evict(Node node) {
+        data.remove(node.key, node);
+        evictionsMeter.mark();
+        QueryStatistics statistics = queryStatistics.get(node.key.queryString);
+        if (statistics != null) {
+            statistics.evictions.increment();
+        }
+    }
+
+    private static void linkLast(Node head, Node node) {
+        node.prev = head.prev;
+        node.next = head;
+        head.prev.next = node;
+        head.prev = node;
+    }
+
+    private static void unlink(Node node) {
+        node.prev.next = node.next;
+        node.next.prev = node.prev;
+        node.prev = null;
+        node.next = null;
+    }
+
+    private static long estimateSize(String queryString, HQLQueryPlan plan) {
+        long size = 40 + 2L * queryString.length();
+        for (String sql : plan.getSqlStrings()) {
+            size += 40 + 2L * sql.length();
+        }
+        return size + TRANSLATOR_SIZE_ESTIMATE * plan.getTranslators().length;
+    }
+
+    /**
+     * The statistics of a query string.
+     */
+    public static class QueryStatistics {
+
+        private final LongAdder hits = new LongAdder();
+
+        private final LongAdder misses = new LongAdder();
+
+        private final LongAdder evictions = new LongAdder();
+
+        private final LongAdder compileNanos = new LongAdder();
+
+        private volatile long sizeEstimate;
+
+        public long getHitCount() {
+            return hits.sum();
+        }
+
+        public long getMissCount() {
+            return misses.sum();
+        }
+
+        public long getEvictionCount() {
+            return evictions.sum();
+        }
+
+        public long getCompileNanos() {
+            return compileNanos.sum();
+        }
+
+        public long getSizeEstimate() {
+            return sizeEstimate;
+        }
+
+        @Override
+        public String toString() {
+            return "QueryStatistics{" +
+                "hits=" + getHitCount() +
+                ", misses=" + getMissCount() +
+                ", evictions=" + getEvictionCount() +
+                ", compileMicros=" + TimeUnit.NANOSECONDS.toMicros(getCompileNanos()) +
+                ", sizeEstimate=" + sizeEstimate +
+                '}';
+        }
+    }
+
+    private static class PlanKey {
+
+        private final String queryString;
+
+        private final boolean shallow;
+
+        private final int hashCode;
+
+        private PlanKey(String queryString, boolean shallow) {
+            this.queryString = queryString;
+            this.shallow = shallow;
+            this.hashCode = 31 * queryString.hashCode() + (shallow ? 1 : 0);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof PlanKey)) {
+                return false;
+            }
+            PlanKey that = (PlanKey) o;
+            return shallow == that.shallow && queryString.equals(that.queryString);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private static class Node {
+
+        private final PlanKey key;
+
+        private final HQLQueryPlan plan;
+
+        private final long compileNanos;
+
+        private boolean window;
+
+        private Node prev;
+
+        private Node next;
+
+        private Node(PlanKey key, HQLQueryPlan plan, long compileNanos) {
+            this.key = key;
+            this.plan = plan;
+            this.compileNanos = compileNanos;
+        }
+    }
+
+    /**
+     * Count-Min sketch with four rows of counters saturating at 15, which are halved
+     * after {@code 10 * maximumSize} increments.
+     */
+    private static class FrequencySketch {
+
+        private static final long[] SEEDS = {
+            0xc3a5c85c97cb3127L, 0xb492b66fbe98f273L, 0x9ae16a3b2f90404fL, 0xcbf29ce484222325L
+        };
+
+        private static final int MAX_FREQUENCY = 15;
+
+        private final byte[][] table;
+
+        private final int mask;
+
+        private final int sampleSize;
+
+        private int additions;
+
+        private FrequencySketch(int maximumSize) {
+            int width = Integer.highestOneBit(Math.max(16, maximumSize) - 1) << 5;
+            this.table = new byte[SEEDS.length][width];
+            this.mask = width - 1;
+            this.sampleSize = 10 * Math.max(16, maximumSize);
+        }
+
+        private int frequency(int hash) {
+            int frequency = MAX_FREQUENCY;
+            for (int i = 0; i < SEEDS.length; i++) {
+                frequency = Math.min(frequency, table[i][index(hash, i)]);
+            }
+            return frequency;
+        }
+
+        private void increment(int hash) {
+            boolean added = false;
+            for (int i = 0; i < SEEDS.length; i++) {
+                int index = index(hash, i);
+                if (table[i][index] < MAX_FREQUENCY) {
+                    table[i][index]++;
+                    added = true;
+                }
+            }
+            if (added && ++additions >= sampleSize) {
+                reset();
+            }
+        }
+
+        private void reset() {
+            for (byte[] row : table) {
+                for (int i = 0; i < row.length; i++) {
+                    row[i] >>>= 1;
+                }
+            }
+            additions >>>= 1;
+        }
+
+        private int index(int hash, int row) {
+            long h = (hash + SEEDS[row]) * SEEDS[row];
+            h += h >>> 32;
+            return (int) h & mask;
+        }
+    }
+}
@@ -0,0 +1,107 @@
+package com.vladmihalcea.book.hpjp.hibernate.query.plan;
+
+import com.codahale.metrics.Slf4jReporter;
+import com.vladmihalcea.book.hpjp.util.AbstractTest;
+import com.vladmihalcea.book.hpjp.util.providers.entity.BlogEntityProvider;
+import org.hibernate.SessionFactory;
+import org.hibernate.stat.Statistics;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Vlad Mihalcea
+ */
+public class CostAwareQueryPlanCacheTest extends AbstractTest {
+
+    public static final String[] HOT_QUERY_TEMPLATES = {
+        "select p from Post p where p.title like :title%d",
+        "select p from Post p left join fetch p.comments where p.title like :title%d order by p.id",
+        "select pc from PostComment pc join fetch pc.post p where p.title like :title%d and pc.review is not null",
+        "select p.id, count(pc.id) from PostComment pc join pc.post p where p.title like :title%d group by p.id",
+    };
+
+    private final int maximumSize = 32;
+
+    @Override
+    protected Class<?>[] entities() {
+        return BlogEntityProvider.INSTANCE.entities();
+    }
+
+    @Override
+    protected void additionalProperties(Properties properties) {
+        properties.put("hibernate.generate_statistics", "true");
+    }
+
+    public static List<String> hotQueries(int count) {
+        List<String> queries = new ArrayList<>();
+        for (int i = 0; i < count; i++) {
+            queries.add(String.format(HOT_QUERY_TEMPLATES[i % HOT_QUERY_TEMPLATES.length], i));
+        }
+        return queries;
+    }
+
+    @Test
+    public void testQueryStatistics() {
+        CostAwareQueryPlanCache queryPlanCache = CostAwareQueryPlanCache.install(entityManagerFactory(), maximumSize);
+        Statistics statistics = entityManagerFactory().unwrap(SessionFactory.class).getStatistics();
+        statistics.clear();
+
+        String query = hotQueries(2).get(1);
+        doInJPA(entityManager -> {
+            for (int i = 0; i < 3; i++) {
+                entityManager.createQuery(query);
+            }
+        });
+
+        CostAwareQueryPlanCache.QueryStatistics queryStatistics = queryPlanCache.getQueryStatistics().get(query);
+        LOGGER.info("Query {} statistics: {}", query, queryStatistics);
+        assertEquals(2, queryStatistics.getHitCount());
+        assertEquals(1, queryStatistics.getMissCount());
+        assertTrue(queryStatistics.getCompileNanos() > 0);
+        assertTrue(queryStatistics.getSizeEstimate() > query.length());
+
+        assertEquals(2, statistics.getQueryPlanCacheHitCount());
+        assertEquals(1, statistics.getQueryPlanCacheMissCount());
+    }
+
+    @Test
+    public void testOneOffQueriesDoNotEvictHotQueries() {
+        CostAwareQueryPlanCache queryPlanCache = CostAwareQueryPlanCache.install(entityManagerFactory(), maximumSize);
+        List<String> hotQueries = hotQueries(maximumSize / 2);
+
+        doInJPA(entityManager -> {
+            int literal = 0;
+            for (int round = 0; round < 10; round++) {
+                for (String query : hotQueries) {
+                    entityManager.createQuery(query);
+                }
+                for (int i = 0; i < maximumSize; i++) {
+                    entityManager.createQuery("select p from Post p where p.id = " + (++literal));
+                }
+            }
+            for (String query : hotQueries) {
+                entityManager.createQuery(query);
+            }
+        });
+
+        for (String query : hotQueries) {
+            CostAwareQueryPlanCache.QueryStatistics queryStatistics = queryPlanCache.getQueryStatistics().get(query);
+            assertEquals(query, 1, queryStatistics.getMissCount());
+            assertEquals(query, 10, queryStatistics.getHitCount());
+        }
+        assertTrue(queryPlanCache.size() <= maximumSize);
+
+        Slf4jReporter.forRegistry(queryPlanCache.getMetricRegistry())
+            .outputTo(LOGGER)
+            .convertDurationsTo(TimeUnit.MICROSECONDS)
+            .build()
+            .report();
+    }
+}
@@ -0,0 +1,224 @@
+package com.vladmihalcea.book.hpjp.hibernate.query.plan;
+
+import com.vladmihalcea.book.hpjp.hibernate.type.array.IntArrayType;
+import com.vladmihalcea.book.hpjp.hibernate.type.array.LongArrayType;
+import com.vladmihalcea.book.hpjp.hibernate.type.array.VarCharStringArrayType;
+import org.hibernate.QueryException;
+import org.hibernate.boot.MetadataBuilder;
+import org.hibernate.boot.spi.MetadataBuilderContributor;
+import org.hibernate.dialect.Dialect;
+import org.hibernate.dialect.HSQLDialect;
+import org.hibernate.dialect.PostgreSQL81Dialect;
+import org.hibernate.dialect.function.SQLFunction;
+import org.hibernate.engine.spi.Mapping;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.query.Query;
+import org.hibernate.type.StandardBasicTypes;
+import org.hibernate.type.Type;
+
+import javax.persistence.EntityManager;
+import javax.persistence.TypedQuery;
+import java.util.Collection;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * InListQueryRewriter - Binds the {@code where x in :ids} collection parameter of an entity query
+ * as a single SQL array once the collection gets larger than the configured threshold.
+ * The query is rewritten to use the {@link #FUNCTION_NAME} function, which renders
+ * {@code x = ANY(?)} on PostgreSQL and {@code x IN (UNNEST(?))} on HSQLDB, so there is only
+ * one query plan and one bind parameter, no matter how many values the collection has.
+ * Below the threshold, the collection is expanded as usual, so the
+ * {@code hibernate.query.in_clause_parameter_padding} setting still applies.
+ * <p>
+ * The {@link #FUNCTION_NAME} function is registered by setting the
+ * {@code hibernate.metadata_builder_contributor} property to {@link FunctionContributor}.
+ *
+ * @author Vlad Mihalcea
+ */
+public class InListQueryRewriter {
+
+    public static final String FUNCTION_NAME = "in_array";
+
+    private final int threshold;
+
+    /**
+     * Rewritten queries by collection parameter name and original query, since the same query
+     * may have several {@code in} predicates, and only the one of the given parameter is rewritten.
+     */
+    private final ConcurrentMap<String, ConcurrentMap<String, String>> rewrittenQueries = new ConcurrentHashMap<>();
+
+    public InListQueryRewriter(int threshold) {
+        this.threshold = threshold;
+    }
+
+    public int getThreshold() {
+        return threshold;
+    }
+
+    /**
+     * Create the entity query and bind the given values to the {@code in} collection parameter.
+     *
+     * @param entityManager entity manager
+     * @param jpql entity query containing the {@code x in :parameterName} predicate
+     * @param resultClass query result class
+     * @param parameterName collection parameter name
+     * @param values non-null {@link Long}, {@link Integer} or {@link String} values, all of the same type
+     * @return the query with the collection parameter already bound
+     */
+    public <T> TypedQuery<T> createQuery(
+            EntityManager entityManager,
+            String jpql,
+            Class<T> resultClass,
+            String parameterName,
+            Collection<?> values) {
+        if (values.size() <= threshold) {
+            return entityManager.createQuery(jpql, resultClass)
+                .setParameter(parameterName, values);
+        }
+        TypedQuery<T> query = entityManager.createQuery(
+            rewrittenQueries
+                .computeIfAbsent(parameterName, p -> new ConcurrentHashMap<>())
+                .computeIfAbsent(jpql, q -> rewrite(q, parameterName)),
+            resultClass
+        );
+        bindArray(query.unwrap(Query.class), parameterName, values);
+        return query;
+    }
+
+    /**
+     * Rewrite the {@code x in :parameterName} or {@code x not in (:parameterName)} predicate
+     * to use the {@link #FUNCTION_NAME} function.
+     *
+     * @param jpql entity query
+     * @param parameterName collection parameter name
+     * @return rewritten entity query
+     */
+    public static String rewrite(String jpql, String parameterName) {
+        Pattern pattern = Pattern.compile(
+            "([\\w.]+)\\s+(not\\s+)?in\\s*(\\(\\s*)?:" + parameterName + "\\b(\\s*\\))?",
+            Pattern.CASE_INSENSITIVE
+        );
+        Matcher matcher = pattern.matcher(jpql);
+        StringBuffer rewrittenQuery = new StringBuffer();
+        boolean found = false;
+        while (matcher.find()) {
+            if ((matcher.group(3) == null) != (matcher.group(4) == null)) {
+                continue;
+            }
+            matcher.appendReplacement(
+                rewrittenQuery,
+                Matcher.quoteReplacement(
+                    String.format(
+                        "%s(%s, :%s) = %s",
+                        FUNCTION_NAME,
+                        matcher.group(1),
+                        parameterName,
+                        matcher.group(2) == null
+                    )
+                )
+            );
+            found = true;
+        }
+        if (!found) {
+            throw new IllegalArgumentException(
+                String.format("The [%s] query has no [in :%s] predicate!", jpql, parameterName)
+            );
+        }
+        matcher.appendTail(rewrittenQuery);
+        return rewrittenQuery.toString();
+    }
+
+    private void bindArray(Query<?> query, String parameterName, Collection<?> values) {
+        Object firstValue = values.iterator().next();
+        for (Object value : values) {
+            if (value == null) {
+                throw new IllegalArgumentException(
+                    String.format("The [%s] collection parameter contains a null value!", parameterName)
+                );
+            }
+            if (value.getClass() != firstValue.getClass()) {
+                throw new IllegalArgumentException(
+                    String.format(
+                        "The [%s] collection parameter mixes [%s] and [%s] values!",
+                        parameterName, firstValue.getClass(), value.getClass()
+                    )
+                );
+            }
+        }
+        if (firstValue instanceof Long) {
+            long[] array = new long[values.size()];
+            Iterator<?> iterator = values.iterator();
+            for (int i = 0; i < array.length; i++) {
+                array[i] = (Long) iterator.next();
+            }
+            query.setParameter(parameterName, array, LongArrayType.INSTANCE);
+        } else if (firstValue instanceof Integer) {
+            int[] array = new int[values.size()];
+            Iterator<?> iterator = values.iterator();
+            for (int i = 0; i < array.length; i++) {
+                array[i] = (Integer) iterator.next();
+            }
+            query.setParameter(parameterName, array, IntArrayType.INSTANCE);
+        } else if (firstValue instanceof String) {
+            query.setParameter(parameterName, values.toArray(new String[0]), VarCharStringArrayType.INSTANCE);
+        } else {
+            throw new IllegalArgumentException(
+                String.format("The [%s] values are not supported!", firstValue.getClass())
+            );
+        }
+    }
+
+    /**
+     * Renders the {@code in_array(x, :values)} predicate for the current Dialect.
+     */
+    public static class InArrayFunction implements SQLFunction {
+
+        @Override
+        public boolean hasArguments() {
+            return true;
+        }
+
+        @Override
+        public boolean hasParenthesesIfNoArguments() {
+            return true;
+        }
+
+        @Override
+        public Type getReturnType(Type firstArgumentType, Mapping mapping) throws QueryException {
+            return StandardBasicTypes.BOOLEAN;
+        }
+
+        @Override
+        public String render(Type firstArgumentType, List arguments, SessionFactoryImplementor factory)
+                throws QueryException {
+            if (arguments.size() != 2) {
+                throw new QueryException(
+                    String.format("The %s function requires 2 arguments!", FUNCTION_NAME)
+                );
+            }
+            Object column = arguments.get(0);
+            Object array = arguments.get(1);
+            Dialect dialect = factory.getJdbcServices().getDialect();
+            if (dialect instanceof PostgreSQL81Dialect) {
+                return String.format("(%s = ANY(%s))", column, array);
+            }
+            if (dialect instanceof HSQLDialect) {
+                return String.format("(%s IN (UNNEST(%s)))", column, array);
+            }
+            return String.format("(%s IN (SELECT * FROM UNNEST(%s)))", column, array);
+        }
+    }
+
+    public static class FunctionContributor implements MetadataBuilderContributor {
+
+        @Override
+        public void contribute(MetadataBuilder metadataBuilder) {
+            metadataBuilder.applySqlFunction(FUNCTION_NAME, new InArrayFunction());
+        }
+    }
+}
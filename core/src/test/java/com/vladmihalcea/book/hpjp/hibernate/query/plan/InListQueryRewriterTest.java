@@ -0,0 +1,182 @@
+package com.vladmihalcea.book.hpjp.hibernate.query.plan;
+
+import com.vladmihalcea.book.hpjp.util.AbstractTest;
+import com.vladmihalcea.book.hpjp.util.providers.entity.BlogEntityProvider;
+import com.vladmihalcea.book.hpjp.util.providers.entity.BlogEntityProvider.Post;
+import org.hibernate.resource.jdbc.spi.StatementInspector;
+import org.junit.Test;
+
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Properties;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.stream.Collectors;
+import java.util.stream.LongStream;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.fail;
+
+/**
+ * @author Vlad Mihalcea
+ */
+public class InListQueryRewriterTest extends AbstractTest {
+
+    public static final String SELECT_POSTS = "select p from Post p where p.id in :ids order by p.id";
+
+    private static final Set<String> executedQueries = ConcurrentHashMap.newKeySet();
+
+    private final int postCount = 100;
+
+    private final InListQueryRewriter rewriter = new InListQueryRewriter(16);
+
+    @Override
+    protected Class<?>[] entities() {
+        return BlogEntityProvider.INSTANCE.entities();
+    }
+
+    @Override
+    protected void additionalProperties(Properties properties) {
+        properties.put("hibernate.jdbc.batch_size", "50");
+        properties.put("hibernate.query.in_clause_parameter_padding", "true");
+        properties.put("hibernate.metadata_builder_contributor", InListQueryRewriter.FunctionContributor.class);
+        properties.put("hibernate.session_factory.statement_inspector", RecordingStatementInspector.class);
+    }
+
+    @Override
+    protected void afterInit() {
+        doInJPA(entityManager -> {
+            for (long i = 1; i <= postCount; i++) {
+                Post post = new Post();
+                post.setId(i);
+                post.setTitle(String.format("Post no. %d", i));
+                entityManager.persist(post);
+            }
+        });
+    }
+
+    @Test
+    public void testRewrite() {
+        assertEquals(
+            "select p from Post p where in_array(p.id, :ids) = true order by p.id",
+            InListQueryRewriter.rewrite(SELECT_POSTS, "ids")
+        );
+        assertEquals(
+            "select p from Post p where in_array(p.id, :ids) = false and p.title in :titles",
+            InListQueryRewriter.rewrite("select p from Post p where p.id not in ( :ids ) and p.title in :titles", "ids")
+        );
+    }
+
+    @Test
+    public void testOneQueryPlanAboveThreshold() {
+        doInJPA(entityManager -> {
+            executedQueries.clear();
+            for (int size : new int[] {17, 50, 100, 50_000}) {
+                List<Post> posts = rewriter.createQuery(
+                    entityManager, SELECT_POSTS, Post.class, "ids", ids(size)
+                ).getResultList();
+                assertEquals(Math.min(size, postCount), posts.size());
+                assertEquals(1L, (long) posts.get(0).getId());
+            }
+            assertEquals(1, executedQueries.size());
+            LOGGER.info("Executed queries: {}", executedQueries);
+
+            executedQueries.clear();
+            for (int size : new int[] {3, 5, 6}) {
+                assertEquals(
+                    size,
+                    rewriter.createQuery(entityManager, SELECT_POSTS, Post.class, "ids", ids(size))
+                        .getResultList()
+                        .size()
+                );
+            }
+            assertEquals(2, executedQueries.size());
+        });
+    }
+
+    @Test
+    public void testIntegerAndStringValues() {
+        doInJPA(entityManager -> {
+            List<String> titles = LongStream.rangeClosed(1, 20)
+                .mapToObj(i -> String.format("Post no. %d", i))
+                .collect(Collectors.toList());
+            assertEquals(
+                20,
+                rewriter.createQuery(
+                    entityManager,
+                    "select p from Post p where p.title in :titles", Post.class, "titles", titles
+                ).getResultList().size()
+            );
+            List<Integer> versions = LongStream.rangeClosed(0, 20)
+                .mapToObj(i -> (int) i)
+                .collect(Collectors.toList());
+            assertEquals(
+                postCount,
+                rewriter.createQuery(
+                    entityManager,
+                    "select p from Post p where p.version in :versions", Post.class, "versions", versions
+                ).getResultList().size()
+            );
+        });
+    }
+
+    @Test
+    public void testSeveralInPredicates() {
+        String jpql = "select p from Post p where p.id in :ids and p.title in :titles";
+        List<String> titles = LongStream.rangeClosed(1, 20)
+            .mapToObj(i -> String.format("Post no. %d", i))
+            .collect(Collectors.toList());
+        doInJPA(entityManager -> {
+            assertEquals(
+                20,
+                rewriter.createQuery(entityManager, jpql, Post.class, "ids", ids(20))
+                    .setParameter("titles", titles)
+                    .getResultList()
+                    .size()
+            );
+            assertEquals(
+                20,
+                rewriter.createQuery(entityManager, jpql, Post.class, "titles", titles)
+                    .setParameter("ids", ids(20))
+                    .getResultList()
+                    .size()
+            );
+        });
+    }
+
+    @Test
+    public void testInvalidValues() {
+        doInJPA(entityManager -> {
+            List<Object> values = new ArrayList<>(ids(20));
+            values.add(21);
+            try {
+                rewriter.createQuery(entityManager, SELECT_POSTS, Post.class, "ids", values);
+                fail("Should have thrown IllegalArgumentException");
+            } catch (IllegalArgumentException expected) {
+                LOGGER.info("Mixed values rejected: {}", expected.getMessage());
+            }
+            values.set(20, null);
+            try {
+                rewriter.createQuery(entityManager, SELECT_POSTS, Post.class, "ids", values);
+                fail("Should have thrown IllegalArgumentException");
+            } catch (IllegalArgumentException expected) {
+                LOGGER.info("Null value rejected: {}", expected.getMessage());
+            }
+        });
+    }
+
+    public static List<Long> ids(int size) {
+        return LongStream.rangeClosed(1, size).boxed().collect(Collectors.toList());
+    }
+
+    public static class RecordingStatementInspector implements StatementInspector {
+
+        @Override
+        public String inspect(String sql) {
+            if (sql.contains("from post ")) {
+                executedQueries.add(sql);
+            }
+            return sql;
+        }
+    }
+}
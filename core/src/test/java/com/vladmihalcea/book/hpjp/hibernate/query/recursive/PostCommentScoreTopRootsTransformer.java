@@ -0,0 +1,35 @@
+package com.vladmihalcea.book.hpjp.hibernate.query.recursive;
+
+import org.hibernate.transform.ResultTransformer;
+
+import java.util.List;
+
+/**
+ * PostCommentScoreTopRootsTransformer - Assembles the {@link PostCommentScore} tree with a
+ * {@link ScoreTreeAssembler} and returns only the roots with the highest total score,
+ * so the query doesn't have to return the comments in any particular order.
+ *
+ * @author Vlad Mihalcea
+ */
+public class PostCommentScoreTopRootsTransformer implements ResultTransformer {
+
+    private final ScoreTreeAssembler<PostCommentScore> treeAssembler = new ScoreTreeAssembler<>();
+
+    private final int rank;
+
+    public PostCommentScoreTopRootsTransformer(int rank) {
+        this.rank = rank;
+    }
+
+    @Override
+    public Object transformTuple(Object[] tuple, String[] aliases) {
+        PostCommentScore commentScore = (PostCommentScore) tuple[0];
+        treeAssembler.add(commentScore.getId(), commentScore.getParentId(), commentScore.getScore(), commentScore);
+        return commentScore;
+    }
+
+    @Override
+    public List transformList(List collection) {
+        return treeAssembler.topRoots(rank, PostCommentScore::addChild);
+    }
+}
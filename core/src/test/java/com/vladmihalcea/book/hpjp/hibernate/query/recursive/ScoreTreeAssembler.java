@@ -0,0 +1,299 @@
+package com.vladmihalcea.book.hpjp.hibernate.query.recursive;
+
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Collections;
+import java.util.List;
+import java.util.function.BiConsumer;
+
+/**
+ * ScoreTreeAssembler - Builds a scored tree in a single pass from {@code (id, parentId, score)} tuples,
+ * which can arrive in any order, so a child can be added before its parent.
+ * <p>
+ * The nodes are kept in parallel primitive arrays and are looked up by their {@code long} identifier
+ * using an open-addressing hash table, so no {@link Long} keys or per-node collections are created.
+ * The subtree score is aggregated while the tuples are added, and the top-N roots are selected
+ * with a bounded heap, so only the selected subtrees are linked to their parent values.
+ * Tuples with an already added identifier are ignored, and subtrees whose root has a parent
+ * that was never added are not reachable from any root.
+ * <p>
+ * The assembler is not thread-safe, but it can be reused after calling {@link #clear()}.
+ *
+ * @author Vlad Mihalcea
+ */
+public class ScoreTreeAssembler<T> {
+
+    private static final int NO_NODE = -1;
+
+    private static final float LOAD_FACTOR = 0.5f;
+
+    private long[] keys;
+
+    private int[] slots;
+
+    private int mask;
+
+    private long[] ids;
+
+    private long[] totalScores;
+
+    private int[] parents;
+
+    private int[] firstChildren;
+
+    private int[] lastChildren;
+
+    private int[] nextSiblings;
+
+    private boolean[] added;
+
+    private Object[] values;
+
+    private int size;
+
+    private int[] roots;
+
+    private int rootCount;
+
+    public ScoreTreeAssembler() {
+        this(64);
+    }
+
+    public ScoreTreeAssembler(int expectedSize) {
+        int capacity = Math.max(4, expectedSize);
+        ids = new long[capacity];
+        totalScores = new long[capacity];
+        parents = new int[capacity];
+        firstChildren = new int[capacity];
+        lastChildren = new int[capacity];
+        nextSiblings = new int[capacity];
+        added = new boolean[capacity];
+        values = new Object[capacity];
+        roots = new int[16];
+        int tableSize = Integer.highestOneBit((int) (capacity / LOAD_FACTOR) - 1) << 1;
+        keys = new long[tableSize];
+        slots = new int[tableSize];
+        mask = tableSize - 1;
+    }
+
+    /**
+     * Add a tree node.
+     *
+     * @param id node identifier
+     * @param parentId parent node identifier, or {@code null} for a root node
+     * @param score node score
+     * @param value node value, which is linked to its parent value only if the node belongs to a top-N subtree
+     * @return this assembler
+     */
+    public ScoreTreeAssembler<T> add(long id, Long parentId, long score, T value) {
+        int node = node(id);
+        if (added[node]) {
+            return this;
+        }
+        added[node] = true;
+        values[node] = value;
+        totalScores[node] += score;
+        if (parentId == null) {
+            if (rootCount == roots.length) {
+                roots = Arrays.copyOf(roots, rootCount << 1);
+            }
+            roots[rootCount++] = node;
+        } else {
+            int parent = node(parentId);
+            parents[node] = parent;
+            if (firstChildren[parent] == NO_NODE) {
+                firstChildren[parent] = node;
+            } else {
+                nextSiblings[lastChildren[parent]] = node;
+            }
+            lastChildren[parent] = node;
+            long subtreeScore = totalScores[node];
+            for (int ancestor = parent; ancestor != NO_NODE; ancestor = parents[ancestor]) {
+                totalScores[ancestor] += subtreeScore;
+            }
+        }
+        return this;
+    }
+
+    /**
+     * Get the score of the given node and all its descendants added so far.
+     *
+     * @param id node identifier
+     * @return subtree score, or {@code 0} if there is no such node
+     */
+    public long getTotalScore(long id) {
+        int node = find(id);
+        return node == NO_NODE ? 0 : totalScores[node];
+    }
+
+    /**
+     * Select the roots with the highest subtree score, and link the node values of the selected
+     * subtrees to their parent values. Roots with the same subtree score are ordered by their identifier.
+     *
+     * @param rank maximum number of roots to select
+     * @param childLinker links a child value to its parent value
+     * @return the selected root values, ordered by their subtree score, from the highest to the lowest
+     */
+    @SuppressWarnings("unchecked")
+    public List<T> topRoots(int rank, BiConsumer<T, T> childLinker) {
+        int[] heap = new int[Math.min(rank, rootCount)];
+        int heapSize = 0;
+        for (int i = 0; i < rootCount; i++) {
+            int root = roots[i];
+            if (heapSize < heap.length) {
+                heap[heapSize] = root;
+                siftUp(heap, heapSize++);
+            } else if (heapSize > 0 && ranksBefore(root, heap[0])) {
+                heap[0] = root;
+                siftDown(heap, heapSize);
+            }
+        }
+        List<T> topRoots = new ArrayList<>(heapSize);
+        while (heapSize > 0) {
+            int root = heap[0];
+            heap[0] = heap[--heapSize];
+            siftDown(heap, heapSize);
+            link(root, childLinker);
+            topRoots.add((T) values[root]);
+        }
+        Collections.reverse(topRoots);
+        return topRoots;
+    }
+
+    /**
+     * @return the number of nodes, including the parents that were referenced but not added yet
+     */
+    public int size() {
+        return size;
+    }
+
+    public void clear() {
+        Arrays.fill(slots, 0);
+        Arrays.fill(values, 0, size, null);
+        size = 0;
+        rootCount = 0;
+    }
+
+    @SuppressWarnings("unchecked")
+    private void link(int root, BiConsumer<T, T> childLinker) {
+        int[] stack = new int[16];
+        int stackSize = 0;
+        stack[stackSize++] = root;
+        while (stackSize > 0) {
+            int node = stack[--stackSize];
+            for (int child = firstChildren[node]; child != NO_NODE; child = nextSiblings[child]) {
+                childLinker.accept((T) values[node], (T) values[child]);
+                if (firstChildren[child] != NO_NODE) {
+                    if (stackSize == stack.length) {
+                        stack = Arrays.copyOf(stack, stackSize << 1);
+                    }
+                    stack[stackSize++] = child;
+                }
+            }
+        }
+    }
+
+    private boolean ranksBefore(int node, int other) {
+        return totalScores[node] > totalScores[other] ||
+            (totalScores[node] == totalScores[other] && ids[node] < ids[other]);
+    }
+
+    private void siftUp(int[] heap, int index) {
+        int node = heap[index];
+        while (index > 0) {
+            int parentIndex = (index - 1) >>> 1;
+            if (!ranksBefore(heap[parentIndex], node)) {
+                break;
+            }
+            heap[index] = heap[parentIndex];
+            index = parentIndex;
+        }
+        heap[index] = node;
+    }
+
+    private void siftDown(int[] heap, int heapSize) {
+        if (heapSize == 0) {
+            return;
+        }
+        int index = 0;
+        int node = heap[0];
+        int half = heapSize >>> 1;
+        while (index < half) {
+            int childIndex = (index << 1) + 1;
+            int rightIndex = childIndex + 1;
+            if (rightIndex < heapSize && ranksBefore(heap[childIndex], heap[rightIndex])) {
+                childIndex = rightIndex;
+            }
+            if (!ranksBefore(node, heap[childIndex])) {
+                break;
+            }
+            heap[index] = heap[childIndex];
+            index = childIndex;
+        }
+        heap[index] = node;
+    }
+
+    private int find(long id) {
+        for (int slot = hash(id) & mask; slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == id) {
+                return slots[slot] - 1;
+            }
+        }
+        return NO_NODE;
+    }
+
+    private int node(long id) {
+        int slot = hash(id) & mask;
+        for (; slots[slot] != 0; slot = (slot + 1) & mask) {
+            if (keys[slot] == id) {
+                return slots[slot] - 1;
+            }
+        }
+        if (size == ids.length) {
+            grow();
+            return node(id);
+        }
+        int node = size++;
+        keys[slot] = id;
+        slots[slot] = node + 1;
+        ids[node] = id;
+        totalScores[node] = 0;
+        parents[node] = NO_NODE;
+        firstChildren[node] = NO_NODE;
+        lastChildren[node] = NO_NODE;
+        nextSiblings[node] = NO_NODE;
+        added[node] = false;
+        return node;
+    }
+
+    private void grow() {
+        int capacity = ids.length << 1;
+        ids = Arrays.copyOf(ids, capacity);
+        totalScores = Arrays.copyOf(totalScores, capacity);
+        parents = Arrays.copyOf(parents, capacity);
+        firstChildren = Arrays.copyOf(firstChildren, capacity);
+        lastChildren = Arrays.copyOf(lastChildren, capacity);
+        nextSiblings = Arrays.copyOf(nextSiblings, capacity);
+        added = Arrays.copyOf(added, capacity);
+        values = Arrays.copyOf(values, capacity);
+        if (capacity > keys.length * LOAD_FACTOR) {
+            int tableSize = keys.length << 1;
+            keys = new long[tableSize];
+            slots = new int[tableSize];
+            mask = tableSize - 1;
+            for (int node = 0; node < size; node++) {
+                int slot = hash(ids[node]) & mask;
+                while (slots[slot] != 0) {
+                    slot = (slot + 1) & mask;
+                }
+                keys[slot] = ids[node];
+                slots[slot] = node + 1;
+            }
+        }
+    }
+
+    private static int hash(long id) {
+        long hash = id * 0x9E3779B97F4A7C15L;
+        return (int) (hash ^ (hash >>> 32));
+    }
+}
@@ -0,0 +1,537 @@
+package com.vladmihalcea.book.hpjp.hibernate.query.recursive.complex;
+
+import com.vladmihalcea.book.hpjp.hibernate.query.recursive.PostCommentScore;
+import com.vladmihalcea.book.hpjp.hibernate.query.recursive.complex.AbstractPostCommentScorePerformanceTest.PostComment;
+import com.vladmihalcea.book.hpjp.hibernate.query.recursive.complex.AbstractPostCommentScorePerformanceTest.PostCommentVote;
+import org.hibernate.Session;
+import org.hibernate.boot.Metadata;
+import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.event.service.spi.EventListenerRegistry;
+import org.hibernate.event.spi.*;
+import org.hibernate.integrator.spi.Integrator;
+import org.hibernate.persister.entity.EntityPersister;
+import org.hibernate.service.spi.SessionFactoryServiceRegistry;
+
+import javax.persistence.EntityManager;
+import java.util.*;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.atomic.AtomicIntegerArray;
+import java.util.concurrent.atomic.AtomicLongArray;
+
+/**
+ * PostCommentScoreIndex - Keeps the total vote score of every comment thread in memory, so the
+ * top-ranked threads of a post can be read in O(rank) instead of aggregating all the
+ * {@code post_comment_vote} rows of the post on every read.
+ * <p>
+ * The threads of a post are loaded on the first read, and then they are updated incrementally
+ * from the {@link PostCommentVote} and {@link PostComment} insert, update and delete events,
+ * after the transaction is committed. Since these events run after the database commit, a snapshot loaded in
+ * between might already contain the change. So every write is also counted as pending, per post, when it is
+ * flushed, and completed by its post-commit or commit-failed event. A snapshot is published only if no write
+ * of its post was pending or completed while it was loaded. Otherwise, it is loaded again, or returned without
+ * being published if writes are still pending. Changing or removing a comment discards the index of its post,
+ * which gets reloaded on the next read. Bulk updates and native queries bypass the event listeners,
+ * so {@link #verify(EntityManager, Long, int)} compares the index with the recursive CTE result
+ * and reloads the post if they differ.
+ * <p>
+ * The index is registered as an {@link Integrator}, and it gets the {@link SessionFactoryImplementor}
+ * it uses to load the posts from there.
+ *
+ * @author Vlad Mihalcea
+ */
+public class PostCommentScoreIndex implements Integrator,
+        PostCommitInsertEventListener, PostCommitUpdateEventListener, PostCommitDeleteEventListener {
+
+    public static final String RECURSIVE_CTE_QUERY =
+        "WITH RECURSIVE comment_thread(id, root_id) AS ( " +
+        "    SELECT id, id AS root_id " +
+        "    FROM post_comment " +
+        "    WHERE post_id = :postId AND parent_id IS NULL " +
+        "    UNION " +
+        "    SELECT pc.id, ct.root_id " +
+        "    FROM post_comment pc " +
+        "    INNER JOIN comment_thread ct ON pc.parent_id = ct.id " +
+        ") " +
+        "SELECT r.id, r.review, r.created_on, " +
+        "    SUM(CASE WHEN pcv.up IS NULL THEN 0 WHEN pcv.up = true THEN 1 ELSE -1 END) AS total_score " +
+        "FROM comment_thread ct " +
+        "INNER JOIN post_comment r ON r.id = ct.root_id " +
+        "LEFT JOIN post_comment_vote pcv ON pcv.comment_id = ct.id " +
+        "GROUP BY r.id, r.review, r.created_on " +
+        "ORDER BY total_score DESC, r.created_on ASC, r.id ASC " +
+        "LIMIT :rank";
+
+    private static final String LOAD_QUERY =
+        "select pc.id, pc.parent.id, pc.review, pc.createdOn, " +
+        "   sum(case when pcv.up is null then 0 when pcv.up = true then 1 else -1 end) " +
+        "from PostComment pc " +
+        "left join PostCommentVote pcv on pcv.comment = pc " +
+        "where pc.post.id = :postId " +
+        "group by pc.id, pc.parent.id, pc.review, pc.createdOn";
+
+    private static final Comparator<ThreadScore> RANKING = Comparator
+        .comparingLong((ThreadScore thread) -> thread.totalScore).reversed()
+        .thenComparing(thread -> thread.createdOn)
+        .thenComparingLong(thread -> thread.id);
+
+    private static final int MAX_LOAD_ATTEMPTS = 3;
+
+    private static final int WRITE_STRIPES = 1024;
+
+    private final ConcurrentMap<Long, PostScores> postScores = new ConcurrentHashMap<>();
+
+    private final AtomicIntegerArray pendingWrites = new AtomicIntegerArray(WRITE_STRIPES);
+
+    private final AtomicLongArray writeVersions = new AtomicLongArray(WRITE_STRIPES);
+
+    private volatile SessionFactoryImplementor sessionFactory;
+
+    @Override
+    public void integrate(
+            Metadata metadata,
+            SessionFactoryImplementor sessionFactory,
+            SessionFactoryServiceRegistry serviceRegistry) {
+        this.sessionFactory = sessionFactory;
+        EventListenerRegistry eventListenerRegistry = serviceRegistry.getService(EventListenerRegistry.class);
+        PendingWriteListener pendingWriteListener = new PendingWriteListener();
+        eventListenerRegistry.appendListeners(EventType.POST_INSERT, pendingWriteListener);
+        eventListenerRegistry.appendListeners(EventType.POST_UPDATE, pendingWriteListener);
+        eventListenerRegistry.appendListeners(EventType.POST_DELETE, pendingWriteListener);
+        eventListenerRegistry.appendListeners(EventType.POST_COMMIT_INSERT, this);
+        eventListenerRegistry.appendListeners(EventType.POST_COMMIT_UPDATE, this);
+        eventListenerRegistry.appendListeners(EventType.POST_COMMIT_DELETE, this);
+    }
+
+    @Override
+    public void disintegrate(
+            SessionFactoryImplementor sessionFactory,
+            SessionFactoryServiceRegistry serviceRegistry) {
+        clear();
+    }
+
+    /**
+     * Get the top-ranked threads of the given post, ordered by their total score, creation timestamp and identifier.
+     *
+     * @param postId post identifier
+     * @param rank maximum number of threads
+     * @return the thread root comments, whose score is the total score of the thread, without any children
+     */
+    public List<PostCommentScore> postCommentScores(Long postId, int rank) {
+        return postScores(postId).top(rank);
+    }
+
+    /**
+     * Compare the index with the recursive CTE result, and reload the post if they differ.
+     *
+     * @param entityManager entity manager used to run the recursive CTE query
+     * @param postId post identifier
+     * @param rank number of top-ranked threads to compare
+     * @return {@code true} if the index was consistent with the database
+     */
+    public boolean verify(EntityManager entityManager, Long postId, int rank) {
+        List<PostCommentScore> expected = recursiveCTEScores(entityManager, postId, rank);
+        List<PostCommentScore> actual = postCommentScores(postId, rank);
+        boolean consistent = expected.size() == actual.size();
+        for (int i = 0; consistent && i < expected.size(); i++) {
+            consistent = expected.get(i).getId().equals(actual.get(i).getId()) &&
+                expected.get(i).getTotalScore() == actual.get(i).getTotalScore();
+        }
+        if (!consistent) {
+            invalidate(postId);
+        }
+        return consistent;
+    }
+
+    public void invalidate(Long postId) {
+        PostScores scores = postScores.remove(postId);
+        if (scores != null) {
+            scores.invalidate();
+        }
+    }
+
+    public void clear() {
+        for (Long postId : new ArrayList<>(postScores.keySet())) {
+            invalidate(postId);
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    public static List<PostCommentScore> recursiveCTEScores(EntityManager entityManager, Long postId, int rank) {
+        List<Object[]> tuples = entityManager.createNativeQuery(RECURSIVE_CTE_QUERY)
+            .setParameter("postId", postId)
+            .setParameter("rank", rank)
+            .getResultList();
+        List<PostCommentScore> roots = new ArrayList<>(tuples.size());
+        for (Object[] tuple : tuples) {
+            roots.add(new PostCommentScore((Number) tuple[0], null, (String) tuple[1], (Date) tuple[2], (Number) tuple[3]));
+        }
+        return roots;
+    }
+
+    @Override
+    public void onPostInsert(PostInsertEvent event) {
+        Object entity = event.getEntity();
+        Long postId = postId(entity);
+        if (entity instanceof PostCommentVote) {
+            PostCommentVote vote = (PostCommentVote) entity;
+            vote(postId, vote.getComment().getId(), vote.isUp() ? 1 : -1);
+        } else {
+            PostComment comment = (PostComment) entity;
+            PostScores scores = postScores.get(postId);
+            if (scores != null) {
+                scores.add(
+                    comment.getId(),
+                    comment.getParent() != null ? comment.getParent().getId() : null,
+                    comment.getReview(),
+                    comment.getCreatedOn()
+                );
+            } else {
+                completeWrite(postId);
+            }
+        }
+    }
+
+    @Override
+    public void onPostUpdate(PostUpdateEvent event) {
+        Object entity = event.getEntity();
+        Long postId = postId(entity);
+        if (entity instanceof PostCommentVote) {
+            PostCommentVote vote = (PostCommentVote) entity;
+            Object[] oldState = event.getOldState();
+            if (oldState == null) {
+                invalidate(postId);
+                completeWrite(postId);
+                return;
+            }
+            int upIndex = event.getPersister().getEntityMetamodel().getPropertyIndex("up");
+            boolean wasUp = (Boolean) oldState[upIndex];
+            vote(postId, vote.getComment().getId(), wasUp == vote.isUp() ? 0 : vote.isUp() ? 2 : -2);
+        } else {
+            invalidate(postId);
+            completeWrite(postId);
+        }
+    }
+
+    @Override
+    public void onPostDelete(PostDeleteEvent event) {
+        Object entity = event.getEntity();
+        Long postId = postId(entity);
+        if (entity instanceof PostCommentVote) {
+            int upIndex = event.getPersister().getEntityMetamodel().getPropertyIndex("up");
+            boolean wasUp = (Boolean) event.getDeletedState()[upIndex];
+            vote(postId, ((PostCommentVote) entity).getComment().getId(), wasUp ? -1 : 1);
+        } else {
+            invalidate(postId);
+            completeWrite(postId);
+        }
+    }
+
+    @Override
+    public void onPostInsertCommitFailed(PostInsertEvent event) {
+        completeWrite(postId(event.getEntity()));
+    }
+
+    @Override
+    public void onPostUpdateCommitFailed(PostUpdateEvent event) {
+        completeWrite(postId(event.getEntity()));
+    }
+
+    @Override
+    public void onPostDeleteCommitFailed(PostDeleteEvent event) {
+        completeWrite(postId(event.getEntity()));
+    }
+
+    @Override
+    public boolean requiresPostCommitHanding(EntityPersister persister) {
+        return isIndexed(persister);
+    }
+
+    private static boolean isIndexed(EntityPersister persister) {
+        Class<?> entityClass = persister.getMappedClass();
+        return PostCommentVote.class.equals(entityClass) || PostComment.class.equals(entityClass);
+    }
+
+    private static Long postId(Object entity) {
+        PostComment comment = entity instanceof PostCommentVote ?
+            ((PostCommentVote) entity).getComment() :
+            (PostComment) entity;
+        return comment.getPost().getId();
+    }
+
+    private static int writeStripe(Long postId) {
+        return Long.hashCode(postId) & (WRITE_STRIPES - 1);
+    }
+
+    private void beginWrite(Long postId) {
+        int stripe = writeStripe(postId);
+        pendingWrites.incrementAndGet(stripe);
+        writeVersions.incrementAndGet(stripe);
+    }
+
+    /**
+     * The version is incremented before the pending count is decremented, so a snapshot which
+     * sees no pending write also sees the new version, and it is not published.
+     */
+    private void completeWrite(Long postId) {
+        int stripe = writeStripe(postId);
+        writeVersions.incrementAndGet(stripe);
+        pendingWrites.decrementAndGet(stripe);
+    }
+
+    private void vote(Long postId, Long commentId, int delta) {
+        PostScores scores = postScores.get(postId);
+        if (scores != null) {
+            scores.vote(commentId, delta);
+        } else {
+            completeWrite(postId);
+        }
+    }
+
+    private PostScores postScores(Long postId) {
+        while (true) {
+            PostScores scores = postScores.get(postId);
+            if (scores == null) {
+                PostScores newScores = new PostScores(postId);
+                scores = postScores.putIfAbsent(postId, newScores);
+                if (scores == null) {
+                    return load(newScores);
+                }
+            }
+            if (scores.awaitLoaded()) {
+                return scores;
+            }
+        }
+    }
+
+    /**
+     * Load the registered post, outside of the {@link #postScores} map, and publish it unless a write of the post
+     * was pending or completed while its snapshot was loaded. If writes are still pending, or the post keeps
+     * changing, the last snapshot is returned to the caller without being published, and the post is loaded
+     * again on the next read.
+     */
+    private PostScores load(PostScores scores) {
+        int stripe = writeStripe(scores.postId);
+        try {
+            for (int attempt = 1; ; attempt++) {
+                long loadVersion = writeVersions.get(stripe);
+                List<Object[]> tuples = loadTuples(scores.postId);
+                if (scores.publish(tuples, loadVersion)) {
+                    return scores;
+                }
+                if (scores.isInvalidated() || pendingWrites.get(stripe) != 0 || attempt == MAX_LOAD_ATTEMPTS) {
+                    discard(scores);
+                    PostScores snapshot = new PostScores(scores.postId);
+                    snapshot.populate(tuples);
+                    return snapshot;
+                }
+            }
+        } catch (RuntimeException e) {
+            discard(scores);
+            throw e;
+        }
+    }
+
+    @SuppressWarnings("unchecked")
+    List<Object[]> loadTuples(Long postId) {
+        try (Session session = sessionFactory.openSession()) {
+            session.setDefaultReadOnly(true);
+            return session.createQuery(LOAD_QUERY)
+                .setParameter("postId", postId)
+                .getResultList();
+        }
+    }
+
+    private void discard(PostScores scores) {
+        postScores.remove(scores.postId, scores);
+        scores.invalidate();
+    }
+
+    /**
+     * Counts the flushed writes as pending until their transaction completes.
+     */
+    private class PendingWriteListener implements PostInsertEventListener, PostUpdateEventListener, PostDeleteEventListener {
+
+        @Override
+        public void onPostInsert(PostInsertEvent event) {
+            if (isIndexed(event.getPersister())) {
+                beginWrite(postId(event.getEntity()));
+            }
+        }
+
+        @Override
+        public void onPostUpdate(PostUpdateEvent event) {
+            if (isIndexed(event.getPersister())) {
+                beginWrite(postId(event.getEntity()));
+            }
+        }
+
+        @Override
+        public void onPostDelete(PostDeleteEvent event) {
+            if (isIndexed(event.getPersister())) {
+                beginWrite(postId(event.getEntity()));
+            }
+        }
+
+        @Override
+        public boolean requiresPostCommitHanding(EntityPersister persister) {
+            return false;
+        }
+    }
+
+    private static class ThreadScore {
+
+        private final long id;
+
+        private final String review;
+
+        private final Date createdOn;
+
+        private long totalScore;
+
+        private ThreadScore(long id, String review, Date createdOn) {
+            this.id = id;
+            this.review = review;
+            this.createdOn = createdOn;
+        }
+    }
+
+    /**
+     * Index of a post, whose writes are applied and completed under its lock, which is also held
+     * while publishing, so a write either completes before the snapshot is published, and the snapshot
+     * is rejected, or it is applied to the published snapshot.
+     */
+    private class PostScores {
+
+        private final Long postId;
+
+        private final Map<Long, ThreadScore> comments = new HashMap<>();
+
+        private final TreeSet<ThreadScore> ranking = new TreeSet<>(RANKING);
+
+        private boolean loaded;
+
+        private boolean invalidated;
+
+        private PostScores(Long postId) {
+            this.postId = postId;
+        }
+
+        private void populate(List<Object[]> tuples) {
+            Map<Long, Long> parentIds = new HashMap<>(tuples.size() * 2);
+            Map<Long, Long> scores = new HashMap<>(tuples.size() * 2);
+            for (Object[] tuple : tuples) {
+                Long id = (Long) tuple[0];
+                Long parentId = (Long) tuple[1];
+                long score = ((Number) tuple[4]).longValue();
+                if (parentId == null) {
+                    newThread(id, (String) tuple[2], (Date) tuple[3], score);
+                } else {
+                    parentIds.put(id, parentId);
+                    scores.put(id, score);
+                }
+            }
+            for (Map.Entry<Long, Long> entry : parentIds.entrySet()) {
+                Long rootId = entry.getValue();
+                for (Long parentId = parentIds.get(rootId); parentId != null; parentId = parentIds.get(rootId)) {
+                    rootId = parentId;
+                }
+                addToThread(entry.getKey(), rootId, scores.get(entry.getKey()));
+            }
+            for (ThreadScore thread : comments.values()) {
+                ranking.add(thread);
+            }
+        }
+
+        private void newThread(Long id, String review, Date createdOn, long score) {
+            ThreadScore thread = new ThreadScore(id, review, createdOn);
+            thread.totalScore = score;
+            comments.put(id, thread);
+        }
+
+        private void addToThread(Long id, Long rootId, long score) {
+            ThreadScore thread = comments.get(rootId);
+            if (thread != null && thread.id == rootId) {
+                thread.totalScore += score;
+                comments.put(id, thread);
+            }
+        }
+
+        private synchronized boolean isInvalidated() {
+            return invalidated;
+        }
+
+        private synchronized boolean publish(List<Object[]> tuples, long loadVersion) {
+            int stripe = writeStripe(postId);
+            if (invalidated || pendingWrites.get(stripe) != 0 || writeVersions.get(stripe) != loadVersion) {
+                return false;
+            }
+            populate(tuples);
+            loaded = true;
+            notifyAll();
+            return true;
+        }
+
+        private synchronized boolean awaitLoaded() {
+            while (!loaded && !invalidated) {
+                try {
+                    wait();
+                } catch (InterruptedException e) {
+                    Thread.currentThread().interrupt();
+                    throw new IllegalStateException("Interrupted while waiting for post " + postId + " to be loaded", e);
+                }
+            }
+            return loaded;
+        }
+
+        private synchronized void add(Long id, Long parentId, String review, Date createdOn) {
+            try {
+                if (!loaded || invalidated || comments.containsKey(id)) {
+                    return;
+                }
+                ThreadScore thread;
+                if (parentId == null) {
+                    thread = new ThreadScore(id, review, createdOn);
+                    ranking.add(thread);
+                } else {
+                    thread = comments.get(parentId);
+                    if (thread == null) {
+                        return;
+                    }
+                }
+                comments.put(id, thread);
+            } finally {
+                completeWrite(postId);
+            }
+        }
+
+        private synchronized void vote(Long commentId, int delta) {
+            try {
+                ThreadScore thread = comments.get(commentId);
+                if (!loaded || invalidated || thread == null || delta == 0) {
+                    return;
+                }
+                ranking.remove(thread);
+                thread.totalScore += delta;
+                ranking.add(thread);
+            } finally {
+                completeWrite(postId);
+            }
+        }
+
+        private synchronized List<PostCommentScore> top(int rank) {
+            List<PostCommentScore> roots = new ArrayList<>(Math.min(rank, ranking.size()));
+            Iterator<ThreadScore> iterator = ranking.iterator();
+            while (roots.size() < rank && iterator.hasNext()) {
+                ThreadScore thread = iterator.next();
+                roots.add(new PostCommentScore(thread.id, null, thread.review, thread.createdOn, thread.totalScore));
+            }
+            return roots;
+        }
+
+        private synchronized void invalidate() {
+            invalidated = true;
+            notifyAll();
+        }
+    }
+}
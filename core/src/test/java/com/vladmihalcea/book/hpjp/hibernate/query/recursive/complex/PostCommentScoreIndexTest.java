@@ -0,0 +1,234 @@
+package com.vladmihalcea.book.hpjp.hibernate.query.recursive.complex;
+
+import com.vladmihalcea.book.hpjp.hibernate.query.recursive.PostCommentScore;
+import com.vladmihalcea.book.hpjp.hibernate.query.recursive.complex.AbstractPostCommentScorePerformanceTest.Post;
+import com.vladmihalcea.book.hpjp.hibernate.query.recursive.complex.AbstractPostCommentScorePerformanceTest.PostComment;
+import com.vladmihalcea.book.hpjp.hibernate.query.recursive.complex.AbstractPostCommentScorePerformanceTest.PostCommentVote;
+import com.vladmihalcea.book.hpjp.hibernate.query.recursive.complex.AbstractPostCommentScorePerformanceTest.User;
+import com.vladmihalcea.book.hpjp.util.AbstractTest;
+import org.hibernate.event.spi.PostInsertEvent;
+import org.hibernate.integrator.spi.Integrator;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.Random;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Vlad Mihalcea
+ */
+public class PostCommentScoreIndexTest extends AbstractTest {
+
+    private Runnable afterLoad;
+
+    private Runnable beforeCommittedInsert;
+
+    private final PostCommentScoreIndex scoreIndex = new PostCommentScoreIndex() {
+        @Override
+        List<Object[]> loadTuples(Long postId) {
+            List<Object[]> tuples = super.loadTuples(postId);
+            Runnable action = afterLoad;
+            afterLoad = null;
+            if (action != null) {
+                action.run();
+            }
+            return tuples;
+        }
+
+        @Override
+        public void onPostInsert(PostInsertEvent event) {
+            Runnable action = beforeCommittedInsert;
+            beforeCommittedInsert = null;
+            if (action != null) {
+                action.run();
+            }
+            super.onPostInsert(event);
+        }
+    };
+
+    private final int rank = 3;
+
+    private final List<Long> userIds = new ArrayList<>();
+
+    private final List<Long> commentIds = new ArrayList<>();
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            Post.class,
+            PostComment.class,
+            User.class,
+            PostCommentVote.class,
+        };
+    }
+
+    @Override
+    protected Integrator integrator() {
+        return scoreIndex;
+    }
+
+    @Override
+    protected void afterInit() {
+        Random random = new Random(0);
+        doInJPA(entityManager -> {
+            List<User> users = new ArrayList<>();
+            for (int i = 0; i < 4; i++) {
+                User user = new User();
+                user.setUsername(String.format("User %d", i));
+                entityManager.persist(user);
+                users.add(user);
+            }
+            for (long postId = 1; postId <= 2; postId++) {
+                Post post = new Post();
+                post.setId(postId);
+                post.setTitle("High-Performance Java Persistence");
+                entityManager.persist(post);
+
+                for (int i = 0; i < 8; i++) {
+                    PostComment root = comment(entityManager, post, null, String.format("Comment %d", i));
+                    vote(entityManager, users, root, random);
+                    for (int j = 0; j < 4; j++) {
+                        PostComment reply = comment(entityManager, post, root, String.format("Comment %d-%d", i, j));
+                        vote(entityManager, users, reply, random);
+                        for (int k = 0; k < 2; k++) {
+                            PostComment replyToReply = comment(entityManager, post, reply, String.format("Comment %d-%d-%d", i, j, k));
+                            vote(entityManager, users, replyToReply, random);
+                        }
+                    }
+                }
+            }
+            entityManager.flush();
+            for (User user : users) {
+                userIds.add(user.getId());
+            }
+        });
+    }
+
+    private PostComment comment(EntityManager entityManager, Post post, PostComment parent, String review) {
+        PostComment comment = new PostComment();
+        comment.setPost(post);
+        comment.setParent(parent);
+        comment.setReview(review);
+        entityManager.persist(comment);
+        if (post.getId() == 1L) {
+            commentIds.add(comment.getId());
+        }
+        return comment;
+    }
+
+    private void vote(EntityManager entityManager, List<User> users, PostComment comment, Random random) {
+        for (User user : users) {
+            if (random.nextBoolean()) {
+                PostCommentVote vote = new PostCommentVote(user, comment);
+                vote.setUp(random.nextInt(3) > 0);
+                entityManager.persist(vote);
+            }
+        }
+    }
+
+    @Test
+    public void testIncrementalUpdates() {
+        Random random = new Random(1);
+        assertConsistent();
+
+        for (int i = 0; i < 100; i++) {
+            Long commentId = commentIds.get(random.nextInt(commentIds.size()));
+            Long userId = userIds.get(random.nextInt(userIds.size()));
+            doInJPA(entityManager -> {
+                PostComment comment = entityManager.find(PostComment.class, commentId);
+                User user = entityManager.find(User.class, userId);
+                PostCommentVote vote = entityManager.find(PostCommentVote.class, new PostCommentVote(user, comment));
+                if (vote == null) {
+                    vote = new PostCommentVote(user, comment);
+                    vote.setUp(random.nextBoolean());
+                    entityManager.persist(vote);
+                } else if (random.nextBoolean()) {
+                    vote.setUp(!vote.isUp());
+                } else {
+                    entityManager.remove(vote);
+                }
+            });
+            assertConsistent();
+        }
+
+        doInJPA(entityManager -> {
+            Post post = entityManager.find(Post.class, 1L);
+            PostComment comment = new PostComment();
+            comment.setPost(post);
+            comment.setReview("Comment 8");
+            entityManager.persist(comment);
+            for (Long userId : userIds) {
+                PostCommentVote vote = new PostCommentVote(entityManager.find(User.class, userId), comment);
+                vote.setUp(true);
+                entityManager.persist(vote);
+            }
+        });
+        List<PostCommentScore> topThreads = scoreIndex.postCommentScores(1L, rank);
+        LOGGER.info("Top threads: {}", topThreads.get(0).getReview());
+        assertConsistent();
+    }
+
+    @Test
+    public void testBulkUpdateIsDetected() {
+        assertConsistent();
+        doInJPA(entityManager -> {
+            entityManager.createNativeQuery("UPDATE post_comment_vote SET up = false").executeUpdate();
+        });
+        doInJPA(entityManager -> {
+            assertFalse(scoreIndex.verify(entityManager, 1L, rank));
+            assertTrue(scoreIndex.verify(entityManager, 1L, rank));
+        });
+    }
+
+    @Test
+    public void testVoteWhileLoading() {
+        afterLoad = () -> doInJPA(entityManager -> {
+            User user = new User();
+            user.setUsername("User 4");
+            entityManager.persist(user);
+            PostCommentVote vote = new PostCommentVote(user, entityManager.find(PostComment.class, commentIds.get(0)));
+            vote.setUp(true);
+            entityManager.persist(vote);
+        });
+        scoreIndex.postCommentScores(1L, rank);
+        doInJPA(entityManager -> {
+            assertTrue(scoreIndex.verify(entityManager, 1L, 8));
+        });
+    }
+
+    @Test
+    public void testLoadBetweenCommitAndListener() {
+        List<PostCommentScore> topThreads = new ArrayList<>();
+        beforeCommittedInsert = () -> topThreads.addAll(scoreIndex.postCommentScores(1L, rank));
+        doInJPA(entityManager -> {
+            User user = new User();
+            user.setUsername("User 4");
+            entityManager.persist(user);
+            PostCommentVote vote = new PostCommentVote(user, entityManager.find(PostComment.class, commentIds.get(0)));
+            vote.setUp(true);
+            entityManager.persist(vote);
+        });
+        assertEquals(rank, topThreads.size());
+        doInJPA(entityManager -> {
+            assertTrue(scoreIndex.verify(entityManager, 1L, 8));
+        });
+    }
+
+    private void assertConsistent() {
+        doInJPA(entityManager -> {
+            List<PostCommentScore> expected = PostCommentScoreIndex.recursiveCTEScores(entityManager, 1L, rank);
+            List<PostCommentScore> actual = scoreIndex.postCommentScores(1L, rank);
+            assertEquals(rank, actual.size());
+            for (int i = 0; i < rank; i++) {
+                assertEquals(expected.get(i).getId(), actual.get(i).getId());
+                assertEquals(expected.get(i).getTotalScore(), actual.get(i).getTotalScore());
+            }
+            assertTrue(scoreIndex.verify(entityManager, 2L, rank));
+        });
+    }
+}
@@ -0,0 +1,139 @@
+package com.vladmihalcea.book.hpjp.hibernate.query.recursive.simple;
+
+import com.vladmihalcea.book.hpjp.hibernate.query.recursive.PostCommentScore;
+import com.vladmihalcea.book.hpjp.hibernate.query.recursive.PostCommentScoreTopRootsTransformer;
+import com.vladmihalcea.book.hpjp.hibernate.query.recursive.ScoreTreeAssembler;
+import com.vladmihalcea.book.hpjp.util.AbstractTest;
+import org.hibernate.query.NativeQuery;
+import org.junit.Test;
+
+import javax.persistence.EntityManager;
+import java.util.*;
+
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Vlad Mihalcea
+ */
+public class PostCommentScoreTopRootsTest extends AbstractTest {
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            Post.class,
+            PostComment.class
+        };
+    }
+
+    @Override
+    protected void afterInit() {
+        doInJPA(entityManager -> {
+            Post post = new Post();
+            post.setId(1L);
+            post.setTitle("High-Performance Java Persistence");
+            entityManager.persist(post);
+
+            PostComment comment1 = comment(entityManager, post, null, "Comment 1", 1);
+            comment(entityManager, post, comment1, "Comment 1_1", 2);
+            PostComment comment1_2 = comment(entityManager, post, comment1, "Comment 1_2", 2);
+            comment(entityManager, post, comment1_2, "Comment 1_2_1", 1);
+
+            PostComment comment2 = comment(entityManager, post, null, "Comment 2", 1);
+            comment(entityManager, post, comment2, "Comment 2_1", 1);
+            comment(entityManager, post, comment2, "Comment 2_2", 1);
+
+            PostComment comment3 = comment(entityManager, post, null, "Comment 3", 1);
+            comment(entityManager, post, comment3, "Comment 3_1", 10);
+            comment(entityManager, post, comment3, "Comment 3_2", -2);
+
+            comment(entityManager, post, null, "Comment 4", -5);
+            comment(entityManager, post, null, "Comment 5", 0);
+        });
+    }
+
+    private PostComment comment(EntityManager entityManager, Post post, PostComment parent, String review, int score) {
+        PostComment comment = new PostComment();
+        comment.setPost(post);
+        comment.setParent(parent);
+        comment.setReview(review);
+        comment.setScore(score);
+        entityManager.persist(comment);
+        return comment;
+    }
+
+    @Test
+    public void testTopRootsTransformer() {
+        doInJPA(entityManager -> {
+            List<PostCommentScore> roots = entityManager.createNativeQuery(
+                "SELECT id, parent_id, review, created_on, score " +
+                "FROM post_comment " +
+                "WHERE post_id = :postId " +
+                "ORDER BY id DESC", "PostCommentScore")
+            .unwrap(NativeQuery.class)
+            .setParameter("postId", 1L)
+            .setResultTransformer(new PostCommentScoreTopRootsTransformer(3))
+            .list();
+
+            assertEquals(3, roots.size());
+            assertEquals("Comment 3", roots.get(0).getReview());
+            assertEquals(9, roots.get(0).getTotalScore());
+            assertEquals("Comment 1", roots.get(1).getReview());
+            assertEquals(6, roots.get(1).getTotalScore());
+            assertEquals("Comment 1_2_1", roots.get(1).getChildren().get(1).getChildren().get(0).getReview());
+            assertEquals("Comment 2", roots.get(2).getReview());
+            assertEquals(3, roots.get(2).getTotalScore());
+        });
+    }
+
+    @Test
+    public void testShuffledTuples() {
+        Random random = new Random(1);
+        List<PostCommentScore> comments = new ArrayList<>();
+        long id = 0;
+        for (int i = 0; i < 64; i++) {
+            long rootId = ++id;
+            comments.add(new PostCommentScore(rootId, null, "Comment", null, random.nextInt(20) - 5));
+            for (int j = 0; j < 32; j++) {
+                long childId = ++id;
+                comments.add(new PostCommentScore(childId, rootId, "Comment", null, random.nextInt(20) - 5));
+                for (int k = 0; k < 16; k++) {
+                    comments.add(new PostCommentScore(++id, childId, "Comment", null, random.nextInt(20) - 5));
+                }
+            }
+        }
+        Collections.shuffle(comments, random);
+
+        ScoreTreeAssembler<PostCommentScore> treeAssembler = new ScoreTreeAssembler<>(16);
+        for (PostCommentScore comment : comments) {
+            treeAssembler.add(comment.getId(), comment.getParentId(), comment.getScore(), comment);
+        }
+        assertEquals(comments.size(), treeAssembler.size());
+        List<PostCommentScore> topRoots = treeAssembler.topRoots(5, PostCommentScore::addChild);
+
+        Map<Long, Long> parentIds = new HashMap<>();
+        for (PostCommentScore comment : comments) {
+            parentIds.put(comment.getId(), comment.getParentId());
+        }
+        Map<Long, Long> totalScores = new HashMap<>();
+        for (PostCommentScore comment : comments) {
+            Long rootId = comment.getId();
+            while (parentIds.get(rootId) != null) {
+                rootId = parentIds.get(rootId);
+            }
+            totalScores.merge(rootId, comment.getScore(), Long::sum);
+        }
+        List<Long> expectedRootIds = new ArrayList<>(totalScores.keySet());
+        expectedRootIds.sort(
+            Comparator.comparing((Long rootId) -> totalScores.get(rootId)).reversed()
+                .thenComparing(Comparator.naturalOrder())
+        );
+
+        assertEquals(5, topRoots.size());
+        for (int i = 0; i < topRoots.size(); i++) {
+            PostCommentScore root = topRoots.get(i);
+            assertEquals(expectedRootIds.get(i), root.getId());
+            assertEquals((long) totalScores.get(root.getId()), root.getTotalScore());
+            assertEquals(totalScores.get(root.getId()).longValue(), treeAssembler.getTotalScore(root.getId()));
+        }
+    }
+}
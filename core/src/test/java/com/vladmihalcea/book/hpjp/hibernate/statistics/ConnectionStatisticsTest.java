@@ -1,5 +1,6 @@
 package com.vladmihalcea.book.hpjp.hibernate.statistics;
 
+import com.codahale.metrics.MetricRegistry;
 import com.vladmihalcea.book.hpjp.util.AbstractTest;
 import com.vladmihalcea.book.hpjp.util.providers.entity.BlogEntityProvider;
 import org.hibernate.Session;
@@ -93,6 +94,11 @@ public class ConnectionStatisticsTest extends AbstractTest {
             StatisticsInitiator.STATS_BUILDER,
             TransactionStatisticsFactory.class.getName()
         );
+
+        properties.put(
+            AvailableSettings.AUTO_SESSION_EVENTS_LISTENER,
+            FlushTimeSessionEventListener.class.getName()
+        );
     }
 
     @Test
@@ -130,10 +136,23 @@ public class ConnectionStatisticsTest extends AbstractTest {
     @Test
     public void testStatistics() {
         doInJPA(entityManager -> {
+            Post post = new Post();
+            post.setId(1L);
+            post.setTitle("High-Performance Java Persistence");
+            entityManager.persist(post);
+
             Session session = entityManager.unwrap(Session.class);
 
             Statistics statistics = session.getSessionFactory().getStatistics();
             assertTrue(statistics instanceof TransactionStatistics);
         });
+
+        MetricRegistry metricRegistry = ((TransactionStatistics) sessionFactory().getStatistics())
+            .getReport()
+            .getMetricRegistry();
+
+        assertEquals(1, metricRegistry.timer("transactionTimer").getCount());
+        assertEquals(1, metricRegistry.timer("flushTimer").getCount());
+        assertEquals(1, metricRegistry.histogram("statementCountHistogram").getSnapshot().getMax());
     }
 }
@@ -0,0 +1,24 @@
+package com.vladmihalcea.book.hpjp.hibernate.statistics;
+
+import org.hibernate.BaseSessionEventListener;
+
+/**
+ * Measures every flush and adds it to the {@link TransactionStatistics} of the current transaction.
+ * Register it using the {@code hibernate.session.events.auto} configuration property.
+ *
+ * @author Vlad Mihalcea
+ */
+public class FlushTimeSessionEventListener extends BaseSessionEventListener {
+
+    private long flushStartNanos;
+
+    @Override
+    public void flushStart() {
+        flushStartNanos = System.nanoTime();
+    }
+
+    @Override
+    public void flushEnd(int numberOfEntities, int numberOfCollections) {
+        TransactionStatistics.flushTime(System.nanoTime() - flushStartNanos);
+    }
+}
@@ -10,6 +10,10 @@ import org.slf4j.LoggerFactory;
 import java.util.concurrent.TimeUnit;
 
 /**
+ * Records the per-transaction metrics into {@link IntervalHistogramReservoir} backed
+ * histograms, which are logged by a background {@link Slf4jReporter},
+ * so the committing thread never pays for the reporting.
+ *
  * @author Vlad Mihalcea
  */
 public class StatisticsReport {
@@ -18,15 +22,22 @@ public class StatisticsReport {
 
     private MetricRegistry metricRegistry = new MetricRegistry();
 
+    private Timer transactionTimer = metricRegistry.
+        register("transactionTimer", new Timer(new IntervalHistogramReservoir()));
+
     private Histogram connectionCountHistogram = metricRegistry.
-        histogram("connectionCountHistogram");
+        register("connectionCountHistogram", new Histogram(new IntervalHistogramReservoir()));
 
-    private Timer transactionTimer = metricRegistry.
-        timer("transactionTimer");
+    private Histogram statementCountHistogram = metricRegistry.
+        register("statementCountHistogram", new Histogram(new IntervalHistogramReservoir()));
+
+    private Timer flushTimer = metricRegistry.
+        register("flushTimer", new Timer(new IntervalHistogramReservoir()));
 
     private Slf4jReporter logReporter = Slf4jReporter
             .forRegistry(metricRegistry)
             .outputTo(LOGGER)
+            .convertDurationsTo(TimeUnit.MICROSECONDS)
             .build();
 
     public void transactionTime(long nanos) {
@@ -37,6 +48,26 @@ public class StatisticsReport {
         connectionCountHistogram.update(count);
     }
 
+    public void statementsCount(long count) {
+        statementCountHistogram.update(count);
+    }
+
+    public void flushTime(long nanos) {
+        flushTimer.update(nanos, TimeUnit.NANOSECONDS);
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return metricRegistry;
+    }
+
+    public void start(long period, TimeUnit unit) {
+        logReporter.start(period, unit);
+    }
+
+    public void stop() {
+        logReporter.stop();
+    }
+
     public void generate() {
         logReporter.report();
     }
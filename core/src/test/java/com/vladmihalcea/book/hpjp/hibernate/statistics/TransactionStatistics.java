@@ -4,40 +4,88 @@ package com.vladmihalcea.book.hpjp.hibernate.statistics;
 import org.hibernate.engine.spi.SessionFactoryImplementor;
 import org.hibernate.stat.internal.StatisticsImpl;
 
-import java.util.concurrent.atomic.AtomicLong;
-
 /**
+ * Collects the connection, statement and flush metrics of the current transaction
+ * in a thread-confined {@link TransactionRecord}, and passes them to the {@link StatisticsReport}
+ * when the transaction ends. No lock is taken and nothing is allocated per transaction.
+ *
  * @author Vlad Mihalcea
  */
 public class TransactionStatistics extends StatisticsImpl {
 
-    private static final ThreadLocal<AtomicLong> startNanos = ThreadLocal.withInitial(AtomicLong::new);
-
-    private static final ThreadLocal<AtomicLong> connectionCounter = ThreadLocal.withInitial(AtomicLong::new);
+    private static final ThreadLocal<TransactionRecord> transactionRecord = ThreadLocal.withInitial(TransactionRecord::new);
 
-    private StatisticsReport report = new StatisticsReport();
+    private final StatisticsReport report;
 
     public TransactionStatistics(SessionFactoryImplementor sessionFactory) {
+        this(sessionFactory, new StatisticsReport());
+    }
+
+    public TransactionStatistics(SessionFactoryImplementor sessionFactory, StatisticsReport report) {
         super(sessionFactory);
+        this.report = report;
+    }
+
+    public StatisticsReport getReport() {
+        return report;
     }
 
     @Override
     public void connect() {
-        connectionCounter.get().incrementAndGet();
-        startNanos.get().compareAndSet(0, System.nanoTime());
+        TransactionRecord record = transactionRecord.get();
+        record.connectionCount++;
+        if (record.startNanos == 0) {
+            record.startNanos = System.nanoTime();
+        }
         super.connect();
     }
 
+    @Override
+    public void prepareStatement() {
+        transactionRecord.get().statementCount++;
+        super.prepareStatement();
+    }
+
+    /**
+     * Add the duration of a Persistence Context flush to the current transaction.
+     *
+     * @param nanos flush duration
+     */
+    public static void flushTime(long nanos) {
+        transactionRecord.get().flushNanos += nanos;
+    }
+
     @Override
     public void endTransaction(boolean success) {
+        TransactionRecord record = transactionRecord.get();
         try {
-            report.transactionTime(System.nanoTime() - startNanos.get().get());
-            report.connectionsCount(connectionCounter.get().get());
-            report.generate();
+            if (record.startNanos != 0) {
+                report.transactionTime(System.nanoTime() - record.startNanos);
+            }
+            report.connectionsCount(record.connectionCount);
+            report.statementsCount(record.statementCount);
+            report.flushTime(record.flushNanos);
         } finally {
-            startNanos.remove();
-            connectionCounter.remove();
+            record.reset();
         }
         super.endTransaction(success);
     }
+
+    private static class TransactionRecord {
+
+        private long startNanos;
+
+        private long connectionCount;
+
+        private long statementCount;
+
+        private long flushNanos;
+
+        private void reset() {
+            startNanos = 0;
+            connectionCount = 0;
+            statementCount = 0;
+            flushNanos = 0;
+        }
+    }
 }
@@ -1,17 +1,38 @@
 package com.vladmihalcea.book.hpjp.hibernate.statistics;
 
+import org.hibernate.SessionFactory;
+import org.hibernate.SessionFactoryObserver;
 import org.hibernate.engine.spi.SessionFactoryImplementor;
+import org.hibernate.internal.util.config.ConfigurationHelper;
 import org.hibernate.stat.spi.StatisticsFactory;
 import org.hibernate.stat.spi.StatisticsImplementor;
 
+import java.util.concurrent.TimeUnit;
+
 /**
  * @author Vlad Mihalcea
  */
 public class TransactionStatisticsFactory implements StatisticsFactory {
 
+    /**
+     * How often, in seconds, the {@link StatisticsReport} is logged. Defaults to one minute.
+     */
+    public static final String REPORT_PERIOD_SECONDS = "hibernate.statistics.report_period_seconds";
+
     @Override
     public StatisticsImplementor buildStatistics(
             SessionFactoryImplementor sessionFactory) {
-        return new TransactionStatistics(sessionFactory);
+        StatisticsReport report = new StatisticsReport();
+        report.start(
+            ConfigurationHelper.getInt(REPORT_PERIOD_SECONDS, sessionFactory.getProperties(), 60),
+            TimeUnit.SECONDS
+        );
+        sessionFactory.addObserver(new SessionFactoryObserver() {
+            @Override
+            public void sessionFactoryClosed(SessionFactory factory) {
+                report.stop();
+            }
+        });
+        return new TransactionStatistics(sessionFactory, report);
     }
 }
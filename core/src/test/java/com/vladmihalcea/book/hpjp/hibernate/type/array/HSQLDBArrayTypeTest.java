@@ -59,6 +59,8 @@ public class HSQLDBArrayTypeTest extends AbstractTest {
             event.setId(1L);
             event.setSensorNames(new String[]{"Temperature", "Pressure"});
             event.setSensorValues(new Integer[]{12, 756});
+            event.setSensorTimestamps(new long[]{1514764800000L, 1514764860000L});
+            event.setSensorReadings(new double[]{12.5d, 756.25d});
             entityManager.persist(event);
         });
 
@@ -67,6 +69,8 @@ public class HSQLDBArrayTypeTest extends AbstractTest {
 
             assertArrayEquals(new String[]{"Temperature", "Pressure"}, event.getSensorNames());
             assertArrayEquals(new Integer[]{12, 756}, event.getSensorValues());
+            assertArrayEquals(new long[]{1514764800000L, 1514764860000L}, event.getSensorTimestamps());
+            assertArrayEquals(new double[]{12.5d, 756.25d}, event.getSensorReadings(), 0d);
         });
 
         doInJPA(entityManager -> {
@@ -99,6 +103,8 @@ public class HSQLDBArrayTypeTest extends AbstractTest {
     @TypeDefs({
         @TypeDef(name = "string-array", typeClass = VarCharStringArrayType.class),
         @TypeDef(name = "int-array", typeClass = IntArrayType.class),
+        @TypeDef(name = "long-array", typeClass = LongArrayType.class),
+        @TypeDef(name = "double-array", typeClass = DoubleArrayType.class),
     })
     public static class Event {
 
@@ -113,6 +119,14 @@ public class HSQLDBArrayTypeTest extends AbstractTest {
         @Column(name = "sensor_values", columnDefinition = "INT ARRAY")
         private Integer[] sensorValues;
 
+        @Type(type = "long-array")
+        @Column(name = "sensor_timestamps", columnDefinition = "BIGINT ARRAY")
+        private long[] sensorTimestamps;
+
+        @Type(type = "double-array")
+        @Column(name = "sensor_readings", columnDefinition = "DOUBLE ARRAY")
+        private double[] sensorReadings;
+
         public Long getId() {
             return id;
         }
@@ -136,6 +150,22 @@ public class HSQLDBArrayTypeTest extends AbstractTest {
         public void setSensorValues(Integer[] sensorValues) {
             this.sensorValues = sensorValues;
         }
+
+        public long[] getSensorTimestamps() {
+            return sensorTimestamps;
+        }
+
+        public void setSensorTimestamps(long[] sensorTimestamps) {
+            this.sensorTimestamps = sensorTimestamps;
+        }
+
+        public double[] getSensorReadings() {
+            return sensorReadings;
+        }
+
+        public void setSensorReadings(double[] sensorReadings) {
+            this.sensorReadings = sensorReadings;
+        }
     }
 
 }
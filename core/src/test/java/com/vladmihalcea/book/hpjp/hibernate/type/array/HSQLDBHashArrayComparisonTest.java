@@ -0,0 +1,117 @@
+package com.vladmihalcea.book.hpjp.hibernate.type.array;
+
+import com.vladmihalcea.book.hpjp.util.AbstractTest;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.annotations.Type;
+import org.hibernate.annotations.TypeDef;
+import org.hibernate.annotations.TypeDefs;
+import org.junit.Test;
+
+import javax.persistence.*;
+
+import static org.junit.Assert.assertArrayEquals;
+import static org.junit.Assert.assertEquals;
+
+/**
+ * @author Vlad Mihalcea
+ */
+public class HSQLDBHashArrayComparisonTest extends AbstractTest {
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[]{
+            Event.class,
+        };
+    }
+
+    @Override
+    protected void afterInit() {
+        doInJPA(entityManager -> {
+            Event event = new Event();
+            event.setId(1L);
+            event.setSensorNames(new String[]{"Temperature", "Pressure"});
+            event.setSensorValues(new int[]{12, 756});
+            entityManager.persist(event);
+        });
+    }
+
+    @Test
+    public void testDirtyChecking() {
+        doInJPA(entityManager -> {
+            Event event = entityManager.find(Event.class, 1L);
+
+            event.setSensorNames(new String[]{new String("Temperature"), new String("Pressure")});
+            entityManager.flush();
+            assertEquals(Integer.valueOf(0), event.getVersion());
+
+            event.getSensorNames()[1] = "Humidity";
+            entityManager.flush();
+            assertEquals(Integer.valueOf(1), event.getVersion());
+
+            event.getSensorValues()[1] = 757;
+            entityManager.flush();
+            assertEquals(Integer.valueOf(2), event.getVersion());
+
+            event.setSensorValues(new int[]{12, 757, 0});
+            entityManager.flush();
+            assertEquals(Integer.valueOf(3), event.getVersion());
+        });
+
+        doInJPA(entityManager -> {
+            Event event = entityManager.find(Event.class, 1L);
+            assertArrayEquals(new String[]{"Temperature", "Humidity"}, event.getSensorNames());
+            assertArrayEquals(new int[]{12, 757, 0}, event.getSensorValues());
+        });
+    }
+
+    @Entity(name = "Event")
+    @Table(name = "event")
+    @TypeDefs({
+        @TypeDef(name = "string-array", typeClass = VarCharStringArrayType.class),
+        @TypeDef(name = "int-array", typeClass = IntArrayType.class),
+    })
+    public static class Event {
+
+        @Id
+        private Long id;
+
+        @Version
+        private Integer version;
+
+        @Type(type = "string-array", parameters = @Parameter(name = AbstractArrayTypeDescriptor.COMPARISON, value = "hash"))
+        @Column(name = "sensor_names", columnDefinition = "VARCHAR(100) ARRAY")
+        private String[] sensorNames;
+
+        @Type(type = "int-array", parameters = @Parameter(name = AbstractArrayTypeDescriptor.COMPARISON, value = "hash"))
+        @Column(name = "sensor_values", columnDefinition = "INT ARRAY")
+        private int[] sensorValues;
+
+        public Long getId() {
+            return id;
+        }
+
+        public void setId(Long id) {
+            this.id = id;
+        }
+
+        public Integer getVersion() {
+            return version;
+        }
+
+        public String[] getSensorNames() {
+            return sensorNames;
+        }
+
+        public void setSensorNames(String[] sensorNames) {
+            this.sensorNames = sensorNames;
+        }
+
+        public int[] getSensorValues() {
+            return sensorValues;
+        }
+
+        public void setSensorValues(int[] sensorValues) {
+            this.sensorValues = sensorValues;
+        }
+    }
+}
@@ -46,6 +46,8 @@ public class PostgreSQLArrayTypeTest extends AbstractPostgreSQLIntegrationTest {
             event.setId(1L);
             event.setSensorNames(new String[] {"Temperature", "Pressure"});
             event.setSensorValues( new int[] {12, 756} );
+            event.setSensorTimestamps( new long[] {1514764800000L, 1514764860000L} );
+            event.setSensorReadings( new double[] {12.5d, 756.25d} );
             entityManager.persist(event);
         });
         doInJPA(entityManager -> {
@@ -53,6 +55,8 @@ public class PostgreSQLArrayTypeTest extends AbstractPostgreSQLIntegrationTest {
 
             assertArrayEquals( new String[] {"Temperature", "Pressure"}, event.getSensorNames() );
             assertArrayEquals( new int[] {12, 756}, event.getSensorValues() );
+            assertArrayEquals( new long[] {1514764800000L, 1514764860000L}, event.getSensorTimestamps() );
+            assertArrayEquals( new double[] {12.5d, 756.25d}, event.getSensorReadings(), 0d );
         });
     }
 
@@ -68,6 +72,14 @@ public class PostgreSQLArrayTypeTest extends AbstractPostgreSQLIntegrationTest {
         @Column(name = "sensor_values", columnDefinition = "integer[]")
         private int[] sensorValues;
 
+        @Type( type = "long-array" )
+        @Column(name = "sensor_timestamps", columnDefinition = "bigint[]")
+        private long[] sensorTimestamps;
+
+        @Type( type = "double-array" )
+        @Column(name = "sensor_readings", columnDefinition = "float8[]")
+        private double[] sensorReadings;
+
         public String[] getSensorNames() {
             return sensorNames;
         }
@@ -83,6 +95,22 @@ public class PostgreSQLArrayTypeTest extends AbstractPostgreSQLIntegrationTest {
         public void setSensorValues(int[] sensorValues) {
             this.sensorValues = sensorValues;
         }
+
+        public long[] getSensorTimestamps() {
+            return sensorTimestamps;
+        }
+
+        public void setSensorTimestamps(long[] sensorTimestamps) {
+            this.sensorTimestamps = sensorTimestamps;
+        }
+
+        public double[] getSensorReadings() {
+            return sensorReadings;
+        }
+
+        public void setSensorReadings(double[] sensorReadings) {
+            this.sensorReadings = sensorReadings;
+        }
     }
 
 }
@@ -0,0 +1,107 @@
+package com.vladmihalcea.book.hpjp.hibernate.type.json;
+
+import com.vladmihalcea.book.hpjp.hibernate.type.json.model.BaseEntity;
+import com.vladmihalcea.book.hpjp.hibernate.type.json.model.Location;
+import com.vladmihalcea.book.hpjp.util.AbstractTest;
+import org.hibernate.annotations.Parameter;
+import org.hibernate.annotations.Type;
+import org.hibernate.engine.spi.EntityEntry;
+import org.hibernate.engine.spi.SessionImplementor;
+import org.junit.Test;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Vlad Mihalcea
+ */
+public class HSQLDBJsonSnapshotTypeTest extends AbstractTest {
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            Event.class
+        };
+    }
+
+    @Override
+    protected void afterInit() {
+        doInJPA(entityManager -> {
+            Location location = new Location();
+            location.setCountry("Romania");
+            location.setCity("Cluj-Napoca");
+
+            Event event = new Event();
+            event.setId(1L);
+            event.setLocation(location);
+            entityManager.persist(event);
+        });
+    }
+
+    @Test
+    public void testDirtyChecking() {
+        doInJPA(entityManager -> {
+            Event event = entityManager.find(Event.class, 1L);
+
+            EntityEntry entityEntry = entityManager.unwrap(SessionImplementor.class)
+                .getPersistenceContext()
+                .getEntry(event);
+            Object loadedLocation = entityEntry.getLoadedValue("location");
+            assertTrue(loadedLocation instanceof JsonSnapshot);
+            assertEquals("{\"country\":\"Romania\",\"city\":\"Cluj-Napoca\"}", loadedLocation.toString());
+
+            entityManager.flush();
+            assertEquals(Integer.valueOf(0), event.getVersion());
+
+            event.getLocation().setCity("Constanța");
+            entityManager.flush();
+            assertEquals(Integer.valueOf(1), event.getVersion());
+        });
+
+        doInJPA(entityManager -> {
+            Event event = entityManager.find(Event.class, 1L);
+            assertEquals("Constanța", event.getLocation().getCity());
+        });
+    }
+
+    @Test
+    public void testMerge() {
+        Event detachedEvent = doInJPA(entityManager -> {
+            return entityManager.find(Event.class, 1L);
+        });
+
+        detachedEvent.getLocation().setCity("Constanța");
+
+        doInJPA(entityManager -> {
+            Event event = entityManager.merge(detachedEvent);
+            assertEquals("Constanța", event.getLocation().getCity());
+        });
+
+        doInJPA(entityManager -> {
+            Event event = entityManager.find(Event.class, 1L);
+            assertEquals("Constanța", event.getLocation().getCity());
+            assertEquals(Integer.valueOf(1), event.getVersion());
+        });
+    }
+
+    @Entity(name = "Event")
+    @Table(name = "event")
+    public static class Event extends BaseEntity {
+
+        @Type(type = "json", parameters = @Parameter(name = JsonTypeDescriptor.SNAPSHOT, value = "true"))
+        @Column(columnDefinition = "VARCHAR(255)")
+        private Location location;
+
+        public Location getLocation() {
+            return location;
+        }
+
+        public void setLocation(Location location) {
+            this.location = location;
+        }
+    }
+}
@@ -0,0 +1,104 @@
+package com.vladmihalcea.book.hpjp.hibernate.type.json;
+
+import com.vladmihalcea.book.hpjp.hibernate.type.json.model.BaseEntity;
+import com.vladmihalcea.book.hpjp.hibernate.type.json.model.Location;
+import com.vladmihalcea.book.hpjp.util.AbstractTest;
+import org.hibernate.annotations.Type;
+import org.junit.Test;
+
+import javax.persistence.Column;
+import javax.persistence.Entity;
+import javax.persistence.Table;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertFalse;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Vlad Mihalcea
+ */
+public class HSQLDBJsonStringTypeTest extends AbstractTest {
+
+    @Override
+    protected Class<?>[] entities() {
+        return new Class<?>[] {
+            Event.class
+        };
+    }
+
+    @Override
+    protected void afterInit() {
+        doInJPA(entityManager -> {
+            Location location = new Location();
+            location.setCountry("Romania");
+            location.setCity("Cluj-Napoca");
+
+            Event event = new Event();
+            event.setId(1L);
+            event.setLocation(location);
+            entityManager.persist(event);
+        });
+    }
+
+    @Test
+    public void testDirtyChecking() {
+        doInJPA(entityManager -> {
+            Event event = entityManager.find(Event.class, 1L);
+            assertEquals("Cluj-Napoca", event.getLocation().getCity());
+
+            Location location = new Location();
+            location.setCountry("Romania");
+            location.setCity("Cluj-Napoca");
+            event.setLocation(location);
+
+            entityManager.flush();
+            assertEquals(Integer.valueOf(0), event.getVersion());
+
+            event.getLocation().setCity("Constanța");
+            entityManager.flush();
+            assertEquals(Integer.valueOf(1), event.getVersion());
+        });
+
+        doInJPA(entityManager -> {
+            Event event = entityManager.find(Event.class, 1L);
+            assertEquals("Constanța", event.getLocation().getCity());
+
+            event.getLocation().setCity(null);
+            entityManager.flush();
+            assertEquals(Integer.valueOf(2), event.getVersion());
+        });
+    }
+
+    @Test
+    public void testPropertyOrder() {
+        assertTrue(JsonNodeTypeDescriptor.INSTANCE.areEqual(
+            JacksonUtil.toJsonNode("{\"country\":\"Romania\",\"city\":\"Cluj-Napoca\",\"rating\":[1,2.5]}"),
+            JacksonUtil.toJsonNode("{\"city\":\"Cluj-Napoca\",\"rating\":[1,2.5],\"country\":\"Romania\"}")
+        ));
+        assertFalse(JsonNodeTypeDescriptor.INSTANCE.areEqual(
+            JacksonUtil.toJsonNode("{\"country\":\"Romania\",\"city\":\"Cluj-Napoca\",\"rating\":[1,2.5]}"),
+            JacksonUtil.toJsonNode("{\"country\":\"Romania\",\"city\":\"Cluj-Napoca\",\"rating\":[1,2.6]}")
+        ));
+        assertFalse(JsonNodeTypeDescriptor.INSTANCE.areEqual(
+            JacksonUtil.toJsonNode("{\"country\":\"Romania\",\"city\":\"Cluj-Napoca\"}"),
+            JacksonUtil.toJsonNode("{\"country\":\"Romania\"}")
+        ));
+    }
+
+    @Entity(name = "Event")
+    @Table(name = "event")
+    public static class Event extends BaseEntity {
+
+        @Type(type = "json")
+        @Column(columnDefinition = "VARCHAR(255)")
+        private Location location;
+
+        public Location getLocation() {
+            return location;
+        }
+
+        public void setLocation(Location location) {
+            this.location = location;
+        }
+    }
+}
@@ -0,0 +1,363 @@
+package com.vladmihalcea.book.hpjp.jdbc.batch;
+
+import com.codahale.metrics.Histogram;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import com.codahale.metrics.Timer;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.SQLException;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+import java.util.regex.Matcher;
+import java.util.regex.Pattern;
+
+/**
+ * BulkInsertLoader - Reusable alternative to the fixed batch sizes compared by the
+ * {@link AbstractBatchPreparedStatementTest} subclasses.
+ *
+ * The single-row {@code INSERT ... VALUES (?, ?, ?)} statement is rewritten into multi-row
+ * {@code INSERT ... VALUES (?, ?, ?), (?, ?, ?), ...} statements, one for every power of two up to
+ * {@code maxRowsPerStatement}, which are prepared once and reused. A batch of rows is executed as a JDBC
+ * batch of the largest multi-row statement, followed by at most one statement for every remaining bucket.
+ *
+ * The batch size grows while the batches take less than half of the target batch time and shrinks when they
+ * take longer, so the batch size follows the measured latency instead of being chosen upfront.
+ *
+ * When pipelining is enabled, the rows are converted to parameter values on the calling thread while the
+ * previous batch is bound and executed by a background thread. Since a {@link Connection} is not thread-safe,
+ * only one thread uses it at any given time, and the caller waits for the previous batch before handing over
+ * the next one.
+ *
+ * @author Vlad Mihalcea
+ */
+public class BulkInsertLoader<T> implements AutoCloseable {
+
+    private static final Pattern INSERT_PATTERN = Pattern.compile(
+        "^\\s*(insert\\s+into\\s+.+?\\s+values\\s*)(\\(.*\\))\\s*;?\\s*$",
+        Pattern.CASE_INSENSITIVE | Pattern.DOTALL
+    );
+
+    public static final int MAX_PARAMETER_COUNT = Short.MAX_VALUE;
+
+    /**
+     * Converts a row to the insert statement parameter values.
+     */
+    @FunctionalInterface
+    public interface ParameterBinder<T> {
+        void bind(T row, Object[] parameters);
+    }
+
+    private final Connection connection;
+
+    private final String insertPrefix;
+
+    private final String valuesTuple;
+
+    private final int parameterCount;
+
+    private final ParameterBinder<T> parameterBinder;
+
+    private int maxRowsPerStatement = 64;
+
+    private int minBatchSize = 16;
+
+    private int maxBatchSize = 4096;
+
+    private long targetBatchNanos = TimeUnit.MILLISECONDS.toNanos(50);
+
+    private boolean pipelined;
+
+    private MetricRegistry metricRegistry = new MetricRegistry();
+
+    private volatile int batchSize;
+
+    private PreparedStatement[] statements;
+
+    private ExecutorService executorService;
+
+    private Batch currentBatch;
+
+    private Batch spareBatch;
+
+    private Future<?> pendingBatch;
+
+    private long rowCount;
+
+    private Timer batchTimer;
+
+    private Histogram batchSizeHistogram;
+
+    private Meter rowsMeter;
+
+    private Meter statementsMeter;
+
+    /**
+     * @param connection JDBC connection, whose transaction is controlled by the caller
+     * @param insertSql single-row insert statement
+     * @param parameterBinder converts a row to the insert statement parameter values
+     */
+    public BulkInsertLoader(Connection connection, String insertSql, ParameterBinder<T> parameterBinder) {
+        Matcher matcher = INSERT_PATTERN.matcher(insertSql);
+        if (!matcher.matches()) {
+            throw new IllegalArgumentException("Not a single-row INSERT ... VALUES statement: " + insertSql);
+        }
+        this.connection = connection;
+        this.insertPrefix = matcher.group(1);
+        this.valuesTuple = matcher.group(2);
+        this.parameterCount = countParameters(valuesTuple);
+        if (parameterCount == 0) {
+            throw new IllegalArgumentException("The insert statement has no bind parameters: " + insertSql);
+        }
+        this.parameterBinder = parameterBinder;
+    }
+
+    public BulkInsertLoader<T> maxRowsPerStatement(int maxRowsPerStatement) {
+        this.maxRowsPerStatement = Math.max(1, maxRowsPerStatement);
+        return this;
+    }
+
+    public BulkInsertLoader<T> batchSize(int minBatchSize, int maxBatchSize) {
+        this.minBatchSize = Math.max(1, minBatchSize);
+        this.maxBatchSize = Math.max(this.minBatchSize, maxBatchSize);
+        return this;
+    }
+
+    public BulkInsertLoader<T> targetBatchTime(long duration, TimeUnit timeUnit) {
+        this.targetBatchNanos = timeUnit.toNanos(duration);
+        return this;
+    }
+
+    public BulkInsertLoader<T> pipelined(boolean pipelined) {
+        this.pipelined = pipelined;
+        return this;
+    }
+
+    public BulkInsertLoader<T> metricRegistry(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+        return this;
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return metricRegistry;
+    }
+
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    public long getRowCount() {
+        return rowCount;
+    }
+
+    /**
+     * Add a row, which is inserted when the current batch becomes full, or when the loader is flushed.
+     *
+     * @param row row to be inserted
+     * @throws SQLException if a previous batch failed
+     */
+    public void add(T row) throws SQLException {
+        if (currentBatch == null) {
+            init();
+        }
+        parameterBinder.bind(row, currentBatch.next());
+        rowCount++;
+        if (currentBatch.size >= batchSize) {
+            submit();
+        }
+    }
+
+    /**
+     * Insert the rows added so far and wait for all batches to be executed.
+     *
+     * @throws SQLException if a batch failed
+     */
+    public void flush() throws SQLException {
+        if (currentBatch == null) {
+            return;
+        }
+        if (currentBatch.size > 0) {
+            submit();
+        }
+        awaitPendingBatch();
+    }
+
+    @Override
+    public void close() throws SQLException {
+        try {
+            flush();
+        } finally {
+            if (executorService != null) {
+                executorService.shutdownNow();
+            }
+            if (statements != null) {
+                for (PreparedStatement statement : statements) {
+                    if (statement != null) {
+                        statement.close();
+                    }
+                }
+            }
+        }
+    }
+
+    private void init() {
+        maxRowsPerStatement = Integer.highestOneBit(Math.min(maxRowsPerStatement, MAX_PARAMETER_COUNT / parameterCount));
+        statements = new PreparedStatement[Integer.numberOfTrailingZeros(maxRowsPerStatement) + 1];
+        batchSize = minBatchSize;
+        currentBatch = new Batch();
+
+        String prefix = MetricRegistry.name(getClass(), insertPrefix.trim().split("[\\s(]+")[2]);
+        batchTimer = metricRegistry.timer(MetricRegistry.name(prefix, "batch"));
+        batchSizeHistogram = metricRegistry.histogram(MetricRegistry.name(prefix, "batchSize"));
+        rowsMeter = metricRegistry.meter(MetricRegistry.name(prefix, "rows"));
+        statementsMeter = metricRegistry.meter(MetricRegistry.name(prefix, "statements"));
+
+        if (pipelined) {
+            executorService = Executors.newSingleThreadExecutor(runnable -> {
+                Thread thread = new Thread(runnable, getClass().getSimpleName() + "-executor");
+                thread.setDaemon(true);
+                return thread;
+            });
+        }
+    }
+
+    private void submit() throws SQLException {
+        Batch batch = currentBatch;
+        awaitPendingBatch();
+        if (pipelined) {
+            pendingBatch = executorService.submit(() -> {
+                execute(batch);
+                return null;
+            });
+            currentBatch = spareBatch != null ? spareBatch : new Batch();
+            spareBatch = batch;
+        } else {
+            execute(batch);
+        }
+    }
+
+    private void awaitPendingBatch() throws SQLException {
+        if (pendingBatch == null) {
+            return;
+        }
+        try {
+            pendingBatch.get();
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IllegalStateException(e);
+        } catch (ExecutionException e) {
+            if (e.getCause() instanceof SQLException) {
+                throw (SQLException) e.getCause();
+            }
+            throw new IllegalStateException(e.getCause());
+        } finally {
+            pendingBatch = null;
+        }
+    }
+
+    private void execute(Batch batch) throws SQLException {
+        int size = batch.size;
+        long startNanos = System.nanoTime();
+
+        int row = 0;
+        int fullStatements = size / maxRowsPerStatement;
+        if (fullStatements > 0) {
+            PreparedStatement statement = statement(maxRowsPerStatement);
+            for (int i = 0; i < fullStatements; i++) {
+                row = bind(statement, batch, row, maxRowsPerStatement);
+                statement.addBatch();
+            }
+            statement.executeBatch();
+            statementsMeter.mark(fullStatements);
+        }
+        for (int rows = maxRowsPerStatement >>> 1; rows > 0 && row < size; rows >>>= 1) {
+            if ((size - row) >= rows) {
+                PreparedStatement statement = statement(rows);
+                row = bind(statement, batch, row, rows);
+                statement.executeUpdate();
+                statementsMeter.mark();
+            }
+        }
+        batch.size = 0;
+
+        long elapsedNanos = System.nanoTime() - startNanos;
+        batchTimer.update(elapsedNanos, TimeUnit.NANOSECONDS);
+        batchSizeHistogram.update(size);
+        rowsMeter.mark(size);
+
+        if (size >= batchSize && elapsedNanos < targetBatchNanos / 2) {
+            batchSize = Math.min(maxBatchSize, batchSize * 2);
+        } else if (elapsedNanos > targetBatchNanos) {
+            batchSize = Math.max(minBatchSize, batchSize / 2);
+        }
+    }
+
+    private int bind(PreparedStatement statement, Batch batch, int row, int rows) throws SQLException {
+        int index = 0;
+        for (int i = row; i < row + rows; i++) {
+            Object[] parameters = batch.rows[i];
+            for (Object parameter : parameters) {
+                statement.setObject(++index, parameter);
+            }
+        }
+        return row + rows;
+    }
+
+    private PreparedStatement statement(int rows) throws SQLException {
+        int bucket = Integer.numberOfTrailingZeros(rows);
+        PreparedStatement statement = statements[bucket];
+        if (statement == null) {
+            StringBuilder sql = new StringBuilder(insertPrefix.length() + rows * (valuesTuple.length() + 2));
+            sql.append(insertPrefix);
+            for (int i = 0; i < rows; i++) {
+                if (i > 0) {
+                    sql.append(", ");
+                }
+                sql.append(valuesTuple);
+            }
+            statement = connection.prepareStatement(sql.toString());
+            statements[bucket] = statement;
+        }
+        return statement;
+    }
+
+    private static int countParameters(String sql) {
+        int count = 0;
+        boolean quoted = false;
+        for (int i = 0; i < sql.length(); i++) {
+            char c = sql.charAt(i);
+            if (c == '\'') {
+                quoted = !quoted;
+            } else if (c == '?' && !quoted) {
+                count++;
+            }
+        }
+        return count;
+    }
+
+    /**
+     * Parameter values of the rows added since the last batch was submitted, reused across batches.
+     */
+    private class Batch {
+
+        private Object[][] rows = new Object[0][];
+
+        private int size;
+
+        private Object[] next() {
+            if (size == rows.length) {
+                Object[][] newRows = new Object[Math.max(size * 2, batchSize)][];
+                System.arraycopy(rows, 0, newRows, 0, size);
+                for (int i = size; i < newRows.length; i++) {
+                    newRows[i] = new Object[parameterCount];
+                }
+                rows = newRows;
+            }
+            return rows[size++];
+        }
+    }
+}
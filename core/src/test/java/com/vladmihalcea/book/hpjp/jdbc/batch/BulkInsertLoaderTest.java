@@ -0,0 +1,108 @@
+package com.vladmihalcea.book.hpjp.jdbc.batch;
+
+import com.codahale.metrics.Slf4jReporter;
+import com.vladmihalcea.book.hpjp.util.AbstractTest;
+import com.vladmihalcea.book.hpjp.util.providers.entity.BlogEntityProvider;
+import org.junit.Test;
+
+import java.sql.ResultSet;
+import java.sql.Statement;
+import java.util.concurrent.TimeUnit;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Vlad Mihalcea
+ */
+public class BulkInsertLoaderTest extends AbstractTest {
+
+    private final int postCount = 1000;
+
+    private final int postCommentCount = 4;
+
+    @Override
+    protected Class<?>[] entities() {
+        return BlogEntityProvider.INSTANCE.entities();
+    }
+
+    @Test
+    public void testLoad() {
+        load(false);
+    }
+
+    @Test
+    public void testPipelinedLoad() {
+        load(true);
+    }
+
+    private void load(boolean pipelined) {
+        doInJDBC(connection -> {
+            try (BulkInsertLoader<Integer> postLoader = new BulkInsertLoader<Integer>(
+                    connection,
+                    "insert into post (title, version, id) values (?, ?, ?)",
+                    (i, parameters) -> {
+                        parameters[0] = String.format("Post no. %1$d", i);
+                        parameters[1] = 0;
+                        parameters[2] = (long) i;
+                    })
+                    .maxRowsPerStatement(16)
+                    .batchSize(10, 200)
+                    .targetBatchTime(1, TimeUnit.SECONDS)
+                    .pipelined(pipelined)) {
+                for (int i = 0; i < postCount; i++) {
+                    postLoader.add(i);
+                }
+                postLoader.flush();
+
+                assertEquals(postCount, postLoader.getRowCount());
+                assertTrue(postLoader.getBatchSize() > 10);
+
+                BulkInsertLoader<Integer> postCommentLoader = new BulkInsertLoader<Integer>(
+                    connection,
+                    "INSERT INTO post_comment (post_id, review, version, id) VALUES (?, ?, 0, ?)",
+                    (i, parameters) -> {
+                        parameters[0] = (long) (i / postCommentCount);
+                        parameters[1] = String.format("Post comment %1$d", i % postCommentCount);
+                        parameters[2] = (long) i;
+                    })
+                    .metricRegistry(postLoader.getMetricRegistry())
+                    .pipelined(pipelined);
+                for (int i = 0; i < postCount * postCommentCount; i++) {
+                    postCommentLoader.add(i);
+                }
+                postCommentLoader.close();
+
+                long statementCount = postLoader.getMetricRegistry().getMeters().entrySet().stream()
+                    .filter(entry -> entry.getKey().endsWith(".statements"))
+                    .mapToLong(entry -> entry.getValue().getCount())
+                    .sum();
+                assertTrue(statementCount < (postCount + postCount * postCommentCount) / 10);
+
+                Slf4jReporter.forRegistry(postLoader.getMetricRegistry())
+                    .outputTo(LOGGER)
+                    .convertDurationsTo(TimeUnit.MICROSECONDS)
+                    .build()
+                    .report();
+            }
+
+            try (Statement statement = connection.createStatement()) {
+                try (ResultSet resultSet = statement.executeQuery("select count(*) from post")) {
+                    resultSet.next();
+                    assertEquals(postCount, resultSet.getInt(1));
+                }
+                try (ResultSet resultSet = statement.executeQuery("select count(*), max(id) from post_comment")) {
+                    resultSet.next();
+                    assertEquals(postCount * postCommentCount, resultSet.getInt(1));
+                    assertEquals(postCount * postCommentCount - 1, resultSet.getLong(2));
+                }
+                try (ResultSet resultSet = statement.executeQuery(
+                        "select p.title, pc.review from post_comment pc join post p on p.id = pc.post_id where pc.id = 3997")) {
+                    resultSet.next();
+                    assertEquals("Post no. 999", resultSet.getString(1));
+                    assertEquals("Post comment 1", resultSet.getString(2));
+                }
+            }
+        });
+    }
+}
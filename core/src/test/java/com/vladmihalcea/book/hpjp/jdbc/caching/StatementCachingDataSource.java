@@ -0,0 +1,390 @@
+package com.vladmihalcea.book.hpjp.jdbc.caching;
+
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.util.Arrays;
+import java.util.Iterator;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.logging.Logger;
+
+/**
+ * StatementCachingDataSource - Driver-agnostic alternative to the vendor-specific statement caches
+ * configured by the {@link StatementCacheTest} data source providers.
+ *
+ * Every connection gets a bounded LRU cache of {@link PreparedStatement}s, keyed by the SQL string and the
+ * result set type, concurrency, holdability or generated keys options. Closing a statement returns it
+ * to the cache, after clearing its parameters, batch and warnings, and restoring the fetch size, max rows
+ * and query timeout if they were changed. A statement is closed instead of being cached when it was marked
+ * as not poolable or when one of its calls threw a {@link SQLException}. When a statement is evicted,
+ * or when the connection is closed, the cached statements are closed too.
+ *
+ * The cache lives as long as the underlying connection, so this data source should wrap the driver
+ * data source, with the connection pool on top of it.
+ *
+ * @author Vlad Mihalcea
+ */
+public class StatementCachingDataSource implements DataSource {
+
+    private static final Class<?>[] CONNECTION_INTERFACES = {Connection.class};
+
+    private static final Class<?>[] STATEMENT_INTERFACES = {PreparedStatement.class};
+
+    private final DataSource dataSource;
+
+    private final int cacheSize;
+
+    private MetricRegistry metricRegistry;
+
+    private Meter hitsMeter;
+
+    private Meter missesMeter;
+
+    private Meter evictionsMeter;
+
+    /**
+     * @param dataSource driver data source
+     * @param cacheSize max number of cached statements per connection
+     */
+    public StatementCachingDataSource(DataSource dataSource, int cacheSize) {
+        this.dataSource = dataSource;
+        this.cacheSize = cacheSize;
+        metricRegistry(new MetricRegistry());
+    }
+
+    public StatementCachingDataSource metricRegistry(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+        this.hitsMeter = metricRegistry.meter(MetricRegistry.name(getClass(), "hits"));
+        this.missesMeter = metricRegistry.meter(MetricRegistry.name(getClass(), "misses"));
+        this.evictionsMeter = metricRegistry.meter(MetricRegistry.name(getClass(), "evictions"));
+        return this;
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return metricRegistry;
+    }
+
+    public long getHitCount() {
+        return hitsMeter.getCount();
+    }
+
+    public long getMissCount() {
+        return missesMeter.getCount();
+    }
+
+    public long getEvictionCount() {
+        return evictionsMeter.getCount();
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return cachingConnection(dataSource.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return cachingConnection(dataSource.getConnection(username, password));
+    }
+
+    private Connection cachingConnection(Connection connection) {
+        CachingConnectionHandler handler = new CachingConnectionHandler(connection);
+        handler.proxy = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), CONNECTION_INTERFACES, handler);
+        return handler.proxy;
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return dataSource.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        dataSource.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        dataSource.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return dataSource.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return dataSource.getParentLogger();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return iface.isInstance(this) ? (T) this : dataSource.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || dataSource.isWrapperFor(iface);
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    /**
+     * Identifies the cached statement by the {@code prepareStatement} SQL and options arguments.
+     */
+    private static class StatementKey {
+
+        private final String sql;
+
+        private final int[] options;
+
+        private final int hashCode;
+
+        private StatementKey(String sql, int[] options) {
+            this.sql = sql;
+            this.options = options;
+            this.hashCode = 31 * sql.hashCode() + Arrays.hashCode(options);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof StatementKey)) {
+                return false;
+            }
+            StatementKey that = (StatementKey) o;
+            return sql.equals(that.sql) && Arrays.equals(options, that.options);
+        }
+
+        @Override
+        public int hashCode() {
+            return hashCode;
+        }
+    }
+
+    private class CachingConnectionHandler implements InvocationHandler {
+
+        private final Connection connection;
+
+        private final LinkedHashMap<StatementKey, PreparedStatement> statementCache =
+            new LinkedHashMap<>(16, 0.75f, true);
+
+        private Connection proxy;
+
+        private CachingConnectionHandler(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "prepareStatement":
+                    StatementKey key = statementKey(args);
+                    if (key != null) {
+                        return prepareStatement(key, method, args);
+                    }
+                    break;
+                case "close":
+                    close();
+                    return null;
+                case "unwrap":
+                    return ((Class<?>) args[0]).isInstance(proxy) ? proxy : connection.unwrap((Class<?>) args[0]);
+                case "isWrapperFor":
+                    return ((Class<?>) args[0]).isInstance(proxy) || connection.isWrapperFor((Class<?>) args[0]);
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return getClass().getSimpleName() + "[" + connection + "]";
+            }
+            return StatementCachingDataSource.invoke(connection, method, args);
+        }
+
+        /**
+         * Only the {@code (String)} and {@code (String, int...)} overloads are cached.
+         */
+        private StatementKey statementKey(Object[] args) {
+            int[] options = new int[args.length - 1];
+            for (int i = 1; i < args.length; i++) {
+                if (!(args[i] instanceof Integer)) {
+                    return null;
+                }
+                options[i - 1] = (Integer) args[i];
+            }
+            return new StatementKey((String) args[0], options);
+        }
+
+        private synchronized PreparedStatement prepareStatement(StatementKey key, Method method, Object[] args) throws Throwable {
+            PreparedStatement statement = statementCache.remove(key);
+            if (statement != null) {
+                hitsMeter.mark();
+            } else {
+                missesMeter.mark();
+                statement = (PreparedStatement) StatementCachingDataSource.invoke(connection, method, args);
+            }
+            CachedStatementHandler handler = new CachedStatementHandler(this, key, statement);
+            return (PreparedStatement) Proxy.newProxyInstance(
+                StatementCachingDataSource.class.getClassLoader(), STATEMENT_INTERFACES, handler
+            );
+        }
+
+        private synchronized void release(StatementKey key, PreparedStatement statement) throws SQLException {
+            if (connection.isClosed()) {
+                statement.close();
+                return;
+            }
+            PreparedStatement previous = statementCache.put(key, statement);
+            if (previous != null) {
+                previous.close();
+            }
+            if (statementCache.size() > cacheSize) {
+                Iterator<Map.Entry<StatementKey, PreparedStatement>> iterator = statementCache.entrySet().iterator();
+                PreparedStatement eldest = iterator.next().getValue();
+                iterator.remove();
+                evictionsMeter.mark();
+                eldest.close();
+            }
+        }
+
+        private synchronized void close() throws SQLException {
+            try {
+                for (PreparedStatement statement : statementCache.values()) {
+                    statement.close();
+                }
+            } finally {
+                statementCache.clear();
+                connection.close();
+            }
+        }
+    }
+
+    private static class CachedStatementHandler implements InvocationHandler {
+
+        private final CachingConnectionHandler connectionHandler;
+
+        private final StatementKey key;
+
+        private final PreparedStatement statement;
+
+        private boolean closed;
+
+        private boolean poolable = true;
+
+        private boolean invalid;
+
+        private boolean settingsChanged;
+
+        private int fetchSize;
+
+        private int maxRows;
+
+        private int queryTimeout;
+
+        private CachedStatementHandler(CachingConnectionHandler connectionHandler, StatementKey key, PreparedStatement statement) {
+            this.connectionHandler = connectionHandler;
+            this.key = key;
+            this.statement = statement;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+            switch (methodName) {
+                case "close":
+                    close();
+                    return null;
+                case "isClosed":
+                    return closed;
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return getClass().getSimpleName() + "[" + statement + "]";
+            }
+            if (closed) {
+                throw new SQLException("The statement is closed");
+            }
+            switch (methodName) {
+                case "getConnection":
+                    return connectionHandler.proxy;
+                case "setPoolable":
+                    poolable = (Boolean) args[0];
+                    return null;
+                case "isPoolable":
+                    return poolable;
+                case "unwrap":
+                    return ((Class<?>) args[0]).isInstance(proxy) ? proxy : statement.unwrap((Class<?>) args[0]);
+                case "setFetchSize":
+                case "setMaxRows":
+                case "setQueryTimeout":
+                    if (!settingsChanged) {
+                        fetchSize = statement.getFetchSize();
+                        maxRows = statement.getMaxRows();
+                        queryTimeout = statement.getQueryTimeout();
+                        settingsChanged = true;
+                    }
+                    break;
+            }
+            try {
+                return method.invoke(statement, args);
+            } catch (InvocationTargetException e) {
+                if (e.getCause() instanceof SQLException) {
+                    invalid = true;
+                }
+                throw e.getCause();
+            }
+        }
+
+        private void close() throws SQLException {
+            if (closed) {
+                return;
+            }
+            closed = true;
+            if (!poolable || invalid) {
+                statement.close();
+                return;
+            }
+            try {
+                ResultSet resultSet = statement.getResultSet();
+                if (resultSet != null) {
+                    resultSet.close();
+                }
+                statement.clearParameters();
+                statement.clearBatch();
+                statement.clearWarnings();
+                if (settingsChanged) {
+                    statement.setFetchSize(fetchSize);
+                    statement.setMaxRows(maxRows);
+                    statement.setQueryTimeout(queryTimeout);
+                }
+            } catch (SQLException e) {
+                statement.close();
+                throw e;
+            }
+            connectionHandler.release(key, statement);
+        }
+    }
+}
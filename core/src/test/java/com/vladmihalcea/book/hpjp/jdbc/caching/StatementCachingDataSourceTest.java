@@ -0,0 +1,164 @@
+package com.vladmihalcea.book.hpjp.jdbc.caching;
+
+import com.vladmihalcea.book.hpjp.util.AbstractTest;
+import com.vladmihalcea.book.hpjp.util.providers.entity.BlogEntityProvider;
+import org.hsqldb.jdbc.JDBCPreparedStatement;
+import org.junit.Before;
+import org.junit.Test;
+
+import java.sql.Connection;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+
+import static com.vladmihalcea.book.hpjp.jdbc.caching.StatementCacheTest.INSERT_POST;
+import static com.vladmihalcea.book.hpjp.jdbc.caching.StatementCacheTest.INSERT_POST_COMMENT;
+import static org.junit.Assert.*;
+
+/**
+ * @author Vlad Mihalcea
+ */
+public class StatementCachingDataSourceTest extends AbstractTest {
+
+    private static final String SELECT_POST = "select title from post where id = ?";
+
+    private StatementCachingDataSource dataSource;
+
+    @Override
+    protected Class<?>[] entities() {
+        return BlogEntityProvider.INSTANCE.entities();
+    }
+
+    @Before
+    public void initDataSource() {
+        dataSource = new StatementCachingDataSource(dataSourceProvider().dataSource(), 2);
+    }
+
+    @Test
+    public void testCacheHit() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            PreparedStatement firstStatement = connection.prepareStatement(INSERT_POST);
+            JDBCPreparedStatement physicalStatement = firstStatement.unwrap(JDBCPreparedStatement.class);
+            insertPost(firstStatement, 1);
+            assertSame(connection, firstStatement.getConnection());
+            firstStatement.close();
+            assertTrue(firstStatement.isClosed());
+            assertFalse(physicalStatement.isClosed());
+
+            try {
+                firstStatement.executeUpdate();
+                fail("Should not use a closed statement");
+            } catch (SQLException expected) {
+            }
+
+            try (PreparedStatement secondStatement = connection.prepareStatement(INSERT_POST)) {
+                assertSame(physicalStatement, secondStatement.unwrap(JDBCPreparedStatement.class));
+                insertPost(secondStatement, 2);
+            }
+
+            try (PreparedStatement statement = connection.prepareStatement(
+                    SELECT_POST, ResultSet.TYPE_SCROLL_INSENSITIVE, ResultSet.CONCUR_READ_ONLY)) {
+                assertNotSame(physicalStatement, statement.unwrap(JDBCPreparedStatement.class));
+                statement.setLong(1, 2);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    assertTrue(resultSet.next());
+                    assertEquals("Post no. 2", resultSet.getString(1));
+                }
+            }
+        }
+        assertEquals(1, dataSource.getHitCount());
+        assertEquals(2, dataSource.getMissCount());
+    }
+
+    @Test
+    public void testConcurrentStatementsWithSameSql() throws SQLException {
+        try (Connection connection = dataSource.getConnection();
+             PreparedStatement firstStatement = connection.prepareStatement(INSERT_POST);
+             PreparedStatement secondStatement = connection.prepareStatement(INSERT_POST)) {
+            assertNotSame(
+                firstStatement.unwrap(JDBCPreparedStatement.class),
+                secondStatement.unwrap(JDBCPreparedStatement.class)
+            );
+            insertPost(firstStatement, 1);
+            insertPost(secondStatement, 2);
+        }
+        assertEquals(0, dataSource.getHitCount());
+        assertEquals(2, dataSource.getMissCount());
+    }
+
+    @Test
+    public void testEviction() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            PreparedStatement postStatement = connection.prepareStatement(INSERT_POST);
+            JDBCPreparedStatement physicalPostStatement = postStatement.unwrap(JDBCPreparedStatement.class);
+            postStatement.close();
+            connection.prepareStatement(INSERT_POST_COMMENT).close();
+            PreparedStatement selectStatement = connection.prepareStatement(SELECT_POST);
+            JDBCPreparedStatement physicalSelectStatement = selectStatement.unwrap(JDBCPreparedStatement.class);
+            selectStatement.close();
+
+            assertEquals(1, dataSource.getEvictionCount());
+            assertTrue(physicalPostStatement.isClosed());
+            assertFalse(physicalSelectStatement.isClosed());
+
+            connection.close();
+            assertTrue(physicalSelectStatement.isClosed());
+        }
+    }
+
+    @Test
+    public void testInvalidation() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_POST)) {
+                insertPost(statement, 1);
+            }
+
+            PreparedStatement failingStatement = connection.prepareStatement(INSERT_POST);
+            JDBCPreparedStatement physicalStatement = failingStatement.unwrap(JDBCPreparedStatement.class);
+            try {
+                insertPost(failingStatement, 1);
+                fail("Should throw a constraint violation");
+            } catch (SQLException expected) {
+            }
+            failingStatement.close();
+            assertTrue(physicalStatement.isClosed());
+
+            PreparedStatement nonPoolableStatement = connection.prepareStatement(INSERT_POST);
+            physicalStatement = nonPoolableStatement.unwrap(JDBCPreparedStatement.class);
+            nonPoolableStatement.setPoolable(false);
+            nonPoolableStatement.close();
+            assertTrue(physicalStatement.isClosed());
+        }
+        assertEquals(1, dataSource.getHitCount());
+        assertEquals(2, dataSource.getMissCount());
+    }
+
+    @Test
+    public void testSettingsAreRestored() throws SQLException {
+        try (Connection connection = dataSource.getConnection()) {
+            int defaultMaxRows;
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_POST)) {
+                defaultMaxRows = statement.getMaxRows();
+                statement.setMaxRows(1);
+                statement.setLong(1, 1);
+                statement.executeQuery();
+            }
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_POST)) {
+                assertEquals(defaultMaxRows, statement.getMaxRows());
+                try {
+                    statement.executeQuery();
+                    fail("The parameters should have been cleared");
+                } catch (SQLException expected) {
+                }
+            }
+        }
+    }
+
+    private void insertPost(PreparedStatement statement, long id) throws SQLException {
+        int index = 0;
+        statement.setString(++index, String.format("Post no. %1$d", id));
+        statement.setInt(++index, 0);
+        statement.setLong(++index, id);
+        statement.executeUpdate();
+    }
+}
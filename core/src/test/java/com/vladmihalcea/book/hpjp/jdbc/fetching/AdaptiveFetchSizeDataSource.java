@@ -0,0 +1,506 @@
+package com.vladmihalcea.book.hpjp.jdbc.fetching;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+
+import javax.sql.DataSource;
+import java.io.PrintWriter;
+import java.lang.reflect.InvocationHandler;
+import java.lang.reflect.InvocationTargetException;
+import java.lang.reflect.Method;
+import java.lang.reflect.Proxy;
+import java.sql.Connection;
+import java.sql.ResultSet;
+import java.sql.SQLException;
+import java.sql.SQLFeatureNotSupportedException;
+import java.sql.Statement;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentMap;
+import java.util.logging.Logger;
+
+/**
+ * AdaptiveFetchSizeDataSource - Learns the fetch size of every SQL query instead of sweeping
+ * fixed fetch sizes like the {@link ResultSetFetchSizeTest} does.
+ *
+ * For every query, the data source records the number of rows read from the result set, the average row size,
+ * estimated from the column values read on every {@code sampleInterval}-th row, the time the application
+ * spends on a row, and the round-trip time, taken from the statement execution and from the {@code next()}
+ * calls which cross a fetch boundary. The next executions use a fetch size which is large enough to bring
+ * all the expected rows in one round-trip, or at least to keep the round-trip time under the
+ * {@code maxRoundTripOverhead} fraction of the time spent on the fetched rows, but which never exceeds
+ * the {@code maxResultSetMemory} budget.
+ *
+ * An explicit {@link Statement#setFetchSize(int)} call disables the adaptive fetch size for that statement.
+ * The chosen fetch size is exposed as a {@code fetchSize} gauge per query, and at most {@code maxQueries}
+ * queries are tracked. Note that the fetch size is only a hint, which some drivers ignore, like the PostgreSQL
+ * driver in auto-commit mode, or the MySQL driver unless cursor-based fetching is enabled.
+ *
+ * @author Vlad Mihalcea
+ */
+public class AdaptiveFetchSizeDataSource implements DataSource {
+
+    private static final Class<?>[] CONNECTION_INTERFACES = {Connection.class};
+
+    private static final Class<?>[] RESULT_SET_INTERFACES = {ResultSet.class};
+
+    private static final double SMOOTHING_FACTOR = 0.3;
+
+    private final DataSource dataSource;
+
+    private final ConcurrentMap<String, QueryStatistics> queryStatistics = new ConcurrentHashMap<>();
+
+    private int minFetchSize = 10;
+
+    private int maxFetchSize = 10000;
+
+    private long maxResultSetMemory = 4 * 1024 * 1024;
+
+    private double maxRoundTripOverhead = 0.1;
+
+    private int sampleInterval = 16;
+
+    private int maxQueries = 1000;
+
+    private MetricRegistry metricRegistry;
+
+    private Meter roundTripsMeter;
+
+    public AdaptiveFetchSizeDataSource(DataSource dataSource) {
+        this.dataSource = dataSource;
+        metricRegistry(new MetricRegistry());
+    }
+
+    public AdaptiveFetchSizeDataSource fetchSize(int minFetchSize, int maxFetchSize) {
+        this.minFetchSize = Math.max(1, minFetchSize);
+        this.maxFetchSize = Math.max(this.minFetchSize, maxFetchSize);
+        return this;
+    }
+
+    public AdaptiveFetchSizeDataSource maxResultSetMemory(long maxResultSetMemory) {
+        this.maxResultSetMemory = maxResultSetMemory;
+        return this;
+    }
+
+    public AdaptiveFetchSizeDataSource maxRoundTripOverhead(double maxRoundTripOverhead) {
+        this.maxRoundTripOverhead = maxRoundTripOverhead;
+        return this;
+    }
+
+    public AdaptiveFetchSizeDataSource sampleInterval(int sampleInterval) {
+        this.sampleInterval = Math.max(1, sampleInterval);
+        return this;
+    }
+
+    public AdaptiveFetchSizeDataSource maxQueries(int maxQueries) {
+        this.maxQueries = maxQueries;
+        return this;
+    }
+
+    public AdaptiveFetchSizeDataSource metricRegistry(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+        this.roundTripsMeter = metricRegistry.meter(MetricRegistry.name(getClass(), "roundTrips"));
+        return this;
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return metricRegistry;
+    }
+
+    /**
+     * @param sql SQL query
+     * @return the fetch size chosen for the given query, or 0 if the driver default is used
+     */
+    public int getFetchSize(String sql) {
+        QueryStatistics statistics = queryStatistics.get(sql);
+        return statistics != null ? statistics.fetchSize : 0;
+    }
+
+    @Override
+    public Connection getConnection() throws SQLException {
+        return adaptiveConnection(dataSource.getConnection());
+    }
+
+    @Override
+    public Connection getConnection(String username, String password) throws SQLException {
+        return adaptiveConnection(dataSource.getConnection(username, password));
+    }
+
+    private Connection adaptiveConnection(Connection connection) {
+        ConnectionHandler handler = new ConnectionHandler(connection);
+        handler.proxy = (Connection) Proxy.newProxyInstance(getClass().getClassLoader(), CONNECTION_INTERFACES, handler);
+        return handler.proxy;
+    }
+
+    @Override
+    public PrintWriter getLogWriter() throws SQLException {
+        return dataSource.getLogWriter();
+    }
+
+    @Override
+    public void setLogWriter(PrintWriter out) throws SQLException {
+        dataSource.setLogWriter(out);
+    }
+
+    @Override
+    public void setLoginTimeout(int seconds) throws SQLException {
+        dataSource.setLoginTimeout(seconds);
+    }
+
+    @Override
+    public int getLoginTimeout() throws SQLException {
+        return dataSource.getLoginTimeout();
+    }
+
+    @Override
+    public Logger getParentLogger() throws SQLFeatureNotSupportedException {
+        return dataSource.getParentLogger();
+    }
+
+    @Override
+    @SuppressWarnings("unchecked")
+    public <T> T unwrap(Class<T> iface) throws SQLException {
+        return iface.isInstance(this) ? (T) this : dataSource.unwrap(iface);
+    }
+
+    @Override
+    public boolean isWrapperFor(Class<?> iface) throws SQLException {
+        return iface.isInstance(this) || dataSource.isWrapperFor(iface);
+    }
+
+    private QueryStatistics queryStatistics(String sql) {
+        QueryStatistics statistics = queryStatistics.get(sql);
+        if (statistics == null && queryStatistics.size() < maxQueries) {
+            statistics = queryStatistics.computeIfAbsent(sql, key -> {
+                QueryStatistics newStatistics = new QueryStatistics();
+                metricRegistry.register(
+                    MetricRegistry.name(getClass(), "fetchSize", key),
+                    (Gauge<Integer>) () -> newStatistics.fetchSize
+                );
+                return newStatistics;
+            });
+        }
+        return statistics;
+    }
+
+    private static Object invoke(Object target, Method method, Object[] args) throws Throwable {
+        try {
+            return method.invoke(target, args);
+        } catch (InvocationTargetException e) {
+            throw e.getCause();
+        }
+    }
+
+    private static int estimateSize(Object value) {
+        if (value == null) {
+            return 0;
+        }
+        if (value instanceof String) {
+            return 40 + 2 * ((String) value).length();
+        }
+        if (value instanceof byte[]) {
+            return 16 + ((byte[]) value).length;
+        }
+        return 16;
+    }
+
+    /**
+     * Exponentially weighted averages of the observed executions of a query.
+     */
+    private class QueryStatistics {
+
+        private volatile int fetchSize;
+
+        private long executionCount;
+
+        private double rowCount;
+
+        private double rowSize;
+
+        private double rowNanos;
+
+        private double roundTripNanos;
+
+        private synchronized void update(long rows, double rowSize, double rowNanos, double roundTripNanos) {
+            executionCount++;
+            this.rowCount = average(this.rowCount, rows);
+            this.rowSize = average(this.rowSize, rowSize);
+            this.rowNanos = average(this.rowNanos, rowNanos);
+            this.roundTripNanos = average(this.roundTripNanos, roundTripNanos);
+
+            long size = (long) Math.ceil(rowCount) + 1;
+            if (this.rowNanos > 0 && this.roundTripNanos > 0) {
+                size = Math.min(size, (long) Math.ceil(this.roundTripNanos / (this.rowNanos * maxRoundTripOverhead)));
+            }
+            size = Math.max(minFetchSize, Math.min(maxFetchSize, size));
+            if (this.rowSize > 0) {
+                size = Math.min(size, Math.max(1, (long) (maxResultSetMemory / this.rowSize)));
+            }
+            fetchSize = (int) size;
+        }
+
+        private double average(double average, double sample) {
+            if (sample < 0) {
+                return average;
+            }
+            return executionCount == 1 || average <= 0 ? sample : average + SMOOTHING_FACTOR * (sample - average);
+        }
+    }
+
+    private class ConnectionHandler implements InvocationHandler {
+
+        private final Connection connection;
+
+        private Connection proxy;
+
+        private ConnectionHandler(Connection connection) {
+            this.connection = connection;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "createStatement":
+                case "prepareStatement":
+                case "prepareCall":
+                    Statement statement = (Statement) AdaptiveFetchSizeDataSource.invoke(connection, method, args);
+                    StatementHandler handler = new StatementHandler(
+                        this, statement, method.getName().equals("createStatement") ? null : (String) args[0]
+                    );
+                    handler.proxy = (Statement) Proxy.newProxyInstance(
+                        AdaptiveFetchSizeDataSource.class.getClassLoader(), new Class<?>[]{method.getReturnType()}, handler
+                    );
+                    return handler.proxy;
+                case "unwrap":
+                    return ((Class<?>) args[0]).isInstance(proxy) ? proxy : connection.unwrap((Class<?>) args[0]);
+                case "isWrapperFor":
+                    return ((Class<?>) args[0]).isInstance(proxy) || connection.isWrapperFor((Class<?>) args[0]);
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return getClass().getSimpleName() + "[" + connection + "]";
+            }
+            return AdaptiveFetchSizeDataSource.invoke(connection, method, args);
+        }
+    }
+
+    private class StatementHandler implements InvocationHandler {
+
+        private final ConnectionHandler connectionHandler;
+
+        private final Statement statement;
+
+        private final String preparedSql;
+
+        private Statement proxy;
+
+        private boolean explicitFetchSize;
+
+        private String sql;
+
+        private long executeNanos;
+
+        private ResultSet resultSet;
+
+        private ResultSet resultSetProxy;
+
+        private StatementHandler(ConnectionHandler connectionHandler, Statement statement, String preparedSql) {
+            this.connectionHandler = connectionHandler;
+            this.statement = statement;
+            this.preparedSql = preparedSql;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            switch (method.getName()) {
+                case "setFetchSize":
+                    explicitFetchSize = true;
+                    break;
+                case "executeQuery":
+                    beforeExecute(args);
+                    long startNanos = System.nanoTime();
+                    ResultSet resultSet = (ResultSet) AdaptiveFetchSizeDataSource.invoke(statement, method, args);
+                    executeNanos = System.nanoTime() - startNanos;
+                    return resultSetProxy(resultSet);
+                case "execute":
+                    beforeExecute(args);
+                    startNanos = System.nanoTime();
+                    Object result = AdaptiveFetchSizeDataSource.invoke(statement, method, args);
+                    executeNanos = System.nanoTime() - startNanos;
+                    return result;
+                case "getResultSet":
+                    return resultSetProxy(statement.getResultSet());
+                case "getConnection":
+                    return connectionHandler.proxy;
+                case "unwrap":
+                    return ((Class<?>) args[0]).isInstance(proxy) ? proxy : statement.unwrap((Class<?>) args[0]);
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return getClass().getSimpleName() + "[" + statement + "]";
+            }
+            return AdaptiveFetchSizeDataSource.invoke(statement, method, args);
+        }
+
+        private void beforeExecute(Object[] args) throws SQLException {
+            sql = args != null && args.length > 0 ? (String) args[0] : preparedSql;
+            if (sql != null && !explicitFetchSize) {
+                int fetchSize = getFetchSize(sql);
+                if (fetchSize > 0) {
+                    statement.setFetchSize(fetchSize);
+                }
+            }
+        }
+
+        private ResultSet resultSetProxy(ResultSet resultSet) throws SQLException {
+            if (resultSet == null || sql == null || explicitFetchSize) {
+                return resultSet;
+            }
+            if (resultSet != this.resultSet) {
+                QueryStatistics statistics = queryStatistics(sql);
+                if (statistics == null) {
+                    return resultSet;
+                }
+                ResultSetHandler handler = new ResultSetHandler(
+                    proxy, resultSet, statistics, statement.getFetchSize(), executeNanos
+                );
+                this.resultSet = resultSet;
+                this.resultSetProxy = (ResultSet) Proxy.newProxyInstance(
+                    AdaptiveFetchSizeDataSource.class.getClassLoader(), RESULT_SET_INTERFACES, handler
+                );
+            }
+            return resultSetProxy;
+        }
+    }
+
+    private class ResultSetHandler implements InvocationHandler {
+
+        private final Statement statementProxy;
+
+        private final ResultSet resultSet;
+
+        private final QueryStatistics statistics;
+
+        private final int fetchSize;
+
+        private final long executeNanos;
+
+        private long rowCount;
+
+        private boolean recorded;
+
+        private boolean sizeSampling;
+
+        private long rowSize;
+
+        private long rowSizeSum;
+
+        private int rowSizeSamples;
+
+        private long rowStartNanos;
+
+        private long rowNanosSum;
+
+        private int rowNanosSamples;
+
+        private long roundTripNanosSum;
+
+        private int roundTrips;
+
+        private ResultSetHandler(Statement statementProxy, ResultSet resultSet, QueryStatistics statistics,
+                                 int fetchSize, long executeNanos) {
+            this.statementProxy = statementProxy;
+            this.resultSet = resultSet;
+            this.statistics = statistics;
+            this.fetchSize = fetchSize;
+            this.executeNanos = executeNanos;
+        }
+
+        @Override
+        public Object invoke(Object proxy, Method method, Object[] args) throws Throwable {
+            String methodName = method.getName();
+            switch (methodName) {
+                case "next":
+                    return next();
+                case "close":
+                    record();
+                    resultSet.close();
+                    return null;
+                case "getStatement":
+                    return statementProxy;
+                case "unwrap":
+                    return ((Class<?>) args[0]).isInstance(proxy) ? proxy : resultSet.unwrap((Class<?>) args[0]);
+                case "equals":
+                    return proxy == args[0];
+                case "hashCode":
+                    return System.identityHashCode(proxy);
+                case "toString":
+                    return getClass().getSimpleName() + "[" + resultSet + "]";
+            }
+            Object value = AdaptiveFetchSizeDataSource.invoke(resultSet, method, args);
+            if (sizeSampling && args != null && methodName.startsWith("get")
+                    && (args[0] instanceof Integer || args[0] instanceof String)) {
+                rowSize += estimateSize(value);
+            }
+            return value;
+        }
+
+        private boolean next() throws SQLException {
+            long index = rowCount;
+            boolean fetchBoundary = fetchSize > 0 && index > 0 && index % fetchSize == 0;
+            boolean rowSample = index % sampleInterval == 0 && !fetchBoundary;
+
+            long startNanos = rowStartNanos != 0 || fetchBoundary || rowSample ? System.nanoTime() : 0;
+            if (rowStartNanos != 0) {
+                rowNanosSum += startNanos - rowStartNanos;
+                rowNanosSamples++;
+                rowStartNanos = 0;
+            }
+            if (sizeSampling) {
+                rowSizeSum += rowSize;
+                rowSizeSamples++;
+                rowSize = 0;
+                sizeSampling = false;
+            }
+
+            boolean hasNext = resultSet.next();
+
+            if (fetchBoundary) {
+                roundTripNanosSum += System.nanoTime() - startNanos;
+                roundTrips++;
+                roundTripsMeter.mark();
+            } else if (rowSample) {
+                rowStartNanos = startNanos;
+            }
+            if (hasNext) {
+                rowCount++;
+                sizeSampling = rowSample;
+            } else {
+                rowStartNanos = 0;
+                record();
+            }
+            return hasNext;
+        }
+
+        private void record() {
+            if (recorded) {
+                return;
+            }
+            recorded = true;
+            if (sizeSampling) {
+                rowSizeSum += rowSize;
+                rowSizeSamples++;
+            }
+            statistics.update(
+                rowCount,
+                rowSizeSamples > 0 ? (double) rowSizeSum / rowSizeSamples : -1,
+                rowNanosSamples > 0 ? (double) rowNanosSum / rowNanosSamples : -1,
+                (double) (executeNanos + roundTripNanosSum) / (roundTrips + 1)
+            );
+        }
+    }
+}
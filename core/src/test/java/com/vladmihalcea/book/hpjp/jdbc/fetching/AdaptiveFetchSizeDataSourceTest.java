@@ -0,0 +1,146 @@
+package com.vladmihalcea.book.hpjp.jdbc.fetching;
+
+import com.codahale.metrics.Gauge;
+import com.codahale.metrics.Slf4jReporter;
+import com.vladmihalcea.book.hpjp.util.AbstractTest;
+import com.vladmihalcea.book.hpjp.util.providers.entity.BlogEntityProvider;
+import com.vladmihalcea.book.hpjp.util.providers.entity.BlogEntityProvider.Post;
+import org.junit.Test;
+
+import javax.sql.DataSource;
+import java.sql.PreparedStatement;
+import java.sql.ResultSet;
+import java.util.Map;
+
+import static org.junit.Assert.assertEquals;
+import static org.junit.Assert.assertTrue;
+
+/**
+ * @author Vlad Mihalcea
+ */
+public class AdaptiveFetchSizeDataSourceTest extends AbstractTest {
+
+    public static final String INSERT_POST = "insert into post (title, version, id) values (?, ?, ?)";
+
+    private static final String SELECT_POSTS = "select id, title, version from post order by id";
+
+    private static final String SELECT_POST = "select title from post where id = ?";
+
+    private final int postCount = 1000;
+
+    private final long maxResultSetMemory = 10 * 1024;
+
+    private AdaptiveFetchSizeDataSource adaptiveDataSource;
+
+    @Override
+    protected Class<?>[] entities() {
+        return BlogEntityProvider.INSTANCE.entities();
+    }
+
+    @Override
+    protected DataSource newDataSource() {
+        adaptiveDataSource = new AdaptiveFetchSizeDataSource(super.newDataSource())
+            .fetchSize(10, 10000)
+            .maxResultSetMemory(maxResultSetMemory)
+            .sampleInterval(4);
+        return adaptiveDataSource;
+    }
+
+    @Override
+    protected void afterInit() {
+        doInJDBC(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(INSERT_POST)) {
+                for (int i = 0; i < postCount; i++) {
+                    statement.setString(1, String.format("Post no. %1$d", i));
+                    statement.setInt(2, 0);
+                    statement.setLong(3, i);
+                    statement.addBatch();
+                }
+                statement.executeBatch();
+            }
+        });
+    }
+
+    @Test
+    public void testFetchSizeIsCappedByMemory() {
+        doInJDBC(connection -> {
+            for (int i = 0; i < 3; i++) {
+                try (PreparedStatement statement = connection.prepareStatement(SELECT_POSTS)) {
+                    int learnedFetchSize = adaptiveDataSource.getFetchSize(SELECT_POSTS);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        assertEquals(learnedFetchSize, statement.getFetchSize());
+                        int rowCount = 0;
+                        while (resultSet.next()) {
+                            resultSet.getLong(1);
+                            resultSet.getString(2);
+                            resultSet.getInt(3);
+                            rowCount++;
+                        }
+                        assertEquals(postCount, rowCount);
+                    }
+                }
+            }
+        });
+        int fetchSize = adaptiveDataSource.getFetchSize(SELECT_POSTS);
+        LOGGER.info("Fetch size for {} is {}", SELECT_POSTS, fetchSize);
+        assertTrue(fetchSize >= 10);
+        assertTrue(fetchSize < postCount);
+        assertTrue(fetchSize * 64 <= maxResultSetMemory);
+    }
+
+    @Test
+    public void testSmallResultSet() {
+        doInJDBC(connection -> {
+            for (int i = 0; i < 3; i++) {
+                try (PreparedStatement statement = connection.prepareStatement(SELECT_POST)) {
+                    statement.setLong(1, i);
+                    try (ResultSet resultSet = statement.executeQuery()) {
+                        assertTrue(resultSet.next());
+                        assertEquals(String.format("Post no. %1$d", i), resultSet.getString(1));
+                    }
+                }
+            }
+        });
+        assertEquals(10, adaptiveDataSource.getFetchSize(SELECT_POST));
+    }
+
+    @Test
+    public void testExplicitFetchSize() {
+        doInJDBC(connection -> {
+            try (PreparedStatement statement = connection.prepareStatement(SELECT_POSTS)) {
+                statement.setFetchSize(7);
+                try (ResultSet resultSet = statement.executeQuery()) {
+                    while (resultSet.next()) {
+                        resultSet.getLong(1);
+                    }
+                }
+                assertEquals(7, statement.getFetchSize());
+            }
+        });
+        assertEquals(0, adaptiveDataSource.getFetchSize(SELECT_POSTS));
+    }
+
+    @Test
+    public void testHibernateQuery() {
+        for (int i = 0; i < 2; i++) {
+            doInJPA(entityManager -> {
+                assertEquals(
+                    postCount,
+                    entityManager.createQuery("select p from Post p", Post.class).getResultList().size()
+                );
+            });
+        }
+
+        @SuppressWarnings("rawtypes")
+        Map<String, Gauge> gauges = adaptiveDataSource.getMetricRegistry().getGauges(
+            (name, metric) -> name.contains(".fetchSize.") && name.contains("from post ")
+        );
+        assertEquals(1, gauges.size());
+        assertTrue((Integer) gauges.values().iterator().next().getValue() > 0);
+
+        Slf4jReporter.forRegistry(adaptiveDataSource.getMetricRegistry())
+            .outputTo(LOGGER)
+            .build()
+            .report();
+    }
+}
@@ -0,0 +1,377 @@
+package com.vladmihalcea.book.hpjp.util.logging;
+
+import com.codahale.metrics.Counter;
+import com.codahale.metrics.Meter;
+import com.codahale.metrics.MetricRegistry;
+import net.ttddyy.dsproxy.ExecutionInfo;
+import net.ttddyy.dsproxy.QueryInfo;
+import net.ttddyy.dsproxy.StatementType;
+import net.ttddyy.dsproxy.listener.QueryExecutionListener;
+import org.slf4j.Logger;
+import org.slf4j.LoggerFactory;
+
+import java.io.Closeable;
+import java.util.ArrayList;
+import java.util.Comparator;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicLong;
+import java.util.concurrent.locks.LockSupport;
+
+/**
+ * AsyncQueryLoggingListener - Logs the executed statements like the {@link InlineQueryLogEntryCreator}
+ * and the {@link com.vladmihalcea.book.hpjp.hibernate.logging.LoggingStatementInspector} do, but without
+ * formatting anything on the thread which executes the statement.
+ * <p>
+ * The statement thread only copies the execution info and the {@link QueryInfo} references, which
+ * datasource-proxy creates for every execution, into a preallocated ring buffer slot. A background thread
+ * sorts the parameters, formats the log entry in a reusable {@link StringBuilder} and writes it.
+ * When the buffer is full, the statement is not logged and the {@code dropped} counter is incremented,
+ * so logging never blocks the statement thread.
+ * <p>
+ * Only one out of {@code sampleRate} successful statements is logged, while failed statements are always logged.
+ * If a package name prefix is set, the call site is captured as a {@link Throwable} whose stack trace is only
+ * resolved and filtered by the background thread, since filling in the stack trace is much cheaper than
+ * building the {@link StackTraceElement} array.
+ * <p>
+ * When there is nothing to log, the background thread yields a few times and then parks until a statement
+ * thread publishes a new entry and unparks it, so an idle listener does not keep polling the ring buffer.
+ *
+ * @author Vlad Mihalcea
+ */
+public class AsyncQueryLoggingListener implements QueryExecutionListener, Closeable {
+
+    public static final int DEFAULT_BUFFER_SIZE = 1024;
+
+    private static final int IDLE_YIELDS = 16;
+
+    private static final long FLUSH_PARK_NANOS = TimeUnit.MICROSECONDS.toNanos(100);
+
+    private static final Comparator<Map.Entry<String, Object>> PARAMETER_ORDER = Comparator
+        .comparingInt((Map.Entry<String, Object> entry) -> entry.getKey().length())
+        .thenComparing(Map.Entry::getKey);
+
+    private final Entry[] entries;
+
+    private final int mask;
+
+    private final AtomicLong claimSequence = new AtomicLong();
+
+    private volatile long consumedSequence;
+
+    private final Thread consumer;
+
+    private volatile boolean consumerParked;
+
+    private volatile boolean closed;
+
+    private Logger logger = LoggerFactory.getLogger(AsyncQueryLoggingListener.class);
+
+    private int sampleRate = 1;
+
+    private volatile String packageNamePrefix;
+
+    private MetricRegistry metricRegistry;
+
+    private Meter loggedMeter;
+
+    private Counter droppedCounter;
+
+    private final StringBuilder entryBuilder = new StringBuilder(1024);
+
+    private final List<Map.Entry<String, Object>> parameters = new ArrayList<>();
+
+    public AsyncQueryLoggingListener() {
+        this(DEFAULT_BUFFER_SIZE);
+    }
+
+    public AsyncQueryLoggingListener(int bufferSize) {
+        int capacity = Integer.highestOneBit(Math.max(1, bufferSize - 1)) << 1;
+        entries = new Entry[capacity];
+        for (int i = 0; i < capacity; i++) {
+            entries[i] = new Entry(i - capacity);
+        }
+        mask = capacity - 1;
+        metricRegistry(new MetricRegistry());
+        consumer = new Thread(this::consume, "async-query-logger");
+        consumer.setDaemon(true);
+        consumer.start();
+    }
+
+    public AsyncQueryLoggingListener loggerName(String loggerName) {
+        this.logger = LoggerFactory.getLogger(loggerName);
+        return this;
+    }
+
+    /**
+     * Log only one out of {@code sampleRate} successful statements, picked at random.
+     *
+     * @param sampleRate sample rate
+     * @return this listener
+     */
+    public AsyncQueryLoggingListener sampleRate(int sampleRate) {
+        if (sampleRate <= 0) {
+            throw new IllegalArgumentException("The sample rate must be positive!");
+        }
+        this.sampleRate = sampleRate;
+        return this;
+    }
+
+    /**
+     * Log the call site frames whose class package starts with the given prefix.
+     *
+     * @param packageNamePrefix package name prefix
+     * @return this listener
+     */
+    public AsyncQueryLoggingListener packageNamePrefix(String packageNamePrefix) {
+        this.packageNamePrefix = packageNamePrefix;
+        return this;
+    }
+
+    public AsyncQueryLoggingListener metricRegistry(MetricRegistry metricRegistry) {
+        this.metricRegistry = metricRegistry;
+        loggedMeter = metricRegistry.meter(MetricRegistry.name(AsyncQueryLoggingListener.class, "logged"));
+        droppedCounter = metricRegistry.counter(MetricRegistry.name(AsyncQueryLoggingListener.class, "dropped"));
+        return this;
+    }
+
+    public MetricRegistry getMetricRegistry() {
+        return metricRegistry;
+    }
+
+    public int getBufferSize() {
+        return entries.length;
+    }
+
+    @Override
+    public void beforeQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+    }
+
+    @Override
+    public void afterQuery(ExecutionInfo execInfo, List<QueryInfo> queryInfoList) {
+        if (closed || !logger.isDebugEnabled()) {
+            return;
+        }
+        if (execInfo.isSuccess() && sampleRate > 1 && ThreadLocalRandom.current().nextInt(sampleRate) != 0) {
+            return;
+        }
+        long sequence;
+        do {
+            sequence = claimSequence.get();
+            if (sequence - consumedSequence >= entries.length) {
+                droppedCounter.inc();
+                return;
+            }
+        } while (!claimSequence.compareAndSet(sequence, sequence + 1));
+
+        Entry entry = entries[(int) sequence & mask];
+        entry.dataSourceName = execInfo.getDataSourceName();
+        entry.elapsedTime = execInfo.getElapsedTime();
+        entry.success = execInfo.isSuccess();
+        entry.statementType = execInfo.getStatementType();
+        entry.batch = execInfo.isBatch();
+        entry.batchSize = execInfo.getBatchSize();
+        entry.queryInfoList = queryInfoList;
+        entry.threadName = Thread.currentThread().getName();
+        entry.callSite = packageNamePrefix != null ? new CallSite() : null;
+        entry.sequence = sequence;
+        if (consumerParked) {
+            LockSupport.unpark(consumer);
+        }
+    }
+
+    /**
+     * Wait until all the statements recorded so far are logged.
+     *
+     * @param timeout maximum time to wait
+     * @param unit timeout unit
+     * @return {@code true} if all the recorded statements were logged
+     */
+    public boolean flush(long timeout, TimeUnit unit) {
+        long targetSequence = claimSequence.get();
+        long deadline = System.nanoTime() + unit.toNanos(timeout);
+        while (consumedSequence < targetSequence) {
+            if (System.nanoTime() - deadline >= 0) {
+                return false;
+            }
+            LockSupport.parkNanos(FLUSH_PARK_NANOS);
+        }
+        return true;
+    }
+
+    /**
+     * Stop recording statements and wait for the background thread to log the recorded ones.
+     */
+    @Override
+    public void close() {
+        closed = true;
+        LockSupport.unpark(consumer);
+        try {
+            consumer.join(TimeUnit.SECONDS.toMillis(10));
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        }
+    }
+
+    /**
+     * Write the formatted log entry.
+     *
+     * @param entry log entry
+     */
+    protected void writeLog(String entry) {
+        logger.debug(entry);
+    }
+
+    private void consume() {
+        long sequence = 0;
+        int idleCount = 0;
+        while (true) {
+            Entry entry = entries[(int) sequence & mask];
+            if (entry.sequence == sequence) {
+                idleCount = 0;
+                try {
+                    writeLog(format(entry));
+                    loggedMeter.mark();
+                } catch (RuntimeException e) {
+                    logger.warn("Statement log entry could not be written", e);
+                }
+                entry.clear();
+                consumedSequence = ++sequence;
+            } else if (closed && claimSequence.get() == sequence) {
+                return;
+            } else if (idleCount++ < IDLE_YIELDS) {
+                Thread.yield();
+            } else {
+                // Announce the park before checking the slot again, so that a producer publishing
+                // in between either sees the flag and unparks us, or its entry is seen here.
+                consumerParked = true;
+                if (entry.sequence != sequence && !closed) {
+                    LockSupport.park(this);
+                }
+                consumerParked = false;
+            }
+        }
+    }
+
+    private String format(Entry entry) {
+        StringBuilder sb = entryBuilder;
+        sb.setLength(0);
+        sb.append("Name:").append(entry.dataSourceName)
+            .append(", Time:").append(entry.elapsedTime)
+            .append(", Success:").append(entry.success ? "True" : "False")
+            .append(", Type:").append(entry.statementType == StatementType.PREPARED ? "Prepared" :
+                entry.statementType == StatementType.CALLABLE ? "Callable" : "Statement")
+            .append(", Batch:").append(entry.batch ? "True" : "False")
+            .append(", QuerySize:").append(entry.queryInfoList.size())
+            .append(", BatchSize:").append(entry.batchSize)
+            .append(", Thread:").append(entry.threadName)
+            .append(", Query:[");
+        for (int i = 0; i < entry.queryInfoList.size(); i++) {
+            if (i > 0) {
+                sb.append(",");
+            }
+            sb.append('"').append(entry.queryInfoList.get(i).getQuery()).append('"');
+        }
+        sb.append("], Params:[");
+        boolean firstArg = true;
+        for (QueryInfo queryInfo : entry.queryInfoList) {
+            for (Map<String, Object> paramMap : queryInfo.getQueryArgsList()) {
+                if (!firstArg) {
+                    sb.append(", ");
+                } else {
+                    firstArg = false;
+                }
+                parameters.clear();
+                parameters.addAll(paramMap.entrySet());
+                parameters.sort(PARAMETER_ORDER);
+                sb.append("(");
+                for (int i = 0; i < parameters.size(); i++) {
+                    if (i > 0) {
+                        sb.append(", ");
+                    }
+                    Object parameter = parameters.get(i).getValue();
+                    if (parameter != null && parameter.getClass().isArray()) {
+                        sb.append(InlineQueryLogEntryCreator.arrayToString(parameter));
+                    } else {
+                        sb.append(parameter);
+                    }
+                }
+                sb.append(")");
+            }
+        }
+        sb.append("]");
+        parameters.clear();
+
+        String prefix = packageNamePrefix;
+        if (entry.callSite != null && prefix != null) {
+            boolean firstFrame = true;
+            for (StackTraceElement frame : entry.callSite.getStackTrace()) {
+                if (isCallSiteFrame(frame.getClassName(), prefix)) {
+                    sb.append(firstFrame ? " from " : " -> ");
+                    firstFrame = false;
+                    sb.append(frame);
+                }
+            }
+        }
+        return sb.toString();
+    }
+
+    /**
+     * The package name is taken from the frame class name, since loading the class would initialize it
+     * on the logging thread and fails for generated classes, like the reflection method accessors.
+     */
+    private boolean isCallSiteFrame(String className, String prefix) {
+        int packageNameLength = className.lastIndexOf('.');
+        return packageNameLength >= prefix.length() && className.startsWith(prefix);
+    }
+
+    /**
+     * Ring buffer slot, which is published to the background thread by writing its sequence.
+     */
+    private static class Entry {
+
+        private volatile long sequence;
+
+        private String dataSourceName;
+
+        private long elapsedTime;
+
+        private boolean success;
+
+        private StatementType statementType;
+
+        private boolean batch;
+
+        private int batchSize;
+
+        private List<QueryInfo> queryInfoList;
+
+        private String threadName;
+
+        private CallSite callSite;
+
+        private Entry(long sequence) {
+            this.sequence = sequence;
+        }
+
+        private void clear() {
+            dataSourceName = null;
+            statementType = null;
+            queryInfoList = null;
+            threadName = null;
+            callSite = null;
+        }
+    }
+
+    /**
+     * Captures the statement call stack, which is only resolved to {@link StackTraceElement} objects when logged.
+     */
+    private static class CallSite extends Throwable {
+
+        private CallSite() {
+            super(null, null, false, true);
+        }
+    }
+}